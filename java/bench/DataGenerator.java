@@ -0,0 +1,629 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates users.csv, catalog.csv, rentalorder.csv, gamesinorder.csv and
+ * trackinginfo.csv in exactly the layout of the bundled data/ set, at any
+ * size.
+ *
+ * Scale 1 matches the bundled set (500 users, 500 games, 3000 orders);
+ * every count scales linearly and can be set on its own.  The output is
+ * deterministic for a given seed and size, whatever the thread count.
+ *
+ * Referential integrity holds by construction: every order names an
+ * existing user and existing games, and has exactly one tracking row.
+ * The data is skewed the way a real store's is: game popularity and user
+ * activity follow Zipf distributions, most orders have one game, and
+ * order timestamps peak in the holiday season, in the evening and in
+ * later years.
+ *
+ * Nothing is kept per row.  Names, prices and logins are pure functions
+ * of their index, and orders are generated in fixed-size chunks on all
+ * cores and written in order, so memory use does not depend on the scale.
+ */
+public class DataGenerator {
+
+   public static final int BASE_USERS = 500;
+   public static final int BASE_GAMES = 500;
+   public static final long BASE_ORDERS = 3000;
+
+   // numbering of rental orders and tracking rows starts here, as in data/
+   public static final long FIRST_ID = 1000;
+
+   public static final int CHUNK_SIZE = 16 * 1024;
+
+   private static final String[] FIRST_NAMES = { "aaron", "amanda", "brandon", "brian", "carlos", "chloe",
+      "daniel", "david", "emily", "eric", "hannah", "jacob", "james", "jasmine", "jennifer", "jessica",
+      "justin", "katie", "kevin", "laura", "maria", "michael", "nicole", "olivia", "ryan", "sarah",
+      "scott", "tiffany", "whitney", "william" };
+   private static final String[] LAST_NAMES = { "allen", "best", "briggs", "brown", "davis", "garcia",
+      "haley", "henson", "hodge", "jackson", "johnson", "lee", "lopez", "martin", "miller", "moore",
+      "nguyen", "perez", "potts", "robinson", "smith", "taylor", "thomas", "walker", "watson", "white",
+      "williams", "wilson", "young", "bowen" };
+   private static final String[] TITLE_HEADS = { "Super", "Legend of", "Final", "Grand", "Call of", "Dark",
+      "Mega", "Star", "Dragon", "Shadow", "Crash", "Halo", "Mario", "Zelda", "Sonic", "Street",
+      "Metal", "Tomb", "Need for", "Battle" };
+   private static final String[] TITLE_TAILS = { "Kart", "Quest", "Fantasy", "Warfare", "Souls", "Racer",
+      "Fighter", "Party", "Odyssey", "Legends", "Heroes", "Chronicles", "Arena", "Tycoon", "Rush",
+      "Frontier", "Saga", "Speed", "Kingdom", "Island" };
+   private static final String[] GENRES = { "Action", "Shooter", "Platform", "Sports", "Role-Playing",
+      "Misc", "Racing", "Fighting", "Simulation", "Puzzle", "Adventure", "Strategy" };
+   // relative share of each genre, as in data/catalog.csv
+   private static final int[] GENRE_WEIGHTS = { 94, 75, 59, 57, 56, 43, 38, 29, 22, 11, 9, 7 };
+   private static final String[] PLATFORMS = { "2600", "3DS", "DS", "GB", "GBA", "GC", "GEN", "Multi", "N64",
+      "NES", "PC", "PS", "PS2", "PS3", "PS4", "PSP", "SNES", "Wii", "WiiU", "X360", "XB", "XOne" };
+   private static final String[] PUBLISHERS = { "Nintendo", "Electronic Arts", "Sony Computer Entertainment",
+      "Activision", "Ubisoft", "Microsoft Game Studios", "Take-Two Interactive", "THQ", "Capcom",
+      "Konami Digital Entertainment", "Sega", "Atari" };
+   private static final String[] STATUSES = { "Arrived at Facility", "Attempted Delivery", "Delayed",
+      "Delivered", "In Transit", "Out for Delivery", "Ready for Pickup", "Returned to Sender" };
+   private static final String[] COURIERS = { "DHL", "FedEx", "TNT", "UPS", "USPS" };
+   private static final String[] CITIES = { "Albuquerque,NM", "Atlanta,GA", "Austin,TX", "Baltimore,MD",
+      "Boston,MA", "Charlotte,NC", "Chicago,IL", "Columbus,OH", "Dallas,TX", "Denver,CO", "Detroit,MI",
+      "El Paso,TX", "Fresno,CA", "Houston,TX", "Indianapolis,IN", "Jacksonville,FL", "Kansas City,MO",
+      "Las Vegas,NV", "Los Angeles,CA", "Memphis,TN", "Miami,FL", "Milwaukee,WI", "Minneapolis,MN",
+      "Nashville,TN", "New York,NY", "Oakland,CA", "Omaha,NE", "Philadelphia,PA", "Phoenix,AZ",
+      "Portland,OR", "Riverside,CA", "Sacramento,CA", "San Antonio,TX", "San Diego,CA", "San Jose,CA",
+      "Seattle,WA", "Tucson,AZ", "Tulsa,OK", "Washington,DC", "Wichita,KS" };
+   // order volume by month (Jan..Dec) and by hour of day, relative
+   private static final double[] MONTH_WEIGHTS = { 0.6, 0.4, 0.4, 0.4, 0.45, 0.55, 0.65, 0.65, 0.45, 0.5, 0.8, 1.0 };
+   private static final double[] HOUR_WEIGHTS = { 0.3, 0.2, 0.1, 0.05, 0.05, 0.05, 0.1, 0.2, 0.3, 0.4, 0.45, 0.5,
+      0.55, 0.5, 0.5, 0.55, 0.6, 0.7, 0.85, 0.95, 1.0, 0.95, 0.8, 0.5 };
+
+   private static final long FROM_EPOCH_SECOND = LocalDateTime.of(2012, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+   private static final long TO_EPOCH_SECOND = LocalDateTime.of(2024, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+   private static final long RENTAL_DAYS = 30;
+
+   /**
+    * Draws ranks 1..n with probability proportional to 1/rank^exponent by
+    * rejection-inversion (Hormann and Derflinger), in constant memory.
+    */
+   static class Zipf {
+      private final long _n;
+      private final double _exponent;
+      private final double _hIntegralX1;
+      private final double _hIntegralN;
+      private final double _s;
+
+      Zipf(long n, double exponent) {
+         this._n = n;
+         this._exponent = exponent;
+         this._hIntegralX1 = hIntegral(1.5) - 1;
+         this._hIntegralN = hIntegral(n + 0.5);
+         this._s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+      }//end Zipf
+
+      /**
+       * @return a rank between 1 and n, rank 1 being the most likely
+       */
+      long sample(SplittableRandom rand) {
+         while (true) {
+            double u = this._hIntegralN + rand.nextDouble() * (this._hIntegralX1 - this._hIntegralN);
+            double x = hIntegralInverse(u);
+            long k = (long) (x + 0.5);
+            if (k < 1)
+               k = 1;
+            else if (k > this._n)
+               k = this._n;
+            if (k - x <= this._s || u >= hIntegral(k + 0.5) - h(k))
+               return k;
+         }//end while
+      }//end sample
+
+      private double h(double x) {
+         return Math.exp(-this._exponent * Math.log(x));
+      }
+
+      private double hIntegral(double x) {
+         double logX = Math.log(x);
+         return helper2((1 - this._exponent) * logX) * logX;
+      }
+
+      private double hIntegralInverse(double x) {
+         double t = x * (1 - this._exponent);
+         if (t < -1)
+            t = -1;
+         return Math.exp(helper1(t) * x);
+      }
+
+      // log1p(x) / x, accurate near 0
+      private static double helper1(double x) {
+         return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+      }
+
+      // expm1(x) / x, accurate near 0
+      private static double helper2(double x) {
+         return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+      }
+   }//end Zipf
+
+   /**
+    * One generated chunk of orders, ready to be written.
+    */
+   static class Chunk {
+      final StringBuilder orders = new StringBuilder();
+      final StringBuilder lines = new StringBuilder();
+      final StringBuilder tracking = new StringBuilder();
+      long lineCount = 0;
+   }//end Chunk
+
+   private final int _users;
+   private final int _games;
+   private final long _orders;
+   private final long _gameStride;
+   private final long _userStride;
+   private long _seed = 42;
+   private int _threads = Runtime.getRuntime().availableProcessors();
+   private double _gameSkew = 1.0;
+   private double _userSkew = 0.6;
+
+   public DataGenerator(int users, int games, long orders) {
+      if (users <= 0 || games <= 0 || orders < 0)
+         throw new IllegalArgumentException("need users > 0, games > 0 and orders >= 0");
+      this._users = users;
+      this._games = games;
+      this._orders = orders;
+      this._gameStride = stride(games);
+      this._userStride = stride(users);
+   }//end DataGenerator
+
+   /**
+    * @return a generator of the bundled set's size times the scale factor
+    */
+   public static DataGenerator scaled(double scale) {
+      return new DataGenerator((int) Math.max(1, Math.round(BASE_USERS * scale)),
+         (int) Math.max(1, Math.round(BASE_GAMES * scale)), Math.round(BASE_ORDERS * scale));
+   }//end scaled
+
+   /**
+    * Generates a data set of the given scale for a benchmark run.  With no
+    * directory the set goes into a fresh temporary directory; a directory
+    * named on the command line must not already hold CSV files, so a
+    * scaled run can never replace the bundled data set.
+    *
+    * @param dir the directory asked for with --data, or null
+    * @return the directory the set was written to
+    */
+   public static File generateInto(File dir, double scale) throws IOException, InterruptedException {
+      if (dir == null) {
+         dir = Files.createTempDirectory("gamerental-data").toFile();
+      } else {
+         File[] csvs = dir.listFiles((d, name) -> name.endsWith(".csv"));
+         if (csvs != null && csvs.length > 0)
+            throw new IOException(dir + " already holds CSV files, give --scale an empty or new --data directory");
+      }//end if
+      System.out.println(scaled(scale).generate(dir));
+      return dir;
+   }//end generateInto
+
+   /**
+    * @return the unscaled data set, from the gamerental.data.dir property
+    *         the scripts set, or data/ under the working directory
+    */
+   public static File bundledDir() {
+      return new File(System.getProperty("gamerental.data.dir", "data"));
+   }//end bundledDir
+
+   public void setSeed(long seed) {
+      this._seed = seed;
+   }
+
+   public void setThreads(int threads) {
+      this._threads = Math.max(1, threads);
+   }
+
+   /**
+    * @param gameSkew Zipf exponent of game popularity, 0 for uniform
+    */
+   public void setGameSkew(double gameSkew) {
+      this._gameSkew = gameSkew;
+   }
+
+   /**
+    * @param userSkew Zipf exponent of orders per user, 0 for uniform
+    */
+   public void setUserSkew(double userSkew) {
+      this._userSkew = userSkew;
+   }
+
+   /**
+    * Writes the five files into a directory, replacing existing ones.
+    *
+    * @return a one-line summary of what was written
+    */
+   public String generate(File dir) throws IOException, InterruptedException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("cannot create " + dir);
+      long start = System.nanoTime();
+      writeCatalog(new File(dir, "catalog.csv"));
+      writeUsers(new File(dir, "users.csv"));
+      long lines = writeOrders(dir);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      long rows = this._users + this._games + 2 * this._orders + lines;
+      return String.format("generated users=%d games=%d orders=%d gamesinorder=%d in %.1fs (%.0f rows/s)",
+         this._users, this._games, this._orders, lines, seconds, rows / seconds);
+   }//end generate
+
+   private void writeCatalog(File file) throws IOException {
+      try (Writer out = open(file)) {
+         out.write("\"gameID\",\"gameName\",\"genre\",\"price\",\"description\",\"imageURL\"\n");
+         StringBuilder sb = new StringBuilder(256);
+         for (int g = 1; g <= this._games; ++g) {
+            long h = mix(this._seed, 1, g);
+            sb.setLength(0);
+            quote(sb, gameID(g)).append(',');
+            quote(sb, gameName(g)).append(',');
+            quote(sb, GENRES[weighted(GENRE_WEIGHTS, h)]).append(',');
+            money(sb, priceCents(g)).append(',');
+            quote(sb, "Platform: " + PLATFORMS[(int) ((h >>> 24) % PLATFORMS.length)]
+               + ";  Publisher: " + PUBLISHERS[(int) ((h >>> 40) % PUBLISHERS.length)]).append(",\"\"\n");
+            out.append(sb);
+         }//end for
+      }//end try
+   }//end writeCatalog
+
+   private void writeUsers(File file) throws IOException {
+      Zipf popular = new Zipf(this._games, this._gameSkew);
+      SplittableRandom rand = new SplittableRandom(mix(this._seed, 2, 0));
+      try (Writer out = open(file)) {
+         out.write("\"login\",\"password\",\"role\",\"favGames\",\"phoneNumber\",\"numOverDueGames\"\n");
+         StringBuilder sb = new StringBuilder(256);
+         StringBuilder fav = new StringBuilder(128);
+         int[] favorites = new int[5];
+         for (int u = 1; u <= this._users; ++u) {
+            long h = mix(this._seed, 3, u);
+            int roll = (int) (h % 100);
+            String role = roll == 0 ? "manager" : roll < 4 ? "employee" : "customer";
+            fav.setLength(0);
+            int favCount = role.equals("customer") ? rand.nextInt(6) : 0;
+            for (int i = 0; i < favCount; ++i) {
+               int game = gameForRank(popular.sample(rand));
+               boolean dup = false;
+               for (int p = 0; p < i; ++p)
+                  dup |= favorites[p] == game;
+               if (dup)
+                  continue;
+               favorites[i] = game;
+               if (fav.length() > 0)
+                  fav.append(',');
+               fav.append(gameName(game));
+            }//end for
+            sb.setLength(0);
+            quote(sb, login(u)).append(',');
+            quote(sb, password(h)).append(',');
+            quote(sb, role).append(',');
+            quote(sb, fav.toString()).append(',');
+            quote(sb, String.format("+1-%03d-%03d-%04d", 201 + (h >>> 8) % 780, (h >>> 20) % 1000,
+               (h >>> 32) % 10000)).append(',');
+            sb.append(rand.nextInt(20) == 0 ? 1 + rand.nextInt(3) : 0).append('\n');
+            out.append(sb);
+         }//end for
+      }//end try
+   }//end writeUsers
+
+   /*
+    * Generates the orders in chunks on a thread pool and writes the
+    * chunks in order.  At most two chunks per thread are in flight.
+    */
+   private long writeOrders(File dir) throws IOException, InterruptedException {
+      long chunks = (this._orders + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      ExecutorService pool = Executors.newFixedThreadPool(this._threads, r -> {
+         Thread t = new Thread(r, "datagen");
+         t.setDaemon(true);
+         return t;
+      });
+      long lines = 0;
+      try (Writer orders = open(new File(dir, "rentalorder.csv"));
+           Writer gamesInOrder = open(new File(dir, "gamesinorder.csv"));
+           Writer tracking = open(new File(dir, "trackinginfo.csv"))) {
+         orders.write("\"rentalorderid\",\"login\",\"noOfGames\",\"totalprice\",\"orderTimestamp\",\"dueDate\"\n");
+         gamesInOrder.write("\"rentalorderid\",\"gameID\",\"unitsOrdered\"\n");
+         tracking.write("\"trackingID\",\"rentalorderid\",\"status\",\"currentLocation\",\"courierName\","
+            + "\"lastUpdateDate\",\"additionalComments\"\n");
+         ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+         for (long c = 0; c < chunks || !inFlight.isEmpty(); ) {
+            if (c < chunks && inFlight.size() < 2 * this._threads) {
+               final long first = c * CHUNK_SIZE;
+               final long count = Math.min(CHUNK_SIZE, this._orders - first);
+               inFlight.add(pool.submit(() -> chunk(first, count)));
+               ++c;
+               continue;
+            }//end if
+            Chunk done;
+            try {
+               done = inFlight.poll().get();
+            } catch (ExecutionException e) {
+               throw new IOException("generating orders failed: " + e.getCause(), e.getCause());
+            }//end try
+            orders.append(done.orders);
+            gamesInOrder.append(done.lines);
+            tracking.append(done.tracking);
+            lines += done.lineCount;
+         }//end for
+      } finally {
+         pool.shutdownNow();
+      }//end try
+      return lines;
+   }//end writeOrders
+
+   /*
+    * Generates orders first .. first + count - 1.  The chunk's random
+    * stream depends only on the seed and its position.
+    */
+   Chunk chunk(long first, long count) {
+      SplittableRandom rand = new SplittableRandom(mix(this._seed, 4, first));
+      Zipf games = new Zipf(this._games, this._gameSkew);
+      Zipf users = new Zipf(this._users, this._userSkew);
+      Chunk chunk = new Chunk();
+      int[] picked = new int[5];
+      int[] units = new int[5];
+      for (long i = first; i < first + count; ++i) {
+         String orderID = "gamerentalorder" + (FIRST_ID + i);
+         int user = userForRank(users.sample(rand));
+         // mostly one game, rarely up to five
+         int lineCount = 1;
+         while (lineCount < picked.length && rand.nextInt(4) == 0)
+            ++lineCount;
+         lineCount = Math.min(lineCount, this._games);
+         int noOfGames = 0;
+         long totalCents = 0;
+         for (int l = 0; l < lineCount; ++l) {
+            int game;
+            boolean dup;
+            do {
+               game = gameForRank(games.sample(rand));
+               dup = false;
+               for (int p = 0; p < l; ++p)
+                  dup |= picked[p] == game;
+            } while (dup);
+            picked[l] = game;
+            units[l] = 1 + rand.nextInt(5);
+            noOfGames += units[l];
+            totalCents += priceCents(game) * units[l];
+         }//end for
+         long ordered = timestamp(rand);
+
+         StringBuilder o = chunk.orders;
+         quote(o, orderID).append(',');
+         quote(o, login(user)).append(',');
+         o.append(noOfGames).append(',');
+         money(o, totalCents).append(",\"");
+         dateTime(o, ordered).append("\",\"");
+         date(o, ordered + RENTAL_DAYS * 86400).append("\"\n");
+
+         for (int l = 0; l < lineCount; ++l) {
+            StringBuilder g = chunk.lines;
+            quote(g, orderID).append(',');
+            quote(g, gameID(picked[l])).append(',');
+            g.append(units[l]).append('\n');
+         }//end for
+         chunk.lineCount += lineCount;
+
+         StringBuilder t = chunk.tracking;
+         quote(t, "trackingid" + (FIRST_ID + i)).append(',');
+         quote(t, orderID).append(',');
+         quote(t, STATUSES[rand.nextInt(STATUSES.length)]).append(',');
+         quote(t, CITIES[rand.nextInt(CITIES.length)]).append(',');
+         quote(t, COURIERS[rand.nextInt(COURIERS.length)]).append(",\"");
+         dateTime(t, ordered + (1 + rand.nextInt(5)) * 86400L).append("\",\"\"\n");
+      }//end for
+      return chunk;
+   }//end chunk
+
+   /*
+    * Draws an order time: uniform over the years, thinned by month, hour
+    * and a steady growth of the business.
+    */
+   private static long timestamp(SplittableRandom rand) {
+      long span = TO_EPOCH_SECOND - FROM_EPOCH_SECOND;
+      while (true) {
+         long t = FROM_EPOCH_SECOND + (long) (rand.nextDouble() * span);
+         LocalDateTime d = LocalDateTime.ofEpochSecond(t, 0, ZoneOffset.UTC);
+         double growth = 0.4 + 0.6 * (t - FROM_EPOCH_SECOND) / span;
+         double weight = MONTH_WEIGHTS[d.getMonthValue() - 1] * HOUR_WEIGHTS[d.getHour()] * growth;
+         if (rand.nextDouble() < weight)
+            return t;
+      }//end while
+   }//end timestamp
+
+   // popularity rank to game number; spreads the hits over the ID range
+   private int gameForRank(long rank) {
+      return 1 + (int) permute(rank - 1, this._games, this._gameStride, mix(this._seed, 5, 0));
+   }
+
+   private int userForRank(long rank) {
+      return 1 + (int) permute(rank - 1, this._users, this._userStride, mix(this._seed, 5, 1));
+   }
+
+   /*
+    * A bijection of 0..n-1: an affine map whose stride is coprime to n.
+    */
+   private static long permute(long i, long n, long stride, long offset) {
+      return (stride * i + offset % n) % n;
+   }
+
+   private static long stride(long n) {
+      long a = 0x9E3779B1L % n;
+      if (a == 0)
+         a = 1;
+      while (gcd(a, n) != 1)
+         ++a;
+      return a;
+   }//end stride
+
+   private static long gcd(long a, long b) {
+      while (b != 0) {
+         long t = a % b;
+         a = b;
+         b = t;
+      }//end while
+      return a;
+   }//end gcd
+
+   static String gameID(int game) {
+      return String.format("game%04d", game);
+   }
+
+   private String gameName(int game) {
+      long h = mix(this._seed, 6, game);
+      String name = TITLE_HEADS[(int) (h % TITLE_HEADS.length)] + " " + TITLE_TAILS[(int) ((h >>> 16) % TITLE_TAILS.length)];
+      long sequel = (h >>> 32) % 6;
+      return sequel >= 2 ? name + " " + sequel : name;
+   }//end gameName
+
+   // prices from 15.99 to 50.99, as in data/catalog.csv
+   private long priceCents(int game) {
+      return (15 + mix(this._seed, 7, game) % 36) * 100 + 99;
+   }
+
+   private String login(int user) {
+      long h = mix(this._seed, 8, user);
+      return FIRST_NAMES[(int) (h % FIRST_NAMES.length)] + LAST_NAMES[(int) ((h >>> 16) % LAST_NAMES.length)] + user;
+   }//end login
+
+   private static String password(long h) {
+      String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+      char[] p = new char[9 + (int) (h >>> 60) % 2];
+      long x = h;
+      for (int i = 0; i < p.length; ++i) {
+         x = mix(x, 9, i);
+         p[i] = alphabet.charAt((int) ((x >>> 1) % alphabet.length()));
+      }//end for
+      return new String(p);
+   }//end password
+
+   private static int weighted(int[] weights, long h) {
+      int total = 0;
+      for (int w : weights)
+         total += w;
+      long pick = (h >>> 1) % total;
+      for (int i = 0; i < weights.length; ++i) {
+         pick -= weights[i];
+         if (pick < 0)
+            return i;
+      }//end for
+      return weights.length - 1;
+   }//end weighted
+
+   /*
+    * SplitMix64 finalizer over (seed, stream, index): the same inputs
+    * always give the same well-mixed value.
+    */
+   static long mix(long seed, long stream, long index) {
+      long z = seed * 0x9E3779B97F4A7C15L + stream * 0xBF58476D1CE4E5B9L + index * 0x94D049BB133111EBL;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return (z ^ (z >>> 31)) & Long.MAX_VALUE;
+   }//end mix
+
+   private static StringBuilder quote(StringBuilder sb, String value) {
+      sb.append('"');
+      for (int i = 0; i < value.length(); ++i) {
+         char c = value.charAt(i);
+         if (c == '"')
+            sb.append('"');
+         sb.append(c);
+      }//end for
+      return sb.append('"');
+   }//end quote
+
+   // 4499 -> 44.99, 44490 -> 444.9, as the bundled files print prices
+   private static StringBuilder money(StringBuilder sb, long cents) {
+      return sb.append(BigDecimal.valueOf(cents, 2).stripTrailingZeros().toPlainString());
+   }
+
+   private static StringBuilder dateTime(StringBuilder sb, long epochSecond) {
+      LocalDateTime d = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+      date(sb, epochSecond).append(' ');
+      pad(sb, d.getHour()).append(':');
+      pad(sb, d.getMinute()).append(':');
+      return pad(sb, d.getSecond());
+   }//end dateTime
+
+   private static StringBuilder date(StringBuilder sb, long epochSecond) {
+      LocalDateTime d = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+      sb.append(d.getYear()).append('-');
+      pad(sb, d.getMonthValue()).append('-');
+      return pad(sb, d.getDayOfMonth());
+   }//end date
+
+   private static StringBuilder pad(StringBuilder sb, int v) {
+      if (v < 10)
+         sb.append('0');
+      return sb.append(v);
+   }
+
+   private static Writer open(File file) throws IOException {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 20);
+   }
+
+   /**
+    * Usage: DataGenerator outDir [--scale f] [--users n] [--games n]
+    *        [--orders n] [--seed n] [--threads n] [--game-skew s]
+    *        [--user-skew s]
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.err.println("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName()
+            + " <outDir> [--scale <f>] [--users <n>] [--games <n>] [--orders <n>] [--seed <n>]"
+            + " [--threads <n>] [--game-skew <s>] [--user-skew <s>]");
+         return;
+      }//end if
+
+      double scale = 1;
+      Integer users = null;
+      Integer games = null;
+      Long orders = null;
+      Long seed = null;
+      Integer threads = null;
+      Double gameSkew = null;
+      Double userSkew = null;
+      for (int i = 1; i + 1 < args.length; i += 2) {
+         String v = args[i + 1];
+         switch (args[i]) {
+            case "--scale": scale = Double.parseDouble(v); break;
+            case "--users": users = Integer.parseInt(v); break;
+            case "--games": games = Integer.parseInt(v); break;
+            case "--orders": orders = Long.parseLong(v); break;
+            case "--seed": seed = Long.parseLong(v); break;
+            case "--threads": threads = Integer.parseInt(v); break;
+            case "--game-skew": gameSkew = Double.parseDouble(v); break;
+            case "--user-skew": userSkew = Double.parseDouble(v); break;
+            default: System.err.println("Unknown option " + args[i]); return;
+         }//end switch
+      }//end for
+
+      try {
+         DataGenerator base = scaled(scale);
+         DataGenerator gen = new DataGenerator(users != null ? users : base._users,
+            games != null ? games : base._games, orders != null ? orders : base._orders);
+         if (seed != null)
+            gen.setSeed(seed);
+         if (threads != null)
+            gen.setThreads(threads);
+         if (gameSkew != null)
+            gen.setGameSkew(gameSkew);
+         if (userSkew != null)
+            gen.setUserSkew(userSkew);
+         System.out.println(gen.generate(new File(args[0])));
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }//end try
+   }//end main
+
+}//end DataGenerator
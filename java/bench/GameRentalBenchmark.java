@@ -0,0 +1,330 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency benchmark for the GameRental data-access hot
+ * paths: LogIn, placeOrder, viewCatalog and viewRecentOrders.
+ *
+ * Each operation is run for a warmup period and then a measured period at
+ * every requested thread count.  Every thread records into its own
+ * LatencyHistogram and the histograms are merged at the end of the run.
+ * Results are printed as a table and, with --out, appended to a file as
+ * one JSON object per line so runs of different releases can be diffed.
+ *
+ * With --seed the database is recreated from the sql/ scripts and loaded
+ * with BulkLoader from --data (the bundled data/ by default, or a scaled-up
+ * set).  Adding --scale first generates a data set of that scale factor
+ * with DataGenerator, into a temporary directory, or into --data if given
+ * as long as that directory holds no CSV files yet.
+ * Seeding drops every table first, so only point it at a scratch database.
+ * Seeded games get --units copies each (a million by default) so the
+ * placeOrder runs never sell out.
+ *
+ * placeOrderGrouped places the same orders as placeOrder through the
+ * OrderPipeline, so the two rows compare one commit per order with group
+ * commit at each thread count.
+ *
+ * hotGame is the contention test: every thread orders one copy of the
+ * same game, of which only --hot-stock copies exist, and returns it at
+ * once.  Run it with --threads 1,16,64.  Orders refused because the game
+ * is sold out are counted under "sold out", not as errors.
+ */
+public class GameRentalBenchmark {
+
+   /**
+    * One benchmarked operation, run repeatedly from many threads.
+    */
+   interface Operation {
+      void run(ThreadLocalRandom rand) throws SQLException;
+   }//end Operation
+
+   private final GameRental _esql;
+   private final List<String[]> _users = new ArrayList<String[]>();
+   private final List<String> _games = new ArrayList<String>();
+   private final List<String> _genres = new ArrayList<String>();
+   private final AtomicLong _soldOut = new AtomicLong();
+
+   GameRentalBenchmark(GameRental esql, File dataDir) throws IOException {
+      this._esql = esql;
+      try (CsvReader csv = new CsvReader(new FileReader(new File(dataDir, "users.csv")))) {
+         csv.next();
+         for (String[] r = csv.next(); r != null; r = csv.next())
+            this._users.add(new String[] { r[0], r[1] });
+      }//end try
+      try (CsvReader csv = new CsvReader(new FileReader(new File(dataDir, "catalog.csv")))) {
+         csv.next();
+         for (String[] r = csv.next(); r != null; r = csv.next()) {
+            this._games.add(r[0]);
+            if (!this._genres.contains(r[2]))
+               this._genres.add(r[2]);
+         }//end for
+      }//end try
+   }//end GameRentalBenchmark
+
+   /**
+    * @return the benchmarked operations by name
+    */
+   Map<String, Operation> operations() {
+      Map<String, Operation> ops = new LinkedHashMap<String, Operation>();
+      ops.put("login", rand -> {
+         String[] user = pick(this._users, rand);
+         Session session = this._esql.getSessions().logIn(user[0], user[1]);
+         if (session == null)
+            throw new SQLException("login failed for " + user[0]);
+         this._esql.getSessions().logOut(session);
+      });
+      ops.put("viewCatalog", rand -> {
+         if (rand.nextBoolean())
+            this._esql.getCatalog().byGenre(pick(this._genres, rand));
+         else
+            this._esql.getCatalog().cheaperThan(5 + rand.nextInt(60), rand.nextBoolean());
+      });
+      ops.put("viewRecentOrders", rand ->
+         this._esql.getHistory().firstPage(pick(this._users, rand)[0], 5));
+      ops.put("placeOrder", rand -> {
+         RentalCart cart = new RentalCart();
+         int lines = 1 + rand.nextInt(3);
+         for (int i = 0; i < lines; ++i)
+            cart.add(pick(this._games, rand), 1 + rand.nextInt(3));
+         this._esql.getOrders().placeOrder(pick(this._users, rand)[0], cart);
+      });
+      ops.put("placeOrderGrouped", rand -> {
+         RentalCart cart = new RentalCart();
+         int lines = 1 + rand.nextInt(3);
+         for (int i = 0; i < lines; ++i)
+            cart.add(pick(this._games, rand), 1 + rand.nextInt(3));
+         this._esql.getOrderPipeline().place(pick(this._users, rand)[0], cart);
+      });
+      ops.put("hotGame", rand -> {
+         RentalCart cart = new RentalCart();
+         cart.add(hotGame(), 1);
+         try {
+            RentalOrderService.Receipt r = this._esql.getOrders().placeOrder(pick(this._users, rand)[0], cart);
+            this._esql.getInventory().returnOrder(r.orderID);
+         } catch (Inventory.OutOfStockException e) {
+            this._soldOut.incrementAndGet();
+         }//end try
+      });
+      return ops;
+   }//end operations
+
+   /**
+    * @return the game every hotGame thread orders
+    */
+   String hotGame() {
+      return this._games.get(0);
+   }
+
+   /**
+    * Runs one operation from the given number of threads.
+    *
+    * @return name/value pairs describing the measured period
+    */
+   Map<String, Object> run(String name, final Operation op, int threads, long warmupMillis, long measureMillis)
+         throws InterruptedException {
+      final AtomicBoolean measuring = new AtomicBoolean(false);
+      final AtomicBoolean stop = new AtomicBoolean(false);
+      final AtomicLong errors = new AtomicLong();
+      final LatencyHistogram[] histograms = new LatencyHistogram[threads];
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         final LatencyHistogram h = histograms[t] = new LatencyHistogram();
+         workers[t] = new Thread(() -> {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            while (!stop.get()) {
+               boolean counted = measuring.get();
+               long start = System.nanoTime();
+               try {
+                  op.run(rand);
+               } catch (Exception e) {
+                  if (counted)
+                     errors.incrementAndGet();
+               }//end try
+               if (counted)
+                  h.record(System.nanoTime() - start);
+            }//end while
+         }, "bench-" + name + "-" + t);
+         workers[t].start();
+      }//end for
+
+      Thread.sleep(warmupMillis);
+      measuring.set(true);
+      long soldOut = this._soldOut.get();
+      long start = System.nanoTime();
+      Thread.sleep(measureMillis);
+      measuring.set(false);
+      long elapsed = System.nanoTime() - start;
+      soldOut = this._soldOut.get() - soldOut;
+      stop.set(true);
+      for (Thread w : workers)
+         w.join();
+
+      LatencyHistogram all = new LatencyHistogram();
+      for (LatencyHistogram h : histograms)
+         all.add(h);
+
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("operation", name);
+      result.put("threads", threads);
+      result.put("ops", all.count());
+      result.put("errors", errors.get());
+      result.put("soldOut", soldOut);
+      result.put("seconds", elapsed / 1e9);
+      result.put("opsPerSec", all.count() * 1e9 / elapsed);
+      result.put("meanUs", all.mean() / 1e3);
+      result.put("p50Us", all.percentile(50) / 1e3);
+      result.put("p90Us", all.percentile(90) / 1e3);
+      result.put("p99Us", all.percentile(99) / 1e3);
+      result.put("p999Us", all.percentile(99.9) / 1e3);
+      result.put("maxUs", all.max() / 1e3);
+      return result;
+   }//end run
+
+   static String toJson(Map<String, Object> values) {
+      StringBuilder sb = new StringBuilder("{");
+      for (Map.Entry<String, Object> e : values.entrySet()) {
+         if (sb.length() > 1)
+            sb.append(',');
+         sb.append('"').append(e.getKey()).append("\":");
+         Object v = e.getValue();
+         if (v instanceof String)
+            sb.append('"').append(v).append('"');
+         else if (v instanceof Double)
+            sb.append(String.format("%.3f", (Double) v));
+         else
+            sb.append(v);
+      }//end for
+      return sb.append('}').toString();
+   }//end toJson
+
+   private static <T> T pick(List<T> list, ThreadLocalRandom rand) {
+      return list.get(rand.nextInt(list.size()));
+   }
+
+   /**
+    * Usage: GameRentalBenchmark dbname port user [--data dir] [--seed sqlDir]
+    *        [--scale f] [--ops login,viewCatalog,...] [--threads 1,4,16]
+    *        [--warmup seconds] [--time seconds] [--out file]
+    *        [--units n] [--hot-stock n]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + GameRentalBenchmark.class.getName()
+            + " <dbname> <port> <user> [--data <dir>] [--seed <sqlDir>] [--scale <f>] [--ops <op,...>]"
+            + " [--threads <n,...>] [--warmup <s>] [--time <s>] [--out <file>]"
+            + " [--units <n>] [--hot-stock <n>]");
+         return;
+      }//end if
+
+      File dataDir = null;
+      File seedSchema = null;
+      double scale = 0;
+      String ops = null;
+      String threadList = "1,4,16";
+      long warmup = 5;
+      long time = 10;
+      File out = null;
+      int units = 1000000;
+      int hotStock = 32;
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         String v = args[i + 1];
+         switch (args[i]) {
+            case "--data": dataDir = new File(v); break;
+            case "--seed": seedSchema = new File(v); break;
+            case "--scale": scale = Double.parseDouble(v); break;
+            case "--ops": ops = v; break;
+            case "--threads": threadList = v; break;
+            case "--warmup": warmup = Long.parseLong(v); break;
+            case "--time": time = Long.parseLong(v); break;
+            case "--out": out = new File(v); break;
+            case "--units": units = Integer.parseInt(v); break;
+            case "--hot-stock": hotStock = Integer.parseInt(v); break;
+            default: System.err.println("Unknown option " + args[i]); return;
+         }//end switch
+      }//end for
+
+      if (scale > 0 && seedSchema == null) {
+         System.err.println("--scale needs --seed");
+         return;
+      }//end if
+
+      int maxThreads = 1;
+      for (String t : threadList.split(","))
+         maxThreads = Math.max(maxThreads, Integer.parseInt(t.trim()));
+      if (System.getProperty("gamerental.pool.max") == null)
+         System.setProperty("gamerental.pool.max", Integer.toString(maxThreads));
+
+      GameRental esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         if (scale > 0)
+            dataDir = DataGenerator.generateInto(dataDir, scale);
+         else if (dataDir == null)
+            dataDir = DataGenerator.bundledDir();
+         if (seedSchema != null) {
+            BulkLoader.runScript(esql, new File(seedSchema, "create_tables.sql"));
+            BulkLoader.runScript(esql, new File(seedSchema, "create_indexes.sql"));
+            BulkLoader loader = new BulkLoader(esql, dataDir);
+            loader.setDeferIndexes(true);
+            loader.setUnitsPerGame(units);
+            for (BulkLoader.Result r : loader.load())
+               System.out.println(r);
+         }//end if
+
+         GameRentalBenchmark bench = new GameRentalBenchmark(esql, dataDir);
+         Map<String, Operation> all = bench.operations();
+         List<String> selected = new ArrayList<String>(all.keySet());
+         if (ops != null) {
+            selected.clear();
+            for (String op : ops.split(","))
+               selected.add(op.trim());
+         }//end if
+
+         System.out.printf("%-18s %7s %10s %12s %10s %10s %10s %10s %10s %10s%n",
+            "operation", "threads", "ops", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "errors", "sold out");
+         PrintWriter json = out == null ? null : new PrintWriter(new FileWriter(out, true));
+         try {
+            for (String name : selected) {
+               Operation op = all.get(name);
+               if (op == null) {
+                  System.err.println("Unknown operation " + name);
+                  continue;
+               }//end if
+               if (name.equals("hotGame"))
+                  esql.getInventory().setUnitsOwned(bench.hotGame(), hotStock);
+               for (String t : threadList.split(",")) {
+                  Map<String, Object> r = bench.run(name, op, Integer.parseInt(t.trim()), warmup * 1000, time * 1000);
+                  System.out.printf("%-18s %7d %10d %12.1f %10.1f %10.1f %10.1f %10.1f %10d %10d%n",
+                     r.get("operation"), r.get("threads"), r.get("ops"), r.get("opsPerSec"), r.get("p50Us"),
+                     r.get("p99Us"), r.get("p999Us"), r.get("maxUs"), r.get("errors"), r.get("soldOut"));
+                  if (json != null) {
+                     json.println(toJson(r));
+                     json.flush();
+                  }//end if
+               }//end for
+            }//end for
+         } finally {
+            if (json != null)
+               json.close();
+         }//end try
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end GameRentalBenchmark
@@ -0,0 +1,501 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Query plan regression check for every QueryShape.
+ *
+ * Each shape is run under EXPLAIN (ANALYZE, BUFFERS) with sample
+ * parameters taken from the loaded data, in a transaction of its own
+ * that is rolled back, so the write shapes leave nothing behind.  Every
+ * shape is explained twice:
+ *
+ *  - --runs times as the planner chooses; the median execution time and
+ *    the shared buffers the plan touched are reported, and
+ *  - once with enable_seqscan off.  The planner then only scans a whole
+ *    table when no index can serve the shape, so a Seq Scan left in that
+ *    plan, or an Index Scan without an Index Cond, fails the check.  On
+ *    a small data set the first plan may still pick a Seq Scan of a tiny
+ *    table, which is fine; this one catches the missing index anyway.
+ *
+ * Shapes that read a whole table by design (the cache loads, the
+ * overdue recompute, ...) are listed in FULL_SCANS and are exempt.
+ *
+ * With --baseline, a previous --out file, a shape also fails when its
+ * median time grew by more than --threshold (a fraction, 0.5 by default)
+ * and by more than --floor-ms, or its buffers grew by more than the
+ * threshold.  Buffers do not depend on the machine or the cache, so they
+ * are the steadier signal of the two.
+ *
+ * With --seed the database is recreated and loaded from --data, the
+ * bundled data/ by default.  --scale generates a scaled set the same way
+ * GameRentalBenchmark does, never over a directory that holds CSV files.
+ *
+ * A shape without sample parameters fails too, so a new QueryShape has
+ * to be added to params() before the check passes again.  The exit
+ * status is 1 when any shape failed.
+ */
+public class PlanCheck {
+
+   // shapes that read a whole relation on purpose
+   static final Set<QueryShape> FULL_SCANS = EnumSet.of(
+      QueryShape.FAVORITES_ALL, QueryShape.MIGRATE_FAVORITES, QueryShape.CATALOG_ALL,
+      QueryShape.INVENTORY_ALL, QueryShape.STOCK_CATALOG, QueryShape.OVERDUE_RECOMPUTE,
+      QueryShape.RECOMMENDER_LINES, QueryShape.ARCHIVED_MONTHS, QueryShape.OVERDUE_WATERMARK);
+
+   private static final Pattern EXECUTION_TIME = Pattern.compile("(?:Execution Time|Total runtime): ([0-9.]+) ms");
+   private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+   private static final Pattern SCAN_TABLE = Pattern.compile(" on (\\S+)");
+
+   /**
+    * What one EXPLAIN ANALYZE printed.
+    */
+   static class Plan {
+      final List<String> lines = new ArrayList<String>();
+      double millis = 0;
+      long buffers = 0;
+      // tables read from end to end, "t" for a Seq Scan and "t (index)" for an unbounded index scan
+      final List<String> fullScans = new ArrayList<String>();
+
+      /*
+       * Reads the node lines of a text plan.  A scan node's details are
+       * the indented lines up to the next node.
+       */
+      static Plan parse(List<String> text) {
+         Plan p = new Plan();
+         p.lines.addAll(text);
+         String scan = null;
+         boolean cond = false;
+         boolean planning = false;
+         for (int i = 0; i < text.size(); ++i) {
+            String t = text.get(i).trim();
+            boolean node = i == 0 || t.startsWith("->");
+            if (node || t.startsWith("Planning") || t.startsWith("Execution") || t.startsWith("Total runtime")) {
+               p.closeScan(scan, cond);
+               scan = null;
+               cond = false;
+            }//end if
+            if (t.startsWith("Planning"))
+               planning = true;
+            if (node) {
+               String name = t.startsWith("->") ? t.substring(2).trim() : t;
+               int cost = name.indexOf("  (");
+               if (cost >= 0)
+                  name = name.substring(0, cost);
+               if (name.startsWith("Seq Scan") || name.startsWith("Parallel Seq Scan")
+                     || name.startsWith("Index Scan") || name.startsWith("Index Only Scan"))
+                  scan = name;
+            } else if (t.startsWith("Index Cond:")) {
+               cond = true;
+            }//end if
+            Matcher m = BUFFERS.matcher(t);
+            if (m.find() && !planning) {
+               long b = (m.group(1) == null ? 0 : Long.parseLong(m.group(1)))
+                  + (m.group(2) == null ? 0 : Long.parseLong(m.group(2)));
+               p.buffers = Math.max(p.buffers, b);
+            }//end if
+            m = EXECUTION_TIME.matcher(t);
+            if (m.find())
+               p.millis = Double.parseDouble(m.group(1));
+         }//end for
+         p.closeScan(scan, cond);
+         return p;
+      }//end parse
+
+      private void closeScan(String scan, boolean cond) {
+         if (scan == null)
+            return;
+         Matcher m = SCAN_TABLE.matcher(scan);
+         String table = m.find() ? m.group(1) : scan;
+         if (scan.contains("Seq Scan"))
+            this.fullScans.add(table);
+         else if (!cond)
+            this.fullScans.add(table + " (index)");
+      }//end closeScan
+
+      /**
+       * @return the top plan node without its costs
+       */
+      String root() {
+         if (this.lines.isEmpty())
+            return "";
+         String t = this.lines.get(0).trim();
+         int cost = t.indexOf("  (");
+         return cost >= 0 ? t.substring(0, cost) : t;
+      }//end root
+   }//end Plan
+
+   /**
+    * Rows of the loaded data that the sample parameters point at.
+    */
+   static class Sample {
+      String login;
+      String password;
+      String role;
+      String orderID;
+      Timestamp orderTimestamp;
+      String trackingID;
+      String gameID;
+      String genre;
+      double price;
+      String otherGameID;
+      int unitsOwned;
+   }//end Sample
+
+   private final GameRental _esql;
+   private final Sample _s;
+
+   PlanCheck(GameRental esql) throws SQLException {
+      this._esql = esql;
+      this._s = sample(esql);
+   }//end PlanCheck
+
+   /*
+    * Picks the user with the most orders, one of their orders and its
+    * tracking row and first game.
+    */
+   static Sample sample(GameRental esql) throws SQLException {
+      Sample s = new Sample();
+      List<List<String>> rows = esql.executeQueryAndReturnResult(
+         "SELECT login FROM RentalOrder GROUP BY login ORDER BY COUNT(*) DESC LIMIT 1");
+      if (rows.isEmpty())
+         throw new SQLException("No rental orders; load data before checking plans");
+      s.login = rows.get(0).get(0).trim();
+      esql.streamQuery("SELECT password, role FROM Users WHERE login = ?", rs -> {
+         s.password = rs.getString(1);
+         s.role = rs.getString(2).trim();
+      }, s.login);
+      esql.streamQuery("SELECT rentalOrderID, orderTimestamp FROM RentalOrder WHERE login = ? "
+            + "ORDER BY orderTimestamp DESC, rentalOrderID DESC LIMIT 1", rs -> {
+         s.orderID = rs.getString(1);
+         s.orderTimestamp = rs.getTimestamp(2);
+      }, s.login);
+      esql.streamQuery("SELECT G.gameID, C.genre, C.price FROM GamesInOrder G JOIN Catalog C ON C.gameID = G.gameID "
+            + "WHERE G.rentalOrderID = ? LIMIT 1", rs -> {
+         s.gameID = rs.getString(1);
+         s.genre = rs.getString(2);
+         s.price = rs.getDouble(3);
+      }, s.orderID);
+      esql.streamQuery("SELECT trackingID FROM TrackingInfo WHERE rentalOrderID = ? LIMIT 1",
+         rs -> s.trackingID = rs.getString(1), s.orderID);
+      esql.streamQuery("SELECT gameID FROM Catalog WHERE gameID NOT IN "
+            + "(SELECT gameID FROM GamesInOrder WHERE rentalOrderID = ?) LIMIT 1",
+         rs -> s.otherGameID = rs.getString(1), s.orderID);
+      esql.streamQuery(QueryShape.INVENTORY_GAME, rs -> s.unitsOwned = rs.getInt(1), s.gameID);
+      if (s.gameID == null || s.trackingID == null || s.otherGameID == null)
+         throw new SQLException("Order " + s.orderID + " has no games or tracking row; load the full data set");
+      return s;
+   }//end sample
+
+   /**
+    * @return sample parameters for a shape, or null when it has none yet
+    */
+   Object[] params(QueryShape shape) {
+      Sample s = this._s;
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      Timestamp minuteAgo = new Timestamp(now.getTime() - 60000);
+      String newID = "plancheck" + System.nanoTime();
+      YearMonth month = YearMonth.from(s.orderTimestamp.toLocalDateTime());
+      Timestamp monthStart = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+      Timestamp monthEnd = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+      switch (shape) {
+         case CREATE_USER: return new Object[] { newID, "pw", "customer", "", "000-000-0000", 0 };
+         case LOGIN: return new Object[] { s.login, s.password };
+         case UPDATE_PASSWORD: return new Object[] { s.password, s.login };
+         case UPDATE_PHONE_NUMBER: return new Object[] { "000-000-0000", s.login };
+         // the same login, renaming a user with orders is refused by RentalOrder's foreign key
+         case UPDATE_USER_LOGIN: return new Object[] { s.login, s.login };
+         case UPDATE_USER_ROLE: return new Object[] { s.role, s.login };
+         case UPDATE_USER_OVERDUE: return new Object[] { 0, s.login };
+         case UPDATE_USER_OVERDUE_DELTA: return new Object[] { 1, s.login };
+         case FAVORITES_ALL: return new Object[0];
+         case FAVORITE_LOCK_USER: return new Object[] { s.login };
+         case INSERT_FAVORITE: return new Object[] { s.login, s.gameID, s.login, Favorites.MAX_PER_USER };
+         case FAVORITE_EXISTS: return new Object[] { s.login, s.gameID };
+         case DELETE_FAVORITE: return new Object[] { s.login, s.gameID };
+         case MIGRATE_FAVORITES: return new Object[0];
+         case CATALOG_ALL: return new Object[0];
+         case CATALOG_BY_ID: return new Object[] { s.gameID };
+         case CATALOG_BY_GENRE: return new Object[] { s.genre };
+         case CATALOG_BY_PRICE_ASC: return new Object[] { s.price };
+         case CATALOG_BY_PRICE_DESC: return new Object[] { s.price };
+         case CATALOG_PRICE: return new Object[] { s.gameID };
+         case UPDATE_GAME_NAME: return new Object[] { "Plan Check", s.gameID };
+         case UPDATE_GAME_GENRE: return new Object[] { s.genre, s.gameID };
+         case UPDATE_GAME_PRICE: return new Object[] { s.price, s.gameID };
+         case UPDATE_GAME_DESCRIPTION: return new Object[] { "plan check", s.gameID };
+         case INVENTORY_ALL: return new Object[0];
+         case INVENTORY_GAME: return new Object[] { s.gameID };
+         case RESERVE_STOCK: return new Object[] { 1, s.gameID, 1 };
+         case RELEASE_STOCK: return new Object[] { 1, s.gameID };
+         case SET_UNITS_OWNED: return new Object[] { s.gameID, s.unitsOwned, s.unitsOwned };
+         case STOCK_CATALOG: return new Object[] { Inventory.DEFAULT_UNITS, Inventory.DEFAULT_UNITS };
+         case INSERT_RENTAL_ORDER: return new Object[] { newID, s.login, 1, s.price, now, now };
+         case INSERT_GAMES_IN_ORDER: return new Object[] { s.orderID, s.otherGameID, 1 };
+         case ORDER_HISTORY_FIRST: return new Object[] { s.login, OrderHistory.DEFAULT_PAGE_SIZE };
+         case ORDER_HISTORY_NEXT: return new Object[] { s.login, s.orderTimestamp, s.orderID, OrderHistory.DEFAULT_PAGE_SIZE };
+         case OVERDUE_LOCK: return new Object[0];
+         case OVERDUE_WATERMARK: return new Object[0];
+         case SET_OVERDUE_WATERMARK: return new Object[] { now, now };
+         case OVERDUE_CROSSED: return new Object[] { minuteAgo, now };
+         case OVERDUE_RECOMPUTE: return new Object[] { now };
+         case RECOMMENDER_LINES: return new Object[] { now };
+         // a merge() past the last refresh, refresh() reads from the epoch
+         case ANALYTICS_LINES: return new Object[] { minuteAgo };
+         case ORDER_LINES: return new Object[] { s.orderID };
+         case RETURN_ORDER: return new Object[] { now, s.orderID };
+         case RETURN_OVERDUE: return new Object[] { s.orderID, now };
+         case ORDER_INFO: return new Object[] { s.login, s.orderID };
+         case ARCHIVED_MONTHS: return new Object[0];
+         case ARCHIVE_MONTHS_DUE: return new Object[] { monthEnd, monthEnd };
+         // the month of the sample order
+         case ARCHIVE_ORDERS: return new Object[] { monthStart, monthEnd, now };
+         case ARCHIVE_LINES: return new Object[] { monthStart, monthEnd, now };
+         case ARCHIVE_TRACKING: return new Object[] { monthStart, monthEnd, now };
+         case ADD_ARCHIVED_RENTALS: return new Object[] { s.login, 1 };
+         case DELETE_ARCHIVED: return new Object[] { monthStart, monthEnd, now };
+         case SET_ARCHIVED_MONTH: return new Object[] { java.sql.Date.valueOf(month.atDay(1)), 1, 1, now };
+         case INSERT_TRACKING_INFO: return new Object[] { newID, s.orderID, now };
+         case TRACKING_INFO: return new Object[] { s.trackingID };
+         case UPDATE_TRACKING_STATUS: return new Object[] { "Pending", s.trackingID };
+         case UPDATE_TRACKING_LOCATION: return new Object[] { "Warehouse", s.trackingID };
+         case UPDATE_TRACKING_COURIER: return new Object[] { "FedEx", s.trackingID };
+         case UPDATE_TRACKING_COMMENTS: return new Object[] { "plan check", s.trackingID };
+         default: return null;
+      }//end switch
+   }//end params
+
+   /**
+    * Explains a shape once, in a transaction that is rolled back.
+    */
+   Plan explain(final QueryShape shape, final Object[] params, final boolean forceIndexes) throws SQLException {
+      return this._esql.withConnection(conn -> {
+         Connection c = conn.getConnection();
+         c.setAutoCommit(false);
+         try {
+            if (forceIndexes) {
+               // a plain Statement: the server cannot PREPARE a SET
+               try (Statement set = c.createStatement()) {
+                  set.execute("SET LOCAL enable_seqscan = off");
+               }//end try
+            }//end if
+            PreparedStatement stmt = conn.prepare("EXPLAIN (ANALYZE, BUFFERS) " + shape.sql());
+            GameRental.bind(stmt, params);
+            List<String> text = new ArrayList<String>();
+            ResultSet rs = stmt.executeQuery();
+            try {
+               while (rs.next())
+                  text.add(rs.getString(1));
+            } finally {
+               rs.close();
+            }//end try
+            return Plan.parse(text);
+         } finally {
+            try {
+               c.rollback();
+            } finally {
+               c.setAutoCommit(true);
+            }//end try
+         }//end try
+      });
+   }//end explain
+
+   /**
+    * Checks one shape.
+    *
+    * @return name/value pairs describing it; "failure" is set when it failed
+    */
+   Map<String, Object> check(QueryShape shape, int runs, Map<String, double[]> baseline,
+         double threshold, double floorMillis, boolean verbose) {
+      Map<String, Object> r = new LinkedHashMap<String, Object>();
+      r.put("shape", shape.name());
+      List<String> failures = new ArrayList<String>();
+      Object[] params = params(shape);
+      if (params == null) {
+         r.put("failure", "no sample parameters, add the shape to PlanCheck.params()");
+         return r;
+      }//end if
+      try {
+         double[] millis = new double[runs];
+         Plan natural = null;
+         for (int i = 0; i < runs; ++i) {
+            natural = explain(shape, params, false);
+            millis[i] = natural.millis;
+         }//end for
+         Arrays.sort(millis);
+         double median = millis[runs / 2];
+         Plan forced = explain(shape, params, true);
+         r.put("plan", natural.root());
+         r.put("medianMs", median);
+         r.put("buffers", natural.buffers);
+         r.put("fullScans", String.join(" ", forced.fullScans));
+
+         if (!forced.fullScans.isEmpty() && !FULL_SCANS.contains(shape))
+            failures.add("no index for " + String.join(", ", forced.fullScans));
+         double[] before = baseline.get(shape.name());
+         if (before != null) {
+            if (median > before[0] * (1 + threshold) && median - before[0] > floorMillis)
+               failures.add(String.format("%.3f ms, was %.3f ms", median, before[0]));
+            if (natural.buffers > before[1] * (1 + threshold) && natural.buffers > before[1] + 1)
+               failures.add(natural.buffers + " buffers, was " + (long) before[1]);
+         }//end if
+         if (verbose || !failures.isEmpty()) {
+            for (String line : (failures.isEmpty() ? natural : forced).lines)
+               System.out.println("      " + line);
+         }//end if
+      } catch (SQLException e) {
+         failures.add(e.getMessage());
+      }//end try
+      if (!failures.isEmpty())
+         r.put("failure", String.join("; ", failures).replace('"', '\''));
+      return r;
+   }//end check
+
+   /*
+    * Median time and buffers of each shape in a previous --out file.
+    */
+   static Map<String, double[]> readBaseline(File file) throws IOException {
+      Pattern shape = Pattern.compile("\"shape\":\"(\\w+)\"");
+      Pattern millis = Pattern.compile("\"medianMs\":([0-9.]+)");
+      Pattern buffers = Pattern.compile("\"buffers\":(\\d+)");
+      Map<String, double[]> baseline = new HashMap<String, double[]>();
+      try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+         for (String line = in.readLine(); line != null; line = in.readLine()) {
+            Matcher s = shape.matcher(line);
+            Matcher m = millis.matcher(line);
+            Matcher b = buffers.matcher(line);
+            if (s.find() && m.find() && b.find())
+               baseline.put(s.group(1), new double[] { Double.parseDouble(m.group(1)), Double.parseDouble(b.group(1)) });
+         }//end for
+      }//end try
+      return baseline;
+   }//end readBaseline
+
+   /**
+    * Usage: PlanCheck dbname port user [--data dir] [--seed sqlDir]
+    *        [--scale f] [--shapes NAME,...] [--runs n] [--baseline file]
+    *        [--threshold fraction] [--floor-ms ms] [--out file] [--verbose true]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + PlanCheck.class.getName()
+            + " <dbname> <port> <user> [--data <dir>] [--seed <sqlDir>] [--scale <f>] [--shapes <NAME,...>]"
+            + " [--runs <n>] [--baseline <file>] [--threshold <fraction>] [--floor-ms <ms>] [--out <file>]"
+            + " [--verbose true]");
+         return;
+      }//end if
+
+      File dataDir = null;
+      File seedSchema = null;
+      double scale = 0;
+      String shapes = null;
+      int runs = 5;
+      File baselineFile = null;
+      double threshold = 0.5;
+      double floorMillis = 1.0;
+      File out = null;
+      boolean verbose = false;
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         String v = args[i + 1];
+         switch (args[i]) {
+            case "--data": dataDir = new File(v); break;
+            case "--seed": seedSchema = new File(v); break;
+            case "--scale": scale = Double.parseDouble(v); break;
+            case "--shapes": shapes = v; break;
+            case "--runs": runs = Math.max(1, Integer.parseInt(v)); break;
+            case "--baseline": baselineFile = new File(v); break;
+            case "--threshold": threshold = Double.parseDouble(v); break;
+            case "--floor-ms": floorMillis = Double.parseDouble(v); break;
+            case "--out": out = new File(v); break;
+            case "--verbose": verbose = Boolean.parseBoolean(v); break;
+            default: System.err.println("Unknown option " + args[i]); return;
+         }//end switch
+      }//end for
+
+      if (scale > 0 && seedSchema == null) {
+         System.err.println("--scale needs --seed");
+         return;
+      }//end if
+
+      GameRental esql = null;
+      int failed = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         if (seedSchema != null) {
+            if (scale > 0)
+               dataDir = DataGenerator.generateInto(dataDir, scale);
+            else if (dataDir == null)
+               dataDir = DataGenerator.bundledDir();
+            BulkLoader.runScript(esql, new File(seedSchema, "create_tables.sql"));
+            BulkLoader.runScript(esql, new File(seedSchema, "create_indexes.sql"));
+            BulkLoader loader = new BulkLoader(esql, dataDir);
+            loader.setDeferIndexes(true);
+            for (BulkLoader.Result r : loader.load())
+               System.out.println(r);
+         }//end if
+
+         Map<String, double[]> baseline = baselineFile == null
+            ? new HashMap<String, double[]>() : readBaseline(baselineFile);
+         List<QueryShape> selected = new ArrayList<QueryShape>(Arrays.asList(QueryShape.values()));
+         if (shapes != null) {
+            selected.clear();
+            for (String s : shapes.split(","))
+               selected.add(QueryShape.valueOf(s.trim()));
+         }//end if
+
+         PlanCheck check = new PlanCheck(esql);
+         System.out.printf("%-26s %-34s %10s %10s  %s%n", "shape", "plan", "median ms", "buffers", "result");
+         PrintWriter json = out == null ? null : new PrintWriter(new FileWriter(out));
+         try {
+            for (QueryShape shape : selected) {
+               Map<String, Object> r = check.check(shape, runs, baseline, threshold, floorMillis, verbose);
+               Object failure = r.get("failure");
+               if (failure != null)
+                  ++failed;
+               String fullScans = (String) r.get("fullScans");
+               System.out.printf("%-26s %-34.34s %10.3f %10d  %s%n", shape, r.getOrDefault("plan", ""),
+                  (Double) r.getOrDefault("medianMs", 0.0), (Long) r.getOrDefault("buffers", 0L),
+                  failure != null ? "FAIL " + failure
+                     : fullScans != null && !fullScans.isEmpty() ? "ok, full scan of " + fullScans : "ok");
+               if (json != null)
+                  json.println(GameRentalBenchmark.toJson(r));
+            }//end for
+         } finally {
+            if (json != null)
+               json.close();
+         }//end try
+         System.out.println(failed == 0 ? "All " + selected.size() + " shapes passed"
+            : failed + " of " + selected.size() + " shapes failed");
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+         failed = 1;
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+      if (failed > 0)
+         System.exit(1);
+   }//end main
+
+}//end PlanCheck
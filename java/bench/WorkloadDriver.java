@@ -0,0 +1,508 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a scripted workload against GameRental from many simulated
+ * users at once.
+ *
+ * A workload file is a list of sessions, each started by a "session
+ * name" line and followed by one step per line:
+ *
+ *    login $user $password        log in (as the user's own account)
+ *    logout
+ *    browseGenre Action           catalog by genre; $genre picks one
+ *    browsePrice 30 asc|desc      catalog cheaper than a price
+ *    search mario kart            ranked search of names and descriptions
+ *    order $game:2 game0001:1     place an order of gameID:units lines
+ *    history [pageSize]           first page of the user's history
+ *    orderInfo $order             one order; $order is the last placed
+ *    track $tracking              tracking info; $tracking likewise
+ *    updateTracking $tracking status|location|courier|comments text...
+ *    return $order                the order came back; copies are restocked
+ *    think 500                    pause, in milliseconds
+ *
+ * Blank lines and lines starting with # are ignored.  Simulated user i
+ * replays session i modulo the number of sessions, over and over, and
+ * logs in as the i-th account of users.csv.
+ *
+ * In closed-loop mode each user runs its next step as soon as the
+ * previous one and its think time are done.  Closed loops hide queueing
+ * delay (coordinated omission): a stalled call also delays the calls
+ * that should have been issued meanwhile.  With --expected-interval the
+ * driver backfills those missing samples the way HdrHistogram does.
+ *
+ * In open-loop mode steps arrive at a fixed total rate regardless of how
+ * fast the store answers; think times are ignored.  Each step's response
+ * time is measured from when it should have started, not when the
+ * simulated user got around to it, so queueing shows up in the numbers.
+ *
+ * Both service time (call start to end) and response time are reported.
+ */
+public class WorkloadDriver {
+
+   static final List<String> OPERATIONS = Arrays.asList("login", "logout", "browseGenre", "browsePrice",
+      "search", "order", "history", "orderInfo", "track", "updateTracking", "return", "think");
+
+   /**
+    * One line of a session script.
+    */
+   static class Step {
+      final String op;
+      final String[] args;
+      final int lineNo;
+
+      Step(String op, String[] args, int lineNo) {
+         this.op = op;
+         this.args = args;
+         this.lineNo = lineNo;
+      }//end Step
+   }//end Step
+
+   /**
+    * A named sequence of steps.
+    */
+   static class Script {
+      final String name;
+      final List<Step> steps = new ArrayList<Step>();
+
+      Script(String name) {
+         this.name = name;
+      }
+   }//end Script
+
+   /**
+    * The latencies of one kind of step.
+    */
+   static class StepStats {
+      final LatencyHistogram service = new LatencyHistogram();
+      final LatencyHistogram response = new LatencyHistogram();
+      final LongAdder errors = new LongAdder();
+   }//end StepStats
+
+   /**
+    * The state of one simulated user.
+    */
+   class User {
+      final int index;
+      final String[] account;
+      final Script script;
+      Session session = null;
+      String lastOrder = null;
+      String lastTracking = null;
+
+      User(int index) {
+         this.index = index;
+         this.account = _accounts.isEmpty() ? null : _accounts.get(index % _accounts.size());
+         this.script = _scripts.get(index % _scripts.size());
+      }//end User
+   }//end User
+
+   private final GameRental _esql;
+   private final List<Script> _scripts;
+   private final List<String[]> _accounts = new ArrayList<String[]>();
+   private final List<String> _games = new ArrayList<String>();
+   private final List<String> _genres = new ArrayList<String>();
+   private final ConcurrentHashMap<String, StepStats> _stats = new ConcurrentHashMap<String, StepStats>();
+
+   WorkloadDriver(GameRental esql, List<Script> scripts, File dataDir) throws IOException {
+      if (scripts.isEmpty())
+         throw new IllegalArgumentException("the workload has no steps");
+      this._esql = esql;
+      this._scripts = scripts;
+      try (CsvReader csv = new CsvReader(new FileReader(new File(dataDir, "users.csv")))) {
+         csv.next();
+         for (String[] r = csv.next(); r != null; r = csv.next())
+            this._accounts.add(new String[] { r[0], r[1] });
+      }//end try
+      try (CsvReader csv = new CsvReader(new FileReader(new File(dataDir, "catalog.csv")))) {
+         csv.next();
+         for (String[] r = csv.next(); r != null; r = csv.next()) {
+            this._games.add(r[0]);
+            if (!this._genres.contains(r[2]))
+               this._genres.add(r[2]);
+         }//end for
+      }//end try
+   }//end WorkloadDriver
+
+   /**
+    * Reads a workload file.
+    *
+    * @throws IOException when the file cannot be read or has a bad line
+    */
+   static List<Script> parse(File file) throws IOException {
+      List<Script> scripts = new ArrayList<Script>();
+      Script current = null;
+      try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+         int lineNo = 0;
+         for (String line = in.readLine(); line != null; line = in.readLine()) {
+            ++lineNo;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+               continue;
+            String[] tokens = line.split("\\s+");
+            if (tokens[0].equals("session")) {
+               current = new Script(tokens.length > 1 ? tokens[1] : "session" + (scripts.size() + 1));
+               scripts.add(current);
+               continue;
+            }//end if
+            if (!OPERATIONS.contains(tokens[0]))
+               throw new IOException(file + ":" + lineNo + ": unknown step " + tokens[0]);
+            String[] args = Arrays.copyOfRange(tokens, 1, tokens.length);
+            if (tokens[0].equals("updateTracking")) {
+               // the new value is the rest of the line, spaces included
+               String[] head = line.split("\\s+", 4);
+               if (head.length < 4)
+                  throw new IOException(file + ":" + lineNo + ": updateTracking needs an ID, a field and a value");
+               args = new String[] { head[1], head[2], head[3] };
+            }//end if
+            if (tokens[0].equals("think") && (args.length != 1 || !args[0].matches("\\d+")))
+               throw new IOException(file + ":" + lineNo + ": think needs a number of milliseconds");
+            if (current == null) {
+               current = new Script("session1");
+               scripts.add(current);
+            }//end if
+            current.steps.add(new Step(tokens[0], args, lineNo));
+         }//end for
+      }//end try
+      scripts.removeIf(s -> s.steps.isEmpty());
+      return scripts;
+   }//end parse
+
+   /*
+    * Runs one step for a user.
+    */
+   private void execute(User user, Step step, ThreadLocalRandom rand) throws SQLException {
+      String[] a = new String[step.args.length];
+      for (int i = 0; i < a.length; ++i)
+         a[i] = substitute(step.args[i], user, rand);
+      switch (step.op) {
+         case "login":
+            if (user.session != null)
+               this._esql.getSessions().logOut(user.session);
+            user.session = this._esql.getSessions().logIn(a[0], a[1]);
+            if (user.session == null)
+               throw new SQLException("login failed for " + a[0]);
+            break;
+         case "logout":
+            if (user.session != null)
+               this._esql.getSessions().logOut(user.session);
+            user.session = null;
+            break;
+         case "browseGenre":
+            this._esql.getCatalog().byGenre(a[0]);
+            break;
+         case "browsePrice":
+            this._esql.getCatalog().cheaperThan(Double.parseDouble(a[0]), a.length < 2 || !a[1].equals("desc"));
+            break;
+         case "search":
+            this._esql.getCatalog().search(String.join(" ", a), CatalogSearch.DEFAULT_LIMIT);
+            break;
+         case "order": {
+            RentalCart cart = new RentalCart();
+            for (String line : a) {
+               int colon = line.lastIndexOf(':');
+               if (colon < 0)
+                  cart.add(line, 1);
+               else
+                  cart.add(line.substring(0, colon), Integer.parseInt(line.substring(colon + 1)));
+            }//end for
+            RentalOrderService.Receipt receipt = this._esql.getOrders().placeOrder(login(user), cart);
+            user.lastOrder = receipt.orderID;
+            user.lastTracking = receipt.trackingID;
+            break;
+         }
+         case "history":
+            this._esql.getHistory().firstPage(login(user),
+               a.length > 0 ? Integer.parseInt(a[0]) : OrderHistory.DEFAULT_PAGE_SIZE);
+            break;
+         case "orderInfo":
+            this._esql.executeQueryAndReturnResult(QueryShape.ORDER_INFO, login(user), a[0]);
+            break;
+         case "track":
+            this._esql.executeQueryAndReturnResult(QueryShape.TRACKING_INFO, a[0]);
+            break;
+         case "updateTracking":
+            if (this._esql.executeUpdate(trackingShape(a[1]), a[2], a[0]) > 0)
+               this._esql.getJournal().append(trackingEvent(a[1]), a[0], a[2], login(user), 0);
+            break;
+         case "return": {
+            int copies = this._esql.getInventory().returnOrder(a[0]);
+            this._esql.getJournal().append(Journal.Event.ORDER_RETURNED, a[0], null, login(user), copies);
+            break;
+         }
+         default:
+            throw new IllegalStateException(step.op);
+      }//end switch
+   }//end execute
+
+   private static String login(User user) throws SQLException {
+      if (user.session == null)
+         throw new SQLException("not logged in");
+      return user.session.getLogin();
+   }//end login
+
+   private static QueryShape trackingShape(String field) {
+      switch (field) {
+         case "status": return QueryShape.UPDATE_TRACKING_STATUS;
+         case "location": return QueryShape.UPDATE_TRACKING_LOCATION;
+         case "courier": return QueryShape.UPDATE_TRACKING_COURIER;
+         case "comments": return QueryShape.UPDATE_TRACKING_COMMENTS;
+         default: throw new IllegalArgumentException("unknown tracking field " + field);
+      }//end switch
+   }//end trackingShape
+
+   private static Journal.Event trackingEvent(String field) {
+      switch (field) {
+         case "status": return Journal.Event.TRACKING_STATUS;
+         case "location": return Journal.Event.TRACKING_LOCATION;
+         case "courier": return Journal.Event.TRACKING_COURIER;
+         default: return Journal.Event.TRACKING_COMMENTS;
+      }//end switch
+   }//end trackingEvent
+
+   private String substitute(String arg, User user, ThreadLocalRandom rand) {
+      if (arg.indexOf('$') < 0)
+         return arg;
+      if (arg.equals("$user") || arg.equals("$password")) {
+         if (user.account == null)
+            throw new IllegalStateException("no accounts to log in with");
+         return arg.equals("$user") ? user.account[0] : user.account[1];
+      }//end if
+      if (arg.equals("$order"))
+         return String.valueOf(user.lastOrder);
+      if (arg.equals("$tracking"))
+         return String.valueOf(user.lastTracking);
+      if (arg.equals("$genre"))
+         return this._genres.get(rand.nextInt(this._genres.size()));
+      // $game, optionally followed by :units
+      if (arg.startsWith("$game"))
+         return this._games.get(rand.nextInt(this._games.size())) + arg.substring(5);
+      return arg;
+   }//end substitute
+
+   /*
+    * Runs one step and records it when measuring.
+    *
+    * @param intended when the step should have started
+    */
+   private void timed(User user, Step step, ThreadLocalRandom rand, long intended, boolean counted,
+                      long expectedIntervalNanos) {
+      long start = System.nanoTime();
+      boolean ok = true;
+      try {
+         execute(user, step, rand);
+      } catch (Exception e) {
+         ok = false;
+      }//end try
+      long end = System.nanoTime();
+      if (!counted)
+         return;
+      StepStats stats = this._stats.computeIfAbsent(step.op, k -> new StepStats());
+      if (!ok)
+         stats.errors.increment();
+      stats.service.record(end - start);
+      long response = end - intended;
+      stats.response.record(response);
+      // closed loop: add the samples a stalled call kept from being issued
+      if (expectedIntervalNanos > 0)
+         for (long missed = response - expectedIntervalNanos; missed >= expectedIntervalNanos; missed -= expectedIntervalNanos)
+            stats.response.record(missed);
+   }//end timed
+
+   /**
+    * Replays the workload.
+    *
+    * @param users the number of simulated users
+    * @param ratePerSec total steps per second in open-loop mode, or 0 for
+    *        closed-loop mode
+    * @param expectedIntervalMillis closed-loop only: the interval at which
+    *        a user is expected to issue steps, 0 for no correction
+    * @return the measured period, in nanoseconds
+    */
+   long run(int users, double ratePerSec, long expectedIntervalMillis, long warmupMillis, long measureMillis)
+         throws InterruptedException {
+      final boolean open = ratePerSec > 0;
+      final long expected = open ? 0 : expectedIntervalMillis * 1000000L;
+      // every user gets an equal share of the total rate
+      final long intervalNanos = open ? (long) (users * 1e9 / ratePerSec) : 0;
+      final AtomicBoolean stop = new AtomicBoolean(false);
+      final long t0 = System.nanoTime();
+      final long measureStart = t0 + warmupMillis * 1000000L;
+      final long measureEnd = measureStart + measureMillis * 1000000L;
+
+      Thread[] workers = new Thread[users];
+      for (int u = 0; u < users; ++u) {
+         final User user = new User(u);
+         final long offset = open ? intervalNanos * u / users : 0;
+         workers[u] = new Thread(() -> {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            long next = t0 + offset;
+            try {
+               while (!stop.get()) {
+                  for (Step step : user.script.steps) {
+                     if (stop.get())
+                        break;
+                     if (step.op.equals("think")) {
+                        if (!open)
+                           Thread.sleep(Long.parseLong(step.args[0]));
+                        continue;
+                     }//end if
+                     long intended;
+                     if (open) {
+                        intended = next;
+                        next += intervalNanos;
+                        for (long wait = intended - System.nanoTime(); wait > 0; wait = intended - System.nanoTime())
+                           LockSupport.parkNanos(wait);
+                     } else {
+                        intended = System.nanoTime();
+                     }//end if
+                     if (intended >= measureEnd)
+                        return;
+                     timed(user, step, rand, intended, intended >= measureStart, expected);
+                  }//end for
+               }//end while
+            } catch (InterruptedException e) {
+               // stopped.
+            } finally {
+               if (user.session != null)
+                  this._esql.getSessions().logOut(user.session);
+            }//end try
+         }, "user-" + u);
+         workers[u].start();
+      }//end for
+
+      long remaining = measureEnd - System.nanoTime();
+      if (remaining > 0)
+         Thread.sleep(remaining / 1000000L);
+      stop.set(true);
+      for (Thread w : workers)
+         w.join();
+      return measureMillis * 1000000L;
+   }//end run
+
+   /**
+    * @return one row per step kind, then "all"
+    */
+   List<Map<String, Object>> results(String mode, int users, long elapsedNanos) {
+      List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+      StepStats all = new StepStats();
+      for (String op : OPERATIONS) {
+         StepStats s = this._stats.get(op);
+         if (s == null)
+            continue;
+         all.service.add(s.service);
+         all.response.add(s.response);
+         all.errors.add(s.errors.sum());
+         rows.add(row(op, s, mode, users, elapsedNanos));
+      }//end for
+      rows.add(row("all", all, mode, users, elapsedNanos));
+      return rows;
+   }//end results
+
+   private static Map<String, Object> row(String op, StepStats s, String mode, int users, long elapsedNanos) {
+      Map<String, Object> r = new LinkedHashMap<String, Object>();
+      r.put("step", op);
+      r.put("mode", mode);
+      r.put("users", users);
+      r.put("ops", s.service.count());
+      r.put("errors", s.errors.sum());
+      r.put("opsPerSec", s.service.count() * 1e9 / elapsedNanos);
+      r.put("serviceP50Us", s.service.percentile(50) / 1e3);
+      r.put("serviceP99Us", s.service.percentile(99) / 1e3);
+      r.put("responseP50Us", s.response.percentile(50) / 1e3);
+      r.put("responseP99Us", s.response.percentile(99) / 1e3);
+      r.put("responseP999Us", s.response.percentile(99.9) / 1e3);
+      r.put("responseMaxUs", s.response.max() / 1e3);
+      return r;
+   }//end row
+
+   /**
+    * Usage: WorkloadDriver dbname port user workloadFile [--users n]
+    *        [--rate stepsPerSec] [--expected-interval ms] [--warmup s]
+    *        [--time s] [--data dir] [--out file]
+    */
+   public static void main(String[] args) {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] " + WorkloadDriver.class.getName()
+            + " <dbname> <port> <user> <workload> [--users <n>] [--rate <steps/s>]"
+            + " [--expected-interval <ms>] [--warmup <s>] [--time <s>] [--data <dir>] [--out <file>]");
+         return;
+      }//end if
+
+      int users = 16;
+      double rate = 0;
+      long expectedInterval = 0;
+      long warmup = 5;
+      long time = 30;
+      File dataDir = new File("data");
+      File out = null;
+      for (int i = 4; i + 1 < args.length; i += 2) {
+         String v = args[i + 1];
+         switch (args[i]) {
+            case "--users": users = Integer.parseInt(v); break;
+            case "--rate": rate = Double.parseDouble(v); break;
+            case "--expected-interval": expectedInterval = Long.parseLong(v); break;
+            case "--warmup": warmup = Long.parseLong(v); break;
+            case "--time": time = Long.parseLong(v); break;
+            case "--data": dataDir = new File(v); break;
+            case "--out": out = new File(v); break;
+            default: System.err.println("Unknown option " + args[i]); return;
+         }//end switch
+      }//end for
+      String mode = rate > 0 ? "open" : "closed";
+
+      if (System.getProperty("gamerental.pool.max") == null)
+         System.setProperty("gamerental.pool.max", Integer.toString(users));
+
+      GameRental esql = null;
+      try {
+         List<Script> scripts = parse(new File(args[3]));
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         WorkloadDriver driver = new WorkloadDriver(esql, scripts, dataDir);
+         long elapsed = driver.run(users, rate, expectedInterval, warmup * 1000, time * 1000);
+
+         if (rate <= 0 && expectedInterval <= 0)
+            System.out.println("closed loop without --expected-interval: response times are not corrected"
+               + " for coordinated omission");
+         System.out.printf("%-15s %10s %8s %10s %10s %10s %10s %10s %10s %10s%n", "step", "ops", "errors",
+            "ops/s", "svc p50", "svc p99", "resp p50", "resp p99", "resp p99.9", "resp max");
+         PrintWriter json = out == null ? null : new PrintWriter(new FileWriter(out, true));
+         try {
+            for (Map<String, Object> r : driver.results(mode, users, elapsed)) {
+               System.out.printf("%-15s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                  r.get("step"), r.get("ops"), r.get("errors"), r.get("opsPerSec"), r.get("serviceP50Us"),
+                  r.get("serviceP99Us"), r.get("responseP50Us"), r.get("responseP99Us"),
+                  r.get("responseP999Us"), r.get("responseMaxUs"));
+               if (json != null)
+                  json.println(GameRentalBenchmark.toJson(r));
+            }//end for
+         } finally {
+            if (json != null)
+               json.close();
+         }//end try
+         System.out.println("latencies in microseconds; " + esql.getPool().stats());
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end WorkloadDriver
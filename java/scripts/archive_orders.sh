@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#move whole months of orders older than --keep-days (365 by default) to the archive directory
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar -Dgamerental.archive.dir=${ARCHIVE:-archive} OrderArchive $USER"_project_phase_3_DB" $PGPORT $USER "$@"
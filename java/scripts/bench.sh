@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program and the benchmarks
+javac -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#run the benchmarks, extra arguments are passed through (e.g. --seed, --threads, --out)
+#--scale generates into a temporary directory unless --data names an empty one, the bundled data/ is never overwritten
+#Use your database name, port number and login
+java -Dgamerental.data.dir=$DIR/../../data -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar GameRentalBenchmark $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program and the tools
+javac -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#generate a data set in the data/ layout, e.g. "generate_data.sh /tmp/big --scale 1000"
+#extra arguments are passed through (--users, --games, --orders, --seed, --threads)
+java -cp $DIR/../classes DataGenerator "$@"
@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#apply a courier feed file or directory, e.g. "ingest_tracking.sh /var/feeds/today --chunk 1000"
+#malformed events go to <feed>.rejected.csv unless --quarantine names another file
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar TrackingFeedLoader $USER"_project_phase_3_DB" $PGPORT $USER "$@"
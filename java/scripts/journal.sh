@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#answer audit questions from the journal directory without the database
+#e.g. journal.sh tracking <trackingID> | user <login> | order <orderID> | dump [fromSeq] | stats
+JOURNAL=${JOURNAL:-journal}
+java -cp $DIR/../classes JournalTool $JOURNAL "$@"
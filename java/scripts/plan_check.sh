@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program and the benchmarks
+javac -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#explain every query shape and fail on a missing index or a regression, extra arguments are passed through
+#(e.g. --out plans.json, then --baseline plans.json on the next run)
+#Use your database name, port number and login
+java -Dgamerental.data.dir=$DIR/../../data -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PlanCheck $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program and the drivers
+javac -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#replay a workload file, extra arguments are passed through (e.g. --users, --rate, --time)
+#Use your database name, port number and login
+WORKLOAD=${1:-$DIR/../bench/workloads/storefront.workload}
+shift
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar WorkloadDriver $USER"_project_phase_3_DB" $PGPORT $USER $WORKLOAD --data $DIR/../../data "$@"
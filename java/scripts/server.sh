@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#serve the menus over TCP, extra arguments are passed through (e.g. --listen, --max-clients, --idle-timeout)
+#connect with e.g. "nc localhost 5555"
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar GameRentalServer $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,517 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Manager reports over an in-memory, columnar copy of the order lines.
+ *
+ * Every GamesInOrder line becomes one row of parallel primitive arrays:
+ * order day, game, customer, units and revenue.  Games, genres and logins
+ * are dictionary-encoded, so a row costs 20 bytes and a report over tens
+ * of millions of lines scans a few hundred megabytes of ints.  Revenue
+ * is the order's totalPrice shared out over its lines by units times
+ * catalog price, so the lines of an order add up to what was charged.
+ *
+ * Reports are fork-join aggregations: the rows are split into ranges,
+ * each range fills its own array of sums and the arrays are added up, so
+ * no two threads ever write the same counter.
+ *
+ * refresh() reads every line again, the archived orders first.  merge() only reads orders placed
+ * since the last snapshot and appends them; since an order's timestamp is
+ * taken before it commits, it re-reads a MERGE_OVERLAP_MILLIS margin and
+ * skips the orders it already has.  Snapshots are immutable once
+ * published; a merge appends beyond the end a running report reads to,
+ * and reports never touch the OLTP tables.
+ */
+public class Analytics {
+
+   // orders read again by merge() in case they committed late
+   public static final long MERGE_OVERLAP_MILLIS = 60 * 1000L;
+
+   // rows per fork-join leaf
+   static final int LEAF_ROWS = 1 << 16;
+
+   public static final int DEFAULT_TOP = 20;
+
+   /**
+    * Rows and column headers of one report.
+    */
+   public static class Report {
+      public final String[] columns;
+      public final List<String[]> rows = new ArrayList<String[]>();
+
+      Report(String... columns) {
+         this.columns = columns;
+      }
+   }//end Report
+
+   /*
+    * One published state of the columns.  Arrays may be longer than size
+    * and may be shared with later snapshots, which only ever write past
+    * this snapshot's size.
+    */
+   private static class Snapshot {
+      final int size;
+      final int[] day;
+      final int[] game;
+      final int[] user;
+      final int[] units;
+      final int[] revenueCents;
+
+      final int games;
+      final String[] gameIDs;
+      final int[] genreOf;
+      final int genres;
+      final String[] genreNames;
+      final int users;
+      final String[] logins;
+
+      final int minDay;
+      final int maxDay;
+      final long loadedAt;
+
+      Snapshot(Builder b) {
+         this.size = b.size;
+         this.day = b.day;
+         this.game = b.game;
+         this.user = b.user;
+         this.units = b.units;
+         this.revenueCents = b.revenueCents;
+         this.games = b.gameIDs.size();
+         this.gameIDs = b.gameIDs.toArray(new String[0]);
+         this.genreOf = Arrays.copyOf(b.genreOf, this.games);
+         this.genres = b.genreNames.size();
+         this.genreNames = b.genreNames.toArray(new String[0]);
+         this.users = b.logins.size();
+         this.logins = b.logins.toArray(new String[0]);
+         this.minDay = b.minDay;
+         this.maxDay = b.maxDay;
+         this.loadedAt = System.currentTimeMillis();
+      }//end Snapshot
+   }//end Snapshot
+
+   /*
+    * Appends rows and grows the dictionaries.  Only the thread holding
+    * the Analytics monitor uses it.
+    */
+   private static class Builder {
+      int size = 0;
+      int[] day = new int[1024];
+      int[] game = new int[1024];
+      int[] user = new int[1024];
+      int[] units = new int[1024];
+      int[] revenueCents = new int[1024];
+
+      final HashMap<String, Integer> gameNumbers = new HashMap<String, Integer>();
+      final List<String> gameIDs = new ArrayList<String>();
+      int[] genreOf = new int[256];
+      final HashMap<String, Integer> genreNumbers = new HashMap<String, Integer>();
+      final List<String> genreNames = new ArrayList<String>();
+      final HashMap<String, Integer> userNumbers = new HashMap<String, Integer>();
+      final List<String> logins = new ArrayList<String>();
+
+      int minDay = Integer.MAX_VALUE;
+      int maxDay = Integer.MIN_VALUE;
+      // newest order timestamp read, and the orders read within the overlap before it
+      long watermark = 0;
+      final HashMap<String, Long> recentOrders = new HashMap<String, Long>();
+      int pruneAt = 1024;
+
+      void remember(String orderID, long time) {
+         this.watermark = Math.max(this.watermark, time);
+         if (time < this.watermark - MERGE_OVERLAP_MILLIS)
+            return;
+         this.recentOrders.put(orderID, time);
+         if (this.recentOrders.size() >= this.pruneAt) {
+            final long keepFrom = this.watermark - MERGE_OVERLAP_MILLIS;
+            this.recentOrders.values().removeIf(t -> t < keepFrom);
+            this.pruneAt = Math.max(1024, this.recentOrders.size() * 2);
+         }//end if
+      }//end remember
+
+      void append(int d, String gameID, String genre, String login, int u, long cents) {
+         if (this.size == this.day.length) {
+            int capacity = this.size * 2;
+            this.day = Arrays.copyOf(this.day, capacity);
+            this.game = Arrays.copyOf(this.game, capacity);
+            this.user = Arrays.copyOf(this.user, capacity);
+            this.units = Arrays.copyOf(this.units, capacity);
+            this.revenueCents = Arrays.copyOf(this.revenueCents, capacity);
+         }//end if
+         this.day[this.size] = d;
+         this.game[this.size] = gameNumber(gameID, genre);
+         this.user[this.size] = number(this.userNumbers, this.logins, login);
+         this.units[this.size] = u;
+         this.revenueCents[this.size] = (int) cents;
+         ++this.size;
+         this.minDay = Math.min(this.minDay, d);
+         this.maxDay = Math.max(this.maxDay, d);
+      }//end append
+
+      private int gameNumber(String gameID, String genre) {
+         int g = number(this.gameNumbers, this.gameIDs, gameID);
+         if (g == this.genreOf.length)
+            this.genreOf = Arrays.copyOf(this.genreOf, g * 2);
+         this.genreOf[g] = number(this.genreNumbers, this.genreNames, genre);
+         return g;
+      }//end gameNumber
+
+      private static int number(HashMap<String, Integer> numbers, List<String> names, String name) {
+         Integer n = numbers.get(name);
+         if (n == null) {
+            n = names.size();
+            numbers.put(name, n);
+            names.add(name);
+         }//end if
+         return n;
+      }//end number
+   }//end Builder
+
+   /*
+    * Adds up one range of rows into an array of sums.
+    */
+   private interface RangeAggregator {
+      void aggregate(Snapshot s, int from, int to, long[] sums);
+   }//end RangeAggregator
+
+   private static class Scan extends RecursiveTask<long[]> {
+      private static final long serialVersionUID = 1L;
+
+      private final Snapshot _s;
+      private final int _from;
+      private final int _to;
+      private final int _width;
+      private final RangeAggregator _aggregator;
+
+      Scan(Snapshot s, int from, int to, int width, RangeAggregator aggregator) {
+         this._s = s;
+         this._from = from;
+         this._to = to;
+         this._width = width;
+         this._aggregator = aggregator;
+      }//end Scan
+
+      protected long[] compute() {
+         if (this._to - this._from <= LEAF_ROWS) {
+            long[] sums = new long[this._width];
+            this._aggregator.aggregate(this._s, this._from, this._to, sums);
+            return sums;
+         }//end if
+         int mid = (this._from + this._to) >>> 1;
+         Scan left = new Scan(this._s, this._from, mid, this._width, this._aggregator);
+         left.fork();
+         long[] sums = new Scan(this._s, mid, this._to, this._width, this._aggregator).compute();
+         long[] other = left.join();
+         for (int i = 0; i < sums.length; ++i)
+            sums[i] += other[i];
+         return sums;
+      }//end compute
+   }//end Scan
+
+   private final GameRental _esql;
+   private final ForkJoinPool _pool;
+   private volatile Snapshot _snapshot = null;
+   private Builder _builder = null;
+
+   public Analytics(GameRental esql) {
+      this(esql, ForkJoinPool.commonPool());
+   }
+
+   public Analytics(GameRental esql, ForkJoinPool pool) {
+      this._esql = esql;
+      this._pool = pool;
+   }//end Analytics
+
+   /**
+    * Discards the snapshot and reads every order line again.
+    *
+    * @return the number of lines in the new snapshot
+    */
+   public synchronized int refresh() throws SQLException {
+      Builder b = new Builder();
+      readArchive(b);
+      read(b, new Timestamp(0));
+      this._builder = b;
+      this._snapshot = new Snapshot(b);
+      return b.size;
+   }//end refresh
+
+   /**
+    * Appends the lines of the orders placed since the last snapshot, or
+    * takes a full snapshot if there is none.
+    *
+    * @return the number of lines added
+    */
+   public synchronized int merge() throws SQLException {
+      if (this._builder == null)
+         return refresh();
+      Builder b = this._builder;
+      int before = b.size;
+      read(b, new Timestamp(b.watermark - MERGE_OVERLAP_MILLIS));
+      this._snapshot = new Snapshot(b);
+      return b.size - before;
+   }//end merge
+
+   /*
+    * Streams the lines of the orders placed at or after since, grouped by
+    * order, and appends the orders the builder does not have yet.
+    */
+   private void read(final Builder b, Timestamp since) throws SQLException {
+      final List<Object[]> order = new ArrayList<Object[]>();
+      final String[] current = { null };
+      final boolean[] skip = { false };
+      this._esql.measured(this._esql.getMetrics().operation("analyticsSnapshot"), n -> n,
+            () -> this._esql.streamQuery(QueryShape.ANALYTICS_LINES, rs -> {
+         String orderID = rs.getString(1);
+         if (!orderID.equals(current[0])) {
+            append(b, order);
+            order.clear();
+            current[0] = orderID;
+            // merged before, when it was within the overlap
+            skip[0] = b.recentOrders.containsKey(orderID);
+         }//end if
+         if (!skip[0]) {
+            order.add(new Object[] { orderID, rs.getString(2), rs.getTimestamp(3), rs.getBigDecimal(4),
+               rs.getString(5), rs.getInt(6), rs.getString(7), rs.getBigDecimal(8) });
+         }//end if
+      }, since));
+      append(b, order);
+      final long keepFrom = b.watermark - MERGE_OVERLAP_MILLIS;
+      b.recentOrders.values().removeIf(t -> t < keepFrom);
+   }//end read
+
+   /*
+    * Appends the lines of the archived orders whose games are still in the
+    * catalog, as the join in ANALYTICS_LINES would.
+    */
+   private void readArchive(final Builder b) throws SQLException {
+      final CatalogCache catalog = this._esql.getCatalog();
+      final List<Object[]> order = new ArrayList<Object[]>();
+      this._esql.getArchive().forEachOrder(o -> {
+         order.clear();
+         for (int i = 0; i < o.games.size(); ++i) {
+            CatalogEntry game = catalog.get(o.games.get(i));
+            if (game != null)
+               order.add(new Object[] { o.orderID, o.login, o.orderTimestamp, o.totalPrice,
+                  game.gameID, o.units.get(i), game.genre, game.price });
+         }//end for
+         append(b, order);
+      });
+   }//end readArchive
+
+   /*
+    * Appends the lines of one order, sharing its total price out by units
+    * times catalog price.  The last line takes the rounding remainder.
+    */
+   private static void append(Builder b, List<Object[]> lines) {
+      if (lines.isEmpty())
+         return;
+      Object[] first = lines.get(0);
+      Timestamp ts = (Timestamp) first[2];
+      long total = ((BigDecimal) first[3]).movePointRight(2).longValue();
+      long[] weights = new long[lines.size()];
+      long sum = 0;
+      for (int i = 0; i < weights.length; ++i) {
+         Object[] l = lines.get(i);
+         BigDecimal price = (BigDecimal) l[7];
+         int units = (Integer) l[5];
+         weights[i] = (price == null ? 1 : Math.max(1, price.movePointRight(2).longValue())) * units;
+         sum += weights[i];
+      }//end for
+
+      int d = (int) ts.toLocalDateTime().toLocalDate().toEpochDay();
+      long given = 0;
+      for (int i = 0; i < weights.length; ++i) {
+         Object[] l = lines.get(i);
+         long cents = i == weights.length - 1 ? total - given : sum == 0 ? 0 : total * weights[i] / sum;
+         given += cents;
+         b.append(d, (String) l[4], (String) l[6], (String) l[1], (Integer) l[5], cents);
+      }//end for
+      b.remember((String) first[0], ts.getTime());
+   }//end append
+
+   /**
+    * @return the current snapshot, taking the first one if there is none
+    */
+   private Snapshot snapshot() throws SQLException {
+      Snapshot s = this._snapshot;
+      return s != null ? s : snapshotAfterRefresh();
+   }
+
+   private synchronized Snapshot snapshotAfterRefresh() throws SQLException {
+      if (this._snapshot == null)
+         refresh();
+      return this._snapshot;
+   }//end snapshotAfterRefresh
+
+   private long[] scan(Snapshot s, int width, RangeAggregator aggregator) {
+      return this._pool.invoke(new Scan(s, 0, s.size, width, aggregator));
+   }
+
+   /**
+    * Revenue per genre and calendar month, optionally for one year.
+    *
+    * @param year the year to report, or 0 for every year
+    */
+   public Report revenueByGenreAndMonth(int year) throws SQLException {
+      final Snapshot s = snapshot();
+      Report report = new Report("genre", "month", "lines", "units", "revenue");
+      if (s.size == 0)
+         return report;
+      // months numbered from the first month in the snapshot
+      final int firstMonth = monthIndex(s.minDay);
+      final int months = monthIndex(s.maxDay) - firstMonth + 1;
+      final int fromDay = year == 0 ? Integer.MIN_VALUE : (int) LocalDate.of(year, 1, 1).toEpochDay();
+      final int toDay = year == 0 ? Integer.MAX_VALUE : (int) LocalDate.of(year + 1, 1, 1).toEpochDay();
+      final int[] monthOfDay = monthTable(s);
+      // sums[3 * (genre * months + month) + {lines, units, cents}]
+      long[] sums = scan(s, 3 * s.genres * months, (snap, from, to, acc) -> {
+         for (int i = from; i < to; ++i) {
+            int d = snap.day[i];
+            if (d < fromDay || d >= toDay)
+               continue;
+            int cell = 3 * (snap.genreOf[snap.game[i]] * months + monthOfDay[d - snap.minDay]);
+            ++acc[cell];
+            acc[cell + 1] += snap.units[i];
+            acc[cell + 2] += snap.revenueCents[i];
+         }//end for
+      });
+
+      Integer[] genres = new Integer[s.genres];
+      for (int g = 0; g < genres.length; ++g)
+         genres[g] = g;
+      Arrays.sort(genres, (a, b) -> s.genreNames[a].compareTo(s.genreNames[b]));
+      for (int g : genres) {
+         for (int m = 0; m < months; ++m) {
+            int cell = 3 * (g * months + m);
+            if (sums[cell] == 0)
+               continue;
+            YearMonth ym = YearMonth.of(1970, 1).plusMonths(firstMonth + m);
+            report.rows.add(new String[] { s.genreNames[g], ym.toString(), Long.toString(sums[cell]),
+               Long.toString(sums[cell + 1]), cents(sums[cell + 2]) });
+         }//end for
+      }//end for
+      return report;
+   }//end revenueByGenreAndMonth
+
+   /**
+    * The games rented most often in [from, to).
+    *
+    * @param from first day, inclusive
+    * @param to last day, exclusive
+    * @param limit the number of games to report
+    */
+   public Report topGames(LocalDate from, LocalDate to, int limit) throws SQLException {
+      final Snapshot s = snapshot();
+      final int fromDay = (int) from.toEpochDay();
+      final int toDay = (int) to.toEpochDay();
+      // sums[2 * game + {units, cents}]
+      long[] sums = scan(s, 2 * s.games, (snap, lo, hi, acc) -> {
+         for (int i = lo; i < hi; ++i) {
+            int d = snap.day[i];
+            if (d < fromDay || d >= toDay)
+               continue;
+            int cell = 2 * snap.game[i];
+            acc[cell] += snap.units[i];
+            acc[cell + 1] += snap.revenueCents[i];
+         }//end for
+      });
+      Report report = new Report("rank", "gameid", "genre", "units", "revenue");
+      int rank = 0;
+      for (int g : top(sums, 2, 0, s.games, limit)) {
+         report.rows.add(new String[] { Integer.toString(++rank), s.gameIDs[g], s.genreNames[s.genreOf[g]],
+            Long.toString(sums[2 * g]), cents(sums[2 * g + 1]) });
+      }//end for
+      return report;
+   }//end topGames
+
+   /**
+    * The customers who spent most in [from, to).
+    */
+   public Report topCustomers(LocalDate from, LocalDate to, int limit) throws SQLException {
+      final Snapshot s = snapshot();
+      final int fromDay = (int) from.toEpochDay();
+      final int toDay = (int) to.toEpochDay();
+      // sums[2 * user + {units, cents}]
+      long[] sums = scan(s, 2 * s.users, (snap, lo, hi, acc) -> {
+         for (int i = lo; i < hi; ++i) {
+            int d = snap.day[i];
+            if (d < fromDay || d >= toDay)
+               continue;
+            int cell = 2 * snap.user[i];
+            acc[cell] += snap.units[i];
+            acc[cell + 1] += snap.revenueCents[i];
+         }//end for
+      });
+      Report report = new Report("rank", "login", "units", "revenue");
+      int rank = 0;
+      for (int u : top(sums, 2, 1, s.users, limit)) {
+         report.rows.add(new String[] { Integer.toString(++rank), s.logins[u],
+            Long.toString(sums[2 * u]), cents(sums[2 * u + 1]) });
+      }//end for
+      return report;
+   }//end topCustomers
+
+   /*
+    * The keys with the largest sums[stride * key + field], best first,
+    * leaving out keys whose sum is zero.
+    */
+   private static int[] top(long[] sums, int stride, int field, int keys, int limit) {
+      List<Integer> candidates = new ArrayList<Integer>();
+      for (int k = 0; k < keys; ++k)
+         if (sums[stride * k + field] != 0)
+            candidates.add(k);
+      candidates.sort((a, b) -> sums[stride * a + field] != sums[stride * b + field]
+         ? Long.compare(sums[stride * b + field], sums[stride * a + field]) : Integer.compare(a, b));
+      int[] result = new int[Math.min(limit, candidates.size())];
+      for (int i = 0; i < result.length; ++i)
+         result[i] = candidates.get(i);
+      return result;
+   }//end top
+
+   private static int monthIndex(int day) {
+      LocalDate d = LocalDate.ofEpochDay(day);
+      return (d.getYear() - 1970) * 12 + d.getMonthValue() - 1;
+   }
+
+   /*
+    * Month number, counted from the snapshot's first month, of every day
+    * the snapshot spans.
+    */
+   private static int[] monthTable(Snapshot s) {
+      int first = monthIndex(s.minDay);
+      int[] table = new int[s.maxDay - s.minDay + 1];
+      for (int d = 0; d < table.length; ++d)
+         table[d] = monthIndex(s.minDay + d) - first;
+      return table;
+   }//end monthTable
+
+   private static String cents(long cents) {
+      return BigDecimal.valueOf(cents, 2).toPlainString();
+   }
+
+   /**
+    * @return the first day of the quarter containing the given day
+    */
+   public static LocalDate quarterStart(LocalDate day) {
+      return LocalDate.of(day.getYear(), (day.getMonthValue() - 1) / 3 * 3 + 1, 1);
+   }
+
+   public String stats() {
+      Snapshot s = this._snapshot;
+      if (s == null)
+         return "analytics no snapshot";
+      return "analytics lines=" + s.size + " games=" + s.games + " genres=" + s.genres + " customers=" + s.users
+         + " days=" + (s.size == 0 ? "-" : LocalDate.ofEpochDay(s.minDay) + ".." + LocalDate.ofEpochDay(s.maxDay))
+         + " taken=" + new Timestamp(s.loadedAt) + " parallelism=" + this._pool.getParallelism();
+   }//end stats
+
+}//end Analytics
@@ -0,0 +1,423 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the GameRental tables from a directory of CSV files in the data/
+ * format, replacing sql/src/load_data.sql.
+ *
+ * Each file is streamed from the client through COPY ... FROM STDIN, so
+ * no path on the database server is involved.  Tables are loaded in
+ * foreign key order, Users -> RentalOrder -> TrackingInfo/GamesInOrder,
+ * and tables that do not depend on each other are loaded in parallel on
+ * separate connections.  Secondary indexes can be dropped before the load
+ * and rebuilt afterwards.  Finally the favGames titles of the loaded
+ * users are moved into FavoriteGames and every game is stocked with
+ * setUnitsPerGame() copies.
+ *
+ * The COPY API only exists in PostgreSQL drivers from 8.4 on.  With an
+ * older driver, such as the bundled 7.3 one, rows are sent as multi-row
+ * INSERTs instead.
+ */
+public class BulkLoader {
+
+   // tables in foreign key order; tables in the same stage are independent
+   static final String[][] STAGES = {
+      { "Users", "Catalog" },
+      { "RentalOrder" },
+      { "TrackingInfo", "GamesInOrder" },
+   };
+
+   // table name to file name under the data directory
+   static final Map<String, String> FILES = new LinkedHashMap<String, String>();
+   static {
+      FILES.put("Users", "users.csv");
+      FILES.put("Catalog", "catalog.csv");
+      FILES.put("RentalOrder", "rentalorder.csv");
+      FILES.put("TrackingInfo", "trackinginfo.csv");
+      FILES.put("GamesInOrder", "gamesinorder.csv");
+   }
+
+   // moves the ID sequences past the loaded IDs, see create_tables.sql
+   static final String[] RESET_SEQUENCES = {
+      "SELECT setval('rentalorder_id_seq', (SELECT COALESCE(MAX(CAST(substring(rentalOrderID FROM 16) AS integer)), 0) + 1 FROM RentalOrder), false)",
+      "SELECT setval('trackingid_seq', (SELECT COALESCE(MAX(CAST(substring(trackingID FROM 11) AS integer)), 0) + 1 FROM TrackingInfo), false)",
+   };
+
+   // rows per INSERT statement when COPY is not available
+   public static final int INSERT_BATCH_ROWS = 500;
+
+   /**
+    * Load statistics of one table.
+    */
+   public static class Result {
+      public final String table;
+      public final long rows;
+      public final long nanos;
+      public final boolean copy;
+
+      Result(String table, long rows, long nanos, boolean copy) {
+         this.table = table;
+         this.rows = rows;
+         this.nanos = nanos;
+         this.copy = copy;
+      }//end Result
+
+      public double rowsPerSecond() {
+         return this.nanos == 0 ? 0 : this.rows * 1e9 / this.nanos;
+      }
+
+      public String toString() {
+         return String.format("%-14s %10d rows %9.3f s %12.0f rows/s (%s)",
+            this.table, this.rows, this.nanos / 1e9, rowsPerSecond(), this.copy ? "COPY" : "INSERT");
+      }
+   }//end Result
+
+   private final GameRental _esql;
+   private final File _dataDir;
+   private boolean _deferIndexes = false;
+   private boolean _truncate = false;
+   private int _unitsPerGame = Inventory.DEFAULT_UNITS;
+
+   public BulkLoader(GameRental esql, File dataDir) {
+      this._esql = esql;
+      this._dataDir = dataDir;
+   }//end BulkLoader
+
+   /**
+    * @param defer true to drop secondary indexes before loading and build
+    *        them again afterwards
+    */
+   public void setDeferIndexes(boolean defer) {
+      this._deferIndexes = defer;
+   }
+
+   /**
+    * @param truncate true to empty all tables before loading
+    */
+   public void setTruncate(boolean truncate) {
+      this._truncate = truncate;
+   }
+
+   /**
+    * @param units copies of each loaded game put in Inventory
+    */
+   public void setUnitsPerGame(int units) {
+      this._unitsPerGame = units;
+   }
+
+   /**
+    * Loads every table, stage by stage.
+    *
+    * @return the statistics of each table, in load order
+    */
+   public List<Result> load() throws SQLException, IOException {
+      for (String table : FILES.keySet()) {
+         File f = new File(this._dataDir, FILES.get(table));
+         if (!f.isFile())
+            throw new IOException("missing data file " + f);
+      }//end for
+
+      if (this._truncate)
+         this._esql.executeUpdate("TRUNCATE Users, Catalog, RentalOrder, TrackingInfo, GamesInOrder, FavoriteGames, Inventory, ReturnedOrders, "
+            + "ArchivedMonths, ArchivedRentals");
+
+      List<String> deferred = this._deferIndexes ? dropSecondaryIndexes() : new ArrayList<String>();
+
+      List<Result> results = new ArrayList<Result>();
+      ExecutorService workers = Executors.newFixedThreadPool(2);
+      try {
+         for (String[] stage : STAGES) {
+            List<Future<Result>> running = new ArrayList<Future<Result>>();
+            for (final String table : stage)
+               running.add(workers.submit(() -> loadTable(table)));
+            for (Future<Result> f : running)
+               results.add(await(f));
+         }//end for
+
+         List<Future<Object>> builds = new ArrayList<Future<Object>>();
+         for (final String def : deferred)
+            builds.add(workers.submit(() -> { this._esql.executeUpdate(def); return null; }));
+         for (Future<Object> f : builds)
+            await(f);
+      } finally {
+         workers.shutdownNow();
+      }//end try
+
+      long start = System.nanoTime();
+      int favorites = this._esql.getFavorites().migrate();
+      results.add(new Result("FavoriteGames", favorites, System.nanoTime() - start, false));
+      start = System.nanoTime();
+      int stocked = this._esql.getInventory().stockCatalog(this._unitsPerGame);
+      results.add(new Result("Inventory", stocked, System.nanoTime() - start, false));
+
+      for (String table : FILES.keySet())
+         this._esql.executeUpdate("ANALYZE " + table);
+      this._esql.executeUpdate("ANALYZE FavoriteGames");
+      this._esql.executeUpdate("ANALYZE Inventory");
+      for (String sql : RESET_SEQUENCES) {
+         try {
+            this._esql.executeQuery(sql);
+         } catch (SQLException e) {
+            System.err.println("Could not reset ID sequence: " + e.getMessage());
+         }//end try
+      }//end for
+      return results;
+   }//end load
+
+   /**
+    * Loads one table from its CSV file.
+    */
+   Result loadTable(String table) throws SQLException, IOException {
+      File file = new File(this._dataDir, FILES.get(table));
+      long start = System.nanoTime();
+      return this._esql.withConnection(conn -> {
+         try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            long rows = copyIn(conn.getConnection(), "COPY " + table + " FROM STDIN WITH CSV HEADER", in);
+            if (rows >= 0)
+               return new Result(table, rows, System.nanoTime() - start, true);
+         } catch (IOException e) {
+            throw new SQLException("failed to read " + file + ": " + e.getMessage());
+         }//end try
+         try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            long rows = insert(conn.getConnection(), table, new CsvReader(in));
+            return new Result(table, rows, System.nanoTime() - start, false);
+         } catch (IOException e) {
+            throw new SQLException("failed to read " + file + ": " + e.getMessage());
+         }//end try
+      });
+   }//end loadTable
+
+   /**
+    * Streams CSV text into a COPY ... FROM STDIN statement through the
+    * driver's CopyManager.
+    *
+    * @return the number of rows copied, or -1 when the driver has no COPY API
+    */
+   static long copyIn(Connection conn, String sql, Reader in) throws SQLException, IOException {
+      Class<?> manager;
+      Class<?> base;
+      try {
+         manager = Class.forName("org.postgresql.copy.CopyManager");
+         base = Class.forName("org.postgresql.core.BaseConnection");
+      } catch (ClassNotFoundException e) {
+         return -1;
+      }//end try
+      try {
+         Object pg = base.isInstance(conn) ? conn : conn.unwrap(base);
+         Object copy = manager.getConstructor(base).newInstance(pg);
+         return (Long) manager.getMethod("copyIn", String.class, Reader.class).invoke(copy, sql, in);
+      } catch (InvocationTargetException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         throw new SQLException("COPY failed: " + cause);
+      } catch (ReflectiveOperationException e) {
+         return -1;
+      }//end try
+   }//end copyIn
+
+   /*
+    * Sends the rows of a CSV file, after its header, as multi-row INSERTs
+    * in one transaction.  Every placeholder is cast to its column type so
+    * the text values need no driver-side conversion.
+    */
+   private static long insert(Connection conn, String table, CsvReader csv) throws SQLException, IOException {
+      String[] types;
+      Statement meta = conn.createStatement();
+      try {
+         ResultSetMetaData rsmd = meta.executeQuery("SELECT * FROM " + table + " WHERE false").getMetaData();
+         types = new String[rsmd.getColumnCount()];
+         for (int i = 0; i < types.length; ++i)
+            types[i] = rsmd.getColumnTypeName(i + 1);
+      } finally {
+         meta.close();
+      }//end try
+
+      StringBuilder row = new StringBuilder("(");
+      for (int i = 0; i < types.length; ++i)
+         row.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(types[i]).append(')');
+      row.append(')');
+
+      csv.next(); // header
+      conn.setAutoCommit(false);
+      try {
+         long total = 0;
+         PreparedStatement full = null;
+         List<String[]> batch = new ArrayList<String[]>(INSERT_BATCH_ROWS);
+         String[] record;
+         while (true) {
+            record = csv.next();
+            if (record != null) {
+               if (record.length != types.length)
+                  throw new SQLException(table + " line " + (csv.getLine() - 1) + ": expected "
+                     + types.length + " fields, found " + record.length);
+               batch.add(record);
+               if (batch.size() < INSERT_BATCH_ROWS)
+                  continue;
+            }//end if
+            if (batch.isEmpty())
+               break;
+            PreparedStatement stmt;
+            if (batch.size() == INSERT_BATCH_ROWS) {
+               if (full == null)
+                  full = conn.prepareStatement(insertSql(table, row, INSERT_BATCH_ROWS));
+               stmt = full;
+            } else {
+               stmt = conn.prepareStatement(insertSql(table, row, batch.size()));
+            }//end if
+            int p = 1;
+            for (String[] r : batch)
+               for (String v : r)
+                  stmt.setString(p++, v);
+            total += stmt.executeUpdate();
+            if (stmt != full)
+               stmt.close();
+            batch.clear();
+            if (record == null)
+               break;
+         }//end while
+         if (full != null)
+            full.close();
+         conn.commit();
+         return total;
+      } finally {
+         conn.setAutoCommit(true);
+      }//end try
+   }//end insert
+
+   private static String insertSql(String table, StringBuilder row, int rows) {
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" VALUES ");
+      for (int i = 0; i < rows; ++i)
+         sql.append(i == 0 ? "" : ", ").append(row);
+      return sql.toString();
+   }//end insertSql
+
+   /*
+    * Drops the indexes on the loaded tables that back neither a primary
+    * key nor a unique constraint.
+    * @return the definitions needed to create them again
+    */
+   private List<String> dropSecondaryIndexes() throws SQLException {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(
+         "SELECT ic.relname, pg_get_indexdef(i.indexrelid) FROM pg_index i "
+         + "JOIN pg_class ic ON ic.oid = i.indexrelid JOIN pg_class t ON t.oid = i.indrelid "
+         + "WHERE t.relname IN ('users', 'catalog', 'rentalorder', 'trackinginfo', 'gamesinorder') "
+         + "AND NOT i.indisprimary AND NOT i.indisunique");
+      List<String> defs = new ArrayList<String>();
+      for (List<String> row : rows) {
+         this._esql.executeUpdate("DROP INDEX " + row.get(0));
+         defs.add(row.get(1));
+      }//end for
+      return defs;
+   }//end dropSecondaryIndexes
+
+   /**
+    * Runs every statement of a SQL script such as create_tables.sql.
+    * Comments are removed and statements are split on semicolons.
+    */
+   public static void runScript(GameRental esql, File script) throws SQLException, IOException {
+      String text = new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8);
+      text = text.replaceAll("(?s)/\\*.*?\\*/", " ").replaceAll("--[^\n]*", " ");
+      for (String sql : text.split(";")) {
+         if (!sql.trim().isEmpty())
+            esql.executeUpdate(sql.trim());
+      }//end for
+   }//end runScript
+
+   private static <T> T await(Future<T> f) throws SQLException, IOException {
+      try {
+         return f.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("interrupted while loading");
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         throw new RuntimeException(cause);
+      }//end try
+   }//end await
+
+   /**
+    * Usage: BulkLoader dbname port user [dataDir] [--schema sqlDir]
+    *        [--truncate] [--defer-indexes] [--units n]
+    *
+    * With --schema, create_tables.sql and create_indexes.sql from sqlDir
+    * are run first.
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName()
+            + " <dbname> <port> <user> [dataDir] [--schema <sqlDir>] [--truncate] [--defer-indexes] [--units <n>]");
+         return;
+      }//end if
+
+      File dataDir = new File("data");
+      File schemaDir = null;
+      boolean truncate = false;
+      boolean defer = false;
+      int units = Inventory.DEFAULT_UNITS;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--schema") && i + 1 < args.length)
+            schemaDir = new File(args[++i]);
+         else if (args[i].equals("--truncate"))
+            truncate = true;
+         else if (args[i].equals("--defer-indexes"))
+            defer = true;
+         else if (args[i].equals("--units") && i + 1 < args.length)
+            units = Integer.parseInt(args[++i]);
+         else
+            dataDir = new File(args[i]);
+      }//end for
+
+      GameRental esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         if (schemaDir != null) {
+            runScript(esql, new File(schemaDir, "create_tables.sql"));
+            runScript(esql, new File(schemaDir, "create_indexes.sql"));
+         }//end if
+
+         BulkLoader loader = new BulkLoader(esql, dataDir);
+         loader.setTruncate(truncate);
+         loader.setDeferIndexes(defer);
+         loader.setUnitsPerGame(units);
+         long start = System.nanoTime();
+         long rows = 0;
+         for (Result r : loader.load()) {
+            System.out.println(r);
+            rows += r.rows;
+         }//end for
+         System.out.printf("%-14s %10d rows %9.3f s%n", "total", rows, (System.nanoTime() - start) / 1e9);
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end BulkLoader
@@ -0,0 +1,453 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-through, in-process copy of the Catalog table.
+ *
+ * The whole table is loaded on first use.  Browsing by genre is answered
+ * from a hash index and browsing by price from parallel primitive arrays
+ * kept sorted by price, so neither touches the database.  Writers call
+ * refresh() after changing a game, which re-reads that one row and moves
+ * it within the indexes in place.
+ *
+ * Free-text search over names and descriptions is answered from a
+ * CatalogSearch index kept in step with the other two.
+ *
+ * Rows are read from the database without holding the lock; the write
+ * lock is only taken to swap the result into the indexes.  Every read is
+ * numbered, so a row or table read earlier never replaces one read later
+ * by a concurrent refresh or reload.
+ */
+public class CatalogCache {
+
+   // column headers printed for catalog rows, as PostgreSQL reports them
+   public static final String[] COLUMNS = { "gameid", "gamename", "genre", "price", "description", "imageurl" };
+
+   // growable list of slots, used for the genre index
+   private static class IntList {
+      int[] values = new int[8];
+      int size = 0;
+
+      void add(int v) {
+         if (this.size == this.values.length)
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+         this.values[this.size++] = v;
+      }
+
+      void remove(int v) {
+         for (int i = 0; i < this.size; ++i) {
+            if (this.values[i] == v) {
+               System.arraycopy(this.values, i + 1, this.values, i, this.size - i - 1);
+               --this.size;
+               return;
+            }
+         }//end for
+      }
+   }//end IntList
+
+   // a refreshed game's row, null once it is gone, and the read it came from
+   private static class Refreshed {
+      final long read;
+      final CatalogEntry entry;
+
+      Refreshed(long read, CatalogEntry entry) {
+         this.read = read;
+         this.entry = entry;
+      }
+   }//end Refreshed
+
+   private final GameRental _esql;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   // held by the thread doing the first load, so others wait instead of loading too
+   private final Object _loading = new Object();
+
+   private volatile boolean _loaded = false;
+   // numbers reads of the table in the order they start
+   private final AtomicLong _reads = new AtomicLong();
+   // the read the installed table came from
+   private long _loadRead = 0;
+   // games refreshed since that read
+   private final HashMap<String, Refreshed> _refreshed = new HashMap<String, Refreshed>();
+
+   // slot to entry; a slot is null once its game disappeared
+   private CatalogEntry[] _entries = new CatalogEntry[0];
+   private int _slotCount = 0;
+   private HashMap<String, Integer> _slots = new HashMap<String, Integer>();
+
+   private HashMap<String, IntList> _byGenre = new HashMap<String, IntList>();
+
+   // price index: slots ordered by (price in cents, slot)
+   private long[] _priceCents = new long[0];
+   private int[] _priceSlots = new int[0];
+   private int _priceSize = 0;
+
+   private CatalogSearch _search = new CatalogSearch();
+
+   private final LongAdder _hits = new LongAdder();
+   private final LongAdder _misses = new LongAdder();
+
+   public CatalogCache(GameRental esql) {
+      this._esql = esql;
+   }//end CatalogCache
+
+   /**
+    * @return the games of the given genre, in catalog order
+    */
+   public List<CatalogEntry> byGenre(String genre) throws SQLException {
+      ensureLoaded();
+      this._lock.readLock().lock();
+      try {
+         this._hits.increment();
+         IntList slots = this._byGenre.get(genre);
+         if (slots == null)
+            return Collections.emptyList();
+         List<CatalogEntry> result = new ArrayList<CatalogEntry>(slots.size);
+         for (int i = 0; i < slots.size; ++i)
+            result.add(this._entries[slots.values[i]]);
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end byGenre
+
+   /**
+    * @param maxPrice exclusive upper bound on the price
+    * @param ascending true to order by ascending price, false for descending
+    * @return the games cheaper than maxPrice, ordered by price
+    */
+   public List<CatalogEntry> cheaperThan(double maxPrice, boolean ascending) throws SQLException {
+      ensureLoaded();
+      // price < maxPrice  <=>  cents < ceil(maxPrice * 100)
+      long bound = new BigDecimal(Double.toString(maxPrice)).movePointRight(2)
+         .setScale(0, RoundingMode.CEILING).longValue();
+      this._lock.readLock().lock();
+      try {
+         this._hits.increment();
+         int end = lowerBound(bound, Integer.MIN_VALUE);
+         List<CatalogEntry> result = new ArrayList<CatalogEntry>(end);
+         if (ascending) {
+            for (int i = 0; i < end; ++i)
+               result.add(this._entries[this._priceSlots[i]]);
+         } else {
+            for (int i = end - 1; i >= 0; --i)
+               result.add(this._entries[this._priceSlots[i]]);
+         }//end if
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end cheaperThan
+
+   /**
+    * @param query words or parts of words of the name or description
+    * @param limit the maximum number of games returned
+    * @return the best matching games, best first
+    */
+   public List<CatalogEntry> search(String query, int limit) throws SQLException {
+      ensureLoaded();
+      this._lock.readLock().lock();
+      try {
+         this._hits.increment();
+         int[] slots = this._search.search(query, limit);
+         List<CatalogEntry> result = new ArrayList<CatalogEntry>(slots.length);
+         for (int slot : slots)
+            result.add(this._entries[slot]);
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end search
+
+   /**
+    * @return the game with the given ID, or null if there is none
+    */
+   public CatalogEntry get(String gameID) throws SQLException {
+      ensureLoaded();
+      this._lock.readLock().lock();
+      try {
+         this._hits.increment();
+         Integer slot = this._slots.get(gameID);
+         return slot == null ? null : this._entries[slot];
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end get
+
+   /**
+    * @return every game, in catalog order
+    */
+   public List<CatalogEntry> all() throws SQLException {
+      ensureLoaded();
+      this._lock.readLock().lock();
+      try {
+         this._hits.increment();
+         List<CatalogEntry> result = new ArrayList<CatalogEntry>(this._slots.size());
+         for (int i = 0; i < this._slotCount; ++i) {
+            if (this._entries[i] != null)
+               result.add(this._entries[i]);
+         }//end for
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end all
+
+   /**
+    * Re-reads one game after it was written and updates the indexes.  A
+    * game that no longer exists is dropped.
+    */
+   public void refresh(String gameID) throws SQLException {
+      if (this._reads.get() == 0)
+         return; // nothing read yet, the first load reads the current row
+      this._misses.increment();
+      long read = this._reads.incrementAndGet();
+      List<CatalogEntry> rows = this._esql.withConnection(conn -> {
+         PreparedStatement stmt = conn.prepare(QueryShape.CATALOG_BY_ID);
+         stmt.setString(1, gameID);
+         return read(conn.executeQuery(QueryShape.CATALOG_BY_ID, stmt));
+      });
+      CatalogEntry entry = rows.isEmpty() ? null : rows.get(0);
+
+      this._lock.writeLock().lock();
+      try {
+         Refreshed last = this._refreshed.get(gameID);
+         if (read < this._loadRead || last != null && read < last.read)
+            return; // a later read is installed already
+         this._refreshed.put(gameID, new Refreshed(read, entry));
+         set(gameID, entry);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end refresh
+
+   /**
+    * Throws away the cached catalog and loads it again.
+    */
+   public void reload() throws SQLException {
+      load();
+   }//end reload
+
+   public int size() {
+      this._lock.readLock().lock();
+      try {
+         return this._slots.size();
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }
+
+   public long getHits() {
+      return this._hits.sum();
+   }
+
+   public long getMisses() {
+      return this._misses.sum();
+   }
+
+   /**
+    * @return a one-line summary of the cache size and hit/miss counters
+    */
+   public String stats() {
+      return "catalog games=" + size() + " genres=" + this._byGenre.size()
+         + " hits=" + getHits() + " misses=" + getMisses() + "\n" + searchStats();
+   }
+
+   private String searchStats() {
+      this._lock.readLock().lock();
+      try {
+         return this._search.stats();
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end searchStats
+
+   private void ensureLoaded() throws SQLException {
+      if (this._loaded)
+         return;
+      synchronized (this._loading) {
+         if (!this._loaded)
+            load();
+      }//end synchronized
+   }//end ensureLoaded
+
+   /*
+    * Loads the whole table and builds all indexes, then installs them
+    * under the write lock together with the games refreshed since the
+    * table was read.
+    */
+   private void load() throws SQLException {
+      this._misses.increment();
+      long read = this._reads.incrementAndGet();
+      List<CatalogEntry> rows = this._esql.withConnection(conn -> {
+         PreparedStatement stmt = conn.prepare(QueryShape.CATALOG_ALL);
+         return read(conn.executeQuery(QueryShape.CATALOG_ALL, stmt));
+      });
+
+      int n = rows.size();
+      CatalogEntry[] entries = rows.toArray(new CatalogEntry[Math.max(16, n)]);
+      HashMap<String, Integer> slots = new HashMap<String, Integer>(n * 2);
+      HashMap<String, IntList> byGenre = new HashMap<String, IntList>();
+      CatalogSearch search = new CatalogSearch();
+      for (int i = 0; i < n; ++i) {
+         slots.put(entries[i].gameID, i);
+         byGenre.computeIfAbsent(entries[i].genre, g -> new IntList()).add(i);
+         search.add(i, entries[i]);
+      }//end for
+
+      final long[] cents = new long[n];
+      Integer[] order = new Integer[n];
+      for (int i = 0; i < n; ++i) {
+         cents[i] = entries[i].priceCents();
+         order[i] = i;
+      }//end for
+      Arrays.sort(order, (a, b) -> a.intValue() == b.intValue() ? 0
+         : cents[a] != cents[b] ? Long.compare(cents[a], cents[b]) : Integer.compare(a, b));
+
+      long[] priceCents = new long[Math.max(16, n)];
+      int[] priceSlots = new int[Math.max(16, n)];
+      for (int i = 0; i < n; ++i) {
+         priceCents[i] = cents[order[i]];
+         priceSlots[i] = order[i];
+      }//end for
+
+      this._lock.writeLock().lock();
+      try {
+         if (read < this._loadRead)
+            return; // a later load is installed already
+         this._entries = entries;
+         this._slotCount = n;
+         this._slots = slots;
+         this._byGenre = byGenre;
+         this._search = search;
+         this._priceCents = priceCents;
+         this._priceSlots = priceSlots;
+         this._priceSize = n;
+         this._loadRead = read;
+         Iterator<Map.Entry<String, Refreshed>> it = this._refreshed.entrySet().iterator();
+         while (it.hasNext()) {
+            Map.Entry<String, Refreshed> r = it.next();
+            if (r.getValue().read < read)
+               it.remove();
+            else
+               set(r.getKey(), r.getValue().entry);
+         }//end while
+         this._loaded = true;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end load
+
+   /*
+    * Puts a game's row in place of the one cached, or drops it when the
+    * row is null.  Caller holds the write lock.
+    */
+   private void set(String gameID, CatalogEntry entry) {
+      Integer slot = this._slots.get(gameID);
+      if (slot != null)
+         unindex(slot);
+      if (entry == null) {
+         if (slot != null) {
+            this._slots.remove(gameID);
+            this._entries[slot] = null;
+         }//end if
+         return;
+      }//end if
+      if (slot == null) {
+         slot = this._slotCount++;
+         if (slot == this._entries.length)
+            this._entries = Arrays.copyOf(this._entries, Math.max(16, slot * 2));
+         this._slots.put(gameID, slot);
+      }//end if
+      this._entries[slot] = entry;
+      index(slot);
+   }//end set
+
+   /*
+    * Adds a slot to the genre, price and search indexes.  Caller holds the
+    * write lock.
+    */
+   private void index(int slot) {
+      CatalogEntry e = this._entries[slot];
+      this._byGenre.computeIfAbsent(e.genre, g -> new IntList()).add(slot);
+      this._search.add(slot, e);
+
+      long cents = e.priceCents();
+      int pos = lowerBound(cents, slot);
+      if (this._priceSize == this._priceCents.length) {
+         int capacity = Math.max(16, this._priceSize * 2);
+         this._priceCents = Arrays.copyOf(this._priceCents, capacity);
+         this._priceSlots = Arrays.copyOf(this._priceSlots, capacity);
+      }//end if
+      System.arraycopy(this._priceCents, pos, this._priceCents, pos + 1, this._priceSize - pos);
+      System.arraycopy(this._priceSlots, pos, this._priceSlots, pos + 1, this._priceSize - pos);
+      this._priceCents[pos] = cents;
+      this._priceSlots[pos] = slot;
+      ++this._priceSize;
+   }//end index
+
+   /*
+    * Removes a slot from the genre, price and search indexes.  Caller
+    * holds the write lock.
+    */
+   private void unindex(int slot) {
+      CatalogEntry e = this._entries[slot];
+      this._search.remove(slot, e);
+      IntList genre = this._byGenre.get(e.genre);
+      if (genre != null) {
+         genre.remove(slot);
+         if (genre.size == 0)
+            this._byGenre.remove(e.genre);
+      }//end if
+
+      int pos = lowerBound(e.priceCents(), slot);
+      if (pos < this._priceSize && this._priceSlots[pos] == slot) {
+         System.arraycopy(this._priceCents, pos + 1, this._priceCents, pos, this._priceSize - pos - 1);
+         System.arraycopy(this._priceSlots, pos + 1, this._priceSlots, pos, this._priceSize - pos - 1);
+         --this._priceSize;
+      }//end if
+   }//end unindex
+
+   /*
+    * First position in the price index whose (cents, slot) is not less
+    * than the given key.
+    */
+   private int lowerBound(long cents, int slot) {
+      int lo = 0, hi = this._priceSize;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         long c = this._priceCents[mid];
+         if (c < cents || (c == cents && this._priceSlots[mid] < slot))
+            lo = mid + 1;
+         else
+            hi = mid;
+      }//end while
+      return lo;
+   }//end lowerBound
+
+   private static List<CatalogEntry> read(ResultSet rs) throws SQLException {
+      List<CatalogEntry> rows = new ArrayList<CatalogEntry>();
+      try {
+         while (rs.next()) {
+            rows.add(new CatalogEntry(rs.getString(1), rs.getString(2), rs.getString(3),
+               rs.getBigDecimal(4), rs.getString(5), rs.getString(6)));
+         }//end while
+      } finally {
+         rs.close();
+      }//end try
+      return rows;
+   }//end read
+
+}//end CatalogCache
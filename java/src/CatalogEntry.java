@@ -0,0 +1,42 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * One row of the Catalog table.  Instances are immutable; a changed game
+ * is represented by a new entry.
+ */
+public class CatalogEntry {
+
+   public final String gameID;
+   public final String gameName;
+   public final String genre;
+   public final BigDecimal price;
+   public final String description;
+   public final String imageURL;
+
+   public CatalogEntry(String gameID, String gameName, String genre, BigDecimal price,
+                       String description, String imageURL) {
+      this.gameID = gameID;
+      this.gameName = gameName;
+      this.genre = genre;
+      this.price = price;
+      this.description = description;
+      this.imageURL = imageURL;
+   }//end CatalogEntry
+
+   /**
+    * @return the price in cents, rounded half up
+    */
+   public long priceCents() {
+      return this.price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+   }
+
+   /**
+    * @return the column values in Catalog table order
+    */
+   public String[] columns() {
+      return new String[] { this.gameID, this.gameName, this.genre,
+         this.price == null ? null : this.price.toPlainString(), this.description, this.imageURL };
+   }
+
+}//end CatalogEntry
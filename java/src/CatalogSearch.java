@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Inverted index over the names and descriptions of catalog games.
+ *
+ * Text is split into lower-case alphanumeric tokens, so a description
+ * like "Platform: Wii;  Publisher: Nintendo" yields platform, wii,
+ * publisher and nintendo.  Every token is indexed whole, separately for
+ * the name and the description, and cut into trigrams padded with '$'
+ * at both ends ("wii" gives $wi, wii and ii$).  Whole tokens answer exact
+ * words; trigrams answer prefixes ("zel"), partial words and typos
+ * ("nintedo").
+ *
+ * A query token scores a game by the best of: an exact name word, an
+ * exact description word, or the share of its trigrams the game
+ * contains, when that share reaches MIN_SIMILARITY.  Games are ranked by
+ * how many query tokens they match, then by the summed score, then by
+ * name.
+ *
+ * Postings are sorted arrays of the CatalogCache slots, so a game is
+ * added or removed in place when it changes.  The index is not
+ * synchronized; CatalogCache calls it under its own lock.
+ */
+public class CatalogSearch {
+
+   public static final int DEFAULT_LIMIT = 20;
+
+   // share of a query token's trigrams a game must contain to match
+   public static final double MIN_SIMILARITY = 0.4;
+
+   static final double NAME_WEIGHT = 3.0;
+   static final double DESCRIPTION_WEIGHT = 1.0;
+   static final double TRIGRAM_WEIGHT = 2.0;
+   // extra score when the whole query appears in the name
+   static final double PHRASE_BONUS = 2.0;
+
+   // slots touched by a query, in the order first seen
+   private static class Touched {
+      int[] slots = new int[16];
+      int size = 0;
+
+      void add(int slot) {
+         if (this.size == this.slots.length)
+            this.slots = Arrays.copyOf(this.slots, this.size * 2);
+         this.slots[this.size++] = slot;
+      }
+   }//end Touched
+
+   /*
+    * Per-thread accumulators of search(), indexed by slot.  They are all
+    * zero between queries: a query clears only the slots it touched, so
+    * its cost does not grow with the catalog.
+    */
+   private static class Scratch {
+      double[] score = new double[0];
+      int[] matched = new int[0];
+      // per query token: its best score and shared trigrams per slot
+      double[] best = new double[0];
+      int[] shared = new int[0];
+      final Touched games = new Touched();
+      final Touched hits = new Touched();
+      final Touched candidates = new Touched();
+
+      void ensure(int n) {
+         if (this.score.length >= n)
+            return;
+         this.score = new double[n];
+         this.matched = new int[n];
+         this.best = new double[n];
+         this.shared = new int[n];
+      }
+
+      void clear() {
+         for (int i = 0; i < this.games.size; ++i) {
+            this.score[this.games.slots[i]] = 0;
+            this.matched[this.games.slots[i]] = 0;
+         }//end for
+         for (int i = 0; i < this.hits.size; ++i)
+            this.best[this.hits.slots[i]] = 0;
+         for (int i = 0; i < this.candidates.size; ++i)
+            this.shared[this.candidates.slots[i]] = 0;
+         this.games.size = 0;
+         this.hits.size = 0;
+         this.candidates.size = 0;
+      }
+   }//end Scratch
+
+   // sorted, duplicate-free list of slots
+   private static class Postings {
+      int[] slots = new int[4];
+      int size = 0;
+
+      void add(int slot) {
+         int pos = Arrays.binarySearch(this.slots, 0, this.size, slot);
+         if (pos >= 0)
+            return;
+         pos = -pos - 1;
+         if (this.size == this.slots.length)
+            this.slots = Arrays.copyOf(this.slots, this.size * 2);
+         System.arraycopy(this.slots, pos, this.slots, pos + 1, this.size - pos);
+         this.slots[pos] = slot;
+         ++this.size;
+      }
+
+      void remove(int slot) {
+         int pos = Arrays.binarySearch(this.slots, 0, this.size, slot);
+         if (pos < 0)
+            return;
+         System.arraycopy(this.slots, pos + 1, this.slots, pos, this.size - pos - 1);
+         --this.size;
+      }
+   }//end Postings
+
+   private final HashMap<String, Postings> _nameTokens = new HashMap<String, Postings>();
+   private final HashMap<String, Postings> _descriptionTokens = new HashMap<String, Postings>();
+   private final HashMap<String, Postings> _trigrams = new HashMap<String, Postings>();
+
+   // slot to lower-case name, for the phrase bonus and the tie-break
+   private String[] _names = new String[16];
+   private int _games = 0;
+
+   // searches run concurrently under CatalogCache's read lock
+   private final ThreadLocal<Scratch> _scratch = ThreadLocal.withInitial(Scratch::new);
+
+   /**
+    * Indexes a game under the given slot.
+    */
+   public void add(int slot, CatalogEntry e) {
+      if (slot >= this._names.length)
+         this._names = Arrays.copyOf(this._names, Math.max(slot + 1, this._names.length * 2));
+      this._names[slot] = e.gameName == null ? "" : e.gameName.toLowerCase(Locale.ROOT);
+      ++this._games;
+      for (String t : terms(e.gameName))
+         this._nameTokens.computeIfAbsent(t, k -> new Postings()).add(slot);
+      for (String t : terms(e.description))
+         this._descriptionTokens.computeIfAbsent(t, k -> new Postings()).add(slot);
+      for (String g : trigrams(e))
+         this._trigrams.computeIfAbsent(g, k -> new Postings()).add(slot);
+   }//end add
+
+   /**
+    * Removes a game indexed under the given slot; e must be the entry it
+    * was added with.
+    */
+   public void remove(int slot, CatalogEntry e) {
+      for (String t : terms(e.gameName))
+         remove(this._nameTokens, t, slot);
+      for (String t : terms(e.description))
+         remove(this._descriptionTokens, t, slot);
+      for (String g : trigrams(e))
+         remove(this._trigrams, g, slot);
+      this._names[slot] = null;
+      --this._games;
+   }//end remove
+
+   /**
+    * @param query free text, e.g. "mario kart" or "nintendo wii"
+    * @param limit the maximum number of slots returned
+    * @return the matching slots, best first
+    */
+   public int[] search(String query, int limit) {
+      List<String> tokens = new ArrayList<String>(terms(query));
+      if (tokens.isEmpty() || limit <= 0)
+         return new int[0];
+
+      Scratch scratch = this._scratch.get();
+      scratch.ensure(this._names.length);
+      try {
+         return search(tokens, limit, scratch);
+      } finally {
+         scratch.clear();
+      }//end try
+   }//end search
+
+   private int[] search(List<String> tokens, int limit, Scratch scratch) {
+      final double[] score = scratch.score;
+      final int[] matched = scratch.matched;
+      double[] best = scratch.best;
+      int[] shared = scratch.shared;
+      Touched games = scratch.games;
+      Touched hits = scratch.hits;
+      Touched candidates = scratch.candidates;
+      for (String token : tokens) {
+         hits.size = 0;
+         raise(this._nameTokens.get(token), NAME_WEIGHT, best, hits);
+         raise(this._descriptionTokens.get(token), DESCRIPTION_WEIGHT, best, hits);
+
+         List<String> grams = trigrams(token);
+         candidates.size = 0;
+         for (String g : grams) {
+            Postings p = this._trigrams.get(g);
+            if (p == null)
+               continue;
+            for (int i = 0; i < p.size; ++i) {
+               if (shared[p.slots[i]]++ == 0)
+                  candidates.add(p.slots[i]);
+            }//end for
+         }//end for
+         for (int i = 0; i < candidates.size; ++i) {
+            int slot = candidates.slots[i];
+            double similarity = (double) shared[slot] / grams.size();
+            shared[slot] = 0;
+            if (similarity >= MIN_SIMILARITY && similarity * TRIGRAM_WEIGHT > best[slot]) {
+               if (best[slot] == 0)
+                  hits.add(slot);
+               best[slot] = similarity * TRIGRAM_WEIGHT;
+            }//end if
+         }//end for
+
+         for (int i = 0; i < hits.size; ++i) {
+            int slot = hits.slots[i];
+            if (matched[slot]++ == 0)
+               games.add(slot);
+            score[slot] += best[slot];
+            best[slot] = 0;
+         }//end for
+      }//end for
+
+      String phrase = String.join(" ", tokens);
+      Integer[] order = new Integer[games.size];
+      for (int i = 0; i < games.size; ++i) {
+         int slot = games.slots[i];
+         if (tokens.size() > 1 && this._names[slot].contains(phrase))
+            score[slot] += PHRASE_BONUS;
+         order[i] = slot;
+      }//end for
+      Arrays.sort(order, (a, b) -> matched[a] != matched[b] ? Integer.compare(matched[b], matched[a])
+         : score[a] != score[b] ? Double.compare(score[b], score[a])
+         : this._names[a].compareTo(this._names[b]));
+
+      int[] result = new int[Math.min(limit, games.size)];
+      for (int i = 0; i < result.length; ++i)
+         result[i] = order[i];
+      return result;
+   }//end search
+
+   /*
+    * Raises best[slot] to weight for every slot of the postings, noting
+    * the slots seen for the first time.
+    */
+   private static void raise(Postings p, double weight, double[] best, Touched hits) {
+      if (p == null)
+         return;
+      for (int i = 0; i < p.size; ++i) {
+         int slot = p.slots[i];
+         if (best[slot] == 0)
+            hits.add(slot);
+         best[slot] = Math.max(best[slot], weight);
+      }//end for
+   }//end raise
+
+   public int size() {
+      return this._games;
+   }
+
+   /**
+    * @return the number of distinct words and trigrams indexed
+    */
+   public String stats() {
+      return "search games=" + this._games + " nameWords=" + this._nameTokens.size()
+         + " descriptionWords=" + this._descriptionTokens.size() + " trigrams=" + this._trigrams.size();
+   }//end stats
+
+   private static void remove(HashMap<String, Postings> index, String key, int slot) {
+      Postings p = index.get(key);
+      if (p == null)
+         return;
+      p.remove(slot);
+      if (p.size == 0)
+         index.remove(key);
+   }//end remove
+
+   private static Set<String> terms(String text) {
+      return new LinkedHashSet<String>(tokens(text));
+   }
+
+   /*
+    * The distinct trigrams of every token of the name and description.
+    */
+   private static Set<String> trigrams(CatalogEntry e) {
+      Set<String> grams = new LinkedHashSet<String>();
+      for (String t : tokens(e.gameName))
+         grams.addAll(trigrams(t));
+      for (String t : tokens(e.description))
+         grams.addAll(trigrams(t));
+      return grams;
+   }//end trigrams
+
+   static List<String> trigrams(String token) {
+      String padded = "$" + token + "$";
+      List<String> grams = new ArrayList<String>(padded.length());
+      for (int i = 0; i + 3 <= padded.length(); ++i) {
+         String g = padded.substring(i, i + 3);
+         if (!grams.contains(g))
+            grams.add(g);
+      }//end for
+      return grams;
+   }//end trigrams
+
+   /**
+    * Splits text into lower-case runs of letters and digits.
+    */
+   static List<String> tokens(String text) {
+      List<String> tokens = new ArrayList<String>();
+      if (text == null)
+         return tokens;
+      int start = -1;
+      for (int i = 0; i <= text.length(); ++i) {
+         boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+         if (word && start < 0) {
+            start = i;
+         } else if (!word && start >= 0) {
+            tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            start = -1;
+         }//end if
+      }//end for
+      return tokens;
+   }//end tokens
+
+}//end CatalogSearch
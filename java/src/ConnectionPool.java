@@ -0,0 +1,408 @@
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of JDBC connections to the GameRental database.
+ *
+ * The pool keeps at least minSize connections open and never opens more
+ * than maxSize.  Borrowers wait up to the borrow timeout when every
+ * connection is in use.  Connections that sat idle, or whose last
+ * statement failed, are validated before they are handed out, and a
+ * background task closes connections that stayed idle past the idle
+ * timeout and refills the pool back to minSize.
+ */
+public class ConnectionPool {
+
+   public static final int DEFAULT_MIN_SIZE = 1;
+   public static final int DEFAULT_MAX_SIZE = 8;
+   public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+   public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30 * 1000L;
+   public static final long DEFAULT_VALIDATE_AFTER_MILLIS = 1000L;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _minSize;
+   private final int _maxSize;
+
+   private long _idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+   private long _borrowTimeoutMillis = DEFAULT_BORROW_TIMEOUT_MILLIS;
+   private long _validateAfterMillis = DEFAULT_VALIDATE_AFTER_MILLIS;
+
+   private final ReentrantLock _lock = new ReentrantLock();
+   private final Condition _available = this._lock.newCondition();
+
+   // most recently released connection first, so hot connections stay hot
+   private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+
+   // open connections plus connections currently being opened
+   private int _total = 0;
+   private boolean _closed = false;
+
+   private ScheduledExecutorService _evictor = null;
+
+   // statement stats handed to every connection opened, or null
+   private volatile Metrics _metrics = null;
+
+   // metrics, guarded by _lock
+   private long _borrows = 0;
+   private long _waits = 0;
+   private long _timeouts = 0;
+   private long _totalWaitNanos = 0;
+   private long _maxWaitNanos = 0;
+   private long _created = 0;
+   private long _discarded = 0;
+
+   /**
+    * Creates a pool.  No connection is opened until start() is called.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize the number of connections kept open at all times
+    * @param maxSize the maximum number of open connections
+    */
+   public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize) {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("invalid pool size " + minSize + ".." + maxSize);
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+   }//end ConnectionPool
+
+   public void setIdleTimeoutMillis(long millis) {
+      this._idleTimeoutMillis = millis;
+   }
+
+   public void setBorrowTimeoutMillis(long millis) {
+      this._borrowTimeoutMillis = millis;
+   }
+
+   /**
+    * @param metrics where the connections opened from now on record every
+    *        execution of a QueryShape, or null to record nothing
+    */
+   public void setMetrics(Metrics metrics) {
+      this._metrics = metrics;
+   }
+
+   /**
+    * @param millis idle time after which a connection is validated before
+    *        it is handed out, or 0 to validate on every borrow
+    */
+   public void setValidateAfterMillis(long millis) {
+      this._validateAfterMillis = millis;
+   }
+
+   /**
+    * Opens the minimum number of connections and starts idle eviction.
+    *
+    * @throws java.sql.SQLException when the first connections cannot be made
+    */
+   public void start() throws SQLException {
+      fill();
+      long period = Math.max(1000L, this._idleTimeoutMillis / 2);
+      this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "connection-pool-evictor");
+         t.setDaemon(true);
+         return t;
+      });
+      this._evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+   }//end start
+
+   /**
+    * Borrows a connection, waiting up to the borrow timeout for one to be
+    * released when the pool is exhausted.  The caller must hand it back
+    * through release().
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public PooledConnection borrow() throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos(this._borrowTimeoutMillis);
+      boolean waited = false;
+      while (true) {
+         PooledConnection conn = null;
+         boolean open = false;
+         this._lock.lock();
+         try {
+            while (true) {
+               if (this._closed)
+                  throw new SQLException("connection pool is closed");
+               conn = this._idle.pollFirst();
+               if (conn != null)
+                  break;
+               if (this._total < this._maxSize) {
+                  ++this._total;
+                  open = true;
+                  break;
+               }//end if
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0) {
+                  ++this._timeouts;
+                  throw new SQLException("timed out after " + this._borrowTimeoutMillis
+                        + " ms waiting for a database connection");
+               }//end if
+               waited = true;
+               try {
+                  this._available.awaitNanos(remaining);
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("interrupted while waiting for a database connection");
+               }//end try
+            }//end while
+         } finally {
+            this._lock.unlock();
+         }//end try
+
+         if (open) {
+            conn = open();
+         } else if (needsValidation(conn) && !conn.validate()) {
+            discard(conn);
+            continue;
+         }//end if
+         recordBorrow(System.nanoTime() - start, waited);
+         return conn;
+      }//end while
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection to the pool.  Any transaction left open
+    * is rolled back.
+    */
+   public void release(PooledConnection conn) {
+      if (conn == null)
+         return;
+      try {
+         if (!conn.getConnection().getAutoCommit()) {
+            conn.getConnection().rollback();
+            conn.getConnection().setAutoCommit(true);
+         }//end if
+      } catch (SQLException e) {
+         conn.markSuspect();
+      }//end try
+      conn.released();
+
+      this._lock.lock();
+      try {
+         if (!this._closed) {
+            this._idle.addFirst(conn);
+            this._available.signal();
+            return;
+         }//end if
+      } finally {
+         this._lock.unlock();
+      }//end try
+      discard(conn);
+   }//end release
+
+   /**
+    * Closes every idle connection and stops eviction.  Connections still
+    * borrowed are closed as they are released.
+    */
+   public void close() {
+      if (this._evictor != null)
+         this._evictor.shutdownNow();
+      ArrayDeque<PooledConnection> idle;
+      this._lock.lock();
+      try {
+         this._closed = true;
+         idle = new ArrayDeque<PooledConnection>(this._idle);
+         this._idle.clear();
+         this._available.signalAll();
+      } finally {
+         this._lock.unlock();
+      }//end try
+      for (PooledConnection conn : idle)
+         discard(conn);
+   }//end close
+
+   /**
+    * @return a one-line summary of the pool state and wait-time metrics
+    */
+   public String stats() {
+      this._lock.lock();
+      try {
+         double avgWaitMs = this._borrows == 0 ? 0 : this._totalWaitNanos / 1e6 / this._borrows;
+         return String.format("pool size=%d idle=%d max=%d borrows=%d waits=%d timeouts=%d "
+               + "avgWait=%.3fms maxWait=%.3fms created=%d discarded=%d",
+               this._total, this._idle.size(), this._maxSize, this._borrows, this._waits,
+               this._timeouts, avgWaitMs, this._maxWaitNanos / 1e6, this._created, this._discarded);
+      } finally {
+         this._lock.unlock();
+      }//end try
+   }//end stats
+
+   public int getTotalCount() {
+      this._lock.lock();
+      try {
+         return this._total;
+      } finally {
+         this._lock.unlock();
+      }
+   }
+
+   public int getIdleCount() {
+      this._lock.lock();
+      try {
+         return this._idle.size();
+      } finally {
+         this._lock.unlock();
+      }
+   }
+
+   public long getBorrowCount() {
+      this._lock.lock();
+      try {
+         return this._borrows;
+      } finally {
+         this._lock.unlock();
+      }
+   }
+
+   public long getTotalWaitNanos() {
+      this._lock.lock();
+      try {
+         return this._totalWaitNanos;
+      } finally {
+         this._lock.unlock();
+      }
+   }
+
+   public long getMaxWaitNanos() {
+      this._lock.lock();
+      try {
+         return this._maxWaitNanos;
+      } finally {
+         this._lock.unlock();
+      }
+   }
+
+   public long getTimeoutCount() {
+      this._lock.lock();
+      try {
+         return this._timeouts;
+      } finally {
+         this._lock.unlock();
+      }
+   }
+
+   private boolean needsValidation(PooledConnection conn) {
+      return conn.isSuspect()
+         || System.currentTimeMillis() - conn.getLastReleased() >= this._validateAfterMillis;
+   }
+
+   private void recordBorrow(long waitNanos, boolean waited) {
+      this._lock.lock();
+      try {
+         ++this._borrows;
+         if (waited)
+            ++this._waits;
+         this._totalWaitNanos += waitNanos;
+         if (waitNanos > this._maxWaitNanos)
+            this._maxWaitNanos = waitNanos;
+      } finally {
+         this._lock.unlock();
+      }//end try
+   }//end recordBorrow
+
+   /*
+    * Opens a physical connection for a slot already counted in _total.
+    */
+   private PooledConnection open() throws SQLException {
+      try {
+         PooledConnection conn = new PooledConnection(
+            DriverManager.getConnection(this._url, this._user, this._passwd), this._metrics);
+         this._lock.lock();
+         try {
+            ++this._created;
+         } finally {
+            this._lock.unlock();
+         }//end try
+         return conn;
+      } catch (SQLException e) {
+         this._lock.lock();
+         try {
+            --this._total;
+            this._available.signal();
+         } finally {
+            this._lock.unlock();
+         }//end try
+         throw e;
+      }//end try
+   }//end open
+
+   /*
+    * Closes a connection and frees its slot.
+    */
+   private void discard(PooledConnection conn) {
+      conn.close();
+      this._lock.lock();
+      try {
+         --this._total;
+         ++this._discarded;
+         this._available.signal();
+      } finally {
+         this._lock.unlock();
+      }//end try
+   }//end discard
+
+   /*
+    * Opens connections until the pool holds at least minSize.
+    */
+   private void fill() throws SQLException {
+      while (true) {
+         this._lock.lock();
+         try {
+            if (this._closed || this._total >= this._minSize)
+               return;
+            ++this._total;
+         } finally {
+            this._lock.unlock();
+         }//end try
+         PooledConnection conn = open();
+         release(conn);
+      }//end while
+   }//end fill
+
+   /*
+    * Closes connections idle for longer than the idle timeout, keeping at
+    * least minSize open, then tops the pool back up.
+    */
+   private void evict() {
+      ArrayDeque<PooledConnection> expired = new ArrayDeque<PooledConnection>();
+      long cutoff = System.currentTimeMillis() - this._idleTimeoutMillis;
+      this._lock.lock();
+      try {
+         // the least recently used connections sit at the tail
+         Iterator<PooledConnection> it = this._idle.descendingIterator();
+         while (it.hasNext() && this._total - expired.size() > this._minSize) {
+            PooledConnection conn = it.next();
+            if (conn.getLastReleased() > cutoff)
+               break;
+            it.remove();
+            expired.add(conn);
+         }//end while
+      } finally {
+         this._lock.unlock();
+      }//end try
+      for (PooledConnection conn : expired)
+         discard(conn);
+      try {
+         fill();
+      } catch (SQLException e) {
+         // the database is unreachable, try again on the next run.
+      }//end try
+   }//end evict
+
+}//end ConnectionPool
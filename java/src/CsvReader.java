@@ -0,0 +1,128 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for the CSV files under data/: comma separated fields,
+ * optionally enclosed in double quotes, with "" standing for a quote
+ * inside a quoted field.  Quoted fields may contain commas and newlines.
+ *
+ * Like PostgreSQL's CSV COPY format, an empty unquoted field is returned
+ * as null and an empty quoted field as the empty string.
+ */
+public class CsvReader implements Closeable {
+
+   private final Reader _in;
+   private final char[] _buf = new char[64 * 1024];
+   private int _pos = 0;
+   private int _len = 0;
+   private long _line = 1;
+
+   public CsvReader(Reader in) {
+      this._in = in;
+   }//end CsvReader
+
+   /**
+    * Reads the next record.
+    *
+    * @return the fields of the record, or null at end of input
+    * @throws java.io.IOException on read errors or an unterminated quote
+    */
+   public String[] next() throws IOException {
+      int c = read();
+      if (c < 0)
+         return null;
+
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      while (true) {
+         if (c == '"' && field.length() == 0 && !quoted) {
+            quoted = true;
+            readQuoted(field);
+            c = read();
+            continue;
+         }//end if
+         if (c == ',') {
+            fields.add(value(field, quoted));
+            field.setLength(0);
+            quoted = false;
+         } else if (c == '\n' || c < 0) {
+            ++this._line;
+            break;
+         } else if (c == '\r') {
+            // handled with the following \n
+         } else {
+            field.append((char) c);
+         }//end if
+         c = read();
+      }//end while
+      fields.add(value(field, quoted));
+      return fields.toArray(new String[fields.size()]);
+   }//end next
+
+   /**
+    * @return the number of the line the next record starts on
+    */
+   public long getLine() {
+      return this._line;
+   }
+
+   public void close() throws IOException {
+      this._in.close();
+   }
+
+   private static String value(StringBuilder field, boolean quoted) {
+      if (!quoted && field.length() == 0)
+         return null;
+      return field.toString();
+   }
+
+   /*
+    * Reads the rest of a quoted field, after its opening quote.
+    */
+   private void readQuoted(StringBuilder field) throws IOException {
+      long start = this._line;
+      while (true) {
+         int c = read();
+         if (c < 0)
+            throw new IOException("unterminated quoted field starting on line " + start);
+         if (c == '"') {
+            if (peek() == '"') {
+               read();
+               field.append('"');
+               continue;
+            }//end if
+            return;
+         }//end if
+         if (c == '\n')
+            ++this._line;
+         field.append((char) c);
+      }//end while
+   }//end readQuoted
+
+   private int read() throws IOException {
+      if (this._pos == this._len && !fill())
+         return -1;
+      return this._buf[this._pos++];
+   }
+
+   private int peek() throws IOException {
+      if (this._pos == this._len && !fill())
+         return -1;
+      return this._buf[this._pos];
+   }
+
+   private boolean fill() throws IOException {
+      this._len = this._in.read(this._buf, 0, this._buf.length);
+      this._pos = 0;
+      if (this._len <= 0) {
+         this._len = 0;
+         return false;
+      }//end if
+      return true;
+   }//end fill
+
+}//end CsvReader
@@ -0,0 +1,363 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Favorite games, stored in the FavoriteGames relation and indexed in
+ * memory both ways.
+ *
+ * Each user's favorites are a hash set of game IDs, so adding and
+ * removing one is O(1) besides its single-row write.  Each game has a
+ * bitmap over densely numbered users, so "who likes X" walks one bitmap,
+ * the number of fans is a stored count, and campaigns aimed at fans of
+ * several games AND or OR the bitmaps word by word.
+ *
+ * The in-memory sets answer reads and turn away repeated or excess adds
+ * early, but the database has the last word: an add locks the user's row
+ * and inserts only while the user has fewer than MAX_PER_USER rows, so
+ * neither a duplicate nor the bound can slip through concurrent adds.
+ *
+ * The relation replaces the free-text Users.favGames list, whose titles
+ * are moved over by migrate(); BulkLoader runs it after every load.
+ */
+public class Favorites {
+
+   // favorites one user may keep
+   public static final int MAX_PER_USER = 100;
+
+   /*
+    * Growable bitmap of user numbers with its cardinality.
+    */
+   static class Bitmap {
+      long[] words = new long[4];
+      int count = 0;
+
+      boolean set(int i) {
+         int w = i >>> 6;
+         if (w >= this.words.length)
+            this.words = Arrays.copyOf(this.words, Math.max(w + 1, this.words.length * 2));
+         long bit = 1L << i;
+         if ((this.words[w] & bit) != 0)
+            return false;
+         this.words[w] |= bit;
+         ++this.count;
+         return true;
+      }//end set
+
+      boolean clear(int i) {
+         int w = i >>> 6;
+         long bit = 1L << i;
+         if (w >= this.words.length || (this.words[w] & bit) == 0)
+            return false;
+         this.words[w] &= ~bit;
+         --this.count;
+         return true;
+      }//end clear
+   }//end Bitmap
+
+   private final GameRental _esql;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   private boolean _loaded = false;
+   private HashMap<String, Integer> _userNumbers = new HashMap<String, Integer>();
+   private String[] _logins = new String[1024];
+   private int _users = 0;
+   private HashMap<String, LinkedHashSet<String>> _byUser = new HashMap<String, LinkedHashSet<String>>();
+   private HashMap<String, Bitmap> _byGame = new HashMap<String, Bitmap>();
+   private long _rows = 0;
+
+   public Favorites(GameRental esql) {
+      this._esql = esql;
+   }//end Favorites
+
+   /**
+    * @return the user's favorite game IDs, oldest first
+    */
+   public List<String> of(String login) throws SQLException {
+      ensureLoaded();
+      this._lock.readLock().lock();
+      try {
+         LinkedHashSet<String> games = this._byUser.get(login);
+         return games == null ? new ArrayList<String>() : new ArrayList<String>(games);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end of
+
+   /**
+    * Adds a favorite.
+    *
+    * @return false if the game already was a favorite
+    * @throws java.sql.SQLException when the game does not exist or the
+    *         user already has MAX_PER_USER favorites
+    */
+   public boolean add(String login, String gameID) throws SQLException {
+      ensureLoaded();
+      if (this._esql.getCatalog().get(gameID) == null)
+         throw new SQLException("Unknown game ID: " + gameID);
+      this._lock.readLock().lock();
+      try {
+         LinkedHashSet<String> games = this._byUser.get(login);
+         if (games != null && games.contains(gameID))
+            return false;
+         if (games != null && games.size() >= MAX_PER_USER)
+            throw new SQLException("At most " + MAX_PER_USER + " favorite games are allowed");
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+
+      // the user's row lock serializes adds, so the count below is exact
+      boolean inserted = this._esql.measured(this._esql.getMetrics().operation("updateProfile"), b -> b ? 1 : 0,
+            () -> this._esql.inTransaction(conn -> {
+         PreparedStatement stmt = conn.prepare(QueryShape.FAVORITE_LOCK_USER);
+         GameRental.bind(stmt, login);
+         try (ResultSet rs = conn.executeQuery(QueryShape.FAVORITE_LOCK_USER, stmt)) {
+            if (!rs.next())
+               throw new SQLException("Unknown user: " + login);
+         }//end try
+         stmt = conn.prepare(QueryShape.INSERT_FAVORITE);
+         GameRental.bind(stmt, login, gameID, login, MAX_PER_USER);
+         if (conn.executeUpdate(QueryShape.INSERT_FAVORITE, stmt) == 1)
+            return true;
+         stmt = conn.prepare(QueryShape.FAVORITE_EXISTS);
+         GameRental.bind(stmt, login, gameID);
+         try (ResultSet rs = conn.executeQuery(QueryShape.FAVORITE_EXISTS, stmt)) {
+            if (rs.next())
+               return false;
+         }//end try
+         throw new SQLException("At most " + MAX_PER_USER + " favorite games are allowed");
+      }));
+      if (!inserted)
+         return false;
+      this._lock.writeLock().lock();
+      try {
+         return index(login, gameID);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end add
+
+   /**
+    * Removes a favorite.
+    *
+    * @return false if the game was not a favorite
+    */
+   public boolean remove(String login, String gameID) throws SQLException {
+      ensureLoaded();
+      this._esql.measured(this._esql.getMetrics().operation("updateProfile"), n -> n,
+            () -> this._esql.executeUpdate(QueryShape.DELETE_FAVORITE, login, gameID));
+      this._lock.writeLock().lock();
+      try {
+         LinkedHashSet<String> games = this._byUser.get(login);
+         if (games == null || !games.remove(gameID))
+            return false;
+         if (games.isEmpty())
+            this._byUser.remove(login);
+         Bitmap fans = this._byGame.get(gameID);
+         if (fans != null && fans.clear(this._userNumbers.get(login)) && fans.count == 0)
+            this._byGame.remove(gameID);
+         --this._rows;
+         return true;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end remove
+
+   /**
+    * Follows a login change made through updateUser; FavoriteGames rows
+    * were moved by ON UPDATE CASCADE.
+    */
+   public void renameUser(String oldLogin, String newLogin) {
+      this._lock.writeLock().lock();
+      try {
+         Integer n = this._userNumbers.remove(oldLogin);
+         if (n == null)
+            return;
+         this._userNumbers.put(newLogin, n);
+         this._logins[n] = newLogin;
+         LinkedHashSet<String> games = this._byUser.remove(oldLogin);
+         if (games != null)
+            this._byUser.put(newLogin, games);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end renameUser
+
+   /**
+    * @return the number of users who list the game as a favorite
+    */
+   public int count(String gameID) throws SQLException {
+      ensureLoaded();
+      this._lock.readLock().lock();
+      try {
+         Bitmap fans = this._byGame.get(gameID);
+         return fans == null ? 0 : fans.count;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end count
+
+   /**
+    * @return the logins of the users who list the game as a favorite
+    */
+   public List<String> fans(String gameID) throws SQLException {
+      return fans(Collections.singletonList(gameID), false);
+   }
+
+   /**
+    * @param all true for the users who like every game given, false for
+    *        those who like any of them
+    * @return the matching logins
+    */
+   public List<String> fans(Collection<String> gameIDs, boolean all) throws SQLException {
+      ensureLoaded();
+      this._lock.readLock().lock();
+      try {
+         long[] words = null;
+         for (String gameID : gameIDs) {
+            Bitmap b = this._byGame.get(gameID);
+            if (b == null) {
+               if (all)
+                  return new ArrayList<String>();
+               continue;
+            }//end if
+            if (words == null) {
+               words = b.words.clone();
+            } else if (all) {
+               for (int w = 0; w < words.length; ++w)
+                  words[w] &= w < b.words.length ? b.words[w] : 0;
+            } else {
+               if (b.words.length > words.length)
+                  words = Arrays.copyOf(words, b.words.length);
+               for (int w = 0; w < b.words.length; ++w)
+                  words[w] |= b.words[w];
+            }//end if
+         }//end for
+
+         List<String> logins = new ArrayList<String>();
+         if (words == null)
+            return logins;
+         for (int w = 0; w < words.length; ++w) {
+            for (long bits = words[w]; bits != 0; bits &= bits - 1)
+               logins.add(this._logins[(w << 6) + Long.numberOfTrailingZeros(bits)]);
+         }//end for
+         return logins;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end fans
+
+   /**
+    * @return up to limit game IDs with their fan counts, most liked first
+    */
+   public List<Map.Entry<String, Integer>> mostFavorited(int limit) throws SQLException {
+      ensureLoaded();
+      this._lock.readLock().lock();
+      try {
+         List<Map.Entry<String, Integer>> counts = new ArrayList<Map.Entry<String, Integer>>(this._byGame.size());
+         for (Map.Entry<String, Bitmap> e : this._byGame.entrySet())
+            counts.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(e.getKey(), e.getValue().count));
+         counts.sort((a, b) -> a.getValue().intValue() != b.getValue().intValue()
+            ? Integer.compare(b.getValue(), a.getValue()) : a.getKey().compareTo(b.getKey()));
+         return counts.subList(0, Math.min(limit, counts.size()));
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end mostFavorited
+
+   /**
+    * Copies the titles of Users.favGames into FavoriteGames, matching them
+    * to catalog names without regard to case.  Titles with no catalog
+    * game are left in favGames only.  Running it again adds nothing.
+    *
+    * @return the number of favorites added
+    */
+   public int migrate() throws SQLException {
+      int added = this._esql.executeUpdate(QueryShape.MIGRATE_FAVORITES);
+      reload();
+      return added;
+   }//end migrate
+
+   /**
+    * Throws away the in-memory index and reads FavoriteGames again.
+    */
+   public void reload() throws SQLException {
+      this._lock.writeLock().lock();
+      try {
+         load();
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end reload
+
+   public String stats() {
+      this._lock.readLock().lock();
+      try {
+         return "favorites rows=" + this._rows + " users=" + this._byUser.size() + " games=" + this._byGame.size();
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+   private void ensureLoaded() throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         if (this._loaded)
+            return;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+      this._lock.writeLock().lock();
+      try {
+         if (!this._loaded)
+            load();
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end ensureLoaded
+
+   /*
+    * Reads the whole relation.  Caller holds the write lock.
+    */
+   private void load() throws SQLException {
+      this._userNumbers = new HashMap<String, Integer>();
+      this._logins = new String[1024];
+      this._users = 0;
+      this._byUser = new HashMap<String, LinkedHashSet<String>>();
+      this._byGame = new HashMap<String, Bitmap>();
+      this._rows = 0;
+      this._esql.streamQuery(QueryShape.FAVORITES_ALL, rs -> index(rs.getString(1), rs.getString(2)));
+      this._loaded = true;
+   }//end load
+
+   /*
+    * Adds one favorite to both indexes.  Caller holds the write lock.
+    */
+   private boolean index(String login, String gameID) {
+      LinkedHashSet<String> games = this._byUser.computeIfAbsent(login, l -> new LinkedHashSet<String>());
+      if (!games.add(gameID))
+         return false;
+      Integer n = this._userNumbers.get(login);
+      if (n == null) {
+         if (this._users == this._logins.length)
+            this._logins = Arrays.copyOf(this._logins, this._users * 2);
+         n = this._users++;
+         this._logins[n] = login;
+         this._userNumbers.put(login, n);
+      }//end if
+      this._byGame.computeIfAbsent(gameID, g -> new Bitmap()).set(n);
+      ++this._rows;
+      return true;
+   }//end index
+
+}//end Favorites
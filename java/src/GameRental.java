@@ -1,849 +1,810 @@
-/*
- * Template JAVA User Interface
- * =============================
- *
- * Database Management Systems
- * Department of Computer Science &amp; Engineering
- * University of California - Riverside
- *
- * Target DBMS: 'Postgres'
- *
- */
-
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.List;
-import java.util.ArrayList;
-import java.lang.Math;
-import java.util.Scanner;
-import java.io.IOException;
-import java.sql.Timestamp;  
-import java.util.Random;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-
-/**
- * This class defines a simple embedded SQL utility class that is designed to
- * work with PostgreSQL JDBC drivers.
- *
- */
-public class GameRental {
-
-   // reference to physical database connection.
-   private Connection _connection = null;
-
-   // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
-
-   // global variables (to use in different functions)
-   static Scanner scanner = new Scanner(System.in);
-   static ResultSet rsRole;
-   static String inputLogin = "";
-   static String inputPassword = "";
-   static String favGames;
-   static String inputRole = "";
-   static String inputPhoneNumber= "";
-   static int numOverdueGames;
-
-   /**
-    * Creates a new instance of GameRental store
-    *
-    * @param hostname the MySQL or PostgreSQL server hostname
-    * @param database the name of the database
-    * @param username the user name used to login to the database
-    * @param password the user login password
-    * @throws java.sql.SQLException when failed to make a connection.
-    */
-   public GameRental(String dbname, String dbport, String user, String passwd) throws SQLException {
-
-      System.out.print("Connecting to database...");
-      try{
-         // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
-
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
-         System.out.println("Done");
-      }catch (Exception e){
-         System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
-         System.out.println("Make sure you started postgres on this machine");
-         System.exit(-1);
-      }//end catch
-   }//end GameRental
-
-   /**
-    * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
-    *
-    * @param sql the input SQL string
-    * @throws java.sql.SQLException when update failed
-    */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and outputs the results to
-    * standard out.
-    *
-    * @param query the input query string
-    * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-     if(outputHeader){
-      for(int i = 1; i <= numCol; i++){
-      System.out.print(rsmd.getColumnName(i) + "\t");
-      }
-      System.out.println();
-      outputHeader = false;
-     }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
-   }//end executeQuery
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the results as
-    * a list of records. Each record in turn is a list of attribute values
-    *
-    * @param query the input query string
-    * @return the query result as a list of records
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-    for (int i=1; i<=numCol; ++i)
-      record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
-   }//end executeQueryAndReturnResult
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
-    *
-    * @param query the input query string
-    * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
-
-       int rowCount = 0;
-
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
-
-   /**
-    * Method to fetch the last value from sequence. This
-    * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
-    *
-    * @param sequence name of the DB sequence
-    * @return current value of a sequence
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int getCurrSeqVal(String sequence) throws SQLException {
-  Statement stmt = this._connection.createStatement ();
-
-  ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-  if (rs.next())
-    return rs.getInt(1);
-  return -1;
-   }
-
-   /**
-    * Method to close the physical connection if it is open.
-    */
-   public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
-   }//end cleanup
-
-   /**
-    * The main execution method
-    *
-    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
-    */
-   public static void main (String[] args) {
-      if (args.length != 3) {
-         System.err.println (
-            "Usage: " +
-            "java [-classpath <classpath>] " +
-            GameRental.class.getName () +
-            " <dbname> <port> <user>");
-         return;
-      }//end if
-
-      Greeting();
-      GameRental esql = null;
-      try{
-         // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
-         // instantiate the GameRental object and creates a physical
-         // connection.
-         String dbname = args[0];
-         String dbport = args[1];
-         String user = args[2];
-         esql = new GameRental (dbname, dbport, user, "");
-
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
-            String authorisedUser = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
-               case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
-            }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-              while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. View Profile");
-                System.out.println("2. Update Profile");
-                System.out.println("3. View Catalog");
-                System.out.println("4. Place Rental Order");
-                System.out.println("5. View Full Rental Order History");
-                System.out.println("6. View Past 5 Rental Orders");
-                System.out.println("7. View Rental Order Information");
-                System.out.println("8. View Tracking Information");
-
-                //the following functionalities basically used by employees & managers
-                System.out.println("9. Update Tracking Information");
-
-                //the following functionalities basically used by managers
-                System.out.println("10. Update Catalog");
-                System.out.println("11. Update User");
-
-                System.out.println(".........................");
-                System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: viewProfile(esql); break;
-                   case 2: updateProfile(esql); break;
-                   case 3: viewCatalog(esql, scanner); break;
-                   case 4: placeOrder(esql); break;
-                   case 5: viewAllOrders(esql); break;
-                   case 6: viewRecentOrders(esql); break;
-                   case 7: viewOrderInfo(esql); break;
-                   case 8: viewTrackingInfo(esql); break;
-                   case 9: updateTrackingInfo(esql); break;
-                   case 10: updateCatalog(esql, scanner); break;
-                   case 11: updateUser(esql); break;
-
-
-
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
-                }
-              }
-            }
-         }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
-      }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
-         }//end try
-      }//end try
-   }//end main
-
-   public static void Greeting(){
-      System.out.println(
-         "\n\n*******************************************************\n" +
-         "              User Interface      	               \n" +
-         "*******************************************************\n");
-   }//end Greeting
-
-   /*
-    * Reads the users choice given from the keyboard
-    * @int
-    **/
-   public static int readChoice() {
-      int input;
-      // returns only if a correct value is given.
-      do {
-         System.out.print("Please make your choice: ");
-         try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
-            break;
-         }catch (Exception e) {
-            System.out.println("Your input is invalid!");
-            continue;
-         }//end try
-      }while (true);
-      return input;
-   }//end readChoice
-
-   /*
-    * Creates a new user
-    **/
-
-  //new user registration
-  public static void CreateUser(GameRental esql){
-   try{
-       System.out.print("\tEnter login: ");
-       inputLogin = in.readLine();
-
-       System.out.print("\tEnter password: ");
-       inputPassword = in.readLine();
-
-       System.out.print("\tEnter role: ");
-       inputRole = in.readLine();
-
-       System.out.print("\tEnter phone number: ");
-       inputPhoneNumber= in.readLine();
-
-       favGames = "";
-       numOverdueGames = 0;
-
-       String query = "INSERT INTO Users (login, password, role, favGames, phoneNum, numOverDueGames) VALUES (\'" + inputLogin + "\', \'" + inputPassword + "\', \'" + inputRole + "\', \'" + favGames + "\', \'" + inputPhoneNumber + "\'," + numOverdueGames + ");";
-
-       esql.executeUpdate(query);
-       // System.out.println ("total row(s): " + rowCount); //debug statement
-    }catch(Exception e){
-       System.out.println ("error in insert");
-       System.err.println (e.getMessage());
-    }
-   }//end CreateUser
-
-
-   /*
-    * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
-    **/
-   //user login/logout
- /**
- * Check log in credentials for an existing user
- * @return User login or null if the user does not exist
- **/
-public static String LogIn(GameRental esql) {
-    try {
-        System.out.print("\tWhat is your login?: ");
-        String userLogin = in.readLine();
-
-        System.out.print("\tWhat is your password?: ");
-        String userPassword = in.readLine();
-
-        String query = "SELECT * FROM Users WHERE login = \'" + userLogin + "\' AND password = \'" + userPassword + "\';";
-        List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
-        if (result.size() > 0) {
-            inputLogin = userLogin;
-            inputPassword = userPassword;
-            favGames = result.get(0).get(3); // assuming favGames is the 4th column in the Users table
-            inputPhoneNumber = result.get(0).get(4); // assuming phoneNum is the 5th column in the Users table
-            numOverdueGames = Integer.parseInt(result.get(0).get(5)); // assuming numOverDueGames is the 6th column in the Users table
-            inputRole = result.get(0).get(2); // assuming role is the 3rd column in the Users table
-            System.out.println("Logged in as " + inputRole);
-            return userLogin;
-        } else {
-            System.out.println("Invalid login or password!");
-        }
-    } catch (Exception e) {
-        System.err.println(e.getMessage());
-    }
-    return null;
-}
-
-   //browse catalog games
-public static void viewCatalog(GameRental esql, Scanner scanner) {
-    try {
-        int userInput = 0;
-
-        while (userInput != 3) {
-            System.out.print("\tChoose an option below:\n");
-            System.out.print("\t1. Filter by genre\n");
-            System.out.print("\t2. Filter by price\n");
-            System.out.print("\t3. Exit\n");
-
-            userInput = Integer.parseInt(in.readLine());
-
-            // Sort by genre
-            if (userInput == 1) {
-                System.out.print("\tEnter the genre you want to see: ");
-                String genre = in.readLine();
-
-                String query = "SELECT * FROM Catalog C WHERE C.genre = \'" + genre + "\';";
-                esql.executeQueryAndPrintResult(query);
-            }
-            // Sort by price
-            else if (userInput == 2) {
-                System.out.print("\tEnter the maximum price you want to see: ");
-                double price = scanner.nextDouble();
-
-                System.out.print("\tDo you want to sort by ascending (1) or descending (2) price?: ");
-                int AscDescInput = Integer.parseInt(in.readLine());
-
-                if (AscDescInput == 1) {
-                    String query = "SELECT * FROM Catalog C WHERE C.price < " + price + " ORDER BY price ASC";
-                    esql.executeQueryAndPrintResult(query);
-                } else if (AscDescInput == 2) {
-                    String query = "SELECT * FROM Catalog C WHERE C.price < " + price + " ORDER BY price DESC";
-                    esql.executeQueryAndPrintResult(query);
-                }
-            }
-        }
-    } catch (Exception e) {
-        System.err.println(e.getMessage());
-    }
-}
-
-   //profile (any user can view)
-   public static void viewProfile(GameRental esql) {
-      try{        
-        int userInput = 0;
-
-        while (userInput != 4) {
-          System.out.print("\tChoose an option below:");
-          System.out.print("\t1. View Favorite Games");
-          System.out.print("\t2. View Num Overdue Games");
-          System.out.print("\t3. View Phone Number");
-          System.out.print("\t4. Exit");
-
-          userInput = Integer.parseInt(in.readLine());
-
-          if (userInput == 1) {
-            System.out.print("\tMy Favorite Games: ");
-            System.out.print(favGames);
-          }
-          else if (userInput == 2) {
-            System.out.print("\tMy Num Overdue Games: ");
-            System.out.print(numOverdueGames);
-          }
-          else if (userInput == 3) {
-            System.out.print("\tMy Phone Number: ");
-            System.out.print(inputPhoneNumber);
-          }
-        }
-     }catch(Exception e){
-         System.err.println (e.getMessage());
-     }
-   }
-
-   //profile (only things customer can update)
-   public static void updateProfile(GameRental esql) {
-      try{
-        System.out.print("\tWhat is your login?: "); 
-        String userLogin = in.readLine();
-
-        int userInput = 0;
-
-        while (userInput != 4) {
-          System.out.print("\tChoose an option below:");
-          System.out.print("\t1. Update Favorite Games");
-          System.out.print("\t2. Change Password");
-          System.out.print("\t3. Change Phone Number");
-          System.out.print("\t4. Exit");
-
-          userInput = Integer.parseInt(in.readLine());
-
-          if (userInput == 1) {
-            System.out.print("\tWhat would you like to add to your favorite games?: ");
-            String newFavGame = in.readLine();
-            favGames = favGames + ", " + newFavGame;
-
-            String query = "UPDATE Users SET favGames = \'" + favGames + "\' WHERE login = \'" + userLogin + "\';";
-            esql.executeUpdate(query);
-          }
-          else if (userInput == 2) {
-            System.out.print("\tChange Password! What do you want your new password to be?: ");
-            inputPassword = in.readLine();
-
-            String query = "UPDATE Users SET password = \'" + inputPassword + "\' WHERE login = \'" + userLogin + "\';";
-            esql.executeUpdate(query);
-          }
-          else if (userInput == 3) {
-            System.out.print("\tChange Phone Number! What do you want your new phone number to be?: ");
-            inputPhoneNumber = in.readLine();
-
-            String query = "UPDATE Users SET phoneNum = \'" + inputPhoneNumber + "\' WHERE login = \'" + userLogin + "\';";
-            esql.executeUpdate(query);
-          }
-       }
-     }catch(Exception e){
-         System.err.println (e.getMessage());
-     }
-   }
-
-   //manager (user info only manager can update)
-   public static void updateUser(GameRental esql) {
-      try{ 
-        System.out.print("\tWhat is your login?: "); 
-        String userLogin = in.readLine();
-
-        //manager capabilities
-        if (inputRole.equals("manager")) {
-          System.out.print("\tWhich user do you want to change (enter login)?: ");
-          String changeUser = in.readLine();
-
-          int userInput = 0;
-
-          while (userInput != 4) {
-            System.out.print("\tChoose an option below:");
-            System.out.print("\t1. Edit User Login");
-            System.out.print("\t2. Edit User Role");
-            System.out.print("\t3. Edit User Num Overdue Games");
-            System.out.print("\t4. Exit");
-
-            userInput = Integer.parseInt(in.readLine());
-
-            if (userInput == 1) {
-              System.out.print("\tWhat would you like the new login for user " + changeUser + " to be?: ");
-              String newLogin = in.readLine();
-
-              String query = "UPDATE Users SET login = \'" + newLogin + "\' WHERE login = \'" + changeUser + "\';";
-              esql.executeUpdate(query);
-            }
-            else if (userInput == 2) {
-              System.out.print("\tWhat do you want the new role for user " + changeUser + " to be?: ");
-              String newRole = in.readLine();
-
-              String query = "UPDATE Users SET role = \'" + newRole + "\' WHERE login = \'" + changeUser + "\';";
-              esql.executeUpdate(query);
-            }
-            else if (userInput == 3) {
-               System.out.print("\tChange number of overdue games to: ");
-               int newGames = Integer.parseInt(in.readLine());
-
-               String query = "UPDATE Users SET numOverDueGames = " + newGames + " WHERE login = \'" + changeUser + "\';";
-               esql.executeUpdate(query);
-            }
-          }
-        }
-     }catch(Exception e){
-         System.err.println (e.getMessage());
-     }
-   }
-
-   //place rental order
-   public static void placeOrder(GameRental esql) {
-     try{
-       int userInput = 0;
-
-       while (userInput != 2) {
-         System.out.print("\tChoose an option below:");
-         System.out.print("\t1. Rent A Game");
-         System.out.print("\t2. Exit");
-
-         userInput = Integer.parseInt(in.readLine());
-
-         if (userInput == 1) {
-           System.out.print("\tInput the game ID of the game you want to order: ");
-           String gameID = in.readLine();
-
-           System.out.print("\tInput how many units of " + gameID + " you want: ");
-           int numUnits = Integer.parseInt(in.readLine());
-
-           //get total price of rental order
-           String pQuery = "SELECT price FROM Catalog WHERE gameID = \'" + gameID + "\';";
-           List<List<String>> priceQuery = esql.executeQueryAndReturnResult(pQuery);
-           
-           double dPrice = Double.parseDouble(priceQuery.get(0).get(0));
-           double totalPrice = numUnits * dPrice;
-           System.out.print("\tTotal Price of Rental Order: " + totalPrice);
-           
-           //get rental order ID
-           Random rand = new Random();
-           int orderIDNum = rand.nextInt(1000);
-					 String orderIDString = Integer.toString(orderIDNum);
-           String finalOrderID = "gamerentalorder" + orderIDString;
-           
-           //get tracking ID
-           int trackingIDNum = rand.nextInt(1000);
-					 String trackerIDString = Integer.toString(trackingIDNum);
-           String finalTrackingID = "trackingid" + trackerIDString;
-          
-           //get timestamp
-           Timestamp instant = new Timestamp(System.currentTimeMillis());
-           LocalDateTime dateNextWeek = LocalDateTime.now().plusWeeks(1);
-           DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-           String formattedDateNextWeek = dateNextWeek.format(formatter);
-
-           // insert into RentalOrderTable
-           String query = "INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) VALUES (\'" + finalOrderID + "\', \'" + inputLogin + "\', " + numUnits + ", " + totalPrice + ", \'" + instant + "\', \'" + formattedDateNextWeek + "\');";
-           esql.executeUpdate(query);
-           
-           // insert into GamesInOrder
-           String query2 = "INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered) VALUES (\'" + finalOrderID + "\', \'" + gameID + "\', " + numUnits + ");";
-           esql.executeUpdate(query2);
-
-           // insert into TrackingInfo
-           String query3 = "INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate) " + "VALUES ('" + finalTrackingID + "', '" + finalOrderID + "', 'Pending', 'Warehouse', 'FedEx', '" + instant + "')";
-           esql.executeUpdate(query3);
-         }
-       }
-     }catch(Exception e){
-         System.err.println(e.getMessage());
-     }
-   }
-
-  //update game information (manager only)
-  public static void updateCatalog(GameRental esql, Scanner scanner) {
-    try{
-      if (inputRole.equals("manager")) {
-        int userInput = 0;
-
-        while (userInput != 5) {
-          System.out.print("\tWhat is the game ID of the game you want to update?: ");
-          int changedGameID = Integer.parseInt(in.readLine());
-
-          System.out.print("\tChoose an option below:");
-          System.out.print("\t1. Update Game Name");
-          System.out.print("\t2. Update Game Genre");
-          System.out.print("\t3. Update Game Price");
-          System.out.print("\t4. Update Game Description");
-          System.out.print("\t5. Exit");
-
-          userInput = Integer.parseInt(in.readLine());
-
-          if (userInput == 1) {
-            System.out.print("\tWhat would you like to change the game name to?: ");
-            String newGameName = in.readLine();
-
-            String query = "UPDATE Catalog SET gameName = \'" + newGameName + "\' WHERE gameID = " + changedGameID + ";";
-            esql.executeUpdate(query);
-          }
-          else if (userInput == 2) {
-            System.out.print("\tWhat would you like to change the genre to?: ");
-            String newGenre = in.readLine();
-
-            String query = "UPDATE Catalog SET genre = \'" + newGenre + "\' WHERE gameID = " + changedGameID + ";";
-            esql.executeUpdate(query);
-          }
-          else if (userInput == 3) {
-            System.out.print("\tWhat would you like to change the price to?: ");
-            double newPrice = scanner.nextDouble();
-
-            String query = "UPDATE Catalog SET price = " + newPrice + " WHERE gameID = " + changedGameID + ";";
-            esql.executeUpdate(query);
-          }
-          else if (userInput == 4) {
-            System.out.print("\tWhat would you like to change the description to?: ");
-            String newDescription = in.readLine();
-
-            String query = "UPDATE Catalog SET description = \'" + newDescription + "\' WHERE gameID = " + changedGameID + ";";
-            esql.executeUpdate(query);
-          }
-         }
-      } 
-     }catch(Exception e){
-         System.err.println (e.getMessage());
-     }  
-  }
-
-  // see rental history
-  public static void viewAllOrders(GameRental esql) {
-      try {
-          System.out.print("\tWhat is your login?: ");
-          String login = in.readLine();
-
-          String query = "SELECT rentalOrderID FROM RentalOrder WHERE login = \'" + login + "\';";
-          esql.executeQueryAndPrintResult(query);
-
-      } catch (Exception e) {
-          System.err.println(e.getMessage());
-      }
-  }
-
-
-  // see recent 5 orders
-  public static void viewRecentOrders(GameRental esql) {
-      try {
-          System.out.print("\tWhat is your login?: ");
-          String login = in.readLine();
-
-          String query = "SELECT rentalOrderID FROM RentalOrder WHERE login = \'" + login + "\' ORDER BY orderTimestamp DESC LIMIT 5;";
-          esql.executeQueryAndPrintResult(query);
-
-      } catch (Exception e) {
-          System.err.println(e.getMessage());
-      }
-  }
-
-  // lookup specific rental order
-  public static void viewOrderInfo(GameRental esql) {
-      try {
-          System.out.print("\tWhat is your login?: ");
-          String login = in.readLine();
-
-          System.out.print("\tWhat is the rental order ID of the order you want to view?: ");
-          String orderID = in.readLine();
-
-          System.out.print("\tHere is the information for the corresponding rental order:\n");
-
-          String query = "SELECT orderTimestamp, dueDate, totalPrice, rentalOrderID, noOfGames FROM RentalOrder WHERE login = \'" + login + "\' AND rentalOrderID = \'" + orderID + "\';";
-          esql.executeQueryAndPrintResult(query);
-
-      } catch (Exception e) {
-          System.err.println(e.getMessage());
-      }
-  }
-
-  // view tracking information
-  public static void viewTrackingInfo(GameRental esql) {
-      try {
-          System.out.print("\tWhat is your login?: ");
-          String login = in.readLine();
-
-          System.out.print("\tWhat is the tracking ID you want to view?: ");
-          String trackingID = in.readLine();
-
-          System.out.print("\tHere is the information for the corresponding tracking info:\n");
-
-          String query = "SELECT courierName, rentalOrderID, currentLocation, status, lastUpdateDate, additionalComments FROM TrackingInfo WHERE trackingID = \'" + trackingID + "\';";
-          esql.executeQueryAndPrintResult(query);
-
-      } catch (Exception e) {
-          System.err.println(e.getMessage());
-      }
-  }
-
-    //update tracking info
-    public static void updateTrackingInfo(GameRental esql) {
-      try{
-       if (inputRole.equals("employee") || inputRole.equals("manager")) {
-         int userInput = 0;
-
-          while (userInput != 5) {
-            System.out.print("\tWhat is the tracking ID of the tracking info you'd like to update?: ");
-            String trackID = in.readLine();
-
-            System.out.print("\tChoose an option below:");
-            System.out.print("\t1. Update Status");
-            System.out.print("\t2. Update Current Location");
-            System.out.print("\t3. Update Courier Name");
-            System.out.print("\t4. Update Additional Comments");
-            System.out.print("\t5. Exit");
-
-            userInput = Integer.parseInt(in.readLine());
-
-            if (userInput == 1) {
-              System.out.print("\tWhat would you like to update the status to?: ");
-              String newStatus = in.readLine();
-
-              String query = "UPDATE TrackingInfo SET status = \'" + newStatus + "\' WHERE trackingID = \'" + trackID + "\';";
-              esql.executeUpdate(query);
-            }
-            else if (userInput == 2) {
-              System.out.print("\tWhat would you like to update the current location to?: ");
-              String newLoc = in.readLine();
-
-              String query = "UPDATE TrackingInfo SET currentLocation = \'" + newLoc + "\' WHERE trackingID = \'" + trackID + "\';";
-              esql.executeUpdate(query);
-            }
-            else if (userInput == 3) {
-              System.out.print("\tWhat would you like to update the courier name to?: ");
-              String cName = in.readLine();
-
-              String query = "UPDATE TrackingInfo SET courierName = \'" + cName + "\' WHERE trackingID = \'" + trackID + "\';";
-              esql.executeUpdate(query);
-            }
-            else if (userInput == 4) {
-              System.out.print("\tWhat would you like to update the additional comments to?: ");
-              String addComments = in.readLine();
-
-              String query = "UPDATE TrackingInfo SET additionalComments = \'" + addComments + "\' WHERE trackingID = \'" + trackID + "\';";
-              esql.executeUpdate(query);
-            }
-          }
-       }
-      }catch(Exception e){
-         System.err.println (e.getMessage());
-      }
-    }
-
-}//end GameRental
-
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import java.util.ArrayList;
+import java.lang.Math;
+import java.util.Scanner;
+import java.io.IOException;
+import java.sql.Timestamp;  
+import java.util.Random;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * This class defines a simple embedded SQL utility class that is designed to
+ * work with PostgreSQL JDBC drivers.
+ *
+ */
+public class GameRental {
+
+   // pool of physical database connections, each with its own statement cache.
+   private ConnectionPool _pool = null;
+
+   // transactional order placement
+   private RentalOrderService _orders = null;
+
+   // in-process copy of the Catalog table used for browsing
+   private CatalogCache _catalog = null;
+
+   // keyset-paginated rental history
+   private OrderHistory _history = null;
+
+   // keeps Users.numOverDueGames current; started by the applications
+   private OverdueTracker _overdue = null;
+
+   // "customers also rented" suggestions, built on first use
+   private Recommender _recommender = null;
+
+   // favorite games with the game -> fans index
+   private Favorites _favorites = null;
+
+   // audit trail of every write, on local disk
+   private Journal _journal = Journal.disabled();
+
+   // group-commit order intake, started by the first order submitted
+   private OrderPipeline _pipeline = null;
+
+   // copies on hand, reserved by placeOrder
+   private Inventory _inventory = null;
+
+   // columnar copy of the order lines for manager reports
+   private Analytics _analytics = null;
+
+   // months of old orders moved out of the live tables
+   private OrderArchive _archive = null;
+
+   // per-operation and per-statement latency metrics, also exposed via JMX
+   private final Metrics _metrics = new Metrics (!Boolean.getBoolean ("gamerental.metrics.noJmx"));
+
+   // logged-in users sharing this instance
+   private final SessionManager _sessions = new SessionManager (this);
+
+   /**
+    * Work done against a single borrowed connection.
+    */
+   public interface SqlWork<T> {
+      T run (PooledConnection conn) throws SQLException;
+   }//end SqlWork
+
+   /**
+    * Receives the rows of a streamed query one at a time.
+    */
+   public interface RowHandler {
+      void handle (ResultSet rs) throws SQLException;
+   }//end RowHandler
+
+   // rows fetched per cursor round trip when streaming query results
+   private int _fetchSize = Integer.getInteger("gamerental.fetchSize", 500);
+
+   // the cursor a streamed query is declared as; one per transaction, it
+   // is closed by the commit
+   private static final String CURSOR = "gamerental_stream";
+   private static final String DECLARE = "DECLARE " + CURSOR + " NO SCROLL CURSOR FOR ";
+
+
+   /**
+    * Creates a new instance of GameRental store
+    *
+    * @param hostname the MySQL or PostgreSQL server hostname
+    * @param database the name of the database
+    * @param username the user name used to login to the database
+    * @param password the user login password
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public GameRental(String dbname, String dbport, String user, String passwd) throws SQLException {
+
+      System.out.print("Connecting to database...");
+      try{
+         // constructs the connection URL
+         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         System.out.println ("Connection URL: " + url + "\n");
+
+         // open the connection pool, sized through -Dgamerental.pool.* properties
+         this._pool = new ConnectionPool(url, user, passwd,
+            Integer.getInteger("gamerental.pool.min", ConnectionPool.DEFAULT_MIN_SIZE),
+            Integer.getInteger("gamerental.pool.max", ConnectionPool.DEFAULT_MAX_SIZE));
+         this._pool.setIdleTimeoutMillis(Long.getLong("gamerental.pool.idleTimeoutMillis",
+            ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS));
+         this._pool.setBorrowTimeoutMillis(Long.getLong("gamerental.pool.borrowTimeoutMillis",
+            ConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS));
+         this._pool.setMetrics(this._metrics);
+         this._pool.start();
+         this._orders = new RentalOrderService(this);
+         this._catalog = new CatalogCache(this);
+         this._history = new OrderHistory(this);
+         this._overdue = new OverdueTracker(this);
+         this._overdue.setIntervalMillis(Long.getLong("gamerental.overdue.intervalMillis",
+            OverdueTracker.DEFAULT_INTERVAL_MILLIS));
+         this._overdue.setFullIntervalMillis(Long.getLong("gamerental.overdue.fullIntervalMillis",
+            OverdueTracker.DEFAULT_FULL_INTERVAL_MILLIS));
+         this._recommender = new Recommender(this);
+         this._favorites = new Favorites(this);
+         this._analytics = new Analytics(this);
+         this._archive = new OrderArchive(this, new File(System.getProperty("gamerental.archive.dir", "archive")),
+            Integer.getInteger("gamerental.archive.cachedMonths", OrderArchive.DEFAULT_CACHED_MONTHS));
+         this._inventory = new Inventory(this);
+         String journalDir = System.getProperty("gamerental.journal.dir", "journal");
+         if (!journalDir.isEmpty())
+            this._journal = Journal.open(new File(journalDir),
+               Long.getLong("gamerental.journal.segmentBytes", Journal.DEFAULT_SEGMENT_BYTES),
+               Long.getLong("gamerental.journal.forceMillis", Journal.DEFAULT_FORCE_MILLIS));
+         this._pipeline = new OrderPipeline(this,
+            Integer.getInteger("gamerental.orders.maxGroup", OrderPipeline.DEFAULT_MAX_GROUP),
+            Long.getLong("gamerental.orders.windowMicros", OrderPipeline.DEFAULT_WINDOW_MICROS),
+            Integer.getInteger("gamerental.orders.queueDepth", OrderPipeline.DEFAULT_QUEUE_DEPTH),
+            Long.getLong("gamerental.orders.offerTimeoutMillis", OrderPipeline.DEFAULT_OFFER_TIMEOUT_MILLIS));
+         this._pipeline.setPlaceTimeoutMillis(Long.getLong("gamerental.orders.placeTimeoutMillis",
+            OrderPipeline.DEFAULT_PLACE_TIMEOUT_MILLIS));
+         System.out.println("Done");
+      }catch (Exception e){
+         System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
+         System.out.println("Make sure you started postgres on this machine");
+         System.exit(-1);
+      }//end catch
+   }//end GameRental
+
+   /**
+    * Borrows a connection from the pool, runs the given work on it and
+    * returns the connection.  A failed statement marks the connection
+    * suspect so the pool validates it before it is used again, which lets
+    * the application recover from a lost backend.
+    *
+    * @param work the work to run
+    * @return the value produced by the work
+    * @throws java.sql.SQLException when the work failed
+    */
+   public <T> T withConnection (SqlWork<T> work) throws SQLException {
+      PooledConnection conn = this._pool.borrow ();
+      try {
+         return work.run (conn);
+      } catch (SQLException e) {
+         conn.markSuspect ();
+         throw e;
+      } finally {
+         this._pool.release (conn);
+      }
+   }//end withConnection
+
+   /**
+    * Runs the given work in a single transaction on one borrowed
+    * connection.  The transaction is committed when the work returns and
+    * rolled back when it throws.
+    *
+    * @param work the work to run
+    * @return the value produced by the work
+    * @throws java.sql.SQLException when the work or the commit failed
+    */
+   public <T> T inTransaction (SqlWork<T> work) throws SQLException {
+      return withConnection (conn -> {
+         Connection c = conn.getConnection ();
+         c.setAutoCommit (false);
+         boolean committed = false;
+         try {
+            T result = work.run (conn);
+            c.commit ();
+            committed = true;
+            return result;
+         } finally {
+            if (!committed) {
+               try {
+                  c.rollback ();
+               } catch (SQLException e) {
+                  // ignored, the pool resets the connection on release.
+               }
+            }
+            c.setAutoCommit (true);
+         }
+      });
+   }//end inTransaction
+
+   /**
+    * @return the connection pool backing this instance
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }
+
+   /**
+    * @return the service that places rental orders
+    */
+   public RentalOrderService getOrders () {
+      return this._orders;
+   }
+
+   /**
+    * @return the cached catalog
+    */
+   public CatalogCache getCatalog () {
+      return this._catalog;
+   }
+
+   /**
+    * @return the paginated rental history
+    */
+   public OrderHistory getHistory () {
+      return this._history;
+   }
+
+   /**
+    * @return the overdue count maintenance
+    */
+   public OverdueTracker getOverdue () {
+      return this._overdue;
+   }
+
+   /**
+    * @return the co-occurrence recommender
+    */
+   public Recommender getRecommender () {
+      return this._recommender;
+   }
+
+   /**
+    * @return the favorite games of all users
+    */
+   public Favorites getFavorites () {
+      return this._favorites;
+   }
+
+   /**
+    * @return the audit journal; disabled when it could not be opened
+    */
+   public Journal getJournal () {
+      return this._journal;
+   }
+
+   /**
+    * @return the group-commit order intake
+    */
+   public OrderPipeline getOrderPipeline () {
+      return this._pipeline;
+   }
+
+   /**
+    * @return the copies of each game on hand
+    */
+   public Inventory getInventory () {
+      return this._inventory;
+   }
+
+   /**
+    * @return the revenue and popularity reports
+    */
+   public Analytics getAnalytics () {
+      return this._analytics;
+   }
+
+   /**
+    * @return the archived months of old orders
+    */
+   public OrderArchive getArchive () {
+      return this._archive;
+   }
+
+   /**
+    * @return the latency metrics of this instance
+    */
+   public Metrics getMetrics () {
+      return this._metrics;
+   }
+
+   /**
+    * @return the sessions of the users logged in through this instance
+    */
+   public SessionManager getSessions () {
+      return this._sessions;
+   }
+
+   /**
+    * Method to execute an update SQL statement.  Update SQL instructions
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    *
+    * @param sql the input SQL string
+    * @throws java.sql.SQLException when update failed
+    */
+   public void executeUpdate (String sql) throws SQLException {
+      measured (this._metrics.statement (Metrics.AD_HOC), NO_ROWS, () -> withConnection (conn -> {
+         // creates a statement object
+         Statement stmt = conn.getConnection ().createStatement ();
+
+         // issues the update instruction
+         stmt.executeUpdate (sql);
+
+         // close the instruction
+         stmt.close ();
+         return null;
+      }));
+   }//end executeUpdate
+
+   /**
+    * Method to execute a named, parameterized update statement.  The
+    * statement is taken from the per-connection statement cache so it is
+    * only parsed and planned once.
+    *
+    * @param shape the query shape to execute
+    * @param params the values bound to the shape's placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (QueryShape shape, Object... params) throws SQLException {
+      return measured (this._metrics.statement (shape), INT_ROWS, () -> withConnection (conn -> {
+         PreparedStatement stmt = conn.prepare (shape);
+         bind (stmt, params);
+         return stmt.executeUpdate ();
+      }));
+   }//end executeUpdate
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and outputs the results to
+    * standard out.
+    *
+    * @param query the input query string
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query) throws SQLException {
+      ResultPrinter printer = new ResultPrinter (System.out);
+      try {
+         return measured (this._metrics.statement (Metrics.AD_HOC), INT_ROWS, () -> inTransaction (conn -> {
+            // creates a statement object
+            Statement stmt = conn.getConnection ().createStatement ();
+            try {
+               String sql = query.trim ();
+               if (!sql.regionMatches (true, 0, "select", 0, 6))
+                  return streamResult (stmt.executeQuery (query), printer);
+               // issues the query instruction through a cursor
+               if (sql.endsWith (";"))
+                  sql = sql.substring (0, sql.length () - 1);
+               stmt.execute (DECLARE + sql);
+            } finally {
+               stmt.close();
+            }
+            return fetchAll (conn, printer);
+         }));
+      } finally {
+         printer.finish ();
+      }
+   }//end executeQuery
+
+   /**
+    * Method to execute a named, parameterized query and output the results
+    * to standard out.  Rows are streamed from a server-side cursor into a
+    * buffered writer, so memory use does not grow with the result size.
+    *
+    * @param shape the query shape to execute
+    * @param params the values bound to the shape's placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (QueryShape shape, Object... params) throws SQLException {
+      return executeQueryAndPrintResult (System.out, shape, params);
+   }//end executeQueryAndPrintResult
+
+   /**
+    * Same as executeQueryAndPrintResult(QueryShape, ...), printing to the
+    * given stream instead of standard out.
+    */
+   public int executeQueryAndPrintResult (PrintStream out, QueryShape shape, Object... params) throws SQLException {
+      ResultPrinter printer = new ResultPrinter (out);
+      try {
+         return streamQuery (shape, printer, params);
+      } finally {
+         printer.finish ();
+      }
+   }//end executeQueryAndPrintResult
+
+   /**
+    * Method to execute a named, parameterized query and hand every row to
+    * a callback as it arrives.  The query is declared as a cursor in a
+    * read transaction and FETCHed fetchSize rows at a time, so only one
+    * batch is in memory whatever the driver; no row is kept after the
+    * callback returns.
+    *
+    * @param shape the query shape to execute
+    * @param handler called once per row, positioned on that row
+    * @param params the values bound to the shape's placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamQuery (QueryShape shape, RowHandler handler, Object... params) throws SQLException {
+      return stream (this._metrics.statement (shape), shape.sql (), handler, params);
+   }//end streamQuery
+
+   /**
+    * Same as streamQuery(QueryShape, ...) for statements built at runtime.
+    * The SQL text must only contain placeholders for values, never the
+    * values themselves, since each distinct text is cached.
+    */
+   public int streamQuery (String sql, RowHandler handler, Object... params) throws SQLException {
+      return stream (this._metrics.statement (sql), sql, handler, params);
+   }//end streamQuery
+
+   private int stream (OperationStats stats, String sql, RowHandler handler, Object... params) throws SQLException {
+      return measured (stats, INT_ROWS, () -> inTransaction (conn -> {
+         PreparedStatement declare = conn.prepare (DECLARE + sql);
+         bind (declare, params);
+         declare.execute ();
+         return fetchAll (conn, handler);
+      }));
+   }//end stream
+
+   /*
+    * Reads the declared cursor to its end, fetchSize rows per FETCH (all
+    * at once when fetchSize is not positive).  setFetchSize alone is not
+    * enough: the bundled pg73jdbc3 driver ignores it and reads the whole
+    * result into memory.
+    * @return the number of rows handled
+    */
+   private int fetchAll (PooledConnection conn, RowHandler handler) throws SQLException {
+      int fetchSize = this._fetchSize;
+      PreparedStatement fetch = conn.prepare ("FETCH FORWARD "
+         + (fetchSize > 0 ? Integer.toString (fetchSize) : "ALL") + " FROM " + CURSOR);
+      int rowCount = 0;
+      int batch;
+      do {
+         batch = streamResult (fetch.executeQuery (), handler);
+         rowCount += batch;
+      } while (fetchSize > 0 && batch == fetchSize);
+      return rowCount;
+   }//end fetchAll
+
+   /**
+    * @return the number of rows fetched per cursor round trip, the most
+    *         a streamed query holds in memory
+    */
+   public int getFetchSize () {
+      return this._fetchSize;
+   }
+
+   public void setFetchSize (int fetchSize) {
+      this._fetchSize = fetchSize;
+   }
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results as
+    * a list of records. Each record in turn is a list of attribute values
+    *
+    * @param query the input query string
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
+      return measured (this._metrics.statement (Metrics.AD_HOC), LIST_ROWS, () -> withConnection (conn -> {
+         // creates a statement object
+         Statement stmt = conn.getConnection ().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         List<List<String>> result = collectResult (rs);
+         stmt.close ();
+         return result;
+      }));
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute a named, parameterized query and return the results
+    * as a list of records.
+    *
+    * @param shape the query shape to execute
+    * @param params the values bound to the shape's placeholders, in order
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (QueryShape shape, Object... params) throws SQLException {
+      return measured (this._metrics.statement (shape), LIST_ROWS, () -> withConnection (conn -> {
+         PreparedStatement stmt = conn.prepare (shape);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         try {
+            return collectResult (rs);
+         } finally {
+            rs.close ();
+         }
+      }));
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the number of results
+    *
+    * @param query the input query string
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query) throws SQLException {
+      return measured (this._metrics.statement (Metrics.AD_HOC), INT_ROWS, () -> withConnection (conn -> {
+         // creates a statement object
+         Statement stmt = conn.getConnection ().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+
+         int rowCount = 0;
+
+         // iterates through the result set and count nuber of results.
+         while (rs.next()){
+            rowCount++;
+         }//end while
+         stmt.close ();
+         return rowCount;
+      }));
+   }
+
+   /**
+    * Method to execute a named, parameterized query and return the number
+    * of results.
+    *
+    * @param shape the query shape to execute
+    * @param params the values bound to the shape's placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (QueryShape shape, Object... params) throws SQLException {
+      return measured (this._metrics.statement (shape), INT_ROWS, () -> withConnection (conn -> {
+         PreparedStatement stmt = conn.prepare (shape);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         int rowCount = 0;
+         while (rs.next()){
+            rowCount++;
+         }//end while
+         rs.close ();
+         return rowCount;
+      }));
+   }//end executeQuery
+
+   /**
+    * A database call whose latency is measured.
+    */
+   public interface SqlCall<T> {
+      T call () throws SQLException;
+   }//end SqlCall
+
+   private static final ToLongFunction<Object> NO_ROWS = r -> 0;
+   private static final ToLongFunction<Integer> INT_ROWS = r -> r;
+   private static final ToLongFunction<List<List<String>>> LIST_ROWS = r -> r.size ();
+
+   /**
+    * Runs a call and records its latency, row count and outcome.
+    *
+    * @param stats where the call is recorded
+    * @param rows extracts the row count from the call's result
+    * @param call the call to run
+    * @return the result of the call
+    * @throws java.sql.SQLException when the call failed
+    */
+   public <T> T measured (OperationStats stats, ToLongFunction<? super T> rows, SqlCall<T> call) throws SQLException {
+      long start = System.nanoTime ();
+      long count = 0;
+      boolean ok = false;
+      try {
+         T result = call.call ();
+         count = rows.applyAsLong (result);
+         ok = true;
+         return result;
+      } finally {
+         stats.record (System.nanoTime () - start, count, ok);
+      }
+   }//end measured
+
+   /*
+    * Binds the given values to the placeholders of a prepared statement.
+    */
+   static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object p = params[i];
+         if (p == null)
+            stmt.setNull (i + 1, java.sql.Types.VARCHAR);
+         else if (p instanceof String)
+            stmt.setString (i + 1, (String) p);
+         else if (p instanceof Integer)
+            stmt.setInt (i + 1, (Integer) p);
+         else if (p instanceof Double)
+            stmt.setDouble (i + 1, (Double) p);
+         else if (p instanceof BigDecimal)
+            stmt.setBigDecimal (i + 1, (BigDecimal) p);
+         else if (p instanceof Timestamp)
+            stmt.setTimestamp (i + 1, (Timestamp) p);
+         else
+            stmt.setObject (i + 1, p);
+      }//end for
+   }//end bind
+
+   /*
+    * Feeds every row of a result set to a handler, then closes it.
+    * @return the number of rows handled
+    */
+   private static int streamResult (ResultSet rs, RowHandler handler) throws SQLException {
+      int rowCount = 0;
+      try {
+         while (rs.next()){
+            handler.handle (rs);
+            ++rowCount;
+         }//end while
+      } finally {
+         rs.close ();
+      }
+      return rowCount;
+   }//end streamResult
+
+   /*
+    * Outputs rows held in memory in the same layout as ResultPrinter uses
+    * for query results.
+    * @return the number of rows printed
+    */
+   static int printRows (PrintStream out, String[] columns, List<String[]> rows) {
+      if (rows.isEmpty())
+         return 0;
+      StringBuilder sb = new StringBuilder ();
+      for (String column : columns)
+         sb.append (column).append ('\t');
+      sb.append ('\n');
+      for (String[] row : rows) {
+         for (String value : row)
+            sb.append (value).append ('\t');
+         sb.append ('\n');
+      }//end for
+      out.print (sb);
+      return rows.size ();
+   }//end printRows
+
+   static int printEntries (PrintStream out, List<CatalogEntry> entries) {
+      List<String[]> rows = new ArrayList<String[]> (entries.size ());
+      for (CatalogEntry e : entries)
+         rows.add (e.columns ());
+      return printRows (out, CatalogCache.COLUMNS, rows);
+   }//end printEntries
+
+   static int printOrders (PrintStream out, OrderHistory.Page page) {
+      List<String[]> rows = new ArrayList<String[]> (page.orders.size ());
+      for (OrderHistory.Summary o : page.orders)
+         rows.add (o.columns ());
+      return printRows (out, OrderHistory.COLUMNS, rows);
+   }//end printOrders
+
+   /*
+    * Saves every row of a result set as a list of attribute values.
+    */
+   private static List<List<String>> collectResult (ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData ();
+      int numCol = rsmd.getColumnCount ();
+
+      // iterates through the result set and saves the data returned by the query.
+      List<List<String>> result  = new ArrayList<List<String>>();
+      while (rs.next()){
+        List<String> record = new ArrayList<String>();
+    for (int i=1; i<=numCol; ++i)
+      record.add(rs.getString (i));
+        result.add(record);
+      }//end while
+      return result;
+   }//end collectResult
+
+   /**
+    * Method to fetch the last value from sequence. This
+    * method issues the query to the DBMS and returns the current
+    * value of sequence used for autogenerated keys
+    *
+    * @param sequence name of the DB sequence
+    * @return current value of a sequence
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int getCurrSeqVal(String sequence) throws SQLException {
+      // currval is per session, so this is only meaningful on the
+      // connection that last called nextval for the sequence.
+      return withConnection (conn -> {
+         Statement stmt = conn.getConnection ().createStatement ();
+         try {
+            ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+            if (rs.next())
+               return rs.getInt(1);
+            return -1;
+         } finally {
+            stmt.close ();
+         }
+      });
+   }
+
+   /**
+    * Method to advance a sequence and return its new value.  Unlike
+    * currval this works on any pooled connection.
+    *
+    * @param sequence name of the DB sequence
+    * @return the next value of the sequence
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long getNextSeqVal(String sequence) throws SQLException {
+      return withConnection (conn -> IdAllocator.fetch (conn, sequence));
+   }
+
+   /**
+    * Method to close every pooled connection.
+    */
+   public void cleanup(){
+      if (this._overdue != null){
+         this._overdue.stop ();
+      }//end if
+      if (this._pipeline != null){
+         this._pipeline.stop ();
+      }//end if
+      this._journal.close ();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
+   }//end cleanup
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+    */
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            GameRental.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      GameRental esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         // instantiate the GameRental object and creates a physical
+         // connection.
+         String dbname = args[0];
+         String dbport = args[1];
+         String user = args[2];
+         esql = new GameRental (dbname, dbport, user, "");
+         if (!Boolean.getBoolean ("gamerental.overdue.disabled"))
+            esql.getOverdue ().start ();
+
+         // runs the menus on this console; GameRentalServer runs them per client
+         new StoreMenu (esql, System.in, System.out, System.err).run ();
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(esql != null) {
+               System.out.print("Disconnecting from database...");
+               esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+}//end GameRental
+
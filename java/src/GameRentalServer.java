@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the store menus to many terminals from one process.
+ *
+ * Every accepted connection runs its own StoreMenu, speaking exactly the
+ * text protocol of the console application, so any line-based socket
+ * client (telnet, nc, a test script) can drive it.  All clients share one
+ * GameRental and with it the connection pool, the caches and the
+ * metrics.
+ *
+ * Each client gets a virtual thread when the JVM supports them and a
+ * platform thread otherwise.  At most maxClients are served at once;
+ * further connections are told the server is busy and closed.  A client
+ * that sends nothing for idleTimeoutMillis is disconnected and its
+ * session logged out.
+ */
+public class GameRentalServer {
+
+   public static final int DEFAULT_PORT = 5555;
+   public static final int DEFAULT_MAX_CLIENTS = 256;
+   public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
+   private final GameRental _esql;
+   private final int _maxClients;
+   private final long _idleTimeoutMillis;
+   private final Semaphore _slots;
+   private final ExecutorService _executor;
+   private final boolean _virtual;
+   private final Set<Socket> _clients = ConcurrentHashMap.newKeySet();
+
+   private final AtomicInteger _nextClient = new AtomicInteger(1);
+   private final LongAdder _accepted = new LongAdder();
+   private final LongAdder _rejected = new LongAdder();
+   private final LongAdder _timedOut = new LongAdder();
+
+   private volatile ServerSocket _server = null;
+
+   public GameRentalServer(GameRental esql, int maxClients, long idleTimeoutMillis) {
+      if (maxClients <= 0)
+         throw new IllegalArgumentException("maxClients must be positive: " + maxClients);
+      this._esql = esql;
+      this._maxClients = maxClients;
+      this._idleTimeoutMillis = idleTimeoutMillis;
+      this._slots = new Semaphore(maxClients);
+      ExecutorService virtual = newVirtualThreadExecutor();
+      this._virtual = virtual != null;
+      this._executor = virtual != null ? virtual : Executors.newCachedThreadPool(r -> {
+         Thread t = new Thread(r, "client-" + this._nextClient.getAndIncrement());
+         t.setDaemon(true);
+         return t;
+      });
+   }//end GameRentalServer
+
+   /*
+    * Executors.newVirtualThreadPerTaskExecutor() exists from Java 21 on;
+    * it is looked up reflectively so the server still builds and runs on
+    * older JVMs.
+    */
+   private static ExecutorService newVirtualThreadExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+         return null;
+      }//end try
+   }//end newVirtualThreadExecutor
+
+   /**
+    * Binds the listening socket.
+    *
+    * @param host the address to listen on, null for the loopback address
+    * @param port the TCP port, 0 for any free port
+    */
+   public void bind(String host, int port) throws IOException {
+      ServerSocket server = new ServerSocket();
+      server.setReuseAddress(true);
+      InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+      server.bind(new InetSocketAddress(address, port));
+      this._server = server;
+   }//end bind
+
+   /**
+    * @return the port the server listens on, or -1 before bind()
+    */
+   public int getPort() {
+      ServerSocket server = this._server;
+      return server == null ? -1 : server.getLocalPort();
+   }
+
+   /**
+    * Accepts clients until close() is called.
+    */
+   public void serve() throws IOException {
+      ServerSocket server = this._server;
+      if (server == null)
+         throw new IllegalStateException("bind() was not called");
+      while (!server.isClosed()) {
+         Socket socket;
+         try {
+            socket = server.accept();
+         } catch (SocketException e) {
+            if (server.isClosed())
+               break;
+            throw e;
+         }//end try
+         if (!this._slots.tryAcquire()) {
+            this._rejected.increment();
+            reject(socket);
+            continue;
+         }//end if
+         this._accepted.increment();
+         this._clients.add(socket);
+         try {
+            this._executor.execute(() -> handle(socket));
+         } catch (RuntimeException e) {
+            this._clients.remove(socket);
+            this._slots.release();
+            closeQuietly(socket);
+         }//end try
+      }//end while
+   }//end serve
+
+   /*
+    * Runs the menus for one client and frees its slot when it leaves.
+    */
+   private void handle(Socket socket) {
+      StoreMenu menu = null;
+      try {
+         socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, this._idleTimeoutMillis));
+         socket.setTcpNoDelay(true);
+         PrintStream out = new PrintStream(socket.getOutputStream(), false, "UTF-8");
+         menu = new StoreMenu(this._esql, socket.getInputStream(), out, out);
+         menu.run();
+      } catch (SocketTimeoutException e) {
+         this._timedOut.increment();
+      } catch (IOException e) {
+         // the client went away; its session was logged out by the menu.
+      } finally {
+         this._clients.remove(socket);
+         closeQuietly(socket);
+         this._slots.release();
+      }//end try
+   }//end handle
+
+   private static void reject(Socket socket) {
+      try {
+         socket.getOutputStream().write("Server busy, try again later.\n".getBytes("UTF-8"));
+      } catch (IOException e) {
+         // ignored, the socket is closed anyway.
+      } finally {
+         closeQuietly(socket);
+      }//end try
+   }//end reject
+
+   private static void closeQuietly(Socket socket) {
+      try {
+         socket.close();
+      } catch (IOException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+   /**
+    * @return the number of clients being served
+    */
+   public int activeClients() {
+      return this._maxClients - this._slots.availablePermits();
+   }
+
+   public String stats() {
+      return "server port=" + getPort() + " threads=" + (this._virtual ? "virtual" : "platform")
+         + " clients=" + activeClients() + "/" + this._maxClients + " accepted=" + this._accepted.sum()
+         + " rejected=" + this._rejected.sum() + " idleTimeouts=" + this._timedOut.sum();
+   }//end stats
+
+   /**
+    * Stops accepting, disconnects every client and waits briefly for
+    * their menus to finish.
+    */
+   public void close() {
+      ServerSocket server = this._server;
+      if (server != null) {
+         try {
+            server.close();
+         } catch (IOException e) {
+            // ignored.
+         }//end try
+      }//end if
+      for (Socket s : this._clients)
+         closeQuietly(s);
+      this._executor.shutdown();
+      try {
+         this._executor.awaitTermination(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+   /**
+    * Usage: GameRentalServer dbname port user [--listen port] [--host address]
+    *        [--max-clients n] [--idle-timeout seconds]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + GameRentalServer.class.getName()
+            + " <dbname> <port> <user> [--listen <port>] [--host <address>]"
+            + " [--max-clients <n>] [--idle-timeout <seconds>]");
+         return;
+      }//end if
+
+      int listen = DEFAULT_PORT;
+      String host = null;
+      int maxClients = DEFAULT_MAX_CLIENTS;
+      long idleTimeout = DEFAULT_IDLE_TIMEOUT_MILLIS;
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         String v = args[i + 1];
+         switch (args[i]) {
+            case "--listen": listen = Integer.parseInt(v); break;
+            case "--host": host = v; break;
+            case "--max-clients": maxClients = Integer.parseInt(v); break;
+            case "--idle-timeout": idleTimeout = Long.parseLong(v) * 1000; break;
+            default: System.err.println("Unknown option " + args[i]); return;
+         }//end switch
+      }//end for
+
+      GameRental esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         if (!Boolean.getBoolean("gamerental.overdue.disabled"))
+            esql.getOverdue().start();
+         final GameRentalServer server = new GameRentalServer(esql, maxClients, idleTimeout);
+         server.bind(host, listen);
+         Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+         System.out.println(server.stats());
+         server.serve();
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end GameRentalServer
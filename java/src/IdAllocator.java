@@ -0,0 +1,115 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out unique, prefixed IDs such as gamerentalorder4200 from a
+ * database sequence in blocks.
+ *
+ * The sequence is created with INCREMENT BY equal to the block size (see
+ * create_tables.sql).  Each nextval reserves the values [v, v + blockSize)
+ * for this allocator alone, so IDs stay unique across sessions and
+ * processes while only one in blockSize IDs costs a round trip.  Values
+ * left in a block when the process exits are skipped, never reused.
+ */
+public class IdAllocator {
+
+   // must match INCREMENT BY of the sequences in create_tables.sql
+   public static final int DEFAULT_BLOCK_SIZE = 50;
+
+   public static final String RENTAL_ORDER_SEQUENCE = "rentalorder_id_seq";
+   public static final String TRACKING_SEQUENCE = "trackingid_seq";
+
+   private final GameRental _esql;
+   private final String _sequence;
+   private final String _prefix;
+   private final int _blockSize;
+
+   // next value to hand out and the end of the current block (exclusive)
+   private long _next = 0;
+   private long _limit = 0;
+
+   private long _blocksFetched = 0;
+
+   /**
+    * @param esql the store whose connections are used to fetch blocks
+    * @param sequence the name of the database sequence
+    * @param prefix the text put in front of every numeric ID
+    * @param blockSize the INCREMENT BY of the sequence
+    */
+   public IdAllocator(GameRental esql, String sequence, String prefix, int blockSize) {
+      if (!sequence.matches("[A-Za-z_][A-Za-z0-9_]*"))
+         throw new IllegalArgumentException("invalid sequence name: " + sequence);
+      if (blockSize < 1)
+         throw new IllegalArgumentException("block size must be positive: " + blockSize);
+      this._esql = esql;
+      this._sequence = sequence;
+      this._prefix = prefix;
+      this._blockSize = blockSize;
+   }//end IdAllocator
+
+   /**
+    * @return an allocator for gamerentalorderNNNN IDs
+    */
+   public static IdAllocator rentalOrders(GameRental esql) {
+      return new IdAllocator(esql, RENTAL_ORDER_SEQUENCE, "gamerentalorder", DEFAULT_BLOCK_SIZE);
+   }
+
+   /**
+    * @return an allocator for trackingidNNNN IDs
+    */
+   public static IdAllocator trackingIDs(GameRental esql) {
+      return new IdAllocator(esql, TRACKING_SEQUENCE, "trackingid", DEFAULT_BLOCK_SIZE);
+   }
+
+   /**
+    * Returns the next ID, borrowing a pooled connection only when the
+    * current block is used up.
+    */
+   public String nextID() throws SQLException {
+      return this._prefix + nextValue(null);
+   }
+
+   /**
+    * Returns the next ID, fetching a new block on the given connection when
+    * the current one is used up.  Use this while already holding a
+    * connection, e.g. inside a transaction, so the allocator never waits
+    * on the pool for a second one.
+    */
+   public String nextID(PooledConnection conn) throws SQLException {
+      return this._prefix + nextValue(conn);
+   }
+
+   /**
+    * @return the next numeric value
+    */
+   public synchronized long nextValue(PooledConnection conn) throws SQLException {
+      if (this._next >= this._limit) {
+         long start = conn == null
+            ? this._esql.getNextSeqVal(this._sequence)
+            : fetch(conn, this._sequence);
+         this._next = start;
+         this._limit = start + this._blockSize;
+         ++this._blocksFetched;
+      }//end if
+      return this._next++;
+   }//end nextValue
+
+   public synchronized long getBlocksFetched() {
+      return this._blocksFetched;
+   }
+
+   /*
+    * Calls nextval on the given connection.
+    */
+   static long fetch(PooledConnection conn, String sequence) throws SQLException {
+      ResultSet rs = conn.prepare("SELECT nextval('" + sequence + "')").executeQuery();
+      try {
+         if (!rs.next())
+            throw new SQLException("nextval returned no row for " + sequence);
+         return rs.getLong(1);
+      } finally {
+         rs.close();
+      }//end try
+   }//end fetch
+
+}//end IdAllocator
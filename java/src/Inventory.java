@@ -0,0 +1,351 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies of each game on hand, reserved when an order is placed and
+ * released when it is returned.
+ *
+ * The Inventory relation is the truth: an order takes its copies with a
+ * conditional decrement (unitsAvailable >= n) of each game's row, issued
+ * in gameID order as the last statement before the order commits, so the
+ * row locks a hot title serializes on are held for a single round trip
+ * and two orders never wait on each other's rows in opposite order.
+ *
+ * In front of it every game has an in-process counter that orders are
+ * admitted through with a compare-and-set, one counter per game so hot
+ * titles never contend with each other.  A sold-out game is refused
+ * without touching the database; an order the counter admits can still
+ * be refused by the row (another application instance took the copies),
+ * and the counter is then read again from the row.  A refusal reads the
+ * row too, at most once every REREAD_MILLIS per game, so copies returned
+ * through another instance are not missed for long while a sold-out
+ * title under load costs no queries.
+ *
+ * Returns are recorded in ReturnedOrders, once per order, and a return
+ * past the due date takes the order's games off the user's overdue
+ * count.  Orders placed before the game was stocked give back at most
+ * unitsOwned.
+ */
+public class Inventory {
+
+   // copies of each catalog game stocked by stockCatalog() unless set
+   public static final int DEFAULT_UNITS = 5;
+
+   // how often a refusing counter may be read again from its row
+   public static final long REREAD_MILLIS = 1000;
+
+   /**
+    * Thrown when a game has fewer copies available than ordered.
+    */
+   public static class OutOfStockException extends SQLException {
+      private static final long serialVersionUID = 1L;
+
+      public final String gameID;
+      public final int available;
+
+      OutOfStockException(String gameID, int available) {
+         super(available <= 0 ? "Game " + gameID + " is out of stock"
+               : "Only " + available + " copies of game " + gameID + " are available");
+         this.gameID = gameID;
+         this.available = available;
+      }//end OutOfStockException
+   }//end OutOfStockException
+
+   /*
+    * The counter of one game: copies in the row less the copies this
+    * instance has admitted but not yet committed.
+    */
+   private static class Stock {
+      final AtomicInteger available = new AtomicInteger();
+      final AtomicInteger inFlight = new AtomicInteger();
+      volatile int owned;
+      volatile long readAt = 0;
+
+      Stock(int owned, int available) {
+         this.owned = owned;
+         this.available.set(available);
+      }
+
+      boolean take(int units) {
+         for (;;) {
+            int a = this.available.get();
+            if (a < units)
+               return false;
+            if (this.available.compareAndSet(a, a - units)) {
+               this.inFlight.addAndGet(units);
+               return true;
+            }//end if
+         }//end for
+      }//end take
+
+      void sync(int owned, int inRow) {
+         this.owned = owned;
+         this.available.set(Math.max(0, inRow - this.inFlight.get()));
+         this.readAt = System.currentTimeMillis();
+      }
+   }//end Stock
+
+   private final GameRental _esql;
+   private final ConcurrentHashMap<String, Stock> _stock = new ConcurrentHashMap<String, Stock>();
+   private volatile boolean _loaded = false;
+
+   private final AtomicLong _reserved = new AtomicLong();
+   private final AtomicLong _refused = new AtomicLong();
+   private final AtomicLong _refusedByRow = new AtomicLong();
+   private final AtomicLong _returned = new AtomicLong();
+   private final AtomicLong _reads = new AtomicLong();
+
+   public Inventory(GameRental esql) {
+      this._esql = esql;
+   }//end Inventory
+
+   /**
+    * Admits an order's copies through the in-process counters.  Every
+    * successful call must be followed by commit() or cancel().
+    *
+    * @param units game ID to copies ordered
+    * @throws OutOfStockException when a game has too few copies; nothing
+    *         is reserved in that case
+    */
+   public void reserve(Map<String, Integer> units) throws SQLException {
+      ensureLoaded();
+      List<Map.Entry<String, Integer>> taken = new ArrayList<Map.Entry<String, Integer>>();
+      try {
+         for (Map.Entry<String, Integer> line : units.entrySet()) {
+            Stock s = stock(line.getKey());
+            if (!s.take(line.getValue())) {
+               // the counter may miss copies returned elsewhere
+               if (System.currentTimeMillis() - s.readAt >= REREAD_MILLIS)
+                  read(line.getKey());
+               if (!s.take(line.getValue())) {
+                  this._refused.incrementAndGet();
+                  throw new OutOfStockException(line.getKey(), s.available.get());
+               }//end if
+            }//end if
+            taken.add(line);
+         }//end for
+      } catch (SQLException e) {
+         for (Map.Entry<String, Integer> line : taken)
+            cancel(line.getKey(), line.getValue());
+         throw e;
+      }//end try
+   }//end reserve
+
+   /**
+    * Takes the reserved copies from the Inventory rows, inside the order's
+    * transaction.
+    *
+    * @throws OutOfStockException when a row has fewer copies than its
+    *         counter admitted; the transaction must roll back
+    */
+   public void take(PooledConnection conn, Map<String, Integer> units) throws SQLException {
+      PreparedStatement stmt = conn.prepare(QueryShape.RESERVE_STOCK);
+      for (Map.Entry<String, Integer> line : new TreeMap<String, Integer>(units).entrySet()) {
+         GameRental.bind(stmt, line.getValue(), line.getKey(), line.getValue());
+         if (conn.executeUpdate(QueryShape.RESERVE_STOCK, stmt) == 0) {
+            this._refusedByRow.incrementAndGet();
+            throw new OutOfStockException(line.getKey(), -1);
+         }//end if
+      }//end for
+   }//end take
+
+   /**
+    * The order holding the reservation committed.
+    */
+   public void commit(Map<String, Integer> units) {
+      for (Map.Entry<String, Integer> line : units.entrySet())
+         this._stock.get(line.getKey()).inFlight.addAndGet(-line.getValue());
+      this._reserved.incrementAndGet();
+   }//end commit
+
+   /**
+    * The order holding the reservation failed; gives the copies back to
+    * the counters, and reads again a game its row refused.
+    */
+   public void cancel(Map<String, Integer> units, SQLException cause) {
+      for (Map.Entry<String, Integer> line : units.entrySet())
+         cancel(line.getKey(), line.getValue());
+      if (cause instanceof OutOfStockException) {
+         try {
+            read(((OutOfStockException) cause).gameID);
+         } catch (SQLException e) {
+            // the next refusal reads it again
+         }//end try
+      }//end if
+   }//end cancel
+
+   private void cancel(String gameID, int units) {
+      Stock s = this._stock.get(gameID);
+      s.inFlight.addAndGet(-units);
+      s.available.addAndGet(units);
+   }//end cancel
+
+   /**
+    * Records the return of a rental order and puts its copies back.
+    *
+    * @return the number of copies put back
+    * @throws java.sql.SQLException when the order does not exist or was
+    *         returned before
+    */
+   public int returnOrder(final String orderID) throws SQLException {
+      ensureLoaded();
+      final Map<String, Integer> lines = new TreeMap<String, Integer>();
+      final Map<String, Integer> returned = new HashMap<String, Integer>();
+      final Timestamp now = new Timestamp(System.currentTimeMillis());
+      this._esql.measured(this._esql.getMetrics().operation("returnOrder"), n -> n,
+            () -> this._esql.inTransaction(conn -> {
+         PreparedStatement ret = conn.prepare(QueryShape.RETURN_ORDER);
+         GameRental.bind(ret, now, orderID);
+         if (conn.executeUpdate(QueryShape.RETURN_ORDER, ret) == 0)
+            throw new SQLException("Rental order " + orderID + " does not exist or was already returned");
+
+         // a return past the due date takes the order off the overdue count
+         PreparedStatement overdue = conn.prepare(QueryShape.RETURN_OVERDUE);
+         GameRental.bind(overdue, orderID, now);
+         try (ResultSet ors = conn.executeQuery(QueryShape.RETURN_OVERDUE, overdue)) {
+            if (ors.next())
+               returned.put(ors.getString(1), -ors.getInt(2));
+         }//end try
+
+         PreparedStatement select = conn.prepare(QueryShape.ORDER_LINES);
+         GameRental.bind(select, orderID);
+         ResultSet rs = conn.executeQuery(QueryShape.ORDER_LINES, select);
+         try {
+            while (rs.next())
+               lines.put(rs.getString(1), rs.getInt(2));
+         } finally {
+            rs.close();
+         }//end try
+
+         PreparedStatement release = conn.prepare(QueryShape.RELEASE_STOCK);
+         for (Map.Entry<String, Integer> line : lines.entrySet()) {
+            GameRental.bind(release, line.getValue(), line.getKey());
+            conn.executeUpdate(QueryShape.RELEASE_STOCK, release);
+         }//end for
+         return lines.size();
+      }));
+
+      int copies = 0;
+      for (Map.Entry<String, Integer> line : lines.entrySet()) {
+         final Stock s = this._stock.get(line.getKey());
+         if (s != null)
+            s.available.accumulateAndGet(line.getValue(), (a, u) -> Math.min(s.owned, a + u));
+         copies += line.getValue();
+      }//end for
+      if (!returned.isEmpty())
+         this._esql.getSessions().addOverdueGames(returned);
+      this._returned.incrementAndGet();
+      return copies;
+   }//end returnOrder
+
+   /**
+    * Sets the number of copies the store owns of a game.  Copies out on
+    * rental stay out; the available count moves by the difference.
+    *
+    * @return the copies now available
+    */
+   public int setUnitsOwned(String gameID, int owned) throws SQLException {
+      if (owned < 0)
+         throw new IllegalArgumentException("owned must not be negative");
+      if (this._esql.getCatalog().get(gameID) == null)
+         throw new SQLException("Unknown game ID: " + gameID);
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(QueryShape.SET_UNITS_OWNED, gameID, owned, owned);
+      int available = Integer.parseInt(rows.get(0).get(0).trim());
+      if (this._loaded)
+         stock(gameID).sync(owned, available);
+      return available;
+   }//end setUnitsOwned
+
+   /**
+    * Stocks every catalog game without an Inventory row, all copies
+    * available.
+    *
+    * @return the number of games stocked
+    */
+   public int stockCatalog(int units) throws SQLException {
+      int stocked = this._esql.executeUpdate(QueryShape.STOCK_CATALOG, units, units);
+      reload();
+      return stocked;
+   }//end stockCatalog
+
+   /**
+    * @return the copies of a game available to this instance
+    */
+   public int available(String gameID) throws SQLException {
+      ensureLoaded();
+      Stock s = this._stock.get(gameID);
+      return s == null ? 0 : s.available.get();
+   }//end available
+
+   /**
+    * Throws away the counters and reads every row again.
+    */
+   public synchronized void reload() throws SQLException {
+      this._esql.streamQuery(QueryShape.INVENTORY_ALL, rs -> {
+         String gameID = rs.getString(1);
+         Stock s = this._stock.get(gameID);
+         if (s == null)
+            this._stock.put(gameID, new Stock(rs.getInt(2), rs.getInt(3)));
+         else
+            s.sync(rs.getInt(2), rs.getInt(3));
+      });
+      this._loaded = true;
+   }//end reload
+
+   public String stats() {
+      return "inventory games=" + this._stock.size() + " orders=" + this._reserved.get()
+         + " refused=" + this._refused.get() + " refusedByRow=" + this._refusedByRow.get()
+         + " returned=" + this._returned.get() + " rowReads=" + this._reads.get();
+   }//end stats
+
+   private void ensureLoaded() throws SQLException {
+      if (!this._loaded) {
+         synchronized (this) {
+            if (!this._loaded)
+               reload();
+         }//end synchronized
+      }//end if
+   }//end ensureLoaded
+
+   /*
+    * The counter of a game, read from its row the first time; a game
+    * without a row has no copies.
+    */
+   private Stock stock(String gameID) throws SQLException {
+      Stock s = this._stock.get(gameID);
+      if (s != null)
+         return s;
+      if (this._esql.getCatalog().get(gameID) == null)
+         throw new SQLException("Unknown game ID: " + gameID);
+      Stock fresh = new Stock(0, 0);
+      s = this._stock.putIfAbsent(gameID, fresh);
+      if (s != null)
+         return s;
+      read(gameID);
+      return fresh;
+   }//end stock
+
+   /*
+    * Sets a game's counter from its row.
+    */
+   private void read(String gameID) throws SQLException {
+      this._reads.incrementAndGet();
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(QueryShape.INVENTORY_GAME, gameID);
+      Stock s = this._stock.get(gameID);
+      if (rows.isEmpty())
+         s.sync(0, 0);
+      else
+         s.sync(Integer.parseInt(rows.get(0).get(0).trim()), Integer.parseInt(rows.get(0).get(1).trim()));
+   }//end read
+
+}//end Inventory
@@ -0,0 +1,450 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only audit journal of the store's writes, kept in memory-mapped
+ * segment files on local disk.
+ *
+ * Every record is
+ *
+ *    int length | int crc32 | byte event | long seq | long time | long number
+ *    | key | value | actor
+ *
+ * where each string is an unsigned short byte count followed by its
+ * chars in modified UTF-8 (as DataOutput.writeUTF), and the CRC covers
+ * everything after itself.  What key, value, actor and number hold
+ * depends on the event, see Event.
+ *
+ * append() encodes straight into the mapped segment, so it allocates
+ * nothing and makes no system call.  The length is written last; a
+ * reader stops at a zero length or a bad CRC, so a torn record at the
+ * end of a segment after a crash is never read, and is cleared when the
+ * journal is opened again.  When a record does not fit, the next
+ * segment is created, named after its first sequence number, and
+ * mapped.  Pages are forced to disk every forceMillis and on rollover
+ * and close; a process crash loses nothing, a power loss at most the
+ * last forceMillis of events.
+ *
+ * Events are appended after the database commit, so the journal never
+ * records a change that was rolled back.  A journal that cannot be
+ * opened, or is locked by another process, is disabled with a warning
+ * and the store runs without it.
+ */
+public class Journal {
+
+   public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+   public static final long DEFAULT_FORCE_MILLIS = 1000;
+
+   static final String SUFFIX = ".journal";
+   static final int HEADER = 4 + 4 + 1 + 8 + 8 + 8;
+   // longer strings are cut, so a record always fits a segment
+   static final int MAX_FIELD_CHARS = 16384;
+   static final int MAX_RECORD = HEADER + 3 * (2 + 3 * MAX_FIELD_CHARS);
+
+   /**
+    * What happened, with the meaning of each record field.
+    */
+   public enum Event {
+      // key orderID, value trackingID, actor customer, number totalPrice in cents
+      ORDER_PLACED (1),
+      // key orderID, actor clerk, number copies put back
+      ORDER_RETURNED (2),
+      // key trackingID, value the new value, actor clerk or "feed",
+      // number the courier's update time (0 when it is the record time)
+      TRACKING_STATUS (3),
+      TRACKING_LOCATION (4),
+      TRACKING_COURIER (5),
+      TRACKING_COMMENTS (6),
+      // key gameID, value the new value, actor manager
+      CATALOG_NAME (7),
+      CATALOG_GENRE (8),
+      CATALOG_PRICE (9),
+      CATALOG_DESCRIPTION (10),
+      CATALOG_COPIES (11),
+      // key login, value role, actor the new user
+      USER_CREATED (12),
+      // key old login, value new login, actor manager
+      USER_LOGIN (13),
+      // key login, value the new value, actor manager
+      USER_ROLE (14),
+      USER_OVERDUE (15);
+
+      private static final Event[] BY_CODE = new Event[16];
+      static {
+         for (Event e : values())
+            BY_CODE[e.code] = e;
+      }
+
+      final byte code;
+
+      Event(int code) {
+         this.code = (byte) code;
+      }
+
+      static Event of(int code) {
+         return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+      }
+   }//end Event
+
+   /**
+    * One decoded record.
+    */
+   public static class Record {
+      public Event event;
+      public long seq;
+      public long time;
+      public long number;
+      public String key;
+      public String value;
+      public String actor;
+   }//end Record
+
+   /**
+    * Receives records in sequence order.
+    */
+   public interface Handler {
+      void record(Record r);
+   }//end Handler
+
+   private final File _dir;
+   private final long _segmentBytes;
+   private final CRC32 _crc = new CRC32();
+   private FileLock _lock = null;
+   private FileChannel _channel = null;
+   private MappedByteBuffer _buf = null;
+   private long _nextSeq = 1;
+   private ScheduledExecutorService _forcer = null;
+
+   private long _appended = 0;
+   private long _segments = 0;
+   private long _failures = 0;
+   private String _lastError = null;
+
+   private Journal(File dir, long segmentBytes) {
+      this._dir = dir;
+      this._segmentBytes = Math.max(segmentBytes, 2L * MAX_RECORD);
+   }//end Journal
+
+   /**
+    * Opens the journal in dir, creating it if needed, and continues after
+    * its last valid record.
+    *
+    * @return the journal, or a disabled one if it cannot be opened
+    */
+   public static Journal open(File dir, long segmentBytes, long forceMillis) {
+      Journal j = new Journal(dir, segmentBytes);
+      try {
+         j.openSegments();
+         j.startForcing(forceMillis);
+      } catch (IOException e) {
+         System.err.println("Journal disabled: " + e.getMessage());
+         j.close();
+         j._lastError = e.getMessage();
+      }//end try
+      return j;
+   }//end open
+
+   /**
+    * @return a journal that records nothing
+    */
+   public static Journal disabled() {
+      Journal j = new Journal(null, 0);
+      j._lastError = "disabled";
+      return j;
+   }//end disabled
+
+   public boolean isEnabled() {
+      return this._buf != null;
+   }
+
+   /**
+    * Appends one record.  Allocates nothing unless a segment fills up.
+    *
+    * @param key what changed, e.g. a tracking or order ID; never null
+    * @param value the new value, or null
+    * @param actor who changed it, or null
+    * @return the record's sequence number, or -1 if it was not written
+    */
+   public synchronized long append(Event event, String key, String value, String actor, long number) {
+      if (this._buf == null)
+         return -1;
+      int need = HEADER + 6 + encodedLength(key) + encodedLength(value) + encodedLength(actor);
+      if (this._buf.remaining() < need) {
+         try {
+            roll();
+         } catch (IOException e) {
+            ++this._failures;
+            this._lastError = e.getMessage();
+            return -1;
+         }//end try
+      }//end if
+
+      MappedByteBuffer b = this._buf;
+      int start = b.position();
+      b.putInt(0);
+      b.putInt(0);
+      b.put(event.code);
+      b.putLong(this._nextSeq);
+      b.putLong(System.currentTimeMillis());
+      b.putLong(number);
+      putString(b, key);
+      putString(b, value);
+      putString(b, actor);
+      int end = b.position();
+
+      this._crc.reset();
+      b.limit(end).position(start + 8);
+      this._crc.update(b);
+      b.limit(b.capacity()).position(end);
+      b.putInt(start + 4, (int) this._crc.getValue());
+      // last: a record is visible once its length is
+      b.putInt(start, end - start);
+      ++this._appended;
+      return this._nextSeq++;
+   }//end append
+
+   /**
+    * Writes the mapped pages of the current segment to disk.
+    */
+   public synchronized void force() {
+      if (this._buf != null)
+         this._buf.force();
+   }
+
+   public synchronized void close() {
+      if (this._forcer != null) {
+         this._forcer.shutdownNow();
+         this._forcer = null;
+      }//end if
+      if (this._buf != null) {
+         this._buf.force();
+         this._buf = null;
+      }//end if
+      try {
+         if (this._channel != null)
+            this._channel.close();
+         if (this._lock != null)
+            this._lock.channel().close();
+      } catch (IOException e) {
+         // nothing left to write
+      }//end try
+      this._channel = null;
+      this._lock = null;
+   }//end close
+
+   public synchronized String stats() {
+      if (this._buf == null)
+         return "journal off (" + this._lastError + ")";
+      return "journal dir=" + this._dir + " appended=" + this._appended + " nextSeq=" + this._nextSeq
+         + " rollovers=" + this._segments + " segmentUsed=" + this._buf.position() + "/" + this._buf.capacity()
+         + " failures=" + this._failures + (this._lastError == null ? "" : " lastError=" + this._lastError);
+   }//end stats
+
+   /*
+    * Locks the directory and maps the newest segment, or a first one.
+    */
+   private void openSegments() throws IOException {
+      if (!this._dir.isDirectory() && !this._dir.mkdirs())
+         throw new IOException("cannot create " + this._dir);
+      FileChannel lockChannel = new RandomAccessFile(new File(this._dir, "lock"), "rw").getChannel();
+      try {
+         this._lock = lockChannel.tryLock();
+      } catch (OverlappingFileLockException e) {
+         // held by another journal in this process
+      }//end try
+      if (this._lock == null) {
+         lockChannel.close();
+         throw new IOException(this._dir + " is in use by another process");
+      }//end if
+
+      File[] segments = segments(this._dir);
+      if (segments.length == 0) {
+         map(new File(this._dir, name(1)));
+         return;
+      }//end if
+      File last = segments[segments.length - 1];
+      this._nextSeq = firstSeq(last);
+      map(last);
+      recover();
+   }//end openSegments
+
+   /*
+    * Moves past the valid records of the mapped segment and clears any
+    * torn record after them.
+    */
+   private void recover() {
+      MappedByteBuffer b = this._buf;
+      Record r = new Record();
+      int pos = 0;
+      for (int next; (next = decode(b, pos, r, this._crc, false)) > 0; pos = next)
+         this._nextSeq = r.seq + 1;
+      b.position(pos);
+      if (pos + 4 <= b.capacity() && b.getInt(pos) != 0) {
+         for (int i = pos; i < b.capacity() && (i < pos + MAX_RECORD || b.get(i) != 0); ++i)
+            b.put(i, (byte) 0);
+      }//end if
+   }//end recover
+
+   private void roll() throws IOException {
+      this._buf.force();
+      this._channel.close();
+      map(new File(this._dir, name(this._nextSeq)));
+      ++this._segments;
+   }//end roll
+
+   private void map(File f) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      if (raf.length() < this._segmentBytes)
+         raf.setLength(this._segmentBytes);
+      this._channel = raf.getChannel();
+      this._buf = this._channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+   }//end map
+
+   private void startForcing(long forceMillis) {
+      if (forceMillis <= 0)
+         return;
+      this._forcer = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "journal-force");
+         t.setDaemon(true);
+         return t;
+      });
+      this._forcer.scheduleWithFixedDelay(this::force, forceMillis, forceMillis, TimeUnit.MILLISECONDS);
+   }//end startForcing
+
+   /**
+    * Reads every valid record of the journal in dir, oldest first.
+    *
+    * @param fromSeq the first sequence number wanted
+    * @return the number of records handed to the handler
+    */
+   public static long read(File dir, long fromSeq, Handler handler) throws IOException {
+      File[] segments = segments(dir);
+      CRC32 crc = new CRC32();
+      long records = 0;
+      for (int s = 0; s < segments.length; ++s) {
+         if (s + 1 < segments.length && firstSeq(segments[s + 1]) <= fromSeq)
+            continue;
+         try (RandomAccessFile raf = new RandomAccessFile(segments[s], "r")) {
+            ByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            Record r = new Record();
+            for (int pos = 0, next; (next = decode(b, pos, r, crc, true)) > 0; pos = next) {
+               if (r.seq >= fromSeq && r.event != null) {
+                  handler.record(r);
+                  ++records;
+               }//end if
+            }//end for
+         }//end try
+      }//end for
+      return records;
+   }//end read
+
+   /*
+    * Checks the record at pos and, with strings, decodes it into r.
+    * @return the position after it, or -1 if there is no valid record
+    */
+   private static int decode(ByteBuffer b, int pos, Record r, CRC32 crc, boolean strings) {
+      if (pos + HEADER > b.capacity())
+         return -1;
+      int length = b.getInt(pos);
+      if (length < HEADER + 6 || length > MAX_RECORD || pos + length > b.capacity())
+         return -1;
+      ByteBuffer body = b.duplicate();
+      body.limit(pos + length).position(pos + 8);
+      crc.reset();
+      crc.update(body);
+      if ((int) crc.getValue() != b.getInt(pos + 4))
+         return -1;
+
+      r.event = Event.of(b.get(pos + 8));
+      r.seq = b.getLong(pos + 9);
+      r.time = b.getLong(pos + 17);
+      r.number = b.getLong(pos + 25);
+      if (strings) {
+         int at = pos + HEADER;
+         r.key = getString(b, at);
+         at += 2 + (b.getShort(at) & 0xffff);
+         r.value = getString(b, at);
+         at += 2 + (b.getShort(at) & 0xffff);
+         r.actor = getString(b, at);
+      }//end if
+      return pos + length;
+   }//end decode
+
+   private static int encodedLength(String s) {
+      if (s == null)
+         return 0;
+      int n = 0;
+      for (int i = 0, len = Math.min(s.length(), MAX_FIELD_CHARS); i < len; ++i) {
+         char c = s.charAt(i);
+         n += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+      }//end for
+      return n;
+   }//end encodedLength
+
+   private static void putString(ByteBuffer b, String s) {
+      int at = b.position();
+      b.putShort((short) 0);
+      if (s == null)
+         return;
+      for (int i = 0, len = Math.min(s.length(), MAX_FIELD_CHARS); i < len; ++i) {
+         char c = s.charAt(i);
+         if (c != 0 && c < 0x80) {
+            b.put((byte) c);
+         } else if (c < 0x800) {
+            b.put((byte) (0xc0 | (c >> 6)));
+            b.put((byte) (0x80 | (c & 0x3f)));
+         } else {
+            b.put((byte) (0xe0 | (c >> 12)));
+            b.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+            b.put((byte) (0x80 | (c & 0x3f)));
+         }//end if
+      }//end for
+      b.putShort(at, (short) (b.position() - at - 2));
+   }//end putString
+
+   private static String getString(ByteBuffer b, int at) {
+      int end = at + 2 + (b.getShort(at) & 0xffff);
+      StringBuilder sb = new StringBuilder(end - at - 2);
+      for (int i = at + 2; i < end; ) {
+         int c = b.get(i++) & 0xff;
+         if (c < 0x80) {
+            sb.append((char) c);
+         } else if (c < 0xe0) {
+            sb.append((char) (((c & 0x1f) << 6) | (b.get(i++) & 0x3f)));
+         } else {
+            int c2 = b.get(i++) & 0x3f;
+            sb.append((char) (((c & 0x0f) << 12) | (c2 << 6) | (b.get(i++) & 0x3f)));
+         }//end if
+      }//end for
+      return sb.toString();
+   }//end getString
+
+   static File[] segments(File dir) {
+      File[] files = dir.listFiles((d, n) -> n.endsWith(SUFFIX));
+      if (files == null)
+         return new File[0];
+      Arrays.sort(files);
+      return files;
+   }//end segments
+
+   static String name(long firstSeq) {
+      return String.format("%020d", firstSeq) + SUFFIX;
+   }
+
+   static long firstSeq(File segment) {
+      String n = segment.getName();
+      return Long.parseLong(n.substring(0, n.length() - SUFFIX.length()));
+   }
+
+}//end Journal
@@ -0,0 +1,125 @@
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Answers audit questions from the Journal alone, without Postgres.
+ *
+ *    tracking <trackingID>   the order and every change to its tracking
+ *                            row, in order, rebuilt from the events
+ *    user <login>            everything a user did or had done to them,
+ *                            following login changes
+ *    order <orderID>         the order's placement and return
+ *    dump [fromSeq]          every record
+ *    stats                   records per event and read speed
+ */
+public class JournalTool {
+
+   private static String time(long millis) {
+      return new Timestamp(millis).toString();
+   }
+
+   private static void print(Journal.Record r) {
+      System.out.printf("%8d  %-23s  %-19s  %-20s  %-30s  %-20s  %d%n",
+         r.seq, time(r.time), r.event, r.key, r.value, r.actor, r.number);
+   }//end print
+
+   /*
+    * The tracking row as each event left it.
+    */
+   static long tracking(File dir, final String trackingID) throws Exception {
+      final String[] state = new String[4];
+      final String[] order = { null };
+      return Journal.read(dir, 0, r -> {
+         int column;
+         switch (r.event) {
+            case ORDER_PLACED:
+               if (!r.value.equals(trackingID))
+                  return;
+               order[0] = r.key;
+               state[0] = "Pending";
+               state[1] = "Warehouse";
+               state[2] = "FedEx";
+               System.out.printf("%-23s  order %s placed by %s%n", time(r.time), r.key, r.actor);
+               return;
+            case TRACKING_STATUS: column = 0; break;
+            case TRACKING_LOCATION: column = 1; break;
+            case TRACKING_COURIER: column = 2; break;
+            case TRACKING_COMMENTS: column = 3; break;
+            default: return;
+         }//end switch
+         if (!r.key.equals(trackingID))
+            return;
+         state[column] = r.value;
+         System.out.printf("%-23s  %-17s by %-12s -> status=%s location=%s courier=%s comments=%s%n",
+            time(r.number != 0 ? r.number : r.time), r.event, r.actor, state[0], state[1], state[2], state[3]);
+      });
+   }//end tracking
+
+   static long user(File dir, String login) throws Exception {
+      final Set<String> names = new HashSet<String>();
+      names.add(login);
+      return Journal.read(dir, 0, r -> {
+         boolean subject = r.event.name().startsWith("USER_") && names.contains(r.key);
+         if (!subject && !names.contains(r.actor))
+            return;
+         if (r.event == Journal.Event.USER_LOGIN && subject)
+            names.add(r.value);
+         print(r);
+      });
+   }//end user
+
+   static long order(File dir, final String orderID) throws Exception {
+      return Journal.read(dir, 0, r -> {
+         if ((r.event == Journal.Event.ORDER_PLACED || r.event == Journal.Event.ORDER_RETURNED)
+               && r.key.equals(orderID))
+            print(r);
+      });
+   }//end order
+
+   static void stats(File dir) throws Exception {
+      final Map<Journal.Event, long[]> counts = new EnumMap<Journal.Event, long[]>(Journal.Event.class);
+      final long[] seqs = { Long.MAX_VALUE, 0 };
+      long start = System.nanoTime();
+      long records = Journal.read(dir, 0, r -> {
+         counts.computeIfAbsent(r.event, e -> new long[1])[0]++;
+         seqs[0] = Math.min(seqs[0], r.seq);
+         seqs[1] = Math.max(seqs[1], r.seq);
+      });
+      double seconds = (System.nanoTime() - start) / 1e9;
+      for (Map.Entry<Journal.Event, long[]> e : counts.entrySet())
+         System.out.printf("%-20s %10d%n", e.getKey(), e.getValue()[0]);
+      System.out.printf("%d records, seq %d..%d, %d segments, read in %.3f s (%.0f records/s)%n",
+         records, records == 0 ? 0 : seqs[0], seqs[1], Journal.segments(dir).length, seconds, records / seconds);
+   }//end stats
+
+   /**
+    * Usage: JournalTool journalDir tracking|user|order|dump|stats [arg]
+    */
+   public static void main(String[] args) {
+      if (args.length < 2) {
+         System.err.println("Usage: java [-classpath <classpath>] " + JournalTool.class.getName()
+            + " <journalDir> tracking <trackingID> | user <login> | order <orderID> | dump [fromSeq] | stats");
+         return;
+      }//end if
+      File dir = new File(args[0]);
+      try {
+         long n;
+         switch (args[1]) {
+            case "tracking": n = tracking(dir, args[2]); break;
+            case "user": n = user(dir, args[2]); break;
+            case "order": n = order(dir, args[2]); break;
+            case "dump": n = Journal.read(dir, args.length > 2 ? Long.parseLong(args[2]) : 0, JournalTool::print); break;
+            case "stats": stats(dir); return;
+            default: System.err.println("Unknown command " + args[1]); return;
+         }//end switch
+         System.out.println(n + " records read");
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }//end try
+   }//end main
+
+}//end JournalTool
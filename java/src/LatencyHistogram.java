@@ -0,0 +1,119 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, log-linear histogram of latencies in nanoseconds.
+ *
+ * Values below 64 are counted exactly; above that every power of two is
+ * split into 32 equal buckets, so a reported percentile is within about
+ * 3% of the true value.  The whole long range fits in under 2000 buckets.
+ * Recording is lock-free and safe from any number of threads.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 5;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+   private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+   private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong _count = new AtomicLong();
+   private final AtomicLong _sum = new AtomicLong();
+   private final AtomicLong _max = new AtomicLong();
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos the latency in nanoseconds; negative values count as 0
+    */
+   public void record(long nanos) {
+      if (nanos < 0)
+         nanos = 0;
+      this._counts.incrementAndGet(bucket(nanos));
+      this._count.incrementAndGet();
+      this._sum.addAndGet(nanos);
+      long max = this._max.get();
+      while (nanos > max && !this._max.compareAndSet(max, nanos))
+         max = this._max.get();
+   }//end record
+
+   public long count() {
+      return this._count.get();
+   }
+
+   public long max() {
+      return this._max.get();
+   }
+
+   public double mean() {
+      long n = this._count.get();
+      return n == 0 ? 0 : (double) this._sum.get() / n;
+   }
+
+   /**
+    * @param p the percentile, between 0 and 100
+    * @return the latency at or below which p percent of the values fall
+    */
+   public long percentile(double p) {
+      long n = this._count.get();
+      if (n == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += this._counts.get(i);
+         if (seen >= rank)
+            return Math.min(upperBound(i), this._max.get());
+      }//end for
+      return this._max.get();
+   }//end percentile
+
+   /**
+    * Adds every value recorded in another histogram to this one.
+    */
+   public void add(LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; ++i) {
+         long c = other._counts.get(i);
+         if (c != 0)
+            this._counts.addAndGet(i, c);
+      }//end for
+      this._count.addAndGet(other._count.get());
+      this._sum.addAndGet(other._sum.get());
+      long max = this._max.get();
+      long otherMax = other._max.get();
+      while (otherMax > max && !this._max.compareAndSet(max, otherMax))
+         max = this._max.get();
+   }//end add
+
+   /**
+    * @return a copy of this histogram as of now
+    */
+   public LatencyHistogram copy() {
+      LatencyHistogram h = new LatencyHistogram();
+      h.add(this);
+      return h;
+   }
+
+   public void reset() {
+      for (int i = 0; i < BUCKETS; ++i)
+         this._counts.set(i, 0);
+      this._count.set(0);
+      this._sum.set(0);
+      this._max.set(0);
+   }//end reset
+
+   static int bucket(long v) {
+      if (v < 2 * SUB_COUNT)
+         return (int) v;
+      int exp = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+      return exp * SUB_COUNT + (int) (v >>> exp);
+   }//end bucket
+
+   static long upperBound(int bucket) {
+      if (bucket < 2 * SUB_COUNT)
+         return bucket;
+      int exp = bucket / SUB_COUNT - 1;
+      long mantissa = bucket - (long) exp * SUB_COUNT;
+      return ((mantissa + 1) << exp) - 1;
+   }//end upperBound
+
+}//end LatencyHistogram
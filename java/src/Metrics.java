@@ -0,0 +1,134 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency and throughput metrics of a GameRental instance, kept per
+ * logical operation and per SQL statement shape.
+ *
+ * Stats for every QueryShape are created up front and found by ordinal,
+ * so the hot path does no lookups and takes no locks.  Each stats object
+ * is also registered as an MXBean under the GameRental JMX domain.
+ */
+public class Metrics {
+
+   public static final String JMX_DOMAIN = "GameRental";
+
+   // statements run through the String-based execute methods
+   public static final String AD_HOC = "ad-hoc";
+
+   private final boolean _jmx;
+   private final ConcurrentHashMap<String, OperationStats> _operations = new ConcurrentHashMap<String, OperationStats>();
+   private final ConcurrentHashMap<String, OperationStats> _statements = new ConcurrentHashMap<String, OperationStats>();
+   private final OperationStats[] _shapes;
+
+   /**
+    * @param jmx true to register every stats object with the platform
+    *        MBean server
+    */
+   public Metrics(boolean jmx) {
+      this._jmx = jmx;
+      QueryShape[] shapes = QueryShape.values();
+      this._shapes = new OperationStats[shapes.length];
+      for (QueryShape shape : shapes) {
+         OperationStats parent = shape.operation() == null ? null : operation(shape.operation());
+         this._shapes[shape.ordinal()] = register("Statement", new OperationStats(shape.name(), parent));
+      }//end for
+   }//end Metrics
+
+   /**
+    * @return the stats of a logical operation, created on first use
+    */
+   public OperationStats operation(String name) {
+      OperationStats stats = this._operations.get(name);
+      if (stats != null)
+         return stats;
+      return this._operations.computeIfAbsent(name, n -> register("Operation", new OperationStats(n, null)));
+   }//end operation
+
+   /**
+    * @return the stats of a named statement shape
+    */
+   public OperationStats statement(QueryShape shape) {
+      return this._shapes[shape.ordinal()];
+   }
+
+   /**
+    * @return the stats of a statement built at runtime, keyed by its text
+    */
+   public OperationStats statement(String sql) {
+      OperationStats stats = this._statements.get(sql);
+      if (stats != null)
+         return stats;
+      return this._statements.computeIfAbsent(sql, s -> register("Statement", new OperationStats(s, null)));
+   }//end statement
+
+   /**
+    * Clears every counter.
+    */
+   public void reset() {
+      for (OperationStats s : all())
+         s.reset();
+   }//end reset
+
+   /**
+    * @return a printable table of every operation and statement that was
+    *         called at least once
+    */
+   public String snapshot() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%-10s %-40s %9s %7s %9s %10s %10s %10s %10s %10s%n",
+         "kind", "name", "calls", "errors", "rows", "mean us", "p50 us", "p99 us", "p99.9 us", "max us"));
+      appendRows(sb, "operation", new TreeMap<String, OperationStats>(this._operations).values());
+      List<OperationStats> statements = new ArrayList<OperationStats>();
+      for (OperationStats s : this._shapes)
+         statements.add(s);
+      statements.addAll(new TreeMap<String, OperationStats>(this._statements).values());
+      appendRows(sb, "statement", statements);
+      return sb.toString();
+   }//end snapshot
+
+   private static void appendRows(StringBuilder sb, String kind, Iterable<OperationStats> stats) {
+      for (OperationStats s : stats) {
+         if (s.getCalls() == 0)
+            continue;
+         String name = s.getName();
+         if (name.length() > 40)
+            name = name.substring(0, 37) + "...";
+         sb.append(String.format("%-10s %-40s %9d %7d %9d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+            kind, name, s.getCalls(), s.getErrors(), s.getRows(), s.getMeanMicros(),
+            s.getP50Micros(), s.getP99Micros(), s.getP999Micros(), s.getMaxMicros()));
+      }//end for
+   }//end appendRows
+
+   private List<OperationStats> all() {
+      List<OperationStats> all = new ArrayList<OperationStats>(this._operations.values());
+      for (OperationStats s : this._shapes)
+         all.add(s);
+      all.addAll(this._statements.values());
+      return all;
+   }//end all
+
+   /*
+    * Registers stats with JMX when enabled.  Registration problems, such as
+    * a second GameRental instance in the same JVM, only cost visibility.
+    */
+   private OperationStats register(String type, OperationStats stats) {
+      if (!this._jmx)
+         return stats;
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(stats.getName()));
+         if (!server.isRegistered(name))
+            server.registerMBean(stats, name);
+      } catch (Exception e) {
+         // ignored, the stats are still collected.
+      }//end try
+      return stats;
+   }//end register
+
+}//end Metrics
@@ -0,0 +1,92 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call count, error count, rows and latency histogram of one logical
+ * operation (login, placeOrder, ...) or one SQL statement shape.
+ *
+ * Statement stats may have a parent operation; every call recorded on the
+ * statement is recorded on the parent as well.
+ */
+public class OperationStats implements OperationStatsMXBean {
+
+   private final String _name;
+   private final OperationStats _parent;
+   private final LatencyHistogram _latency = new LatencyHistogram();
+   private final LongAdder _calls = new LongAdder();
+   private final LongAdder _errors = new LongAdder();
+   private final LongAdder _rows = new LongAdder();
+
+   OperationStats(String name, OperationStats parent) {
+      this._name = name;
+      this._parent = parent;
+   }//end OperationStats
+
+   /**
+    * Records one call.
+    *
+    * @param nanos how long the call took
+    * @param rows the rows returned or affected, 0 if unknown
+    * @param ok false if the call failed
+    */
+   public void record(long nanos, long rows, boolean ok) {
+      this._latency.record(nanos);
+      this._calls.increment();
+      if (rows > 0)
+         this._rows.add(rows);
+      if (!ok)
+         this._errors.increment();
+      if (this._parent != null)
+         this._parent.record(nanos, rows, ok);
+   }//end record
+
+   public String getName() {
+      return this._name;
+   }
+
+   public long getCalls() {
+      return this._calls.sum();
+   }
+
+   public long getErrors() {
+      return this._errors.sum();
+   }
+
+   public long getRows() {
+      return this._rows.sum();
+   }
+
+   public double getMeanMicros() {
+      return this._latency.mean() / 1e3;
+   }
+
+   public double getP50Micros() {
+      return this._latency.percentile(50) / 1e3;
+   }
+
+   public double getP99Micros() {
+      return this._latency.percentile(99) / 1e3;
+   }
+
+   public double getP999Micros() {
+      return this._latency.percentile(99.9) / 1e3;
+   }
+
+   public double getMaxMicros() {
+      return this._latency.max() / 1e3;
+   }
+
+   public void reset() {
+      this._latency.reset();
+      this._calls.reset();
+      this._errors.reset();
+      this._rows.reset();
+   }//end reset
+
+   /**
+    * @return the latency histogram, for callers that need other percentiles
+    */
+   public LatencyHistogram getLatency() {
+      return this._latency;
+   }
+
+}//end OperationStats
@@ -0,0 +1,30 @@
+/**
+ * JMX view of the metrics collected for one logical operation or SQL
+ * statement shape.  Latencies are in microseconds.
+ */
+public interface OperationStatsMXBean {
+
+   String getName();
+
+   long getCalls();
+
+   long getErrors();
+
+   long getRows();
+
+   double getMeanMicros();
+
+   double getP50Micros();
+
+   double getP99Micros();
+
+   double getP999Micros();
+
+   double getMaxMicros();
+
+   /**
+    * Clears every counter and the latency histogram.
+    */
+   void reset();
+
+}//end OperationStatsMXBean
@@ -0,0 +1,1009 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for old rental orders.
+ *
+ * archive() moves the orders placed before a cutoff out of RentalOrder,
+ * one calendar month at a time, together with their GamesInOrder lines,
+ * TrackingInfo rows and ReturnedOrders entry.  Each month becomes one
+ * gzip-compressed file in the archive directory with every field stored
+ * as a column: users first, each owning a run of rows newest order
+ * first, then the order columns with timestamps delta-encoded, then the
+ * lines and tracking rows with the low-cardinality columns (games,
+ * status, location, courier) dictionary-encoded.  The live tables and
+ * their indexes then only hold the recent orders the store works with.
+ *
+ * A month is written under a new generation number and the file is
+ * synced before the transaction that deletes its rows and records the
+ * generation in ArchivedMonths commits, so a crash either leaves the
+ * rows live and a stray file, or the rows gone and the file in place.
+ * A failed archive never deletes the new file itself, since the commit
+ * may have gone through; the next load, and every archive run, delete
+ * the files of generations ArchivedMonths does not record.  Only one
+ * process archives at a time.
+ * Archiving a month again (orders not yet due stay live) writes the old
+ * and new orders to the next generation.  Only orders already past their
+ * due date are archived; the games of those never returned are added to
+ * ArchivedRentals so OverdueTracker still counts them.
+ *
+ * Reads are answered from the files: the history pages of a user past
+ * the live orders, an order or tracking row no longer live, and every
+ * archived order for the Analytics and Recommender rebuilds.  Which
+ * months hold a user's orders is known in memory from the user column at
+ * the head of each file, and decoded months are kept in an LRU cache.
+ * The head also holds a bloom filter of the month's tracking IDs, so a
+ * tracking lookup only decodes the months that may hold the ID.
+ */
+public class OrderArchive {
+
+   public static final int DEFAULT_KEEP_DAYS = 365;
+   public static final int DEFAULT_CACHED_MONTHS = 24;
+
+   // "GRA2"
+   private static final int MAGIC = 0x47524132;
+   // bits per tracking row in a month's filter, and the probes per ID
+   private static final int FILTER_BITS = 10;
+   private static final int FILTER_PROBES = 7;
+   private static final long NONE = Long.MIN_VALUE;
+   private static final Pattern FILE_NAME = Pattern.compile("(\\d{4}-\\d{2})\\.(\\d+)\\.orders\\.gz(\\.part)?");
+
+   /**
+    * Called for every archived order.
+    */
+   public interface OrderHandler {
+      void handle(Order order) throws SQLException;
+   }//end OrderHandler
+
+   /**
+    * One tracking row of an archived order.
+    */
+   public static class Tracking {
+      public final String trackingID;
+      public final String status;
+      public final String currentLocation;
+      public final String courierName;
+      public final Timestamp lastUpdateDate;
+      public final String additionalComments;
+
+      Tracking(String trackingID, String status, String currentLocation, String courierName,
+               Timestamp lastUpdateDate, String additionalComments) {
+         this.trackingID = trackingID;
+         this.status = status;
+         this.currentLocation = currentLocation;
+         this.courierName = courierName;
+         this.lastUpdateDate = lastUpdateDate;
+         this.additionalComments = additionalComments;
+      }//end Tracking
+   }//end Tracking
+
+   /**
+    * An archived order with its lines and tracking rows.
+    */
+   public static class Order {
+      public final String orderID;
+      public final String login;
+      public final int noOfGames;
+      public final BigDecimal totalPrice;
+      public final Timestamp orderTimestamp;
+      public final Timestamp dueDate;
+      // null when the order was never returned
+      public final Timestamp returnedDate;
+      public final List<String> games = new ArrayList<String>();
+      public final List<Integer> units = new ArrayList<Integer>();
+      public final List<Tracking> tracking = new ArrayList<Tracking>();
+
+      Order(String orderID, String login, int noOfGames, BigDecimal totalPrice,
+            Timestamp orderTimestamp, Timestamp dueDate, Timestamp returnedDate) {
+         this.orderID = orderID;
+         this.login = login;
+         this.noOfGames = noOfGames;
+         this.totalPrice = totalPrice;
+         this.orderTimestamp = orderTimestamp;
+         this.dueDate = dueDate;
+         this.returnedDate = returnedDate;
+      }//end Order
+
+      OrderHistory.Summary summary() {
+         return new OrderHistory.Summary(this.orderID, this.orderTimestamp, this.dueDate,
+            this.noOfGames, this.totalPrice, this.games.size());
+      }
+
+      /**
+       * @return the columns of QueryShape.ORDER_INFO
+       */
+      public String[] infoColumns() {
+         return new String[] { String.valueOf(this.orderTimestamp), String.valueOf(this.dueDate),
+            this.totalPrice.toPlainString(), this.orderID, Integer.toString(this.noOfGames) };
+      }
+
+      /**
+       * @return the columns of QueryShape.TRACKING_INFO for one tracking row
+       */
+      public String[] trackingColumns(Tracking t) {
+         return new String[] { t.courierName, this.orderID, t.currentLocation, t.status,
+            String.valueOf(t.lastUpdateDate), t.additionalComments };
+      }
+   }//end Order
+
+   // headers printed for orders and tracking rows read from the archive
+   public static final String[] INFO_COLUMNS = { "ordertimestamp", "duedate", "totalprice", "rentalorderid", "noofgames" };
+   public static final String[] TRACKING_COLUMNS = { "couriername", "rentalorderid", "currentlocation", "status",
+      "lastupdatedate", "additionalcomments" };
+
+   /*
+    * Newest first, as history pages list them.
+    */
+   private static final Comparator<Order> NEWEST_FIRST = (a, b) -> {
+      int c = b.orderTimestamp.compareTo(a.orderTimestamp);
+      return c != 0 ? c : b.orderID.compareTo(a.orderID);
+   };
+
+   /**
+    * One archived month, decoded into its columns.  Rows are sorted by
+    * login, then newest order first.
+    */
+   static class Month {
+      String[] users;
+      // rows of users[u] are userStart[u] until userStart[u + 1]
+      int[] userStart;
+      String[] orderID;
+      long[] time;
+      long[] due;
+      long[] returned;
+      int[] games;
+      long[] cents;
+      int[] lineStart;
+      String[] lineGame;
+      int[] lineUnits;
+      int[] trackStart;
+      String[] trackID;
+      String[] trackStatus;
+      String[] trackLocation;
+      String[] trackCourier;
+      long[] trackUpdate;
+      String[] trackComments;
+      // bloom filter of trackID, kept in the file next to the users
+      long[] trackFilter;
+
+      int rows() {
+         return this.orderID.length;
+      }
+
+      static Month of(List<Order> orders) {
+         List<Order> sorted = new ArrayList<Order>(orders);
+         sorted.sort((a, b) -> {
+            int c = a.login.compareTo(b.login);
+            return c != 0 ? c : NEWEST_FIRST.compare(a, b);
+         });
+         int n = sorted.size();
+         int lines = 0;
+         int tracks = 0;
+         List<String> users = new ArrayList<String>();
+         List<Integer> userStart = new ArrayList<Integer>();
+         for (int i = 0; i < n; ++i) {
+            Order o = sorted.get(i);
+            if (i == 0 || !o.login.equals(sorted.get(i - 1).login)) {
+               users.add(o.login);
+               userStart.add(i);
+            }//end if
+            lines += o.games.size();
+            tracks += o.tracking.size();
+         }//end for
+         userStart.add(n);
+
+         Month m = new Month();
+         m.users = users.toArray(new String[0]);
+         m.userStart = userStart.stream().mapToInt(Integer::intValue).toArray();
+         m.orderID = new String[n];
+         m.time = new long[n];
+         m.due = new long[n];
+         m.returned = new long[n];
+         m.games = new int[n];
+         m.cents = new long[n];
+         m.lineStart = new int[n + 1];
+         m.lineGame = new String[lines];
+         m.lineUnits = new int[lines];
+         m.trackStart = new int[n + 1];
+         m.trackID = new String[tracks];
+         m.trackStatus = new String[tracks];
+         m.trackLocation = new String[tracks];
+         m.trackCourier = new String[tracks];
+         m.trackUpdate = new long[tracks];
+         m.trackComments = new String[tracks];
+         int l = 0;
+         int t = 0;
+         for (int i = 0; i < n; ++i) {
+            Order o = sorted.get(i);
+            m.orderID[i] = o.orderID;
+            m.time[i] = o.orderTimestamp.getTime();
+            m.due[i] = o.dueDate.getTime();
+            m.returned[i] = o.returnedDate == null ? NONE : o.returnedDate.getTime();
+            m.games[i] = o.noOfGames;
+            m.cents[i] = o.totalPrice.movePointRight(2).longValue();
+            m.lineStart[i] = l;
+            for (int j = 0; j < o.games.size(); ++j, ++l) {
+               m.lineGame[l] = o.games.get(j);
+               m.lineUnits[l] = o.units.get(j);
+            }//end for
+            m.trackStart[i] = t;
+            for (Tracking k : o.tracking) {
+               m.trackID[t] = k.trackingID;
+               m.trackStatus[t] = k.status;
+               m.trackLocation[t] = k.currentLocation;
+               m.trackCourier[t] = k.courierName;
+               m.trackUpdate[t] = k.lastUpdateDate.getTime();
+               m.trackComments[t] = k.additionalComments;
+               ++t;
+            }//end for
+         }//end for
+         m.lineStart[n] = l;
+         m.trackStart[n] = t;
+         m.trackFilter = filter(m.trackID);
+         return m;
+      }//end of
+
+      Order order(int row) {
+         Order o = new Order(this.orderID[row], this.users[user(row)], this.games[row],
+            BigDecimal.valueOf(this.cents[row], 2), new Timestamp(this.time[row]), new Timestamp(this.due[row]),
+            this.returned[row] == NONE ? null : new Timestamp(this.returned[row]));
+         for (int l = this.lineStart[row]; l < this.lineStart[row + 1]; ++l) {
+            o.games.add(this.lineGame[l]);
+            o.units.add(this.lineUnits[l]);
+         }//end for
+         for (int t = this.trackStart[row]; t < this.trackStart[row + 1]; ++t)
+            o.tracking.add(new Tracking(this.trackID[t], this.trackStatus[t], this.trackLocation[t],
+               this.trackCourier[t], new Timestamp(this.trackUpdate[t]), this.trackComments[t]));
+         return o;
+      }//end order
+
+      private int user(int row) {
+         int u = Arrays.binarySearch(this.userStart, row);
+         if (u < 0)
+            return -u - 2;
+         // skip users without rows, there are none but be safe
+         while (u + 1 < this.userStart.length && this.userStart[u + 1] == row)
+            ++u;
+         return u;
+      }//end user
+
+      /**
+       * @return the first row of a user and the row after their last, or
+       *         null when the month has none of their orders
+       */
+      int[] rowsOf(String login) {
+         int u = Arrays.binarySearch(this.users, login);
+         return u < 0 ? null : new int[] { this.userStart[u], this.userStart[u + 1] };
+      }
+
+      void write(File file) throws IOException {
+         FileOutputStream fos = new FileOutputStream(file);
+         try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fos, 1 << 16), 1 << 16))) {
+            int n = rows();
+            out.writeInt(MAGIC);
+            out.writeInt(n);
+            out.writeInt(this.users.length);
+            out.writeInt(this.lineGame.length);
+            out.writeInt(this.trackID.length);
+            for (String u : this.users)
+               writeString(out, u);
+            for (int u = 0; u < this.users.length; ++u)
+               out.writeInt(this.userStart[u + 1] - this.userStart[u]);
+            out.writeInt(this.trackFilter.length);
+            for (long bits : this.trackFilter)
+               out.writeLong(bits);
+
+            for (String id : this.orderID)
+               writeString(out, id);
+            long previous = 0;
+            for (long t : this.time) {
+               out.writeLong(t - previous);
+               previous = t;
+            }//end for
+            for (int i = 0; i < n; ++i)
+               out.writeLong(this.due[i] - this.time[i]);
+            for (int i = 0; i < n; ++i)
+               out.writeLong(this.returned[i] == NONE ? NONE : this.returned[i] - this.time[i]);
+            for (int g : this.games)
+               out.writeInt(g);
+            for (long c : this.cents)
+               out.writeLong(c);
+
+            for (int i = 0; i < n; ++i)
+               out.writeInt(this.lineStart[i + 1] - this.lineStart[i]);
+            writeDictionary(out, this.lineGame);
+            for (int u : this.lineUnits)
+               out.writeInt(u);
+
+            for (int i = 0; i < n; ++i)
+               out.writeInt(this.trackStart[i + 1] - this.trackStart[i]);
+            for (String id : this.trackID)
+               writeString(out, id);
+            writeDictionary(out, this.trackStatus);
+            writeDictionary(out, this.trackLocation);
+            writeDictionary(out, this.trackCourier);
+            for (int i = 0; i < n; ++i) {
+               for (int t = this.trackStart[i]; t < this.trackStart[i + 1]; ++t)
+                  out.writeLong(this.trackUpdate[t] - this.time[i]);
+            }//end for
+            for (String c : this.trackComments)
+               writeString(out, c);
+            out.flush();
+            fos.getFD().sync();
+         }//end try
+      }//end write
+
+      /**
+       * Reads a month file, or only its users and tracking filter when
+       * usersOnly is set.
+       */
+      static Month read(File file, boolean usersOnly) throws IOException {
+         try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+               new GZIPInputStream(new FileInputStream(file), 1 << 16), 1 << 16))) {
+            if (in.readInt() != MAGIC)
+               throw new IOException(file + " is not an order archive");
+            Month m = new Month();
+            int n = in.readInt();
+            int users = in.readInt();
+            int lines = in.readInt();
+            int tracks = in.readInt();
+            m.users = new String[users];
+            for (int u = 0; u < users; ++u)
+               m.users[u] = readString(in);
+            m.userStart = starts(in, users);
+            m.trackFilter = new long[in.readInt()];
+            for (int w = 0; w < m.trackFilter.length; ++w)
+               m.trackFilter[w] = in.readLong();
+            if (usersOnly)
+               return m;
+
+            m.orderID = new String[n];
+            for (int i = 0; i < n; ++i)
+               m.orderID[i] = readString(in);
+            m.time = new long[n];
+            long previous = 0;
+            for (int i = 0; i < n; ++i)
+               previous = m.time[i] = previous + in.readLong();
+            m.due = new long[n];
+            for (int i = 0; i < n; ++i)
+               m.due[i] = m.time[i] + in.readLong();
+            m.returned = new long[n];
+            for (int i = 0; i < n; ++i) {
+               long r = in.readLong();
+               m.returned[i] = r == NONE ? NONE : m.time[i] + r;
+            }//end for
+            m.games = new int[n];
+            for (int i = 0; i < n; ++i)
+               m.games[i] = in.readInt();
+            m.cents = new long[n];
+            for (int i = 0; i < n; ++i)
+               m.cents[i] = in.readLong();
+
+            m.lineStart = starts(in, n);
+            m.lineGame = readDictionary(in, lines);
+            m.lineUnits = new int[lines];
+            for (int l = 0; l < lines; ++l)
+               m.lineUnits[l] = in.readInt();
+
+            m.trackStart = starts(in, n);
+            m.trackID = new String[tracks];
+            for (int t = 0; t < tracks; ++t)
+               m.trackID[t] = readString(in);
+            m.trackStatus = readDictionary(in, tracks);
+            m.trackLocation = readDictionary(in, tracks);
+            m.trackCourier = readDictionary(in, tracks);
+            m.trackUpdate = new long[tracks];
+            for (int i = 0; i < n; ++i) {
+               for (int t = m.trackStart[i]; t < m.trackStart[i + 1]; ++t)
+                  m.trackUpdate[t] = m.time[i] + in.readLong();
+            }//end for
+            m.trackComments = new String[tracks];
+            for (int t = 0; t < tracks; ++t)
+               m.trackComments[t] = readString(in);
+            return m;
+         }//end try
+      }//end read
+
+      /*
+       * Run lengths back into start offsets.
+       */
+      private static int[] starts(DataInputStream in, int runs) throws IOException {
+         int[] start = new int[runs + 1];
+         for (int r = 0; r < runs; ++r)
+            start[r + 1] = start[r] + in.readInt();
+         return start;
+      }//end starts
+   }//end Month
+
+   /*
+    * A bloom filter of the IDs, FILTER_BITS bits per ID.
+    */
+   static long[] filter(String[] ids) {
+      long[] bits = new long[Math.max(1, (ids.length * FILTER_BITS + 63) / 64)];
+      for (String id : ids) {
+         int h1 = id.hashCode();
+         int h2 = hash2(id);
+         for (int k = 0; k < FILTER_PROBES; ++k) {
+            int bit = Math.floorMod(h1 + k * h2, bits.length * 64);
+            bits[bit >>> 6] |= 1L << bit;
+         }//end for
+      }//end for
+      return bits;
+   }//end filter
+
+   /*
+    * False only when the ID was not added to the filter.
+    */
+   static boolean mightContain(long[] bits, String id) {
+      int h1 = id.hashCode();
+      int h2 = hash2(id);
+      for (int k = 0; k < FILTER_PROBES; ++k) {
+         int bit = Math.floorMod(h1 + k * h2, bits.length * 64);
+         if ((bits[bit >>> 6] & 1L << bit) == 0)
+            return false;
+      }//end for
+      return true;
+   }//end mightContain
+
+   // FNV-1a, independent of String.hashCode; odd so the probes differ
+   private static int hash2(String id) {
+      int h = 0x811c9dc5;
+      for (int i = 0; i < id.length(); ++i)
+         h = (h ^ id.charAt(i)) * 0x01000193;
+      return h | 1;
+   }//end hash2
+
+   private static void writeString(DataOutputStream out, String s) throws IOException {
+      if (s == null) {
+         out.writeInt(-1);
+         return;
+      }//end if
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }//end writeString
+
+   private static String readString(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0)
+         return null;
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }//end readString
+
+   /*
+    * The distinct values, then one code per row; -1 is null.
+    */
+   private static void writeDictionary(DataOutputStream out, String[] column) throws IOException {
+      Map<String, Integer> codes = new LinkedHashMap<String, Integer>();
+      for (String v : column) {
+         if (v != null && !codes.containsKey(v))
+            codes.put(v, codes.size());
+      }//end for
+      out.writeInt(codes.size());
+      for (String v : codes.keySet())
+         writeString(out, v);
+      for (String v : column)
+         out.writeInt(v == null ? -1 : codes.get(v));
+   }//end writeDictionary
+
+   private static String[] readDictionary(DataInputStream in, int rows) throws IOException {
+      String[] values = new String[in.readInt()];
+      for (int i = 0; i < values.length; ++i)
+         values[i] = readString(in);
+      String[] column = new String[rows];
+      for (int r = 0; r < rows; ++r) {
+         int code = in.readInt();
+         column[r] = code < 0 ? null : values[code];
+      }//end for
+      return column;
+   }//end readDictionary
+
+   /*
+    * An ArchivedMonths row.
+    */
+   private static class Info {
+      final int generation;
+      final int orders;
+
+      Info(int generation, int orders) {
+         this.generation = generation;
+         this.orders = orders;
+      }
+   }//end Info
+
+   /**
+    * What one archive() call moved.
+    */
+   public static class Result {
+      public int months = 0;
+      public int orders = 0;
+      public long bytes = 0;
+      public long nanos = 0;
+
+      @Override
+      public String toString() {
+         return String.format("archived %d orders from %d months into %d bytes in %.2f s",
+            this.orders, this.months, this.bytes, this.nanos / 1e9);
+      }
+   }//end Result
+
+   private final GameRental _esql;
+   private final File _dir;
+   private final int _cachedMonths;
+
+   private final ConcurrentSkipListMap<YearMonth, Info> _months = new ConcurrentSkipListMap<YearMonth, Info>();
+   // months holding each user's orders
+   private final ConcurrentHashMap<String, NavigableSet<YearMonth>> _userMonths
+      = new ConcurrentHashMap<String, NavigableSet<YearMonth>>();
+   // tracking filter of each month
+   private final ConcurrentHashMap<YearMonth, long[]> _trackFilters = new ConcurrentHashMap<YearMonth, long[]>();
+   private final LinkedHashMap<YearMonth, Month> _cache;
+   private volatile boolean _loaded = false;
+
+   private final AtomicLong _monthReads = new AtomicLong();
+   private final AtomicLong _cacheHits = new AtomicLong();
+   private final AtomicLong _ordersRead = new AtomicLong();
+   private final AtomicLong _filterSkips = new AtomicLong();
+
+   public OrderArchive(GameRental esql, File dir) {
+      this(esql, dir, DEFAULT_CACHED_MONTHS);
+   }
+
+   public OrderArchive(GameRental esql, File dir, int cachedMonths) {
+      this._esql = esql;
+      this._dir = dir;
+      this._cachedMonths = Math.max(1, cachedMonths);
+      this._cache = new LinkedHashMap<YearMonth, Month>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<YearMonth, Month> eldest) {
+            return size() > OrderArchive.this._cachedMonths;
+         }
+      };
+   }//end OrderArchive
+
+   /**
+    * Archives every order placed before the cutoff whose due date has
+    * passed it too, month by month.
+    *
+    * @param cutoff must not be in the future, so every archived order is due
+    */
+   public Result archive(Timestamp cutoff) throws SQLException {
+      if (cutoff.getTime() > System.currentTimeMillis())
+         throw new IllegalArgumentException("the cutoff must not be in the future");
+      reload();
+      Result result = new Result();
+      long start = System.nanoTime();
+      List<YearMonth> due = new ArrayList<YearMonth>();
+      this._esql.streamQuery(QueryShape.ARCHIVE_MONTHS_DUE,
+         rs -> due.add(YearMonth.from(rs.getTimestamp(1).toLocalDateTime())), cutoff, cutoff);
+      for (YearMonth m : due) {
+         int orders = archive(m, cutoff, result);
+         if (orders > 0) {
+            ++result.months;
+            result.orders += orders;
+         }//end if
+      }//end for
+      result.nanos = System.nanoTime() - start;
+      return result;
+   }//end archive
+
+   /*
+    * Moves the due orders of one month into its next generation file.
+    */
+   private synchronized int archive(final YearMonth m, final Timestamp cutoff, Result result) throws SQLException {
+      final Timestamp from = Timestamp.valueOf(m.atDay(1).atStartOfDay());
+      final Timestamp to = Timestamp.valueOf(m.plusMonths(1).atDay(1).atStartOfDay());
+      final Info previous = this._months.get(m);
+      final int generation = previous == null ? 1 : previous.generation + 1;
+      final File file = file(m, generation);
+      final File part = new File(file.getPath() + ".part");
+      final Month[] written = { null };
+      int moved;
+      try {
+         moved = this._esql.measured(this._esql.getMetrics().operation("archiveMonth"), n -> n,
+               () -> this._esql.inTransaction(conn -> {
+            // a tracking update racing the delete fails this transaction instead of being lost
+            // a plain Statement: the server cannot PREPARE a SET TRANSACTION
+            try (Statement set = conn.getConnection().createStatement()) {
+               set.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            }//end try
+            final Map<String, Order> orders = new LinkedHashMap<String, Order>();
+            PreparedStatement stmt = conn.prepare(QueryShape.ARCHIVE_ORDERS);
+            GameRental.bind(stmt, from, to, cutoff);
+            try (ResultSet rs = conn.executeQuery(QueryShape.ARCHIVE_ORDERS, stmt)) {
+               while (rs.next())
+                  orders.put(rs.getString(1), new Order(rs.getString(1), rs.getString(2), rs.getInt(3),
+                     rs.getBigDecimal(4), rs.getTimestamp(5), rs.getTimestamp(6), rs.getTimestamp(7)));
+            }//end try
+            if (orders.isEmpty())
+               return 0;
+
+            stmt = conn.prepare(QueryShape.ARCHIVE_LINES);
+            GameRental.bind(stmt, from, to, cutoff);
+            try (ResultSet rs = conn.executeQuery(QueryShape.ARCHIVE_LINES, stmt)) {
+               while (rs.next()) {
+                  Order o = orders.get(rs.getString(1));
+                  o.games.add(rs.getString(2));
+                  o.units.add(rs.getInt(3));
+               }//end while
+            }//end try
+            stmt = conn.prepare(QueryShape.ARCHIVE_TRACKING);
+            GameRental.bind(stmt, from, to, cutoff);
+            try (ResultSet rs = conn.executeQuery(QueryShape.ARCHIVE_TRACKING, stmt)) {
+               while (rs.next())
+                  orders.get(rs.getString(1)).tracking.add(new Tracking(rs.getString(2), rs.getString(3),
+                     rs.getString(4), rs.getString(5), rs.getTimestamp(6), rs.getString(7)));
+            }//end try
+
+            List<Order> all = new ArrayList<Order>(orders.values());
+            if (previous != null) {
+               Month old = month(m);
+               for (int row = 0; row < old.rows(); ++row) {
+                  if (!orders.containsKey(old.orderID[row]))
+                     all.add(old.order(row));
+               }//end for
+            }//end if
+            Month month = Month.of(all);
+            try {
+               month.write(part);
+               Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+               throw new SQLException("Cannot write " + file + ": " + e.getMessage(), e);
+            }//end try
+
+            Map<String, Integer> games = new HashMap<String, Integer>();
+            long newest = 0;
+            for (Order o : orders.values()) {
+               if (o.returnedDate == null)
+                  games.merge(o.login, o.noOfGames, Integer::sum);
+               newest = Math.max(newest, o.orderTimestamp.getTime());
+            }//end for
+            if (!games.isEmpty()) {
+               stmt = conn.prepare(QueryShape.ADD_ARCHIVED_RENTALS);
+               for (Map.Entry<String, Integer> g : games.entrySet()) {
+                  GameRental.bind(stmt, g.getKey(), g.getValue());
+                  stmt.addBatch();
+               }//end for
+               conn.executeBatch(QueryShape.ADD_ARCHIVED_RENTALS, stmt);
+            }//end if
+
+            stmt = conn.prepare(QueryShape.DELETE_ARCHIVED);
+            GameRental.bind(stmt, from, to, cutoff);
+            int deleted = conn.executeUpdate(QueryShape.DELETE_ARCHIVED, stmt);
+            if (deleted != orders.size())
+               throw new SQLException("Orders of " + m + " changed while archiving, try again");
+
+            stmt = conn.prepare(QueryShape.SET_ARCHIVED_MONTH);
+            GameRental.bind(stmt, java.sql.Date.valueOf(m.atDay(1)), generation, all.size(),
+               new Timestamp(System.currentTimeMillis()));
+            conn.executeUpdate(QueryShape.SET_ARCHIVED_MONTH, stmt);
+            written[0] = month;
+            return orders.size();
+         }));
+      } catch (SQLException e) {
+         // the file stays, the commit may have recorded it; reload() finds out
+         part.delete();
+         this._loaded = false;
+         throw e;
+      }//end try
+
+      if (written[0] == null)
+         return 0;
+      this._months.put(m, new Info(generation, written[0].rows()));
+      index(m, written[0]);
+      synchronized (this._cache) {
+         this._cache.put(m, written[0]);
+      }//end synchronized
+      result.bytes += file.length();
+      if (previous != null)
+         file(m, previous.generation).delete();
+      return moved;
+   }//end archive
+
+   /**
+    * @return up to limit of the user's archived orders, newest first,
+    *         older than the given key (all of them when beforeTime is null)
+    */
+   public List<OrderHistory.Summary> page(String login, Timestamp beforeTime, String beforeID, int limit)
+         throws SQLException {
+      ensureLoaded();
+      List<OrderHistory.Summary> page = new ArrayList<OrderHistory.Summary>();
+      NavigableSet<YearMonth> months = this._userMonths.get(login);
+      if (months == null)
+         return page;
+      YearMonth first = beforeTime == null ? null : YearMonth.from(beforeTime.toLocalDateTime());
+      for (YearMonth m : months.descendingSet()) {
+         if (first != null && m.isAfter(first))
+            continue;
+         Month month = month(m);
+         int[] rows = month.rowsOf(login);
+         if (rows == null)
+            continue;
+         for (int row = rows[0]; row < rows[1] && page.size() < limit; ++row) {
+            if (beforeTime != null) {
+               int c = Long.compare(month.time[row], beforeTime.getTime());
+               if (c > 0 || c == 0 && month.orderID[row].compareTo(beforeID) >= 0)
+                  continue;
+            }//end if
+            page.add(month.order(row).summary());
+         }//end for
+         if (page.size() == limit)
+            break;
+      }//end for
+      this._ordersRead.addAndGet(page.size());
+      return page;
+   }//end page
+
+   /**
+    * @return the month after the user's newest archived order, or null
+    *         when they have none; live orders placed since are never in
+    *         the archive
+    */
+   public Timestamp archivedUntil(String login) throws SQLException {
+      ensureLoaded();
+      NavigableSet<YearMonth> months = this._userMonths.get(login);
+      if (months == null || months.isEmpty())
+         return null;
+      return Timestamp.valueOf(months.last().plusMonths(1).atDay(1).atStartOfDay());
+   }//end archivedUntil
+
+   /**
+    * @return one of the user's archived orders, or null
+    */
+   public Order order(String login, String orderID) throws SQLException {
+      ensureLoaded();
+      NavigableSet<YearMonth> months = this._userMonths.get(login);
+      if (months == null)
+         return null;
+      for (YearMonth m : months.descendingSet()) {
+         Month month = month(m);
+         int[] rows = month.rowsOf(login);
+         for (int row = rows == null ? 0 : rows[0]; rows != null && row < rows[1]; ++row) {
+            if (month.orderID[row].equals(orderID))
+               return month.order(row);
+         }//end for
+      }//end for
+      return null;
+   }//end order
+
+   /**
+    * @return the archived order holding a tracking row, or null; reads
+    *         only the months whose tracking filter may hold the ID
+    */
+   public Order tracking(String trackingID) throws SQLException {
+      ensureLoaded();
+      for (YearMonth m : this._months.descendingKeySet()) {
+         long[] filter = this._trackFilters.get(m);
+         if (filter != null && !mightContain(filter, trackingID)) {
+            this._filterSkips.incrementAndGet();
+            continue;
+         }//end if
+         Month month = month(m);
+         for (int t = 0; t < month.trackID.length; ++t) {
+            if (trackingID.equals(month.trackID[t])) {
+               int row = Arrays.binarySearch(month.trackStart, t);
+               if (row < 0)
+                  row = -row - 2;
+               while (month.trackStart[row + 1] <= t)
+                  ++row;
+               return month.order(row);
+            }//end if
+         }//end for
+      }//end for
+      return null;
+   }//end tracking
+
+   /**
+    * Hands every archived order to the handler, oldest first.
+    */
+   public void forEachOrder(OrderHandler handler) throws SQLException {
+      ensureLoaded();
+      for (YearMonth m : this._months.keySet()) {
+         final Month month = month(m);
+         Integer[] rows = new Integer[month.rows()];
+         for (int i = 0; i < rows.length; ++i)
+            rows[i] = i;
+         Arrays.sort(rows, (a, b) -> {
+            int c = Long.compare(month.time[a], month.time[b]);
+            return c != 0 ? c : month.orderID[a].compareTo(month.orderID[b]);
+         });
+         for (int row : rows)
+            handler.handle(month.order(row));
+         this._ordersRead.addAndGet(rows.length);
+      }//end for
+   }//end forEachOrder
+
+   /**
+    * @return the number of archived orders
+    */
+   public int size() throws SQLException {
+      ensureLoaded();
+      int orders = 0;
+      for (Info info : this._months.values())
+         orders += info.orders;
+      return orders;
+   }//end size
+
+   public String stats() {
+      int orders = 0;
+      for (Info info : this._months.values())
+         orders += info.orders;
+      int cached;
+      synchronized (this._cache) {
+         cached = this._cache.size();
+      }//end synchronized
+      return "archive dir=" + this._dir + " months=" + this._months.size() + " orders=" + orders
+         + " users=" + this._userMonths.size() + " monthReads=" + this._monthReads.get()
+         + " cacheHits=" + this._cacheHits.get() + " cached=" + cached + " ordersRead=" + this._ordersRead.get()
+         + " filterSkips=" + this._filterSkips.get();
+   }//end stats
+
+   private void ensureLoaded() throws SQLException {
+      if (!this._loaded)
+         reload();
+   }//end ensureLoaded
+
+   /*
+    * Reads ArchivedMonths and the users of every month file whose
+    * generation is new, then deletes the files of the generations it does
+    * not record.
+    */
+   private synchronized void reload() throws SQLException {
+      final Map<YearMonth, Info> months = new HashMap<YearMonth, Info>();
+      this._esql.streamQuery(QueryShape.ARCHIVED_MONTHS, rs ->
+         months.put(YearMonth.from(rs.getDate(1).toLocalDate()), new Info(rs.getInt(2), rs.getInt(3))));
+      for (Map.Entry<YearMonth, Info> e : months.entrySet()) {
+         Info known = this._months.get(e.getKey());
+         if (known != null && known.generation == e.getValue().generation)
+            continue;
+         File file = file(e.getKey(), e.getValue().generation);
+         try {
+            index(e.getKey(), Month.read(file, true));
+         } catch (IOException ex) {
+            throw new SQLException("Cannot read " + file + ": " + ex.getMessage(), ex);
+         }//end try
+         this._months.put(e.getKey(), e.getValue());
+         synchronized (this._cache) {
+            this._cache.remove(e.getKey());
+         }//end synchronized
+      }//end for
+      sweep(months);
+      this._loaded = true;
+   }//end reload
+
+   /*
+    * Deletes partial files and month files of unrecorded generations, left
+    * by a failed or interrupted archive.
+    */
+   private void sweep(Map<YearMonth, Info> months) {
+      File[] files = this._dir.listFiles();
+      if (files == null)
+         return;
+      for (File f : files) {
+         Matcher m = FILE_NAME.matcher(f.getName());
+         if (!m.matches())
+            continue;
+         Info info = months.get(YearMonth.parse(m.group(1)));
+         if (m.group(3) != null || info == null || info.generation != Integer.parseInt(m.group(2)))
+            f.delete();
+      }//end for
+   }//end sweep
+
+   private void index(YearMonth m, Month month) {
+      this._trackFilters.put(m, month.trackFilter);
+      for (String login : month.users)
+         this._userMonths.computeIfAbsent(login, l -> new ConcurrentSkipListSet<YearMonth>()).add(m);
+   }//end index
+
+   /*
+    * A decoded month, from the cache or its file.
+    */
+   private Month month(YearMonth m) throws SQLException {
+      synchronized (this._cache) {
+         Month month = this._cache.get(m);
+         if (month != null) {
+            this._cacheHits.incrementAndGet();
+            return month;
+         }//end if
+      }//end synchronized
+      Info info = this._months.get(m);
+      if (info == null)
+         throw new SQLException("Month " + m + " is not archived");
+      File file = file(m, info.generation);
+      Month month;
+      try {
+         month = Month.read(file, false);
+      } catch (EOFException e) {
+         throw new SQLException(file + " is truncated", e);
+      } catch (IOException e) {
+         throw new SQLException("Cannot read " + file + ": " + e.getMessage(), e);
+      }//end try
+      this._monthReads.incrementAndGet();
+      synchronized (this._cache) {
+         this._cache.put(m, month);
+      }//end synchronized
+      return month;
+   }//end month
+
+   private File file(YearMonth m, int generation) {
+      if (!this._dir.isDirectory())
+         this._dir.mkdirs();
+      return new File(this._dir, m + "." + generation + ".orders.gz");
+   }//end file
+
+   /**
+    * Usage: OrderArchive dbname port user [--keep-days n]
+    *
+    * Archives the whole months older than keep-days.
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + OrderArchive.class.getName()
+            + " <dbname> <port> <user> [--keep-days <n>]");
+         return;
+      }//end if
+
+      int keepDays = DEFAULT_KEEP_DAYS;
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         String v = args[i + 1];
+         switch (args[i]) {
+            case "--keep-days": keepDays = Integer.parseInt(v); break;
+            default: System.err.println("Unknown option " + args[i]); return;
+         }//end switch
+      }//end for
+
+      GameRental esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         YearMonth keepFrom = YearMonth.from(LocalDate.now().minusDays(keepDays));
+         Timestamp cutoff = Timestamp.valueOf(keepFrom.atDay(1).atStartOfDay());
+         System.out.println("archiving orders placed before " + cutoff);
+         System.out.println(esql.getArchive().archive(cutoff));
+         System.out.println(esql.getArchive().stats());
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end OrderArchive
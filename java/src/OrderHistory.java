@@ -0,0 +1,164 @@
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Pages through a user's rental history, newest order first.
+ *
+ * Pages use keyset (seek) pagination: each page remembers the timestamp
+ * and ID of its last order, and the next page starts strictly after that
+ * key.  Both queries are answered from the rentalorder_login_timestamp
+ * index, so page N costs the same as page 1.  Every row carries the
+ * order's total, unit count and number of distinct games.
+ *
+ * Orders moved to the OrderArchive continue the history: when the live
+ * rows run out before a page is full, or reach back into a month the
+ * user has archived orders in, the archived orders past the same key are
+ * merged in.  A user who pages no further than their live orders never
+ * touches the archive.
+ */
+public class OrderHistory {
+
+   public static final int DEFAULT_PAGE_SIZE = 10;
+
+   // column headers printed for history rows
+   public static final String[] COLUMNS = { "rentalorderid", "ordertimestamp", "duedate", "noofgames", "totalprice", "gamecount" };
+
+   /**
+    * One order in a history page.
+    */
+   public static class Summary {
+      public final String orderID;
+      public final Timestamp orderTimestamp;
+      public final Timestamp dueDate;
+      public final int noOfGames;
+      public final BigDecimal totalPrice;
+      // number of GamesInOrder lines
+      public final int gameCount;
+
+      public Summary(String orderID, Timestamp orderTimestamp, Timestamp dueDate,
+                     int noOfGames, BigDecimal totalPrice, int gameCount) {
+         this.orderID = orderID;
+         this.orderTimestamp = orderTimestamp;
+         this.dueDate = dueDate;
+         this.noOfGames = noOfGames;
+         this.totalPrice = totalPrice;
+         this.gameCount = gameCount;
+      }//end Summary
+
+      public String[] columns() {
+         return new String[] { this.orderID, String.valueOf(this.orderTimestamp), String.valueOf(this.dueDate),
+            Integer.toString(this.noOfGames), this.totalPrice.toPlainString(), Integer.toString(this.gameCount) };
+      }
+   }//end Summary
+
+   /**
+    * A page of orders and the key to continue after it.
+    */
+   public static class Page {
+      public final String login;
+      public final int pageSize;
+      public final List<Summary> orders;
+      public final boolean hasMore;
+
+      Page(String login, int pageSize, List<Summary> orders, boolean hasMore) {
+         this.login = login;
+         this.pageSize = pageSize;
+         this.orders = Collections.unmodifiableList(orders);
+         this.hasMore = hasMore;
+      }//end Page
+
+      /**
+       * @return the last order of the page, which the next page seeks past
+       */
+      public Summary last() {
+         return this.orders.isEmpty() ? null : this.orders.get(this.orders.size() - 1);
+      }
+   }//end Page
+
+   private static final ToLongFunction<List<Summary>> PAGE_ROWS = List::size;
+
+   private static final Comparator<Summary> NEWEST_FIRST = (a, b) -> {
+      int c = b.orderTimestamp.compareTo(a.orderTimestamp);
+      return c != 0 ? c : b.orderID.compareTo(a.orderID);
+   };
+
+   private final GameRental _esql;
+
+   public OrderHistory(GameRental esql) {
+      this._esql = esql;
+   }//end OrderHistory
+
+   /**
+    * @return the newest pageSize orders of the user
+    */
+   public Page firstPage(String login, int pageSize) throws SQLException {
+      List<Summary> rows = this._esql.measured(this._esql.getMetrics().statement(QueryShape.ORDER_HISTORY_FIRST),
+            PAGE_ROWS, () -> this._esql.withConnection(conn -> {
+         PreparedStatement stmt = conn.prepare(QueryShape.ORDER_HISTORY_FIRST);
+         GameRental.bind(stmt, login, pageSize + 1);
+         return read(pageSize, stmt.executeQuery());
+      }));
+      return page(login, pageSize, rows, null, null);
+   }//end firstPage
+
+   /**
+    * @return the page following the given one, empty if there is none
+    */
+   public Page nextPage(Page previous) throws SQLException {
+      final Summary last = previous.last();
+      if (last == null || !previous.hasMore)
+         return new Page(previous.login, previous.pageSize, new ArrayList<Summary>(), false);
+      List<Summary> rows = this._esql.measured(this._esql.getMetrics().statement(QueryShape.ORDER_HISTORY_NEXT),
+            PAGE_ROWS, () -> this._esql.withConnection(conn -> {
+         PreparedStatement stmt = conn.prepare(QueryShape.ORDER_HISTORY_NEXT);
+         GameRental.bind(stmt, previous.login, last.orderTimestamp, last.orderID, previous.pageSize + 1);
+         return read(previous.pageSize, stmt.executeQuery());
+      }));
+      return page(previous.login, previous.pageSize, rows, last.orderTimestamp, last.orderID);
+   }//end nextPage
+
+   /*
+    * Reads up to pageSize + 1 rows; the extra row only tells whether
+    * another page exists.
+    */
+   private static List<Summary> read(int pageSize, ResultSet rs) throws SQLException {
+      List<Summary> orders = new ArrayList<Summary>(pageSize + 1);
+      try {
+         while (orders.size() <= pageSize && rs.next())
+            orders.add(new Summary(rs.getString(1), rs.getTimestamp(2), rs.getTimestamp(3),
+               rs.getInt(4), rs.getBigDecimal(5), rs.getInt(6)));
+      } finally {
+         rs.close();
+      }//end try
+      return orders;
+   }//end read
+
+   /*
+    * Makes a page of the live rows, merged with the archived orders past
+    * the same key when the live rows may not be the newest left.
+    */
+   private Page page(String login, int pageSize, List<Summary> rows, Timestamp afterTime, String afterID)
+         throws SQLException {
+      OrderArchive archive = this._esql.getArchive();
+      Timestamp until = archive == null ? null : archive.archivedUntil(login);
+      if (until != null && (rows.size() <= pageSize || rows.get(pageSize).orderTimestamp.before(until))) {
+         List<Summary> archived = archive.page(login, afterTime, afterID, pageSize + 1);
+         if (!archived.isEmpty()) {
+            rows = new ArrayList<Summary>(rows);
+            rows.addAll(archived);
+            rows.sort(NEWEST_FIRST);
+         }//end if
+      }//end if
+      boolean hasMore = rows.size() > pageSize;
+      return new Page(login, pageSize, hasMore ? new ArrayList<Summary>(rows.subList(0, pageSize)) : rows, hasMore);
+   }//end page
+
+}//end OrderHistory
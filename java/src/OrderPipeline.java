@@ -0,0 +1,294 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous order intake with group commit.
+ *
+ * submit() validates an order, reserves its copies through Inventory,
+ * queues it and returns a future of its receipt.  One committer thread
+ * takes the queued orders and writes up to maxGroup of them in a single
+ * transaction, so a whole group shares one commit and one WAL flush.
+ * While a group commits the next one collects in the queue; when the
+ * queue runs dry the committer waits at most windowMicros for more
+ * orders before committing a partial group.
+ *
+ * Every order in a group is written after a SAVEPOINT, released when the
+ * order is written and rolled back to if it fails, so one bad order only
+ * fails its own future.  If the
+ * group's commit itself fails, each of its orders is placed again in a
+ * transaction of its own.
+ *
+ * The queue holds at most queueDepth orders.  When the database falls
+ * behind and the queue is full, submit() waits up to offerTimeoutMillis
+ * for room and then refuses the order.  place() waits up to
+ * placeTimeoutMillis for the commit.
+ *
+ * Orders are queued under the read side of a lock that stop() takes for
+ * writing to shut intake, so no order can be queued after the committer
+ * has been told to finish.
+ */
+public class OrderPipeline {
+
+   public static final int DEFAULT_MAX_GROUP = 64;
+   public static final long DEFAULT_WINDOW_MICROS = 1000;
+   public static final int DEFAULT_QUEUE_DEPTH = 4096;
+   public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 5000;
+   public static final long DEFAULT_PLACE_TIMEOUT_MILLIS = 30000;
+
+   /*
+    * A queued order and the future its submitter waits on.
+    */
+   private static class Pending {
+      final String login;
+      final Map<String, Integer> units;
+      final CompletableFuture<RentalOrderService.Receipt> future = new CompletableFuture<RentalOrderService.Receipt>();
+      final long submitted = System.nanoTime();
+      RentalOrderService.Receipt receipt = null;
+      SQLException failure = null;
+
+      Pending(String login, Map<String, Integer> units) {
+         this.login = login;
+         this.units = units;
+      }
+   }//end Pending
+
+   private final GameRental _esql;
+   private final int _maxGroup;
+   private final long _windowNanos;
+   private final long _offerTimeoutMillis;
+   private final BlockingQueue<Pending> _queue;
+   private long _placeTimeoutMillis = DEFAULT_PLACE_TIMEOUT_MILLIS;
+
+   private Thread _committer = null;
+   // read by submitters while they queue, written by stop()
+   private final ReentrantReadWriteLock _intake = new ReentrantReadWriteLock();
+   private volatile boolean _stopping = false;
+
+   private final AtomicLong _submitted = new AtomicLong();
+   private final AtomicLong _refused = new AtomicLong();
+   private final AtomicLong _groups = new AtomicLong();
+   private final AtomicLong _grouped = new AtomicLong();
+   private final AtomicLong _failed = new AtomicLong();
+   private final AtomicLong _retried = new AtomicLong();
+
+   public OrderPipeline(GameRental esql) {
+      this(esql, DEFAULT_MAX_GROUP, DEFAULT_WINDOW_MICROS, DEFAULT_QUEUE_DEPTH, DEFAULT_OFFER_TIMEOUT_MILLIS);
+   }
+
+   public OrderPipeline(GameRental esql, int maxGroup, long windowMicros, int queueDepth, long offerTimeoutMillis) {
+      this._esql = esql;
+      this._maxGroup = Math.max(1, maxGroup);
+      this._windowNanos = windowMicros * 1000;
+      this._offerTimeoutMillis = offerTimeoutMillis;
+      this._queue = new ArrayBlockingQueue<Pending>(Math.max(1, queueDepth));
+   }//end OrderPipeline
+
+   public void setPlaceTimeoutMillis(long placeTimeoutMillis) {
+      this._placeTimeoutMillis = placeTimeoutMillis;
+   }
+
+   /**
+    * Queues an order.
+    *
+    * @return the future receipt; it fails with the SQLException that kept
+    *         the order from being written
+    * @throws java.sql.SQLException when a game is unknown or out of stock,
+    *         or the queue stayed full; nothing is queued in that case
+    */
+   public CompletableFuture<RentalOrderService.Receipt> submit(String login, RentalCart cart) throws SQLException {
+      if (this._stopping)
+         throw new SQLException("Order intake is shut down");
+      Map<String, Integer> units = this._esql.getOrders().reserve(cart);
+      Pending p = new Pending(login, units);
+      boolean queued = false;
+      boolean stopped = false;
+      this._intake.readLock().lock();
+      try {
+         stopped = this._stopping;
+         if (!stopped) {
+            start();
+            queued = this._queue.offer(p, this._offerTimeoutMillis, TimeUnit.MILLISECONDS);
+         }//end if
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } finally {
+         this._intake.readLock().unlock();
+         if (!queued)
+            this._esql.getInventory().cancel(units, null);
+      }//end try
+      if (stopped)
+         throw new SQLException("Order intake is shut down");
+      if (!queued) {
+         this._refused.incrementAndGet();
+         throw new SQLException("Too many orders waiting, please try again");
+      }//end if
+      this._submitted.incrementAndGet();
+      return p.future;
+   }//end submit
+
+   /**
+    * Queues an order and waits up to placeTimeoutMillis for it to commit.
+    *
+    * @throws java.sql.SQLException when the order failed or did not commit
+    *         in time; in the latter case it may still commit later
+    */
+   public RentalOrderService.Receipt place(String login, RentalCart cart) throws SQLException {
+      CompletableFuture<RentalOrderService.Receipt> future = submit(login, cart);
+      try {
+         return future.get(this._placeTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+         throw new SQLException("The order is taking too long to commit, check your order history before ordering again");
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while the order was committing");
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw new SQLException(e.getCause());
+      }//end try
+   }//end place
+
+   private synchronized void start() {
+      if (this._committer != null)
+         return;
+      this._committer = new Thread(this::run, "order-committer");
+      this._committer.setDaemon(true);
+      this._committer.start();
+   }//end start
+
+   /**
+    * Stops taking orders and returns once the queued ones are committed.
+    */
+   public void stop() {
+      // waits for submitters that are queueing; none can queue afterwards
+      this._intake.writeLock().lock();
+      try {
+         this._stopping = true;
+      } finally {
+         this._intake.writeLock().unlock();
+      }//end try
+      Thread committer;
+      synchronized (this) {
+         committer = this._committer;
+      }//end synchronized
+      if (committer == null)
+         return;
+      try {
+         committer.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+      // left behind if the committer died; completed so nobody waits forever
+      for (Pending p = this._queue.poll(); p != null; p = this._queue.poll()) {
+         this._esql.getInventory().cancel(p.units, null);
+         p.future.completeExceptionally(new SQLException("Order intake is shut down"));
+      }//end for
+   }//end stop
+
+   private void run() {
+      List<Pending> group = new ArrayList<Pending>(this._maxGroup);
+      while (true) {
+         try {
+            Pending first = this._queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+               if (this._stopping && this._queue.isEmpty())
+                  return;
+               continue;
+            }//end if
+            group.add(first);
+            this._queue.drainTo(group, this._maxGroup - group.size());
+            long deadline = System.nanoTime() + this._windowNanos;
+            while (group.size() < this._maxGroup) {
+               long wait = deadline - System.nanoTime();
+               Pending next = wait > 0 ? this._queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+               if (next == null)
+                  break;
+               group.add(next);
+               this._queue.drainTo(group, this._maxGroup - group.size());
+            }//end while
+         } catch (InterruptedException e) {
+            // keep going until stop() drained the queue
+         }//end try
+
+         if (!group.isEmpty()) {
+            commit(group);
+            group.clear();
+         }//end if
+      }//end while
+   }//end run
+
+   /*
+    * Writes a group in one transaction, one savepoint per order, and
+    * completes every order's future.
+    */
+   private void commit(final List<Pending> group) {
+      final RentalOrderService orders = this._esql.getOrders();
+      try {
+         this._esql.measured(this._esql.getMetrics().operation("orderGroup"), n -> n,
+               () -> this._esql.inTransaction(conn -> {
+            // a plain Statement: the server cannot PREPARE a savepoint command
+            try (Statement savepoint = conn.getConnection().createStatement()) {
+               for (Pending p : group) {
+                  savepoint.execute("SAVEPOINT placed");
+                  try {
+                     p.receipt = orders.write(conn, p.login, p.units);
+                     // frees the savepoint, so the next order's does not nest in it
+                     savepoint.execute("RELEASE SAVEPOINT placed");
+                  } catch (SQLException e) {
+                     savepoint.execute("ROLLBACK TO SAVEPOINT placed");
+                     p.failure = e;
+                  }//end try
+               }//end for
+            }//end try
+            return group.size();
+         }));
+         this._groups.incrementAndGet();
+         this._grouped.addAndGet(group.size());
+      } catch (Exception e) {
+         // the group is lost as a whole; give every order its own transaction
+         for (Pending p : group) {
+            this._retried.incrementAndGet();
+            try {
+               p.receipt = this._esql.inTransaction(conn -> orders.write(conn, p.login, p.units));
+               p.failure = null;
+            } catch (SQLException e2) {
+               p.receipt = null;
+               p.failure = e2;
+            }//end try
+         }//end for
+      }//end try
+
+      OperationStats stats = this._esql.getMetrics().operation("placeOrderAsync");
+      for (Pending p : group) {
+         if (p.failure == null) {
+            orders.committed(p.login, p.units, p.receipt);
+            p.future.complete(p.receipt);
+         } else {
+            this._failed.incrementAndGet();
+            this._esql.getInventory().cancel(p.units, p.failure);
+            p.future.completeExceptionally(p.failure);
+         }//end if
+         stats.record(System.nanoTime() - p.submitted, p.units.size(), p.failure == null);
+      }//end for
+   }//end commit
+
+   public String stats() {
+      long groups = this._groups.get();
+      return "orderPipeline submitted=" + this._submitted.get() + " queued=" + this._queue.size()
+         + " refused=" + this._refused.get() + " groups=" + groups
+         + " avgGroup=" + (groups == 0 ? "-" : String.format("%.1f", (double) this._grouped.get() / groups))
+         + " failed=" + this._failed.get() + " retriedAlone=" + this._retried.get();
+   }//end stats
+
+}//end OrderPipeline
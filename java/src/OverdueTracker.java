@@ -0,0 +1,263 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps Users.numOverDueGames equal to the number of games in the user's
+ * orders whose dueDate has passed.
+ *
+ * A game counts as overdue from its due date until it is returned.  An
+ * incremental pass only needs the orders whose dueDate fell into
+ * (last run, now]: it reads them through the rentalorder_duedate index,
+ * sums them per user and adds the sums to Users in JDBC batches.  Orders
+ * returned before their due date never count.  One returned on or after
+ * it is counted here all the same, because Inventory.returnOrder takes
+ * it off the user's count when it is returned, whether or not a pass has
+ * added it yet.
+ *
+ * A full recompute rewrites every count that differs from the truth in
+ * one set-based UPDATE.  It runs when the tracker starts and then on a
+ * long period, repairing anything the incremental passes cannot see
+ * (bulk loads of old orders, manual edits through updateUser).  Games of
+ * orders moved to the OrderArchive are counted from ArchivedRentals.
+ *
+ * Every process runs a tracker, but the passes must not add the same
+ * orders twice.  The watermark (every order due at or before it has been
+ * counted) and the time of the last full recompute live in the
+ * OverdueWatermark row, and a pass runs in one transaction holding a
+ * PostgreSQL advisory lock: it reads the watermark, counts up to now and
+ * moves the watermark before it commits.  A tracker that finds the lock
+ * taken skips its turn; the next pass, in whichever process, starts where
+ * the last one ended.
+ *
+ * Open sessions get the new counts, so viewProfile stays current without
+ * querying.
+ */
+public class OverdueTracker {
+
+   public static final long DEFAULT_INTERVAL_MILLIS = 60 * 1000L;
+   public static final long DEFAULT_FULL_INTERVAL_MILLIS = 24 * 60 * 60 * 1000L;
+   public static final int DEFAULT_BATCH_SIZE = 500;
+
+   // pg_try_advisory_xact_lock key serializing the passes of every process
+   static final long LOCK_KEY = 0x4f56455244554545L;
+
+   private final GameRental _esql;
+   private long _intervalMillis = DEFAULT_INTERVAL_MILLIS;
+   private long _fullIntervalMillis = DEFAULT_FULL_INTERVAL_MILLIS;
+   private int _batchSize = DEFAULT_BATCH_SIZE;
+
+   // the shared watermark as of this process's last pass, for stats()
+   private Timestamp _watermark = null;
+   private ScheduledExecutorService _scheduler = null;
+
+   private long _passes = 0;
+   private long _skipped = 0;
+   private long _ordersCounted = 0;
+   private long _usersUpdated = 0;
+
+   public OverdueTracker(GameRental esql) {
+      this._esql = esql;
+   }//end OverdueTracker
+
+   public void setIntervalMillis(long intervalMillis) {
+      this._intervalMillis = intervalMillis;
+   }
+
+   public void setFullIntervalMillis(long fullIntervalMillis) {
+      this._fullIntervalMillis = fullIntervalMillis;
+   }
+
+   public void setBatchSize(int batchSize) {
+      this._batchSize = Math.max(1, batchSize);
+   }
+
+   /**
+    * Starts the background scheduler; the first run is a full recompute.
+    */
+   public synchronized void start() {
+      if (this._scheduler != null)
+         return;
+      this._scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "overdue-tracker");
+         t.setDaemon(true);
+         return t;
+      });
+      this._scheduler.scheduleWithFixedDelay(() -> {
+         try {
+            tick();
+         } catch (SQLException e) {
+            System.err.println("overdue tracker: " + e.getMessage());
+         }//end try
+      }, 0, this._intervalMillis, TimeUnit.MILLISECONDS);
+   }//end start
+
+   public synchronized void stop() {
+      if (this._scheduler != null) {
+         this._scheduler.shutdownNow();
+         this._scheduler = null;
+      }//end if
+   }//end stop
+
+   /**
+    * Runs whichever pass is due: a full recompute when none ran yet or the
+    * last one is older than the full interval, an incremental one if not.
+    */
+   public synchronized void tick() throws SQLException {
+      pass(false, new Timestamp(System.currentTimeMillis()));
+   }//end tick
+
+   /**
+    * Counts the orders that became overdue since the last pass, or
+    * recomputes every count when a full pass is due.
+    *
+    * @return the number of users whose count changed
+    */
+   public synchronized int advance(Timestamp now) throws SQLException {
+      return pass(false, now);
+   }//end advance
+
+   /**
+    * Recomputes every user's count from the unreturned orders in
+    * RentalOrder in one statement.
+    *
+    * @return the number of users whose count changed
+    */
+   public synchronized int recompute() throws SQLException {
+      return pass(true, new Timestamp(System.currentTimeMillis()));
+   }//end recompute
+
+   /*
+    * Runs one pass up to now in a transaction that holds the tracker's
+    * advisory lock and moves the shared watermark.  Returns 0 without
+    * doing anything when another process holds the lock.
+    */
+   private int pass(boolean forceFull, final Timestamp now) throws SQLException {
+      final boolean[] full = { forceFull };
+      final boolean[] locked = { false };
+      final Timestamp[] watermark = { null };
+      final long[] orders = { 0 };
+      final long[] rows = { 0 };
+      final Set<String> active = this._esql.getSessions().activeLogins();
+      long start = System.nanoTime();
+      Map<String, Integer> changed = null;
+      boolean ok = false;
+      try {
+         changed = this._esql.inTransaction(conn -> {
+            PreparedStatement lock = conn.prepare(QueryShape.OVERDUE_LOCK);
+            try (ResultSet rs = conn.executeQuery(QueryShape.OVERDUE_LOCK, lock)) {
+               if (!rs.next() || !rs.getBoolean(1))
+                  return null;
+            }//end try
+            locked[0] = true;
+
+            Timestamp lastFull = null;
+            PreparedStatement get = conn.prepare(QueryShape.OVERDUE_WATERMARK);
+            try (ResultSet rs = conn.executeQuery(QueryShape.OVERDUE_WATERMARK, get)) {
+               if (rs.next()) {
+                  watermark[0] = rs.getTimestamp(1);
+                  lastFull = rs.getTimestamp(2);
+               }//end if
+            }//end try
+            if (watermark[0] == null || now.getTime() - lastFull.getTime() >= this._fullIntervalMillis)
+               full[0] = true;
+            if (!full[0] && !now.after(watermark[0]))
+               return new HashMap<String, Integer>();
+
+            Map<String, Integer> counts = full[0] ? recompute(conn, now, active, rows)
+               : advance(conn, watermark[0], now, orders, rows);
+            PreparedStatement set = conn.prepare(QueryShape.SET_OVERDUE_WATERMARK);
+            GameRental.bind(set, now, full[0] ? now : lastFull);
+            conn.executeUpdate(QueryShape.SET_OVERDUE_WATERMARK, set);
+            watermark[0] = now;
+            return counts;
+         });
+         ok = true;
+      } finally {
+         // a pass left to another process is not recorded
+         if (locked[0] || !ok)
+            this._esql.getMetrics().operation(full[0] ? "overdueRecompute" : "overdueIncremental")
+               .record(System.nanoTime() - start, rows[0], ok);
+      }//end try
+
+      if (changed == null) {
+         ++this._skipped;
+         return 0;
+      }//end if
+      this._watermark = watermark[0];
+      ++this._passes;
+      this._ordersCounted += orders[0];
+      this._usersUpdated += rows[0];
+      if (full[0] && !changed.isEmpty())
+         this._esql.getSessions().setOverdueGames(changed);
+      else if (!changed.isEmpty())
+         this._esql.getSessions().addOverdueGames(changed);
+      return (int) rows[0];
+   }//end pass
+
+   /*
+    * Adds the games of the orders due in (from, now] to their users,
+    * counting the users in rows[0] and the orders in orders[0].
+    * @return login to the games added
+    */
+   private Map<String, Integer> advance(PooledConnection conn, Timestamp from, Timestamp now, long[] orders,
+         long[] rows) throws SQLException {
+      Map<String, Integer> sums = new HashMap<String, Integer>();
+      PreparedStatement select = conn.prepare(QueryShape.OVERDUE_CROSSED);
+      GameRental.bind(select, from, now);
+      try (ResultSet rs = conn.executeQuery(QueryShape.OVERDUE_CROSSED, select)) {
+         while (rs.next()) {
+            sums.put(rs.getString(1), rs.getInt(2));
+            orders[0] += rs.getLong(3);
+         }//end while
+      }//end try
+
+      PreparedStatement update = conn.prepare(QueryShape.UPDATE_USER_OVERDUE_DELTA);
+      int pending = 0;
+      for (Map.Entry<String, Integer> e : sums.entrySet()) {
+         GameRental.bind(update, e.getValue(), e.getKey());
+         update.addBatch();
+         if (++pending == this._batchSize) {
+            conn.executeBatch(QueryShape.UPDATE_USER_OVERDUE_DELTA, update);
+            pending = 0;
+         }//end if
+      }//end for
+      if (pending > 0)
+         conn.executeBatch(QueryShape.UPDATE_USER_OVERDUE_DELTA, update);
+      rows[0] = sums.size();
+      return sums;
+   }//end advance
+
+   /*
+    * Rewrites every count that differs from the truth, counting the rows
+    * rewritten in rows[0].
+    * @return login to the new count, for the logins in active only
+    */
+   private static Map<String, Integer> recompute(PooledConnection conn, Timestamp now, Set<String> active,
+         long[] rows) throws SQLException {
+      PreparedStatement stmt = conn.prepare(QueryShape.OVERDUE_RECOMPUTE);
+      GameRental.bind(stmt, now);
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      try (ResultSet rs = conn.executeQuery(QueryShape.OVERDUE_RECOMPUTE, stmt)) {
+         while (rs.next()) {
+            ++rows[0];
+            if (active.contains(rs.getString(1)))
+               counts.put(rs.getString(1), rs.getInt(2));
+         }//end while
+      }//end try
+      return counts;
+   }//end recompute
+
+   public synchronized String stats() {
+      return "overdue passes=" + this._passes + " skipped=" + this._skipped + " ordersCounted=" + this._ordersCounted
+         + " usersUpdated=" + this._usersUpdated + " watermark=" + this._watermark;
+   }//end stats
+
+}//end OverdueTracker
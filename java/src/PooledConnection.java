@@ -0,0 +1,178 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A physical connection owned by a ConnectionPool together with the
+ * prepared statements cached on it.  Only the thread that borrowed the
+ * connection may use it until it is released back to the pool.
+ *
+ * Statements that run as steps of a transaction go through
+ * executeQuery, executeUpdate or executeBatch with their QueryShape, so
+ * they are counted in the shape's Metrics like those run through
+ * GameRental.executeUpdate and friends.
+ */
+public class PooledConnection {
+
+   private final Connection _connection;
+   private final StatementCache _statements;
+   private final Metrics _metrics;
+   private final long _createdAt;
+
+   // the last time this connection was returned to the pool
+   private long _lastReleased;
+
+   // set when a statement failed; forces validation on the next borrow
+   private boolean _suspect = false;
+
+   PooledConnection(Connection connection) {
+      this(connection, null);
+   }
+
+   PooledConnection(Connection connection, Metrics metrics) {
+      this._connection = connection;
+      this._metrics = metrics;
+      this._statements = new StatementCache(connection);
+      this._createdAt = System.currentTimeMillis();
+      this._lastReleased = this._createdAt;
+   }//end PooledConnection
+
+   /**
+    * @return the underlying JDBC connection
+    */
+   public Connection getConnection() {
+      return this._connection;
+   }
+
+   /**
+    * @return the statement cache bound to this connection
+    */
+   public StatementCache getStatements() {
+      return this._statements;
+   }
+
+   /**
+    * Shorthand for getStatements().prepare(shape).
+    */
+   public PreparedStatement prepare(QueryShape shape) throws SQLException {
+      return this._statements.prepare(shape);
+   }
+
+   /**
+    * Runs a statement prepared from shape, recording it in the shape's
+    * stats.
+    */
+   public ResultSet executeQuery(QueryShape shape, PreparedStatement stmt) throws SQLException {
+      long start = System.nanoTime();
+      boolean ok = false;
+      try {
+         ResultSet rs = stmt.executeQuery();
+         ok = true;
+         return rs;
+      } finally {
+         record(shape, start, 0, ok);
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Runs a statement prepared from shape, recording it and the rows it
+    * changed in the shape's stats.
+    */
+   public int executeUpdate(QueryShape shape, PreparedStatement stmt) throws SQLException {
+      long start = System.nanoTime();
+      int rows = 0;
+      boolean ok = false;
+      try {
+         rows = stmt.executeUpdate();
+         ok = true;
+         return rows;
+      } finally {
+         record(shape, start, rows, ok);
+      }//end try
+   }//end executeUpdate
+
+   /**
+    * Runs the batch of a statement prepared from shape, recording it and
+    * the rows it changed in the shape's stats.
+    */
+   public int[] executeBatch(QueryShape shape, PreparedStatement stmt) throws SQLException {
+      long start = System.nanoTime();
+      long rows = 0;
+      boolean ok = false;
+      try {
+         int[] counts = stmt.executeBatch();
+         for (int n : counts)
+            rows += Math.max(0, n);
+         ok = true;
+         return counts;
+      } finally {
+         record(shape, start, rows, ok);
+      }//end try
+   }//end executeBatch
+
+   private void record(QueryShape shape, long start, long rows, boolean ok) {
+      if (this._metrics != null)
+         this._metrics.statement(shape).record(System.nanoTime() - start, rows, ok);
+   }
+
+   /**
+    * Shorthand for getStatements().prepare(sql).
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      return this._statements.prepare(sql);
+   }
+
+   /**
+    * Records that a statement failed on this connection.  The backend may
+    * be gone, so the pool validates the connection before handing it out
+    * again.
+    */
+   public void markSuspect() {
+      this._suspect = true;
+   }
+
+   boolean isSuspect() {
+      return this._suspect;
+   }
+
+   long getCreatedAt() {
+      return this._createdAt;
+   }
+
+   long getLastReleased() {
+      return this._lastReleased;
+   }
+
+   void released() {
+      this._lastReleased = System.currentTimeMillis();
+   }
+
+   /*
+    * Runs a trivial query to check that the backend is still there.
+    */
+   boolean validate() {
+      try {
+         if (this._connection.isClosed())
+            return false;
+         this._statements.prepare("SELECT 1").executeQuery().close();
+         this._suspect = false;
+         return true;
+      } catch (SQLException e) {
+         return false;
+      }//end try
+   }//end validate
+
+   /*
+    * Closes the cached statements and the physical connection.
+    */
+   void close() {
+      this._statements.close();
+      try {
+         this._connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end close
+
+}//end PooledConnection
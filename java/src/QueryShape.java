@@ -0,0 +1,147 @@
+/**
+ * Named, parameterized SQL statements issued by the GameRental store.
+ * Every query shape the application runs lives here so it can be
+ * prepared once per connection and reused through the StatementCache.
+ *
+ * Each shape names the logical operation its metrics roll up into.
+ * Shapes only run as one step of a larger operation (placing an order,
+ * loading the catalog cache, ...) have none; that operation records
+ * itself.
+ */
+public enum QueryShape {
+
+   // users
+   CREATE_USER ("createUser", "INSERT INTO Users (login, password, role, favGames, phoneNum, numOverDueGames) VALUES (?, ?, ?, ?, ?, ?)"),
+   LOGIN ("login", "SELECT login, role, phoneNum, numOverDueGames FROM Users WHERE login = ? AND password = ?"),
+   UPDATE_PASSWORD ("updateProfile", "UPDATE Users SET password = ? WHERE login = ?"),
+   UPDATE_PHONE_NUMBER ("updateProfile", "UPDATE Users SET phoneNum = ? WHERE login = ?"),
+   UPDATE_USER_LOGIN ("updateUser", "UPDATE Users SET login = ? WHERE login = ?"),
+   UPDATE_USER_ROLE ("updateUser", "UPDATE Users SET role = ? WHERE login = ?"),
+   UPDATE_USER_OVERDUE ("updateUser", "UPDATE Users SET numOverDueGames = ? WHERE login = ?"),
+   UPDATE_USER_OVERDUE_DELTA (null, "UPDATE Users SET numOverDueGames = COALESCE(numOverDueGames, 0) + ? WHERE login = ?"),
+
+   // favorites
+   FAVORITES_ALL (null, "SELECT login, gameID FROM FavoriteGames"),
+   FAVORITE_LOCK_USER (null, "SELECT login FROM Users WHERE login = ? FOR UPDATE"),
+   INSERT_FAVORITE (null, "INSERT INTO FavoriteGames (login, gameID) SELECT ?, ? "
+      + "WHERE (SELECT COUNT(*) FROM FavoriteGames WHERE login = ?) < ? ON CONFLICT DO NOTHING"),
+   FAVORITE_EXISTS (null, "SELECT 1 FROM FavoriteGames WHERE login = ? AND gameID = ?"),
+   DELETE_FAVORITE (null, "DELETE FROM FavoriteGames WHERE login = ? AND gameID = ?"),
+   MIGRATE_FAVORITES (null, "INSERT INTO FavoriteGames (login, gameID) "
+      + "SELECT DISTINCT U.login, C.gameID FROM Users U, regexp_split_to_table(U.favGames, ',') AS F (title), Catalog C "
+      + "WHERE lower(C.gameName) = lower(trim(F.title)) ON CONFLICT DO NOTHING"),
+
+   // catalog
+   CATALOG_ALL (null, "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog"),
+   CATALOG_BY_ID (null, "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog WHERE gameID = ?"),
+   CATALOG_BY_GENRE ("viewCatalog", "SELECT * FROM Catalog C WHERE C.genre = ?"),
+   CATALOG_BY_PRICE_ASC ("viewCatalog", "SELECT * FROM Catalog C WHERE C.price < ? ORDER BY price ASC"),
+   CATALOG_BY_PRICE_DESC ("viewCatalog", "SELECT * FROM Catalog C WHERE C.price < ? ORDER BY price DESC"),
+   CATALOG_PRICE (null, "SELECT price FROM Catalog WHERE gameID = ?"),
+   UPDATE_GAME_NAME ("updateCatalog", "UPDATE Catalog SET gameName = ? WHERE gameID = ?"),
+   UPDATE_GAME_GENRE ("updateCatalog", "UPDATE Catalog SET genre = ? WHERE gameID = ?"),
+   UPDATE_GAME_PRICE ("updateCatalog", "UPDATE Catalog SET price = ? WHERE gameID = ?"),
+   UPDATE_GAME_DESCRIPTION ("updateCatalog", "UPDATE Catalog SET description = ? WHERE gameID = ?"),
+
+   // inventory
+   INVENTORY_ALL (null, "SELECT gameID, unitsOwned, unitsAvailable FROM Inventory"),
+   INVENTORY_GAME (null, "SELECT unitsOwned, unitsAvailable FROM Inventory WHERE gameID = ?"),
+   RESERVE_STOCK (null, "UPDATE Inventory SET unitsAvailable = unitsAvailable - ? WHERE gameID = ? AND unitsAvailable >= ?"),
+   RELEASE_STOCK (null, "UPDATE Inventory SET unitsAvailable = LEAST(unitsOwned, unitsAvailable + ?) WHERE gameID = ?"),
+   SET_UNITS_OWNED ("updateCatalog", "INSERT INTO Inventory AS I (gameID, unitsOwned, unitsAvailable) VALUES (?, ?, ?) "
+      + "ON CONFLICT (gameID) DO UPDATE SET unitsOwned = EXCLUDED.unitsOwned, "
+      + "unitsAvailable = GREATEST(0, I.unitsAvailable + EXCLUDED.unitsOwned - I.unitsOwned) RETURNING I.unitsAvailable"),
+   STOCK_CATALOG (null, "INSERT INTO Inventory (gameID, unitsOwned, unitsAvailable) SELECT gameID, ?, ? FROM Catalog "
+      + "ON CONFLICT DO NOTHING"),
+
+   // rental orders
+   INSERT_RENTAL_ORDER (null, "INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) VALUES (?, ?, ?, ?, ?, ?)"),
+   INSERT_GAMES_IN_ORDER (null, "INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered) VALUES (?, ?, ?)"),
+   ORDER_HISTORY_FIRST ("viewOrderHistory", "SELECT R.rentalOrderID, R.orderTimestamp, R.dueDate, R.noOfGames, R.totalPrice, "
+      + "(SELECT COUNT(*) FROM GamesInOrder G WHERE G.rentalOrderID = R.rentalOrderID) "
+      + "FROM RentalOrder R WHERE R.login = ? "
+      + "ORDER BY R.orderTimestamp DESC, R.rentalOrderID DESC LIMIT ?"),
+   ORDER_HISTORY_NEXT ("viewOrderHistory", "SELECT R.rentalOrderID, R.orderTimestamp, R.dueDate, R.noOfGames, R.totalPrice, "
+      + "(SELECT COUNT(*) FROM GamesInOrder G WHERE G.rentalOrderID = R.rentalOrderID) "
+      + "FROM RentalOrder R WHERE R.login = ? AND (R.orderTimestamp, R.rentalOrderID) < (?, ?) "
+      + "ORDER BY R.orderTimestamp DESC, R.rentalOrderID DESC LIMIT ?"),
+   OVERDUE_LOCK (null, "SELECT pg_try_advisory_xact_lock(" + OverdueTracker.LOCK_KEY + ")"),
+   OVERDUE_WATERMARK (null, "SELECT watermark, lastFull FROM OverdueWatermark WHERE id = 1"),
+   SET_OVERDUE_WATERMARK (null, "INSERT INTO OverdueWatermark (id, watermark, lastFull) VALUES (1, ?, ?) "
+      + "ON CONFLICT (id) DO UPDATE SET watermark = EXCLUDED.watermark, lastFull = EXCLUDED.lastFull"),
+   OVERDUE_CROSSED (null, "SELECT R.login, SUM(R.noOfGames), COUNT(*) FROM RentalOrder R "
+      + "WHERE R.dueDate > ? AND R.dueDate <= ? AND NOT EXISTS (SELECT 1 FROM ReturnedOrders X "
+      + "WHERE X.rentalOrderID = R.rentalOrderID AND X.returnedDate < R.dueDate) GROUP BY R.login"),
+   OVERDUE_RECOMPUTE (null, "UPDATE Users U SET numOverDueGames = C.games "
+      + "FROM (SELECT A.login, COALESCE(SUM(R.noOfGames), 0) + COALESCE(MAX(H.noOfGames), 0) AS games FROM Users A "
+      + "LEFT JOIN ArchivedRentals H ON H.login = A.login "
+      + "LEFT JOIN RentalOrder R ON R.login = A.login AND R.dueDate <= ? "
+      + "AND NOT EXISTS (SELECT 1 FROM ReturnedOrders X WHERE X.rentalOrderID = R.rentalOrderID) GROUP BY A.login) C "
+      + "WHERE U.login = C.login AND U.numOverDueGames IS DISTINCT FROM C.games "
+      + "RETURNING U.login, U.numOverDueGames"),
+   RECOMMENDER_LINES (null, "SELECT R.login, G.gameID FROM RentalOrder R "
+      + "JOIN GamesInOrder G ON G.rentalOrderID = R.rentalOrderID WHERE R.orderTimestamp < ? "
+      + "ORDER BY R.orderTimestamp, R.rentalOrderID"),
+   ANALYTICS_LINES (null, "SELECT R.rentalOrderID, R.login, R.orderTimestamp, R.totalPrice, G.gameID, G.unitsOrdered, "
+      + "C.genre, C.price FROM RentalOrder R JOIN GamesInOrder G ON G.rentalOrderID = R.rentalOrderID "
+      + "JOIN Catalog C ON C.gameID = G.gameID WHERE R.orderTimestamp >= ? ORDER BY R.rentalOrderID"),
+   ORDER_LINES (null, "SELECT gameID, unitsOrdered FROM GamesInOrder WHERE rentalOrderID = ?"),
+   RETURN_ORDER (null, "INSERT INTO ReturnedOrders (rentalOrderID, returnedDate) "
+      + "SELECT rentalOrderID, ? FROM RentalOrder WHERE rentalOrderID = ? ON CONFLICT DO NOTHING"),
+   RETURN_OVERDUE (null, "UPDATE Users U SET numOverDueGames = COALESCE(U.numOverDueGames, 0) - R.noOfGames "
+      + "FROM RentalOrder R WHERE R.rentalOrderID = ? AND R.login = U.login AND R.dueDate <= ? "
+      + "RETURNING U.login, R.noOfGames"),
+   ORDER_INFO ("viewOrderInfo", "SELECT orderTimestamp, dueDate, totalPrice, rentalOrderID, noOfGames FROM RentalOrder WHERE login = ? AND rentalOrderID = ?"),
+
+   // archive
+   ARCHIVED_MONTHS (null, "SELECT month, generation, orders FROM ArchivedMonths"),
+   ARCHIVE_MONTHS_DUE (null, "SELECT DISTINCT date_trunc('month', orderTimestamp) FROM RentalOrder "
+      + "WHERE orderTimestamp < ? AND dueDate < ? ORDER BY 1"),
+   ARCHIVE_ORDERS (null, "SELECT R.rentalOrderID, R.login, R.noOfGames, R.totalPrice, R.orderTimestamp, R.dueDate, "
+      + "X.returnedDate FROM RentalOrder R LEFT JOIN ReturnedOrders X ON X.rentalOrderID = R.rentalOrderID "
+      + "WHERE R.orderTimestamp >= ? AND R.orderTimestamp < ? AND R.dueDate < ?"),
+   ARCHIVE_LINES (null, "SELECT G.rentalOrderID, G.gameID, G.unitsOrdered FROM GamesInOrder G "
+      + "JOIN RentalOrder R ON R.rentalOrderID = G.rentalOrderID "
+      + "WHERE R.orderTimestamp >= ? AND R.orderTimestamp < ? AND R.dueDate < ?"),
+   ARCHIVE_TRACKING (null, "SELECT T.rentalOrderID, T.trackingID, T.status, T.currentLocation, T.courierName, "
+      + "T.lastUpdateDate, T.additionalComments FROM TrackingInfo T "
+      + "JOIN RentalOrder R ON R.rentalOrderID = T.rentalOrderID "
+      + "WHERE R.orderTimestamp >= ? AND R.orderTimestamp < ? AND R.dueDate < ?"),
+   ADD_ARCHIVED_RENTALS (null, "INSERT INTO ArchivedRentals AS A (login, noOfGames) VALUES (?, ?) "
+      + "ON CONFLICT (login) DO UPDATE SET noOfGames = A.noOfGames + EXCLUDED.noOfGames"),
+   DELETE_ARCHIVED (null, "DELETE FROM RentalOrder WHERE orderTimestamp >= ? AND orderTimestamp < ? AND dueDate < ?"),
+   SET_ARCHIVED_MONTH (null, "INSERT INTO ArchivedMonths (month, generation, orders, archivedAt) VALUES (?, ?, ?, ?) "
+      + "ON CONFLICT (month) DO UPDATE SET generation = EXCLUDED.generation, orders = EXCLUDED.orders, "
+      + "archivedAt = EXCLUDED.archivedAt"),
+
+   // tracking
+   INSERT_TRACKING_INFO (null, "INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate) VALUES (?, ?, 'Pending', 'Warehouse', 'FedEx', ?)"),
+   TRACKING_INFO ("viewTrackingInfo", "SELECT courierName, rentalOrderID, currentLocation, status, lastUpdateDate, additionalComments FROM TrackingInfo WHERE trackingID = ?"),
+   UPDATE_TRACKING_STATUS ("updateTrackingInfo", "UPDATE TrackingInfo SET status = ? WHERE trackingID = ?"),
+   UPDATE_TRACKING_LOCATION ("updateTrackingInfo", "UPDATE TrackingInfo SET currentLocation = ? WHERE trackingID = ?"),
+   UPDATE_TRACKING_COURIER ("updateTrackingInfo", "UPDATE TrackingInfo SET courierName = ? WHERE trackingID = ?"),
+   UPDATE_TRACKING_COMMENTS ("updateTrackingInfo", "UPDATE TrackingInfo SET additionalComments = ? WHERE trackingID = ?");
+
+   private final String _operation;
+   private final String _sql;
+
+   QueryShape(String operation, String sql) {
+      this._operation = operation;
+      this._sql = sql;
+   }//end QueryShape
+
+   /**
+    * @return the logical operation this shape is counted under, or null
+    */
+   public String operation() {
+      return this._operation;
+   }//end operation
+
+   /**
+    * @return the parameterized SQL text of this query shape
+    */
+   public String sql() {
+      return this._sql;
+   }//end sql
+
+}//end QueryShape
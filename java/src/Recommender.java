@@ -0,0 +1,577 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * "Customers also rented" suggestions from item-to-item co-occurrence.
+ *
+ * Two games co-occur when the same customer rented both.  Each customer's
+ * games are kept in the order they were first rented, and a game counts
+ * together with the WINDOW games rented just before it, so heavy renters
+ * add a bounded number of pairs and old tastes fade.  Because a new game
+ * only pairs with the games already in the window, placing an order
+ * updates the model exactly as a rebuild over the same lines would.
+ *
+ * Games and customers are numbered densely; each game's row of
+ * co-occurrence counts is an open-addressing int-to-int map, so the model
+ * holds no boxed values.  Suggestions are ranked by cosine similarity,
+ * count(a, b) / sqrt(renters(a) * renters(b)), which keeps the few
+ * blockbusters from topping every list.
+ *
+ * The model is built on first use from GamesInOrder joined with
+ * RentalOrder.  The build streams the lines once, then counts pairs on
+ * all cores, each worker owning the rows of the games whose number is
+ * its own modulo the worker count so no row is shared.  Orders placed
+ * while a build runs are replayed onto the new model before it replaces
+ * the old one.
+ */
+public class Recommender {
+
+   public static final int DEFAULT_LIMIT = 10;
+
+   // games rented before a game that it is paired with
+   public static final int WINDOW = 50;
+
+   // most similar games kept per game; queries never look further
+   public static final int NEIGHBOURS = 100;
+
+   /*
+    * Open-addressing map from int keys to int counts.  Keys are game or
+    * customer numbers, never negative, so -1 marks a free slot.
+    */
+   static class IntIntMap {
+      int[] keys;
+      int[] values;
+      int size = 0;
+      // best neighbours of the row's game, dropped whenever a count changes
+      volatile Neighbours neighbours = null;
+
+      IntIntMap(int expected) {
+         int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+         this.keys = new int[capacity];
+         this.values = new int[capacity];
+         Arrays.fill(this.keys, -1);
+      }
+
+      void increment(int key) {
+         this.neighbours = null;
+         int mask = this.keys.length - 1;
+         int i = mix(key) & mask;
+         while (this.keys[i] != -1) {
+            if (this.keys[i] == key) {
+               ++this.values[i];
+               return;
+            }//end if
+            i = (i + 1) & mask;
+         }//end while
+         this.keys[i] = key;
+         this.values[i] = 1;
+         if (++this.size * 4 > this.keys.length * 3)
+            grow();
+      }//end increment
+
+      private void grow() {
+         int[] keys = this.keys;
+         int[] values = this.values;
+         this.keys = new int[keys.length * 2];
+         this.values = new int[keys.length * 2];
+         Arrays.fill(this.keys, -1);
+         int mask = this.keys.length - 1;
+         for (int j = 0; j < keys.length; ++j) {
+            if (keys[j] == -1)
+               continue;
+            int i = mix(keys[j]) & mask;
+            while (this.keys[i] != -1)
+               i = (i + 1) & mask;
+            this.keys[i] = keys[j];
+            this.values[i] = values[j];
+         }//end for
+      }//end grow
+
+      static int mix(int key) {
+         int h = key * 0x9E3779B9;
+         return h ^ (h >>> 16);
+      }
+   }//end IntIntMap
+
+   /*
+    * The NEIGHBOURS games most similar to one game, best first.
+    */
+   static class Neighbours {
+      final int[] games;
+      final double[] scores;
+
+      Neighbours(int[] games, double[] scores) {
+         this.games = games;
+         this.scores = scores;
+      }
+   }//end Neighbours
+
+   /*
+    * Keeps the k best (game, score) pairs offered, in a min-heap.
+    */
+   private static class TopK {
+      final int[] games;
+      final double[] scores;
+      int size = 0;
+
+      TopK(int k) {
+         this.games = new int[Math.max(1, k)];
+         this.scores = new double[this.games.length];
+      }
+
+      void offer(int game, double score) {
+         if (this.size < this.games.length) {
+            this.games[this.size] = game;
+            this.scores[this.size] = score;
+            int i = this.size++;
+            while (i > 0) {
+               int parent = (i - 1) >>> 1;
+               if (this.scores[parent] <= this.scores[i])
+                  return;
+               swap(i, parent);
+               i = parent;
+            }//end while
+         } else if (score > this.scores[0]) {
+            this.games[0] = game;
+            this.scores[0] = score;
+            siftDown();
+         }//end if
+      }//end offer
+
+      /*
+       * Empties the heap into a neighbour list, best first.
+       */
+      Neighbours drain() {
+         int[] games = new int[this.size];
+         double[] scores = new double[this.size];
+         while (this.size > 0) {
+            games[this.size - 1] = this.games[0];
+            scores[this.size - 1] = this.scores[0];
+            --this.size;
+            this.games[0] = this.games[this.size];
+            this.scores[0] = this.scores[this.size];
+            siftDown();
+         }//end while
+         return new Neighbours(games, scores);
+      }//end drain
+
+      private void siftDown() {
+         int i = 0;
+         while (true) {
+            int least = i, left = 2 * i + 1, right = left + 1;
+            if (left < this.size && this.scores[left] < this.scores[least])
+               least = left;
+            if (right < this.size && this.scores[right] < this.scores[least])
+               least = right;
+            if (least == i)
+               return;
+            swap(i, least);
+            i = least;
+         }//end while
+      }//end siftDown
+
+      private void swap(int i, int j) {
+         int g = this.games[i];
+         this.games[i] = this.games[j];
+         this.games[j] = g;
+         double s = this.scores[i];
+         this.scores[i] = this.scores[j];
+         this.scores[j] = s;
+      }//end swap
+   }//end TopK
+
+   /*
+    * Open-addressing map from game numbers to summed scores, used while
+    * answering one query.
+    */
+   private static class Scores {
+      int[] keys = new int[64];
+      double[] values = new double[64];
+      int size = 0;
+
+      Scores() {
+         Arrays.fill(this.keys, -1);
+      }
+
+      void add(int key, double score) {
+         int mask = this.keys.length - 1;
+         int i = IntIntMap.mix(key) & mask;
+         while (this.keys[i] != -1 && this.keys[i] != key)
+            i = (i + 1) & mask;
+         if (this.keys[i] == -1) {
+            this.keys[i] = key;
+            if (++this.size * 4 > this.keys.length * 3) {
+               this.values[i] = score;
+               grow();
+               return;
+            }//end if
+         }//end if
+         this.values[i] += score;
+      }//end add
+
+      void exclude(int key) {
+         int mask = this.keys.length - 1;
+         int i = IntIntMap.mix(key) & mask;
+         while (this.keys[i] != -1) {
+            if (this.keys[i] == key) {
+               this.values[i] = Double.NEGATIVE_INFINITY;
+               return;
+            }//end if
+            i = (i + 1) & mask;
+         }//end while
+      }//end exclude
+
+      private void grow() {
+         int[] keys = this.keys;
+         double[] values = this.values;
+         this.keys = new int[keys.length * 2];
+         this.values = new double[keys.length * 2];
+         Arrays.fill(this.keys, -1);
+         int mask = this.keys.length - 1;
+         for (int j = 0; j < keys.length; ++j) {
+            if (keys[j] == -1)
+               continue;
+            int i = IntIntMap.mix(keys[j]) & mask;
+            while (this.keys[i] != -1)
+               i = (i + 1) & mask;
+            this.keys[i] = keys[j];
+            this.values[i] = values[j];
+         }//end for
+      }//end grow
+   }//end Scores
+
+   /*
+    * Everything one build produced.  Guarded by the recommender's lock
+    * once published.
+    */
+   private static class Model {
+      final HashMap<String, Integer> gameNumbers = new HashMap<String, Integer>();
+      String[] gameIDs = new String[1024];
+      // distinct customers per game
+      int[] renters = new int[1024];
+      IntIntMap[] rows = new IntIntMap[1024];
+      int games = 0;
+
+      final HashMap<String, Integer> userNumbers = new HashMap<String, Integer>();
+      // games per customer, in order of first rental
+      int[][] histories = new int[1024][];
+      int[] historySizes = new int[1024];
+      int users = 0;
+
+      long lines = 0;
+
+      int game(String gameID) {
+         Integer n = this.gameNumbers.get(gameID);
+         if (n != null)
+            return n;
+         if (this.games == this.gameIDs.length) {
+            this.gameIDs = Arrays.copyOf(this.gameIDs, this.games * 2);
+            this.renters = Arrays.copyOf(this.renters, this.games * 2);
+            this.rows = Arrays.copyOf(this.rows, this.games * 2);
+         }//end if
+         this.gameIDs[this.games] = gameID;
+         this.gameNumbers.put(gameID, this.games);
+         return this.games++;
+      }//end game
+
+      int user(String login) {
+         Integer n = this.userNumbers.get(login);
+         if (n != null)
+            return n;
+         if (this.users == this.histories.length) {
+            this.histories = Arrays.copyOf(this.histories, this.users * 2);
+            this.historySizes = Arrays.copyOf(this.historySizes, this.users * 2);
+         }//end if
+         this.histories[this.users] = new int[4];
+         this.userNumbers.put(login, this.users);
+         return this.users++;
+      }//end user
+
+      /*
+       * Appends a game to a customer's history.
+       * @return false if the customer had rented it before
+       */
+      boolean append(int user, int game) {
+         int[] h = this.histories[user];
+         int size = this.historySizes[user];
+         for (int i = 0; i < size; ++i)
+            if (h[i] == game)
+               return false;
+         if (size == h.length)
+            h = this.histories[user] = Arrays.copyOf(h, size * 2);
+         h[size] = game;
+         this.historySizes[user] = size + 1;
+         ++this.renters[game];
+         return true;
+      }//end append
+
+      void pair(int a, int b) {
+         if (this.rows[a] == null)
+            this.rows[a] = new IntIntMap(8);
+         this.rows[a].increment(b);
+      }
+
+      /*
+       * Adds one order line, pairing it with the customer's window.
+       */
+      void record(String login, String gameID) {
+         int user = user(login);
+         int game = game(gameID);
+         ++this.lines;
+         if (!append(user, game))
+            return;
+         int[] h = this.histories[user];
+         int last = this.historySizes[user] - 1;
+         for (int j = Math.max(0, last - WINDOW); j < last; ++j) {
+            pair(game, h[j]);
+            pair(h[j], game);
+         }//end for
+      }//end record
+
+      long pairs() {
+         long pairs = 0;
+         for (int g = 0; g < this.games; ++g)
+            if (this.rows[g] != null)
+               pairs += this.rows[g].size;
+         return pairs;
+      }//end pairs
+   }//end Model
+
+   private final GameRental _esql;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   private int _parallelism = Runtime.getRuntime().availableProcessors();
+
+   private Model _model = null;
+   // set while a build runs: orders from this time on are replayed onto it
+   private Timestamp _buildingSince = null;
+   private List<String[]> _replay = new ArrayList<String[]>();
+   private long _buildMillis = 0;
+
+   public Recommender(GameRental esql) {
+      this._esql = esql;
+   }//end Recommender
+
+   public void setParallelism(int parallelism) {
+      this._parallelism = Math.max(1, parallelism);
+   }
+
+   /**
+    * @return up to limit game IDs most often rented by the customers who
+    *         rented the given game, best first; limit is capped at
+    *         NEIGHBOURS
+    */
+   public List<String> alsoRented(String gameID, int limit) throws SQLException {
+      ensureBuilt();
+      this._lock.readLock().lock();
+      try {
+         Model m = this._model;
+         Integer game = m.gameNumbers.get(gameID);
+         List<String> result = new ArrayList<String>();
+         if (game == null)
+            return result;
+         Neighbours n = neighbours(m, game);
+         for (int i = 0; i < n.games.length && i < limit; ++i)
+            result.add(m.gameIDs[n.games[i]]);
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end alsoRented
+
+   /**
+    * Suggests games for a customer by summing the neighbour lists of the
+    * last WINDOW games they rented, leaving out everything they rented
+    * already.
+    *
+    * @return up to limit game IDs, best first; none for a customer
+    *         without rentals
+    */
+   public List<String> forUser(String login, int limit) throws SQLException {
+      ensureBuilt();
+      this._lock.readLock().lock();
+      try {
+         Model m = this._model;
+         Integer user = m.userNumbers.get(login);
+         List<String> result = new ArrayList<String>();
+         if (user == null || limit <= 0)
+            return result;
+         int[] h = m.histories[user];
+         int size = m.historySizes[user];
+         Scores scores = new Scores();
+         for (int j = Math.max(0, size - WINDOW); j < size; ++j) {
+            Neighbours n = neighbours(m, h[j]);
+            for (int i = 0; i < n.games.length; ++i)
+               scores.add(n.games[i], n.scores[i]);
+         }//end for
+         for (int j = 0; j < size; ++j)
+            scores.exclude(h[j]);
+
+         TopK top = new TopK(limit);
+         for (int i = 0; i < scores.keys.length; ++i) {
+            if (scores.keys[i] != -1 && scores.values[i] != Double.NEGATIVE_INFINITY)
+               top.offer(scores.keys[i], scores.values[i]);
+         }//end for
+         for (int g : top.drain().games)
+            result.add(m.gameIDs[g]);
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end forUser
+
+   /*
+    * The neighbour list of a game, computed from its row when the row
+    * changed since the last query.  Readers may compute it concurrently;
+    * they produce equal lists and the volatile field publishes one.
+    */
+   private static Neighbours neighbours(Model m, int game) {
+      IntIntMap row = m.rows[game];
+      if (row == null)
+         return new Neighbours(new int[0], new double[0]);
+      Neighbours n = row.neighbours;
+      if (n != null)
+         return n;
+      TopK top = new TopK(NEIGHBOURS);
+      for (int i = 0; i < row.keys.length; ++i) {
+         int b = row.keys[i];
+         if (b != -1)
+            top.offer(b, row.values[i] / Math.sqrt((double) m.renters[game] * m.renters[b]));
+      }//end for
+      n = top.drain();
+      row.neighbours = n;
+      return n;
+   }//end neighbours
+
+   /**
+    * Adds the lines of a committed order.  Called by RentalOrderService
+    * after every order; does nothing until the model was first built.
+    */
+   public void recordOrder(String login, Collection<String> gameIDs, Timestamp orderTimestamp) {
+      this._lock.writeLock().lock();
+      try {
+         if (this._buildingSince != null && !orderTimestamp.before(this._buildingSince)) {
+            for (String gameID : gameIDs)
+               this._replay.add(new String[] { login, gameID });
+         }//end if
+         if (this._model != null) {
+            for (String gameID : gameIDs)
+               this._model.record(login, gameID);
+         }//end if
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end recordOrder
+
+   private void ensureBuilt() throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         if (this._model != null)
+            return;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+      synchronized (this) {
+         if (this._model == null)
+            rebuild();
+      }//end synchronized
+   }//end ensureBuilt
+
+   /**
+    * Builds a new model from every order line and swaps it in.  Queries
+    * keep using the old model meanwhile.
+    */
+   public synchronized void rebuild() throws SQLException {
+      final Timestamp since = new Timestamp(System.currentTimeMillis());
+      this._lock.writeLock().lock();
+      try {
+         this._buildingSince = since;
+         this._replay = new ArrayList<String[]>();
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+
+      long start = System.nanoTime();
+      Model m = null;
+      try {
+         m = build(since);
+      } finally {
+         this._lock.writeLock().lock();
+         try {
+            if (m != null) {
+               for (String[] line : this._replay)
+                  m.record(line[0], line[1]);
+               this._model = m;
+               this._buildMillis = (System.nanoTime() - start) / 1000000;
+            }//end if
+            this._buildingSince = null;
+            this._replay = new ArrayList<String[]>();
+         } finally {
+            this._lock.writeLock().unlock();
+         }//end try
+      }//end try
+   }//end rebuild
+
+   /*
+    * Reads the archived order lines and the live ones placed before the
+    * given time, and counts their pairs in parallel.
+    */
+   private Model build(Timestamp before) throws SQLException {
+      final Model m = new Model();
+      // archived orders are older than any live one
+      this._esql.getArchive().forEachOrder(o -> {
+         int user = m.user(o.login);
+         for (String gameID : o.games) {
+            ++m.lines;
+            m.append(user, m.game(gameID));
+         }//end for
+      });
+      this._esql.measured(this._esql.getMetrics().operation("recommenderBuild"), n -> n,
+         () -> this._esql.streamQuery(QueryShape.RECOMMENDER_LINES, rs -> {
+            int user = m.user(rs.getString(1));
+            int game = m.game(rs.getString(2));
+            ++m.lines;
+            m.append(user, game);
+         }, before));
+
+      final int workers = this._parallelism;
+      IntStream.range(0, workers).parallel().forEach(w -> {
+         for (int u = 0; u < m.users; ++u) {
+            int[] h = m.histories[u];
+            int size = m.historySizes[u];
+            for (int i = 1; i < size; ++i) {
+               int a = h[i];
+               boolean ownsA = a % workers == w;
+               for (int j = Math.max(0, i - WINDOW); j < i; ++j) {
+                  int b = h[j];
+                  if (ownsA)
+                     m.pair(a, b);
+                  if (b % workers == w)
+                     m.pair(b, a);
+               }//end for
+            }//end for
+         }//end for
+      });
+      return m;
+   }//end build
+
+   public String stats() {
+      this._lock.readLock().lock();
+      try {
+         Model m = this._model;
+         if (m == null)
+            return "recommender not built";
+         return "recommender games=" + m.games + " customers=" + m.users + " lines=" + m.lines
+            + " pairs=" + m.pairs() + " built in " + this._buildMillis + "ms";
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+}//end Recommender
@@ -0,0 +1,73 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The games a customer is about to rent, keyed by game ID in the order
+ * they were added.  Adding a game that is already in the cart adds to its
+ * unit count.
+ */
+public class RentalCart {
+
+   private final LinkedHashMap<String, Integer> _lines = new LinkedHashMap<String, Integer>();
+
+   /**
+    * Adds units of a game to the cart.
+    *
+    * @param gameID the Catalog game ID
+    * @param units the number of units, must be positive
+    */
+   public void add(String gameID, int units) {
+      if (gameID == null || gameID.isEmpty())
+         throw new IllegalArgumentException("game ID is required");
+      if (units <= 0)
+         throw new IllegalArgumentException("units must be positive: " + units);
+      this._lines.merge(gameID, units, Integer::sum);
+   }//end add
+
+   /**
+    * Removes a game from the cart.
+    *
+    * @return true if the game was in the cart
+    */
+   public boolean remove(String gameID) {
+      return this._lines.remove(gameID) != null;
+   }
+
+   public void clear() {
+      this._lines.clear();
+   }
+
+   public boolean isEmpty() {
+      return this._lines.isEmpty();
+   }
+
+   /**
+    * @return the number of distinct games in the cart
+    */
+   public int size() {
+      return this._lines.size();
+   }
+
+   /**
+    * @return the total number of units across all games
+    */
+   public int totalUnits() {
+      int total = 0;
+      for (int units : this._lines.values())
+         total += units;
+      return total;
+   }//end totalUnits
+
+   /**
+    * @return game ID to units, in the order the games were added
+    */
+   public Map<String, Integer> lines() {
+      return Collections.unmodifiableMap(this._lines);
+   }
+
+   public String toString() {
+      return this._lines.toString();
+   }
+
+}//end RentalCart
@@ -0,0 +1,245 @@
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Places rental orders for a whole cart in one transaction.
+ *
+ * Prices for every game in the cart are read with a single IN-list query,
+ * then the RentalOrder row, all GamesInOrder lines (as one multi-row
+ * INSERT) and the TrackingInfo row are written and committed together, so
+ * an order costs the same handful of round trips however many lines it
+ * has, and a failure never leaves a partial order behind.
+ *
+ * Copies are reserved through Inventory before the transaction starts
+ * and taken from the Inventory rows as its last statement, so an order
+ * for a sold-out game fails fast and row locks are held only briefly.
+ *
+ * With group commit on (setGroupCommit, or the gamerental.orders.groupCommit
+ * property) placeOrder hands the order to the OrderPipeline, which
+ * commits many orders per transaction.
+ */
+public class RentalOrderService {
+
+   // games per IN-list or multi-row INSERT statement
+   public static final int MAX_LINES_PER_STATEMENT = 64;
+
+   // how long a rental lasts
+   public static final int RENTAL_WEEKS = 1;
+
+   /**
+    * The outcome of a successful order.
+    */
+   public static class Receipt {
+      public final String orderID;
+      public final String trackingID;
+      public final String login;
+      public final int noOfGames;
+      public final BigDecimal totalPrice;
+      public final Timestamp orderTimestamp;
+      public final Timestamp dueDate;
+      // game ID to unit price, in cart order
+      public final Map<String, BigDecimal> unitPrices;
+      // game ID to units, in cart order
+      public final Map<String, Integer> units;
+
+      Receipt(String orderID, String trackingID, String login, int noOfGames, BigDecimal totalPrice,
+              Timestamp orderTimestamp, Timestamp dueDate,
+              Map<String, BigDecimal> unitPrices, Map<String, Integer> units) {
+         this.orderID = orderID;
+         this.trackingID = trackingID;
+         this.login = login;
+         this.noOfGames = noOfGames;
+         this.totalPrice = totalPrice;
+         this.orderTimestamp = orderTimestamp;
+         this.dueDate = dueDate;
+         this.unitPrices = Collections.unmodifiableMap(unitPrices);
+         this.units = Collections.unmodifiableMap(units);
+      }//end Receipt
+   }//end Receipt
+
+   private final GameRental _esql;
+   private final IdAllocator _orderIDs;
+   private final IdAllocator _trackingIDs;
+   private volatile boolean _groupCommit = Boolean.getBoolean("gamerental.orders.groupCommit");
+
+   public RentalOrderService(GameRental esql) {
+      this._esql = esql;
+      this._orderIDs = IdAllocator.rentalOrders(esql);
+      this._trackingIDs = IdAllocator.trackingIDs(esql);
+   }//end RentalOrderService
+
+   /**
+    * @param groupCommit true to place orders through the OrderPipeline
+    */
+   public void setGroupCommit(boolean groupCommit) {
+      this._groupCommit = groupCommit;
+   }
+
+   public boolean isGroupCommit() {
+      return this._groupCommit;
+   }
+
+   /**
+    * Places an order for every game in the cart.
+    *
+    * @param login the customer renting the games
+    * @param cart the games and units to rent, must not be empty
+    * @return the receipt of the committed order
+    * @throws java.sql.SQLException when a game does not exist or the order
+    *         could not be written; nothing is written in that case
+    */
+   public Receipt placeOrder(String login, RentalCart cart) throws SQLException {
+      if (this._groupCommit)
+         return this._esql.getOrderPipeline().place(login, cart);
+      final Map<String, Integer> units = reserve(cart);
+
+      Receipt receipt;
+      try {
+         receipt = this._esql.measured(this._esql.getMetrics().operation("placeOrder"), r -> r.units.size(),
+            () -> this._esql.inTransaction(conn -> write(conn, login, units)));
+      } catch (SQLException e) {
+         this._esql.getInventory().cancel(units, e);
+         throw e;
+      } catch (RuntimeException e) {
+         this._esql.getInventory().cancel(units, null);
+         throw e;
+      }//end try
+      committed(login, units, receipt);
+      return receipt;
+   }//end placeOrder
+
+   /*
+    * The lines of a cart, with their copies reserved through Inventory.
+    */
+   Map<String, Integer> reserve(RentalCart cart) throws SQLException {
+      if (cart.isEmpty())
+         throw new IllegalArgumentException("cart is empty");
+      Map<String, Integer> units = new LinkedHashMap<String, Integer>(cart.lines());
+      this._esql.getInventory().reserve(units);
+      return units;
+   }//end reserve
+
+   /*
+    * Bookkeeping once the transaction holding an order has committed.
+    */
+   void committed(String login, Map<String, Integer> units, Receipt receipt) {
+      this._esql.getInventory().commit(units);
+      this._esql.getRecommender().recordOrder(login, units.keySet(), receipt.orderTimestamp);
+      this._esql.getJournal().append(Journal.Event.ORDER_PLACED, receipt.orderID, receipt.trackingID, login,
+         receipt.totalPrice.movePointRight(2).longValue());
+   }//end committed
+
+   /*
+    * Writes an order whose copies are reserved, in the caller's
+    * transaction.
+    */
+   Receipt write(PooledConnection conn, String login, Map<String, Integer> units) throws SQLException {
+      Map<String, BigDecimal> prices = fetchPrices(conn, units.keySet());
+
+      Map<String, BigDecimal> unitPrices = new LinkedHashMap<String, BigDecimal>();
+      BigDecimal totalPrice = BigDecimal.ZERO;
+      int noOfGames = 0;
+      for (Map.Entry<String, Integer> line : units.entrySet()) {
+         BigDecimal price = prices.get(line.getKey());
+         if (price == null)
+            throw new SQLException("Unknown game ID: " + line.getKey());
+         unitPrices.put(line.getKey(), price);
+         totalPrice = totalPrice.add(price.multiply(BigDecimal.valueOf(line.getValue())));
+         noOfGames += line.getValue();
+      }//end for
+
+      String orderID = this._orderIDs.nextID(conn);
+      String trackingID = this._trackingIDs.nextID(conn);
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      Timestamp dueDate = Timestamp.valueOf(LocalDateTime.now().plusWeeks(RENTAL_WEEKS));
+
+      PreparedStatement order = conn.prepare(QueryShape.INSERT_RENTAL_ORDER);
+      GameRental.bind(order, orderID, login, noOfGames, totalPrice, now, dueDate);
+      conn.executeUpdate(QueryShape.INSERT_RENTAL_ORDER, order);
+
+      insertLines(conn, orderID, units);
+
+      PreparedStatement tracking = conn.prepare(QueryShape.INSERT_TRACKING_INFO);
+      GameRental.bind(tracking, trackingID, orderID, now);
+      conn.executeUpdate(QueryShape.INSERT_TRACKING_INFO, tracking);
+
+      // last, so the hot rows stay locked for one round trip
+      this._esql.getInventory().take(conn, units);
+
+      return new Receipt(orderID, trackingID, login, noOfGames, totalPrice, now, dueDate, unitPrices, units);
+   }//end write
+
+   /**
+    * Looks up the price of every given game with one query per
+    * MAX_LINES_PER_STATEMENT games.  The IN list is padded to a power of
+    * two so only a few statement shapes ever reach the statement cache.
+    *
+    * @return game ID to price for the games that exist
+    */
+   static Map<String, BigDecimal> fetchPrices(PooledConnection conn, Collection<String> gameIDs) throws SQLException {
+      Map<String, BigDecimal> prices = new HashMap<String, BigDecimal>();
+      List<String> ids = new ArrayList<String>(gameIDs);
+      for (int from = 0; from < ids.size(); from += MAX_LINES_PER_STATEMENT) {
+         List<String> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_LINES_PER_STATEMENT));
+         int width = Integer.highestOneBit(chunk.size());
+         if (width < chunk.size())
+            width <<= 1;
+
+         PreparedStatement stmt = conn.prepare(
+            "SELECT gameID, price FROM Catalog WHERE gameID IN (" + placeholders(width) + ")");
+         for (int i = 0; i < width; ++i)
+            stmt.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+         ResultSet rs = stmt.executeQuery();
+         try {
+            while (rs.next())
+               prices.put(rs.getString(1), rs.getBigDecimal(2));
+         } finally {
+            rs.close();
+         }//end try
+      }//end for
+      return prices;
+   }//end fetchPrices
+
+   /*
+    * Writes the GamesInOrder lines of an order as multi-row INSERTs.
+    */
+   private static void insertLines(PooledConnection conn, String orderID, Map<String, Integer> units) throws SQLException {
+      List<Map.Entry<String, Integer>> lines = new ArrayList<Map.Entry<String, Integer>>(units.entrySet());
+      for (int from = 0; from < lines.size(); from += MAX_LINES_PER_STATEMENT) {
+         List<Map.Entry<String, Integer>> chunk =
+            lines.subList(from, Math.min(lines.size(), from + MAX_LINES_PER_STATEMENT));
+
+         StringBuilder sql = new StringBuilder("INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered) VALUES ");
+         for (int i = 0; i < chunk.size(); ++i)
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+
+         PreparedStatement stmt = conn.prepare(sql.toString());
+         int p = 1;
+         for (Map.Entry<String, Integer> line : chunk) {
+            stmt.setString(p++, orderID);
+            stmt.setString(p++, line.getKey());
+            stmt.setInt(p++, line.getValue());
+         }//end for
+         stmt.executeUpdate();
+      }//end for
+   }//end insertLines
+
+   static String placeholders(int n) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < n; ++i)
+         sb.append(i == 0 ? "?" : ", ?");
+      return sb.toString();
+   }//end placeholders
+
+}//end RentalOrderService
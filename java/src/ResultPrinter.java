@@ -0,0 +1,63 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Writes streamed rows as tab separated text, preceded by a header line
+ * of column names when the first row arrives.  Output goes through one
+ * buffer that is flushed whenever it fills up and once more by finish(),
+ * instead of one console write per cell.
+ */
+public class ResultPrinter implements GameRental.RowHandler {
+
+   public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+   private final Writer _out;
+   private int _numCol = -1;
+
+   public ResultPrinter(OutputStream out) {
+      this(new OutputStreamWriter(out), DEFAULT_BUFFER_SIZE);
+   }
+
+   public ResultPrinter(Writer out, int bufferSize) {
+      this._out = new BufferedWriter(out, bufferSize);
+   }//end ResultPrinter
+
+   public void handle(ResultSet rs) throws SQLException {
+      try {
+         if (this._numCol < 0) {
+            ResultSetMetaData rsmd = rs.getMetaData();
+            this._numCol = rsmd.getColumnCount();
+            for (int i = 1; i <= this._numCol; ++i) {
+               this._out.write(rsmd.getColumnName(i));
+               this._out.write('\t');
+            }//end for
+            this._out.write('\n');
+         }//end if
+         for (int i = 1; i <= this._numCol; ++i) {
+            this._out.write(String.valueOf(rs.getString(i)));
+            this._out.write('\t');
+         }//end for
+         this._out.write('\n');
+      } catch (IOException e) {
+         throw new SQLException("failed to write query output: " + e.getMessage());
+      }//end try
+   }//end handle
+
+   /**
+    * Flushes whatever is still buffered.  The underlying stream stays open.
+    */
+   public void finish() {
+      try {
+         this._out.flush();
+      } catch (IOException e) {
+         // ignored, nothing left to report the rows to.
+      }//end try
+   }//end finish
+
+}//end ResultPrinter
@@ -0,0 +1,87 @@
+/**
+ * A logged-in user and the Users row read when they logged in.
+ *
+ * Favorite games are not part of the session; Favorites keeps them.
+ *
+ * Sessions are immutable, so any number of threads may read one and
+ * nothing but the session itself ties a menu to a user.  Profile changes
+ * produce a new session through the with* methods; the old one stays
+ * valid for whoever still holds it.
+ */
+public class Session {
+
+   private final long _id;
+   private final String _login;
+   private final String _role;
+   private final String _phoneNum;
+   private final int _numOverdueGames;
+   private final long _createdAt;
+
+   /**
+    * @param role the role as stored; Users.role is char(20), so trailing
+    *        padding is removed here
+    */
+   public Session(long id, String login, String role, String phoneNum, int numOverdueGames, long createdAt) {
+      this._id = id;
+      this._login = login;
+      this._role = role == null ? "" : role.trim();
+      this._phoneNum = phoneNum;
+      this._numOverdueGames = numOverdueGames;
+      this._createdAt = createdAt;
+   }//end Session
+
+   public long getId() {
+      return this._id;
+   }
+
+   public String getLogin() {
+      return this._login;
+   }
+
+   public String getRole() {
+      return this._role;
+   }
+
+   public String getPhoneNum() {
+      return this._phoneNum;
+   }
+
+   public int getNumOverdueGames() {
+      return this._numOverdueGames;
+   }
+
+   /**
+    * @return when the user logged in, in System.currentTimeMillis() time
+    */
+   public long getCreatedAt() {
+      return this._createdAt;
+   }
+
+   public boolean isManager() {
+      return this._role.equals("manager");
+   }
+
+   /**
+    * @return true if the user may update tracking information
+    */
+   public boolean isStaff() {
+      return this._role.equals("employee") || isManager();
+   }
+
+   public Session withPhoneNum(String phoneNum) {
+      return new Session(this._id, this._login, this._role, phoneNum, this._numOverdueGames, this._createdAt);
+   }
+
+   public Session withRole(String role) {
+      return new Session(this._id, this._login, role, this._phoneNum, this._numOverdueGames, this._createdAt);
+   }
+
+   public Session withNumOverdueGames(int numOverdueGames) {
+      return new Session(this._id, this._login, this._role, this._phoneNum, numOverdueGames, this._createdAt);
+   }
+
+   public String toString() {
+      return "session " + this._id + " " + this._login + " (" + this._role + ")";
+   }
+
+}//end Session
@@ -0,0 +1,163 @@
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Logs users in and out and keeps the sessions currently open in this
+ * process.
+ *
+ * All sessions share the GameRental instance, and with it the connection
+ * pool and caches; a session only costs the one Users row it holds.
+ * Profile updates write through to the database and replace the
+ * registered session with an updated copy.  So do the role and overdue
+ * count a manager sets through updateUser; renaming a login closes its
+ * sessions instead.
+ */
+public class SessionManager {
+
+   private final GameRental _esql;
+   private final AtomicLong _nextID = new AtomicLong(1);
+   private final ConcurrentHashMap<Long, Session> _active = new ConcurrentHashMap<Long, Session>();
+
+   public SessionManager(GameRental esql) {
+      this._esql = esql;
+   }//end SessionManager
+
+   /**
+    * Checks the credentials and opens a session.
+    *
+    * @return the new session, or null if the login or password is wrong
+    */
+   public Session logIn(String login, String password) throws SQLException {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(QueryShape.LOGIN, login, password);
+      if (rows.isEmpty())
+         return null;
+      List<String> row = rows.get(0);
+      String overdue = row.get(3);
+      Session session = new Session(this._nextID.getAndIncrement(), row.get(0), row.get(1), row.get(2),
+         overdue == null ? 0 : Integer.parseInt(overdue), System.currentTimeMillis());
+      this._active.put(session.getId(), session);
+      return session;
+   }//end logIn
+
+   /**
+    * Closes a session; it is harmless to close one twice.
+    */
+   public void logOut(Session session) {
+      this._active.remove(session.getId());
+   }
+
+   /**
+    * Registers a new user with no favorites and no overdue games.
+    */
+   public void createUser(String login, String password, String role, String phoneNum) throws SQLException {
+      this._esql.executeUpdate(QueryShape.CREATE_USER, login, password, role, "", phoneNum, 0);
+      this._esql.getJournal().append(Journal.Event.USER_CREATED, login, role, login, 0);
+   }//end createUser
+
+   public Session updatePhoneNum(Session session, String phoneNum) throws SQLException {
+      this._esql.executeUpdate(QueryShape.UPDATE_PHONE_NUMBER, phoneNum, session.getLogin());
+      return update(session, s -> s.withPhoneNum(phoneNum));
+   }//end updatePhoneNum
+
+   /**
+    * Changes the password; the session does not hold it, so it is
+    * unchanged.
+    */
+   public void updatePassword(Session session, String password) throws SQLException {
+      this._esql.executeUpdate(QueryShape.UPDATE_PASSWORD, password, session.getLogin());
+   }//end updatePassword
+
+   /**
+    * @return the registered, most recent version of a session, or the
+    *         session itself once it was logged out
+    */
+   public Session current(Session session) {
+      Session current = this._active.get(session.getId());
+      return current == null ? session : current;
+   }//end current
+
+   /**
+    * @return false once the session was logged out or closed by
+    *         closeSessions
+    */
+   public boolean isOpen(Session session) {
+      return this._active.containsKey(session.getId());
+   }
+
+   /**
+    * Gives the open sessions of a login the role a manager set.
+    */
+   public void setRole(String login, String role) {
+      for (Session s : this._active.values()) {
+         if (s.getLogin().equals(login))
+            update(s, c -> c.withRole(role));
+      }//end for
+   }//end setRole
+
+   /**
+    * Closes every open session of a login, e.g. after it was renamed; the
+    * user has to log in again under the new login.
+    */
+   public void closeSessions(String login) {
+      this._active.values().removeIf(s -> s.getLogin().equals(login));
+   }
+
+   /**
+    * @return the logins that have at least one open session
+    */
+   public Set<String> activeLogins() {
+      Set<String> logins = new HashSet<String>();
+      for (Session s : this._active.values())
+         logins.add(s.getLogin());
+      return logins;
+   }//end activeLogins
+
+   /**
+    * Adds to the overdue counts of the open sessions of the given logins.
+    */
+   public void addOverdueGames(Map<String, Integer> deltas) {
+      for (Session s : this._active.values()) {
+         Integer delta = deltas.get(s.getLogin());
+         if (delta != null)
+            update(s, c -> c.withNumOverdueGames(c.getNumOverdueGames() + delta));
+      }//end for
+   }//end addOverdueGames
+
+   /**
+    * Sets the overdue counts of the open sessions of the given logins.
+    */
+   public void setOverdueGames(Map<String, Integer> counts) {
+      for (Session s : this._active.values()) {
+         Integer count = counts.get(s.getLogin());
+         if (count != null)
+            update(s, c -> c.withNumOverdueGames(count));
+      }//end for
+   }//end setOverdueGames
+
+   /**
+    * @return the number of open sessions
+    */
+   public int activeCount() {
+      return this._active.size();
+   }
+
+   public String stats() {
+      return "sessions active=" + activeCount() + " opened=" + (this._nextID.get() - 1);
+   }
+
+   /*
+    * Applies a change to the registered version of a session, so changes
+    * made by different threads do not overwrite each other.
+    */
+   private Session update(Session session, UnaryOperator<Session> change) {
+      Session updated = this._active.computeIfPresent(session.getId(), (id, current) -> change.apply(current));
+      return updated != null ? updated : change.apply(session);
+   }//end update
+
+}//end SessionManager
@@ -0,0 +1,185 @@
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least-recently-used cache of prepared statements owned by a
+ * single physical connection.  Statements are keyed by their SQL text and
+ * are switched to server-side prepare once they have been used often
+ * enough to be considered hot.  Only SELECT, INSERT, UPDATE and DELETE
+ * text is switched: the bundled pg73jdbc3 driver wraps any statement in
+ * PREPARE, and the server refuses that for DECLARE, FETCH, SET and the
+ * like.
+ *
+ * A StatementCache is not thread safe; it must only be used by whoever
+ * currently holds its connection.
+ */
+public class StatementCache {
+
+   public static final int DEFAULT_CAPACITY = 64;
+   public static final int DEFAULT_SERVER_PREPARE_THRESHOLD = 3;
+
+   // one cached statement and the number of times it was handed out
+   private static class Entry {
+      final PreparedStatement stmt;
+      int uses = 0;
+      boolean serverPrepared = false;
+
+      Entry(PreparedStatement stmt) {
+         this.stmt = stmt;
+      }
+   }//end Entry
+
+   private final Connection _connection;
+   private final int _serverPrepareThreshold;
+   private final LinkedHashMap<String, Entry> _entries;
+
+   private long _hits = 0;
+   private long _misses = 0;
+
+   public StatementCache(Connection connection) {
+      this(connection, DEFAULT_CAPACITY, DEFAULT_SERVER_PREPARE_THRESHOLD);
+   }//end StatementCache
+
+   /**
+    * @param connection the connection the statements are prepared on
+    * @param capacity the maximum number of statements kept open
+    * @param serverPrepareThreshold uses after which a statement is
+    *        prepared on the server, or 0 to never do so
+    */
+   public StatementCache(Connection connection, final int capacity, int serverPrepareThreshold) {
+      this._connection = connection;
+      this._serverPrepareThreshold = serverPrepareThreshold;
+      this._entries = new LinkedHashMap<String, Entry>(capacity, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= capacity)
+               return false;
+            closeQuietly(eldest.getValue().stmt);
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for the given query shape, preparing it
+    * on first use.
+    *
+    * @param shape the query shape to prepare
+    * @return a prepared statement with cleared parameters
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(QueryShape shape) throws SQLException {
+      return prepare(shape.sql());
+   }//end prepare
+
+   /**
+    * Returns the cached statement for the given SQL text, preparing it on
+    * first use.
+    *
+    * @param sql the parameterized SQL text
+    * @return a prepared statement with cleared parameters
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      Entry entry = this._entries.get(sql);
+      if (entry == null) {
+         ++this._misses;
+         entry = new Entry(this._connection.prepareStatement(sql));
+         this._entries.put(sql, entry);
+      } else {
+         ++this._hits;
+         entry.stmt.clearParameters();
+      }//end if
+
+      ++entry.uses;
+      if (!entry.serverPrepared && this._serverPrepareThreshold > 0
+            && entry.uses >= this._serverPrepareThreshold && preparable(sql)) {
+         useServerPrepare(entry.stmt);
+         entry.serverPrepared = true;
+      }//end if
+      return entry.stmt;
+   }//end prepare
+
+   /**
+    * Drops a statement from the cache, e.g. after it failed in a way that
+    * leaves it unusable.
+    */
+   public void invalidate(String sql) {
+      Entry entry = this._entries.remove(sql);
+      if (entry != null)
+         closeQuietly(entry.stmt);
+   }//end invalidate
+
+   public int size() {
+      return this._entries.size();
+   }
+
+   public long getHits() {
+      return this._hits;
+   }
+
+   public long getMisses() {
+      return this._misses;
+   }
+
+   /**
+    * Closes every cached statement.  The connection itself is left open.
+    */
+   public void close() {
+      Iterator<Entry> it = this._entries.values().iterator();
+      while (it.hasNext()) {
+         closeQuietly(it.next().stmt);
+         it.remove();
+      }//end while
+   }//end close
+
+   /*
+    * @return whether the server accepts the SQL text as the body of a
+    *         PREPARE
+    */
+   static boolean preparable(String sql) {
+      int start = 0;
+      while (start < sql.length() && Character.isWhitespace(sql.charAt(start)))
+         ++start;
+      int end = start;
+      while (end < sql.length() && Character.isLetter(sql.charAt(end)))
+         ++end;
+      String verb = sql.substring(start, end);
+      return verb.equalsIgnoreCase("SELECT") || verb.equalsIgnoreCase("INSERT")
+         || verb.equalsIgnoreCase("UPDATE") || verb.equalsIgnoreCase("DELETE");
+   }//end preparable
+
+   /*
+    * Asks the PostgreSQL driver to keep a named server-side statement.
+    * Newer drivers expose setPrepareThreshold, the bundled 7.3 driver
+    * exposes setUseServerPrepare; other drivers are left alone.
+    */
+   private static void useServerPrepare(PreparedStatement stmt) {
+      try {
+         Method m = stmt.getClass().getMethod("setPrepareThreshold", int.class);
+         m.invoke(stmt, 1);
+         return;
+      } catch (Exception e) {
+         // not available, try the older API.
+      }//end try
+      try {
+         Method m = stmt.getClass().getMethod("setUseServerPrepare", boolean.class);
+         m.invoke(stmt, Boolean.TRUE);
+      } catch (Exception e) {
+         // ignored, the statement still works client side.
+      }//end try
+   }//end useServerPrepare
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try {
+         stmt.close();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
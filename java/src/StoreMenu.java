@@ -0,0 +1,895 @@
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The store's text menus, run for one terminal: the console in the
+ * single-user application, or one client connection in GameRentalServer.
+ *
+ * Every terminal has its own input, output and session, and shares the
+ * GameRental instance (connection pool, caches, metrics) with all others.
+ * Reading past the end of the input, or a read timing out, ends the
+ * terminal.
+ */
+public class StoreMenu {
+
+   private final GameRental _esql;
+   private final BufferedReader _in;
+   private final PrintStream _out;
+   private final PrintStream _err;
+
+   // the session of the logged-in user, null between logins
+   private Session _session = null;
+
+   // set once reading failed; every later read fails the same way
+   private IOException _failed = null;
+
+   public StoreMenu(GameRental esql, InputStream in, PrintStream out, PrintStream err) {
+      this._esql = esql;
+      this._in = new BufferedReader(new InputStreamReader(in));
+      this._out = out;
+      this._err = err;
+   }//end StoreMenu
+
+   /**
+    * Runs the main menu until the user exits or the input ends.  A session
+    * still open at that point is logged out.
+    */
+   public void run() throws IOException {
+      Greeting();
+      try {
+         boolean keepon = true;
+         while(keepon) {
+            this._out.println("MAIN MENU");
+            this._out.println("---------");
+            this._out.println("1. Create user");
+            this._out.println("2. Log in");
+            this._out.println("9. < EXIT");
+            switch (readChoice()){
+               case 1: CreateUser(); break;
+               case 2: this._session = LogIn(); break;
+               case 9: keepon = false; break;
+               default : this._out.println("Unrecognized choice!"); break;
+            }//end switch
+            if (this._session != null)
+               userMenu();
+         }//end while
+      } finally {
+         logOut();
+         this._out.flush();
+      }//end try
+   }//end run
+
+   /*
+    * The menu of a logged-in user, left on log out.
+    */
+   private void userMenu() throws IOException {
+      boolean usermenu = true;
+      while(usermenu) {
+        // picks up changes made elsewhere, e.g. by the overdue tracker
+        Session session = this._session = this._esql.getSessions().current(this._session);
+        if (!this._esql.getSessions().isOpen(session)) {
+          // a manager renamed this login
+          this._out.println("Your session was closed, please log in again");
+          this._session = null;
+          return;
+        }
+        this._out.println("MAIN MENU");
+        this._out.println("---------");
+        this._out.println("1. View Profile");
+        this._out.println("2. Update Profile");
+        this._out.println("3. View Catalog");
+        this._out.println("4. Place Rental Order");
+        this._out.println("5. View Full Rental Order History");
+        this._out.println("6. View Past 5 Rental Orders");
+        this._out.println("7. View Rental Order Information");
+        this._out.println("8. View Tracking Information");
+        this._out.println("13. View Recommendations");
+
+        //the following functionalities basically used by employees & managers
+        this._out.println("9. Update Tracking Information");
+        this._out.println("16. Return Rental Order");
+
+        //the following functionalities basically used by managers
+        this._out.println("10. Update Catalog");
+        this._out.println("11. Update User");
+        this._out.println("12. View Metrics");
+        this._out.println("14. Favorite Games Report");
+        this._out.println("15. Reports");
+
+        this._out.println(".........................");
+        this._out.println("20. Log out");
+        switch (readChoice()){
+           case 1: viewProfile(session); break;
+           case 2: this._session = updateProfile(session); break;
+           case 3: viewCatalog(); break;
+           case 4: placeOrder(session); break;
+           case 5: viewAllOrders(session); break;
+           case 6: viewRecentOrders(session); break;
+           case 7: viewOrderInfo(session); break;
+           case 8: viewTrackingInfo(); break;
+           case 9: updateTrackingInfo(session); break;
+           case 10: updateCatalog(session); break;
+           case 11: updateUser(session); break;
+           case 12: viewMetrics(session); break;
+           case 13: viewRecommendations(session); break;
+           case 14: favoritesReport(session); break;
+           case 15: reports(session); break;
+           case 16: returnOrder(session); break;
+           case 20: logOut(); usermenu = false; break;
+           default : this._out.println("Unrecognized choice!"); break;
+        }
+      }
+   }//end userMenu
+
+   /**
+    * @return the session of the logged-in user, or null
+    */
+   public Session getSession() {
+      return this._session;
+   }
+
+   private void logOut() {
+      if (this._session != null) {
+         this._esql.getSessions().logOut(this._session);
+         this._session = null;
+      }//end if
+   }//end logOut
+
+   /*
+    * Reads one line of input, flushing any pending prompt first.
+    * @throws EOFException when the input has ended
+    */
+   private String readLine() throws IOException {
+      if (this._failed != null)
+         throw this._failed;
+      this._out.flush();
+      try {
+         String line = this._in.readLine();
+         if (line == null)
+            throw new EOFException("end of input");
+         return line;
+      } catch (IOException e) {
+         // sub-menus swallow errors; make sure the next read ends the terminal
+         this._failed = e;
+         throw e;
+      }//end try
+   }//end readLine
+
+   public void Greeting(){
+      this._out.println(
+         "\n\n*******************************************************\n" +
+         "              User Interface      	               \n" +
+         "*******************************************************\n");
+   }//end Greeting
+
+   /*
+    * Reads the users choice given from the keyboard
+    * @int
+    **/
+   public int readChoice() throws IOException {
+      int input;
+      // returns only if a correct value is given.
+      do {
+         this._out.print("Please make your choice: ");
+         try { // read the integer, parse it and break.
+            input = Integer.parseInt(readLine());
+            break;
+         }catch (NumberFormatException e) {
+            this._out.println("Your input is invalid!");
+            continue;
+         }//end try
+      }while (true);
+      return input;
+   }//end readChoice
+
+   /*
+    * Creates a new user
+    **/
+
+  //new user registration
+  public void CreateUser(){
+   try{
+       this._out.print("\tEnter login: ");
+       String login = readLine();
+
+       this._out.print("\tEnter password: ");
+       String password = readLine();
+
+       this._out.print("\tEnter role: ");
+       String role = readLine();
+
+       this._out.print("\tEnter phone number: ");
+       String phoneNumber = readLine();
+
+       this._esql.getSessions().createUser(login, password, role, phoneNumber);
+       // this._out.println ("total row(s): " + rowCount); //debug statement
+    }catch(Exception e){
+       this._out.println ("error in insert");
+       this._err.println (e.getMessage());
+    }
+   }//end CreateUser
+
+
+   /*
+    * Check log in credentials for an existing user
+    * @return User login or null is the user does not exist
+    **/
+   //user login/logout
+ /**
+ * Check log in credentials for an existing user
+ * @return the new session or null if the user does not exist
+ **/
+public Session LogIn() {
+    try {
+        this._out.print("\tWhat is your login?: ");
+        String userLogin = readLine();
+
+        this._out.print("\tWhat is your password?: ");
+        String userPassword = readLine();
+
+        Session session = this._esql.getSessions().logIn(userLogin, userPassword);
+
+        if (session != null) {
+            this._out.println("Logged in as " + session.getRole());
+            return session;
+        } else {
+            this._out.println("Invalid login or password!");
+        }
+    } catch (Exception e) {
+        this._err.println(e.getMessage());
+    }
+    return null;
+}
+
+   //browse catalog games
+public void viewCatalog() {
+    try {
+        int userInput = 0;
+
+        while (userInput != 4) {
+            this._out.print("\tChoose an option below:\n");
+            this._out.print("\t1. Filter by genre\n");
+            this._out.print("\t2. Filter by price\n");
+            this._out.print("\t3. Search by name or description\n");
+            this._out.print("\t4. Exit\n");
+
+            userInput = Integer.parseInt(readLine());
+
+            // Sort by genre
+            if (userInput == 1) {
+                this._out.print("\tEnter the genre you want to see: ");
+                String genre = readLine();
+
+                GameRental.printEntries(this._out, this._esql.measured(this._esql.getMetrics().operation("viewCatalog"), List::size,
+                   () -> this._esql.getCatalog().byGenre(genre)));
+            }
+            // Sort by price
+            else if (userInput == 2) {
+                this._out.print("\tEnter the maximum price you want to see: ");
+                double price = Double.parseDouble(readLine());
+
+                this._out.print("\tDo you want to sort by ascending (1) or descending (2) price?: ");
+                int AscDescInput = Integer.parseInt(readLine());
+
+                if (AscDescInput == 1 || AscDescInput == 2) {
+                    boolean ascending = AscDescInput == 1;
+                    GameRental.printEntries(this._out, this._esql.measured(this._esql.getMetrics().operation("viewCatalog"), List::size,
+                       () -> this._esql.getCatalog().cheaperThan(price, ascending)));
+                }
+            }
+            // Search names and descriptions, e.g. "zelda" or "wii nintendo"
+            else if (userInput == 3) {
+                this._out.print("\tEnter the words to search for: ");
+                String query = readLine();
+
+                GameRental.printEntries(this._out, this._esql.measured(this._esql.getMetrics().operation("searchCatalog"), List::size,
+                   () -> this._esql.getCatalog().search(query, CatalogSearch.DEFAULT_LIMIT)));
+            }
+        }
+    } catch (Exception e) {
+        this._err.println(e.getMessage());
+    }
+}
+
+   //profile (any user can view)
+   public void viewProfile(Session session) {
+      try{        
+        int userInput = 0;
+
+        while (userInput != 4) {
+          this._out.print("\tChoose an option below:");
+          this._out.print("\t1. View Favorite Games");
+          this._out.print("\t2. View Num Overdue Games");
+          this._out.print("\t3. View Phone Number");
+          this._out.print("\t4. Exit");
+
+          userInput = Integer.parseInt(readLine());
+
+          if (userInput == 1) {
+            this._out.println("\tMy Favorite Games: ");
+            GameRental.printEntries(this._out, entries(this._esql.getFavorites().of(session.getLogin())));
+          }
+          else if (userInput == 2) {
+            this._out.print("\tMy Num Overdue Games: ");
+            this._out.print(session.getNumOverdueGames());
+          }
+          else if (userInput == 3) {
+            this._out.print("\tMy Phone Number: ");
+            this._out.print(session.getPhoneNum());
+          }
+        }
+     }catch(Exception e){
+         this._err.println (e.getMessage());
+     }
+   }
+
+   //profile (only things customer can update)
+   public Session updateProfile(Session session) {
+      try{
+        int userInput = 0;
+
+        while (userInput != 4) {
+          this._out.print("\tChoose an option below:");
+          this._out.print("\t1. Update Favorite Games");
+          this._out.print("\t2. Change Password");
+          this._out.print("\t3. Change Phone Number");
+          this._out.print("\t4. Exit");
+
+          userInput = Integer.parseInt(readLine());
+
+          if (userInput == 1) {
+            this._out.print("\tDo you want to add (1) or remove (2) a favorite game?: ");
+            int addRemove = Integer.parseInt(readLine());
+            this._out.print("\tEnter the game ID or the exact game name: ");
+            String gameID = findGameID(readLine());
+
+            if (gameID == null)
+              this._out.println("\tNo such game.");
+            else if (addRemove == 1 && !this._esql.getFavorites().add(session.getLogin(), gameID))
+              this._out.println("\tThat game already is a favorite.");
+            else if (addRemove == 2 && !this._esql.getFavorites().remove(session.getLogin(), gameID))
+              this._out.println("\tThat game is not a favorite.");
+          }
+          else if (userInput == 2) {
+            this._out.print("\tChange Password! What do you want your new password to be?: ");
+            String newPassword = readLine();
+
+            this._esql.getSessions().updatePassword(session, newPassword);
+          }
+          else if (userInput == 3) {
+            this._out.print("\tChange Phone Number! What do you want your new phone number to be?: ");
+            String newPhoneNumber = readLine();
+
+            session = this._esql.getSessions().updatePhoneNum(session, newPhoneNumber);
+          }
+       }
+     }catch(Exception e){
+         this._err.println (e.getMessage());
+     }
+     return session;
+   }
+
+   //manager (user info only manager can update)
+   public void updateUser(Session session) {
+      try{ 
+        //manager capabilities
+        if (session.isManager()) {
+          this._out.print("\tWhich user do you want to change (enter login)?: ");
+          String changeUser = readLine();
+
+          int userInput = 0;
+
+          // stops once this manager renamed or demoted themselves
+          while (userInput != 4 && this._esql.getSessions().current(session).isManager()
+                 && this._esql.getSessions().isOpen(session)) {
+            this._out.print("\tChoose an option below:");
+            this._out.print("\t1. Edit User Login");
+            this._out.print("\t2. Edit User Role");
+            this._out.print("\t3. Edit User Num Overdue Games");
+            this._out.print("\t4. Exit");
+
+            userInput = Integer.parseInt(readLine());
+
+            if (userInput == 1) {
+              this._out.print("\tWhat would you like the new login for user " + changeUser + " to be?: ");
+              String newLogin = readLine();
+
+              if (this._esql.executeUpdate(QueryShape.UPDATE_USER_LOGIN, newLogin, changeUser) > 0) {
+                journal(Journal.Event.USER_LOGIN, changeUser, newLogin, session);
+                this._esql.getFavorites().renameUser(changeUser, newLogin);
+                this._esql.getSessions().closeSessions(changeUser);
+              }
+            }
+            else if (userInput == 2) {
+              this._out.print("\tWhat do you want the new role for user " + changeUser + " to be?: ");
+              String newRole = readLine();
+
+              if (this._esql.executeUpdate(QueryShape.UPDATE_USER_ROLE, newRole, changeUser) > 0) {
+                journal(Journal.Event.USER_ROLE, changeUser, newRole, session);
+                this._esql.getSessions().setRole(changeUser, newRole);
+              }
+            }
+            else if (userInput == 3) {
+               this._out.print("\tChange number of overdue games to: ");
+               int newGames = Integer.parseInt(readLine());
+
+               if (this._esql.executeUpdate(QueryShape.UPDATE_USER_OVERDUE, newGames, changeUser) > 0) {
+                 journal(Journal.Event.USER_OVERDUE, changeUser, Integer.toString(newGames), session);
+                 this._esql.getSessions().setOverdueGames(Collections.singletonMap(changeUser, newGames));
+               }
+            }
+          }
+        }
+     }catch(Exception e){
+         this._err.println (e.getMessage());
+     }
+   }
+
+   //place rental order
+   public void placeOrder(Session session) {
+     try{
+       RentalCart cart = new RentalCart();
+       int userInput = 0;
+
+       while (userInput != 4) {
+         this._out.print("\tChoose an option below:");
+         this._out.print("\t1. Add A Game To Cart");
+         this._out.print("\t2. View Cart");
+         this._out.print("\t3. Place Order");
+         this._out.print("\t4. Exit");
+
+         userInput = Integer.parseInt(readLine());
+
+         if (userInput == 1) {
+           this._out.print("\tInput the game ID of the game you want to order: ");
+           String gameID = readLine();
+
+           this._out.print("\tInput how many units of " + gameID + " you want: ");
+           int numUnits = Integer.parseInt(readLine());
+
+           cart.add(gameID, numUnits);
+         }
+         else if (userInput == 2) {
+           this._out.println("\tCart: " + cart);
+         }
+         else if (userInput == 3) {
+           if (cart.isEmpty()) {
+             this._out.println("\tYour cart is empty!");
+             continue;
+           }
+           try {
+             RentalOrderService.Receipt receipt = this._esql.getOrders().placeOrder(session.getLogin(), cart);
+             this._out.println("\tTotal Price of Rental Order: " + receipt.totalPrice);
+             this._out.println("\tRental Order ID: " + receipt.orderID + "  Tracking ID: " + receipt.trackingID);
+             cart.clear();
+           } catch (SQLException e) {
+             this._err.println(e.getMessage());
+           }
+         }
+       }
+     }catch(Exception e){
+         this._err.println(e.getMessage());
+     }
+   }
+
+  //update game information (manager only)
+  public void updateCatalog(Session session) {
+    try{
+      if (session.isManager()) {
+        int userInput = 0;
+
+        while (userInput != 6) {
+          this._out.print("\tWhat is the game ID of the game you want to update?: ");
+          String changedGameID = readLine();
+
+          this._out.print("\tChoose an option below:");
+          this._out.print("\t1. Update Game Name");
+          this._out.print("\t2. Update Game Genre");
+          this._out.print("\t3. Update Game Price");
+          this._out.print("\t4. Update Game Description");
+          this._out.print("\t5. Update Copies Owned");
+          this._out.print("\t6. Exit");
+
+          userInput = Integer.parseInt(readLine());
+
+          if (userInput == 1) {
+            this._out.print("\tWhat would you like to change the game name to?: ");
+            String newGameName = readLine();
+
+            if (this._esql.executeUpdate(QueryShape.UPDATE_GAME_NAME, newGameName, changedGameID) > 0)
+              journal(Journal.Event.CATALOG_NAME, changedGameID, newGameName, session);
+            this._esql.getCatalog().refresh(changedGameID);
+          }
+          else if (userInput == 2) {
+            this._out.print("\tWhat would you like to change the genre to?: ");
+            String newGenre = readLine();
+
+            if (this._esql.executeUpdate(QueryShape.UPDATE_GAME_GENRE, newGenre, changedGameID) > 0)
+              journal(Journal.Event.CATALOG_GENRE, changedGameID, newGenre, session);
+            this._esql.getCatalog().refresh(changedGameID);
+          }
+          else if (userInput == 3) {
+            this._out.print("\tWhat would you like to change the price to?: ");
+            double newPrice = Double.parseDouble(readLine());
+
+            if (this._esql.executeUpdate(QueryShape.UPDATE_GAME_PRICE, newPrice, changedGameID) > 0)
+              journal(Journal.Event.CATALOG_PRICE, changedGameID, Double.toString(newPrice), session);
+            this._esql.getCatalog().refresh(changedGameID);
+          }
+          else if (userInput == 4) {
+            this._out.print("\tWhat would you like to change the description to?: ");
+            String newDescription = readLine();
+
+            if (this._esql.executeUpdate(QueryShape.UPDATE_GAME_DESCRIPTION, newDescription, changedGameID) > 0)
+              journal(Journal.Event.CATALOG_DESCRIPTION, changedGameID, newDescription, session);
+            this._esql.getCatalog().refresh(changedGameID);
+          }
+          else if (userInput == 5) {
+            this._out.print("\tHow many copies does the store own?: ");
+            int owned = Integer.parseInt(readLine());
+
+            int available = this._esql.getInventory().setUnitsOwned(changedGameID, owned);
+            journal(Journal.Event.CATALOG_COPIES, changedGameID, Integer.toString(owned), session);
+            this._out.println("\t" + available + " copies available");
+          }
+         }
+      } 
+     }catch(Exception e){
+         this._err.println (e.getMessage());
+     }  
+  }
+
+  //a rental came back; its copies can be rented again (employees & managers)
+  public void returnOrder(Session session) {
+     if (!session.isStaff()) {
+        this._out.println("Only employees and managers can return rental orders.");
+        return;
+     }//end if
+     try {
+        this._out.print("\tWhat is the rental order ID of the returned order?: ");
+        String orderID = readLine().trim();
+
+        int copies = this._esql.getInventory().returnOrder(orderID);
+        this._esql.getJournal().append(Journal.Event.ORDER_RETURNED, orderID, null, session.getLogin(), copies);
+        this._out.println("\t" + copies + " copies back in stock");
+     } catch (Exception e) {
+        this._err.println(e.getMessage());
+     }
+  }//end returnOrder
+
+  //"customers also rented" suggestions (any user)
+  public void viewRecommendations(Session session) {
+     try {
+        int userInput = 0;
+
+        while (userInput != 3) {
+           this._out.print("\tChoose an option below:\n");
+           this._out.print("\t1. Recommended for me\n");
+           this._out.print("\t2. Customers who rented a game also rented\n");
+           this._out.print("\t3. Exit\n");
+
+           userInput = Integer.parseInt(readLine());
+
+           List<String> gameIDs = null;
+           if (userInput == 1) {
+              gameIDs = this._esql.measured(this._esql.getMetrics().operation("recommend"), List::size,
+                 () -> this._esql.getRecommender().forUser(session.getLogin(), Recommender.DEFAULT_LIMIT));
+           }
+           else if (userInput == 2) {
+              this._out.print("\tEnter the game ID: ");
+              String gameID = readLine();
+              gameIDs = this._esql.measured(this._esql.getMetrics().operation("recommend"), List::size,
+                 () -> this._esql.getRecommender().alsoRented(gameID, Recommender.DEFAULT_LIMIT));
+           }
+
+           if (gameIDs != null) {
+              if (GameRental.printEntries(this._out, entries(gameIDs)) == 0)
+                 this._out.println("\tNo suggestions yet.");
+           }
+        }
+     } catch (Exception e) {
+        this._err.println(e.getMessage());
+     }
+  }//end viewRecommendations
+
+  //who likes which games, for campaigns (managers only)
+  public void favoritesReport(Session session) {
+     if (!session.isManager()) {
+        this._out.println("Only managers can view the favorite games report.");
+        return;
+     }//end if
+     try {
+        int userInput = 0;
+
+        while (userInput != 3) {
+           this._out.print("\tChoose an option below:\n");
+           this._out.print("\t1. Most favorited games\n");
+           this._out.print("\t2. Users who like given games\n");
+           this._out.print("\t3. Exit\n");
+
+           userInput = Integer.parseInt(readLine());
+
+           if (userInput == 1) {
+              for (Map.Entry<String, Integer> e : this._esql.getFavorites().mostFavorited(20)) {
+                 CatalogEntry game = this._esql.getCatalog().get(e.getKey());
+                 this._out.println("\t" + e.getValue() + "\t" + e.getKey() + "\t" + (game == null ? "" : game.gameName));
+              }//end for
+           }
+           else if (userInput == 2) {
+              this._out.print("\tEnter game IDs separated by commas: ");
+              List<String> gameIDs = new ArrayList<String>();
+              for (String id : readLine().split(","))
+                 if (!id.trim().isEmpty())
+                    gameIDs.add(id.trim());
+              this._out.print("\tUsers who like all (1) or any (2) of them?: ");
+              boolean all = Integer.parseInt(readLine()) == 1;
+
+              List<String> fans = this._esql.measured(this._esql.getMetrics().operation("favoriteFans"), List::size,
+                 () -> this._esql.getFavorites().fans(gameIDs, all));
+              this._out.println("\t" + fans.size() + " users");
+              for (String login : fans)
+                 this._out.println("\t" + login);
+           }
+        }
+     } catch (Exception e) {
+        this._err.println(e.getMessage());
+     }
+  }//end favoritesReport
+
+  //revenue and popularity reports over the analytics snapshot (managers only)
+  public void reports(Session session) {
+     if (!session.isManager()) {
+        this._out.println("Only managers can view reports.");
+        return;
+     }//end if
+     Analytics analytics = this._esql.getAnalytics();
+     int userInput = 0;
+
+     while (userInput != 6) {
+        try {
+           this._out.print("\tChoose an option below:\n");
+           this._out.print("\t1. Revenue per genre per month\n");
+           this._out.print("\t2. Top " + Analytics.DEFAULT_TOP + " games\n");
+           this._out.print("\t3. Top " + Analytics.DEFAULT_TOP + " customers\n");
+           this._out.print("\t4. Refresh snapshot\n");
+           this._out.print("\t5. Merge new orders\n");
+           this._out.print("\t6. Exit\n");
+
+           userInput = Integer.parseInt(readLine());
+
+           Analytics.Report report = null;
+           if (userInput == 1) {
+              this._out.print("\tYear (blank for all years): ");
+              String year = readLine().trim();
+              int y = year.isEmpty() ? 0 : Integer.parseInt(year);
+              report = this._esql.measured(this._esql.getMetrics().operation("revenueReport"), r -> r.rows.size(),
+                 () -> analytics.revenueByGenreAndMonth(y));
+           }
+           else if (userInput == 2 || userInput == 3) {
+              LocalDate start = Analytics.quarterStart(LocalDate.now());
+              this._out.print("\tFrom date yyyy-mm-dd (blank for " + start + "): ");
+              String input = readLine().trim();
+              LocalDate from = input.isEmpty() ? start : LocalDate.parse(input);
+              this._out.print("\tTo date yyyy-mm-dd, exclusive (blank for " + from.plusMonths(3) + "): ");
+              input = readLine().trim();
+              LocalDate to = input.isEmpty() ? from.plusMonths(3) : LocalDate.parse(input);
+              if (userInput == 2)
+                 report = this._esql.measured(this._esql.getMetrics().operation("topGamesReport"), r -> r.rows.size(),
+                    () -> analytics.topGames(from, to, Analytics.DEFAULT_TOP));
+              else
+                 report = this._esql.measured(this._esql.getMetrics().operation("topCustomersReport"), r -> r.rows.size(),
+                    () -> analytics.topCustomers(from, to, Analytics.DEFAULT_TOP));
+           }
+           else if (userInput == 4) {
+              this._out.println("\t" + analytics.refresh() + " order lines in the new snapshot");
+           }
+           else if (userInput == 5) {
+              this._out.println("\t" + analytics.merge() + " order lines added");
+           }
+
+           if (report != null)
+              GameRental.printRows(this._out, report.columns, report.rows);
+        } catch (Exception e) {
+           this._err.println(e.getMessage());
+        }
+     }
+  }//end reports
+
+  /*
+   * Records a change made from the menus in the journal.
+   */
+  private void journal(Journal.Event event, String key, String value, Session session) {
+     this._esql.getJournal().append(event, key, value, session.getLogin(), 0);
+  }
+
+  /*
+   * The catalog entries of the given game IDs that still exist.
+   */
+  private List<CatalogEntry> entries(List<String> gameIDs) throws SQLException {
+     List<CatalogEntry> games = new ArrayList<CatalogEntry>();
+     for (String gameID : gameIDs) {
+        CatalogEntry e = this._esql.getCatalog().get(gameID);
+        if (e != null)
+           games.add(e);
+     }//end for
+     return games;
+  }//end entries
+
+  /*
+   * Resolves what a user typed to a game ID: an existing ID, or a game
+   * name matched without regard to case.
+   * @return the game ID, or null if nothing matches
+   */
+  private String findGameID(String text) throws SQLException {
+     String input = text.trim();
+     if (this._esql.getCatalog().get(input) != null)
+        return input;
+     for (CatalogEntry e : this._esql.getCatalog().search(input, CatalogSearch.DEFAULT_LIMIT))
+        if (e.gameName.equalsIgnoreCase(input))
+           return e.gameID;
+     return null;
+  }//end findGameID
+
+  //latency and throughput of every operation (managers only)
+  public void viewMetrics(Session session) {
+     if (!session.isManager()) {
+        this._out.println("Only managers can view metrics.");
+        return;
+     }//end if
+     this._out.print(this._esql.getMetrics().snapshot());
+     this._out.println(this._esql.getPool().stats());
+     this._out.println(this._esql.getCatalog().stats());
+     this._out.println(this._esql.getSessions().stats());
+     this._out.println(this._esql.getOverdue().stats());
+     this._out.println(this._esql.getRecommender().stats());
+     this._out.println(this._esql.getFavorites().stats());
+     this._out.println(this._esql.getAnalytics().stats());
+     this._out.println(this._esql.getInventory().stats());
+     this._out.println(this._esql.getOrderPipeline().stats());
+     this._out.println(this._esql.getJournal().stats());
+     this._out.println(this._esql.getArchive().stats());
+  }//end viewMetrics
+
+  // see rental history
+  public void viewAllOrders(Session session) {
+      try {
+          String login = session.getLogin();
+          int pageSize = Integer.getInteger("gamerental.history.pageSize", OrderHistory.DEFAULT_PAGE_SIZE);
+          OrderHistory.Page page = this._esql.getHistory().firstPage(login, pageSize);
+          GameRental.printOrders(this._out, page);
+
+          while (page.hasMore) {
+            this._out.print("\t1. Next Page");
+            this._out.print("\t2. Exit\n");
+            if (readChoice() != 1)
+              break;
+            page = this._esql.getHistory().nextPage(page);
+            GameRental.printOrders(this._out, page);
+          }
+
+      } catch (Exception e) {
+          this._err.println(e.getMessage());
+      }
+  }
+
+
+  // see recent 5 orders
+  public void viewRecentOrders(Session session) {
+      try {
+          GameRental.printOrders(this._out, this._esql.getHistory().firstPage(session.getLogin(), 5));
+
+      } catch (Exception e) {
+          this._err.println(e.getMessage());
+      }
+  }
+
+  // lookup specific rental order
+  public void viewOrderInfo(Session session) {
+      try {
+          this._out.print("\tWhat is the rental order ID of the order you want to view?: ");
+          String orderID = readLine();
+
+          this._out.print("\tHere is the information for the corresponding rental order:\n");
+
+          if (this._esql.executeQueryAndPrintResult(this._out, QueryShape.ORDER_INFO, session.getLogin(), orderID) == 0) {
+            OrderArchive.Order archived = this._esql.getArchive().order(session.getLogin(), orderID);
+            if (archived != null)
+              GameRental.printRows(this._out, OrderArchive.INFO_COLUMNS,
+                  Collections.singletonList(archived.infoColumns()));
+          }
+
+      } catch (Exception e) {
+          this._err.println(e.getMessage());
+      }
+  }
+
+  // view tracking information
+  public void viewTrackingInfo() {
+      try {
+          this._out.print("\tWhat is the tracking ID you want to view?: ");
+          String trackingID = readLine();
+
+          this._out.print("\tHere is the information for the corresponding tracking info:\n");
+
+          if (this._esql.executeQueryAndPrintResult(this._out, QueryShape.TRACKING_INFO, trackingID) == 0) {
+            OrderArchive.Order archived = this._esql.getArchive().tracking(trackingID);
+            List<String[]> rows = new ArrayList<String[]>();
+            for (OrderArchive.Tracking t : archived == null ? new ArrayList<OrderArchive.Tracking>() : archived.tracking) {
+              if (t.trackingID.equals(trackingID))
+                rows.add(archived.trackingColumns(t));
+            }
+            if (!rows.isEmpty())
+              GameRental.printRows(this._out, OrderArchive.TRACKING_COLUMNS, rows);
+          }
+
+      } catch (Exception e) {
+          this._err.println(e.getMessage());
+      }
+  }
+
+    //update tracking info
+    public void updateTrackingInfo(Session session) {
+      try{
+       if (session.isStaff()) {
+         int userInput = 0;
+
+          while (userInput != 5) {
+            this._out.print("\tWhat is the tracking ID of the tracking info you'd like to update?: ");
+            String trackID = readLine();
+
+            this._out.print("\tChoose an option below:");
+            this._out.print("\t1. Update Status");
+            this._out.print("\t2. Update Current Location");
+            this._out.print("\t3. Update Courier Name");
+            this._out.print("\t4. Update Additional Comments");
+            this._out.print("\t5. Exit");
+
+            userInput = Integer.parseInt(readLine());
+
+            if (userInput == 1) {
+              this._out.print("\tWhat would you like to update the status to?: ");
+              String newStatus = readLine();
+
+              if (this._esql.executeUpdate(QueryShape.UPDATE_TRACKING_STATUS, newStatus, trackID) > 0)
+                journal(Journal.Event.TRACKING_STATUS, trackID, newStatus, session);
+            }
+            else if (userInput == 2) {
+              this._out.print("\tWhat would you like to update the current location to?: ");
+              String newLoc = readLine();
+
+              if (this._esql.executeUpdate(QueryShape.UPDATE_TRACKING_LOCATION, newLoc, trackID) > 0)
+                journal(Journal.Event.TRACKING_LOCATION, trackID, newLoc, session);
+            }
+            else if (userInput == 3) {
+              this._out.print("\tWhat would you like to update the courier name to?: ");
+              String cName = readLine();
+
+              if (this._esql.executeUpdate(QueryShape.UPDATE_TRACKING_COURIER, cName, trackID) > 0)
+                journal(Journal.Event.TRACKING_COURIER, trackID, cName, session);
+            }
+            else if (userInput == 4) {
+              this._out.print("\tWhat would you like to update the additional comments to?: ");
+              String addComments = readLine();
+
+              if (this._esql.executeUpdate(QueryShape.UPDATE_TRACKING_COMMENTS, addComments, trackID) > 0)
+                journal(Journal.Event.TRACKING_COMMENTS, trackID, addComments, session);
+            }
+          }
+       }
+      }catch(Exception e){
+         this._err.println (e.getMessage());
+      }
+    }
+
+
+}//end StoreMenu
@@ -0,0 +1,487 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies courier scan events to TrackingInfo in bulk.
+ *
+ * A feed is a CSV file, or a directory of them, with a header row naming
+ * some of the trackinginfo.csv columns: trackingID and lastUpdateDate
+ * (the event time) are required, rentalOrderID, status, currentLocation,
+ * courierName and additionalComments are optional.  An empty unquoted
+ * field leaves the stored value alone.
+ *
+ * Events are coalesced per trackingID before anything is written: each
+ * column takes its value from the newest event that set it, and keeps
+ * that event's time, so a package scanned twenty times costs one row
+ * write.  The coalesced rows are written chunkSize at a time, one
+ * transaction per chunk, with two multi-row, multi-column statements:
+ *
+ *  - every row updates its existing tracking row through UPDATE ... FROM
+ *    (VALUES ...), and
+ *  - the rows carrying everything an insert needs that found no row are
+ *    then inserted with INSERT ... ON CONFLICT (trackingID) DO NOTHING.
+ *
+ * A row older than the stored lastUpdateDate is not applied, and within
+ * a newer one each column is only written when the event that set it is
+ * not older than the stored row either: otherwise an early scan coalesced
+ * with a late one would overwrite a value stored in between.  The values
+ * that were written go to the Journal once their chunk commits, as
+ * changes by "feed" at the row's lastUpdateDate.
+ *
+ * Malformed events (missing ID, bad time, values too long for their
+ * column) are written to the quarantine file with the reason and
+ * skipped.  When a chunk fails, its rows are retried one by one and only
+ * the offending ones are quarantined.
+ */
+public class TrackingFeedLoader {
+
+   public static final int DEFAULT_CHUNK_SIZE = 500;
+
+   // coalesced rows held before they are written, bounding memory
+   public static final int DEFAULT_MAX_PENDING = 100000;
+
+   // feed columns, in TrackingInfo order, and their lengths in create_tables.sql
+   static final String[] COLUMNS = { "trackingid", "rentalorderid", "status", "currentlocation", "couriername",
+      "lastupdatedate", "additionalcomments" };
+   private static final int[] MAX_LENGTH = { 50, 50, 50, 60, 60, -1, -1 };
+   private static final int ID = 0, ORDER = 1, STATUS = 2, LOCATION = 3, COURIER = 4, TIME = 5, COMMENTS = 6;
+   // the columns an event may set, sent with the time of the event that set them
+   private static final int[] VALUE_COLUMNS = { ORDER, STATUS, LOCATION, COURIER, COMMENTS };
+   private static final String[] SQL_NAMES = { "trackingID", "rentalOrderID", "status", "currentLocation",
+      "courierName", "lastUpdateDate", "additionalComments" };
+
+   /**
+    * The latest known state of one tracking row.
+    */
+   static class Pending {
+      final String trackingID;
+      final String[] values = new String[COLUMNS.length];
+      // event time that set each value
+      final long[] setAt = new long[COLUMNS.length];
+      long lastUpdate = Long.MIN_VALUE;
+      int events = 0;
+
+      Pending(String trackingID) {
+         this.trackingID = trackingID;
+         Arrays.fill(this.setAt, Long.MIN_VALUE);
+      }//end Pending
+
+      void merge(String[] event, long time) {
+         for (int c = 0; c < COLUMNS.length; ++c) {
+            if (c == ID || c == TIME || event[c] == null)
+               continue;
+            if (time >= this.setAt[c]) {
+               this.values[c] = event[c];
+               this.setAt[c] = time;
+            }//end if
+         }//end for
+         this.lastUpdate = Math.max(this.lastUpdate, time);
+         ++this.events;
+      }//end merge
+
+      // an insert needs every NOT NULL column
+      boolean complete() {
+         return this.values[ORDER] != null && this.values[STATUS] != null
+            && this.values[LOCATION] != null && this.values[COURIER] != null;
+      }
+   }//end Pending
+
+   /**
+    * What one ingestion run did.
+    */
+   public static class Result {
+      public long events = 0;
+      public long quarantined = 0;
+      public long rows = 0;
+      public long applied = 0;
+      public long skipped = 0;
+      public long chunks = 0;
+      public long nanos = 0;
+      public final LatencyHistogram chunkLatency = new LatencyHistogram();
+
+      public double eventsPerSecond() {
+         return this.nanos == 0 ? 0 : this.events * 1e9 / this.nanos;
+      }
+
+      public String toString() {
+         return String.format("events=%d quarantined=%d rows=%d applied=%d skipped=%d chunks=%d"
+            + " in %.3fs (%.0f events/s) chunk p50=%.1fms p99=%.1fms max=%.1fms",
+            this.events, this.quarantined, this.rows, this.applied, this.skipped, this.chunks,
+            this.nanos / 1e9, eventsPerSecond(), this.chunkLatency.percentile(50) / 1e6,
+            this.chunkLatency.percentile(99) / 1e6, this.chunkLatency.max() / 1e6);
+      }
+   }//end Result
+
+   private final GameRental _esql;
+   private final File _quarantine;
+   private int _chunkSize = DEFAULT_CHUNK_SIZE;
+   private int _maxPending = DEFAULT_MAX_PENDING;
+   private PrintWriter _rejects = null;
+
+   /**
+    * @param quarantine the file malformed or rejected events are appended
+    *        to
+    */
+   public TrackingFeedLoader(GameRental esql, File quarantine) {
+      this._esql = esql;
+      this._quarantine = quarantine;
+   }//end TrackingFeedLoader
+
+   public void setChunkSize(int chunkSize) {
+      this._chunkSize = Math.max(1, chunkSize);
+   }
+
+   public void setMaxPending(int maxPending) {
+      this._maxPending = Math.max(1, maxPending);
+   }
+
+   /**
+    * Ingests a feed file, or every .csv file of a directory in name order.
+    */
+   public Result load(File feed) throws IOException, SQLException {
+      List<File> files = new ArrayList<File>();
+      if (feed.isDirectory()) {
+         File[] all = feed.listFiles((dir, name) -> name.endsWith(".csv"));
+         if (all != null) {
+            Arrays.sort(all);
+            files.addAll(Arrays.asList(all));
+         }//end if
+      } else {
+         files.add(feed);
+      }//end if
+
+      Result result = new Result();
+      long start = System.nanoTime();
+      LinkedHashMap<String, Pending> pending = new LinkedHashMap<String, Pending>();
+      try {
+         for (File f : files)
+            read(f, pending, result);
+         flush(pending, result);
+      } finally {
+         result.nanos = System.nanoTime() - start;
+         if (this._rejects != null) {
+            this._rejects.close();
+            this._rejects = null;
+         }//end if
+      }//end try
+      return result;
+   }//end load
+
+   private void read(File file, LinkedHashMap<String, Pending> pending, Result result)
+         throws IOException, SQLException {
+      try (CsvReader csv = new CsvReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+         String[] header = csv.next();
+         if (header == null)
+            return;
+         int[] columnOf = new int[header.length];
+         Set<Integer> seen = new HashSet<Integer>();
+         for (int i = 0; i < header.length; ++i) {
+            columnOf[i] = Arrays.asList(COLUMNS).indexOf(header[i] == null ? "" : header[i].trim().toLowerCase(Locale.ROOT));
+            if (columnOf[i] >= 0)
+               seen.add(columnOf[i]);
+         }//end for
+         if (!seen.contains(ID) || !seen.contains(TIME))
+            throw new IOException(file + ": the header must name trackingID and lastUpdateDate");
+
+         for (String[] record = csv.next(); record != null; record = csv.next()) {
+            ++result.events;
+            String[] event = new String[COLUMNS.length];
+            String problem = null;
+            if (record.length != header.length)
+               problem = "expected " + header.length + " fields, found " + record.length;
+            for (int i = 0; problem == null && i < record.length; ++i)
+               if (columnOf[i] >= 0)
+                  event[columnOf[i]] = record[i];
+            long time = 0;
+            if (problem == null)
+               problem = validate(event);
+            if (problem == null) {
+               try {
+                  time = Timestamp.valueOf(event[TIME].trim()).getTime();
+               } catch (IllegalArgumentException e) {
+                  problem = "bad lastUpdateDate " + event[TIME];
+               }//end try
+            }//end if
+            if (problem != null) {
+               quarantine(file.getName() + ":" + (csv.getLine() - 1), record, problem, result);
+               continue;
+            }//end if
+            pending.computeIfAbsent(event[ID], Pending::new).merge(event, time);
+            if (pending.size() >= this._maxPending)
+               flush(pending, result);
+         }//end for
+      }//end try
+   }//end read
+
+   private static String validate(String[] event) {
+      if (event[ID] == null || event[ID].isEmpty())
+         return "missing trackingID";
+      if (event[TIME] == null || event[TIME].isEmpty())
+         return "missing lastUpdateDate";
+      for (int c = 0; c < COLUMNS.length; ++c)
+         if (MAX_LENGTH[c] > 0 && event[c] != null && event[c].length() > MAX_LENGTH[c])
+            return COLUMNS[c] + " longer than " + MAX_LENGTH[c];
+      for (int c : new int[] { STATUS, LOCATION, COURIER })
+         if (event[c] != null && event[c].isEmpty())
+            return COLUMNS[c] + " is empty";
+      return null;
+   }//end validate
+
+   /*
+    * Writes all coalesced rows, chunk by chunk.
+    */
+   private void flush(LinkedHashMap<String, Pending> pending, Result result) throws IOException, SQLException {
+      List<Pending> chunk = new ArrayList<Pending>(this._chunkSize);
+      for (Pending p : pending.values()) {
+         chunk.add(p);
+         if (chunk.size() == this._chunkSize) {
+            writeChunk(chunk, result);
+            chunk.clear();
+         }//end if
+      }//end for
+      if (!chunk.isEmpty())
+         writeChunk(chunk, result);
+      result.rows += pending.size();
+      pending.clear();
+   }//end flush
+
+   private void writeChunk(List<Pending> chunk, Result result) throws IOException, SQLException {
+      long start = System.nanoTime();
+      try {
+         int n = apply(chunk);
+         result.applied += n;
+         result.skipped += chunk.size() - n;
+      } catch (SQLException e) {
+         // find the rows that broke the chunk; the others still go in
+         for (Pending p : chunk) {
+            try {
+               int n = apply(Arrays.asList(p));
+               result.applied += n;
+               result.skipped += 1 - n;
+            } catch (SQLException rowError) {
+               quarantine(p, rowError.getMessage(), result);
+            }//end try
+         }//end for
+      }//end try
+      ++result.chunks;
+      result.chunkLatency.record(System.nanoTime() - start);
+   }//end writeChunk
+
+   /*
+    * Writes rows in one transaction.
+    * @return the number of rows written; the rest were unknown or stale
+    */
+   private int apply(List<Pending> rows) throws SQLException {
+      // trackingID to the stored lastUpdateDate it replaced, null for an insert
+      final Map<String, Timestamp> applied = new HashMap<String, Timestamp>();
+      int written = this._esql.measured(this._esql.getMetrics().operation("ingestTracking"), n -> n,
+            () -> this._esql.inTransaction(conn -> {
+         applied.clear();
+         PreparedStatement stmt = conn.prepare(updateSql(rows.size()));
+         bindRows(stmt, rows, true);
+         try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next())
+               applied.put(rs.getString(1), rs.getTimestamp(2));
+         }//end try
+
+         List<Pending> inserts = new ArrayList<Pending>();
+         for (Pending p : rows)
+            if (p.complete() && !applied.containsKey(p.trackingID))
+               inserts.add(p);
+         if (!inserts.isEmpty()) {
+            stmt = conn.prepare(insertSql(inserts.size()));
+            bindRows(stmt, inserts, false);
+            try (ResultSet rs = stmt.executeQuery()) {
+               while (rs.next())
+                  applied.put(rs.getString(1), null);
+            }//end try
+         }//end if
+         return applied.size();
+      }));
+
+      Journal journal = this._esql.getJournal();
+      for (Pending p : rows) {
+         if (!applied.containsKey(p.trackingID))
+            continue;
+         Timestamp since = applied.get(p.trackingID);
+         journal(journal, p, since, STATUS, Journal.Event.TRACKING_STATUS);
+         journal(journal, p, since, LOCATION, Journal.Event.TRACKING_LOCATION);
+         journal(journal, p, since, COURIER, Journal.Event.TRACKING_COURIER);
+         journal(journal, p, since, COMMENTS, Journal.Event.TRACKING_COMMENTS);
+      }//end for
+      return written;
+   }//end apply
+
+   /*
+    * Journals a column the write set: every one of an insert, and those
+    * set no earlier than the stored row an update replaced.
+    */
+   private static void journal(Journal journal, Pending p, Timestamp since, int column, Journal.Event event) {
+      if (p.values[column] != null && (since == null || p.setAt[column] >= since.getTime()))
+         journal.append(event, p.trackingID, p.values[column], "feed", p.lastUpdate);
+   }
+
+   /*
+    * Binds the rows in TrackingInfo column order, followed for an update
+    * by the time each of VALUE_COLUMNS was set (NULL when it was not).
+    */
+   private static void bindRows(PreparedStatement stmt, List<Pending> rows, boolean times) throws SQLException {
+      int width = COLUMNS.length + (times ? VALUE_COLUMNS.length : 0);
+      Object[] params = new Object[rows.size() * width];
+      int i = 0;
+      for (Pending p : rows) {
+         for (int c = 0; c < COLUMNS.length; ++c)
+            params[i++] = c == ID ? p.trackingID : c == TIME ? new Timestamp(p.lastUpdate) : p.values[c];
+         if (times) {
+            for (int c : VALUE_COLUMNS)
+               params[i++] = p.values[c] == null ? null : new Timestamp(p.setAt[c]);
+         }//end if
+      }//end for
+      GameRental.bind(stmt, params);
+   }//end bindRows
+
+   // one row of placeholders; the casts type the NULLs inside VALUES
+   private static final String ROW = "(CAST(? AS varchar), CAST(? AS varchar), CAST(? AS varchar), CAST(? AS varchar), "
+      + "CAST(? AS varchar), CAST(? AS timestamp), CAST(? AS text)";
+   private static final String TIMES = ", CAST(? AS timestamp), CAST(? AS timestamp), CAST(? AS timestamp), "
+      + "CAST(? AS timestamp), CAST(? AS timestamp)";
+
+   static String insertSql(int rows) {
+      StringBuilder sb = new StringBuilder("INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, "
+         + "currentLocation, courierName, lastUpdateDate, additionalComments) VALUES ");
+      values(sb, rows, false);
+      return sb.append(" ON CONFLICT (trackingID) DO NOTHING RETURNING trackingID").toString();
+   }//end insertSql
+
+   /*
+    * Each column only takes the sent value when the event that set it is
+    * not older than the stored row; a NULL time keeps the stored value.
+    * O is the row as it was, returned so the journal knows which columns
+    * were written.
+    */
+   static String updateSql(int rows) {
+      StringBuilder sb = new StringBuilder("UPDATE TrackingInfo AS T SET ");
+      for (int c : VALUE_COLUMNS) {
+         String name = SQL_NAMES[c];
+         sb.append(name).append(" = CASE WHEN V.").append(name).append("At >= T.lastUpdateDate THEN V.")
+            .append(name).append(" ELSE T.").append(name).append(" END, ");
+      }//end for
+      sb.append("lastUpdateDate = V.lastUpdateDate FROM (VALUES ");
+      values(sb, rows, true);
+      sb.append(") AS V (").append(String.join(", ", SQL_NAMES));
+      for (int c : VALUE_COLUMNS)
+         sb.append(", ").append(SQL_NAMES[c]).append("At");
+      return sb.append(") JOIN TrackingInfo AS O ON O.trackingID = V.trackingID ")
+         .append("WHERE T.trackingID = V.trackingID AND T.lastUpdateDate <= V.lastUpdateDate ")
+         .append("RETURNING T.trackingID, O.lastUpdateDate").toString();
+   }//end updateSql
+
+   /*
+    * Appends one placeholder row per coalesced row.  Full chunks all
+    * share one statement text, so the statement cache keeps it prepared;
+    * only the last chunk of a flush gets a text of its own.
+    */
+   private static void values(StringBuilder sb, int rows, boolean times) {
+      for (int r = 0; r < rows; ++r) {
+         if (r > 0)
+            sb.append(", ");
+         sb.append(ROW);
+         if (times)
+            sb.append(TIMES);
+         sb.append(')');
+      }//end for
+   }//end values
+
+   private void quarantine(String where, String[] record, String reason, Result result) throws IOException {
+      List<String> fields = new ArrayList<String>(Arrays.asList(record));
+      fields.add(0, where);
+      fields.add(reason);
+      writeReject(fields);
+      ++result.quarantined;
+   }//end quarantine
+
+   private void quarantine(Pending p, String reason, Result result) throws IOException {
+      List<String> fields = new ArrayList<String>();
+      fields.add("coalesced from " + p.events + " events");
+      for (int c = 0; c < COLUMNS.length; ++c)
+         fields.add(c == ID ? p.trackingID : c == TIME ? new Timestamp(p.lastUpdate).toString() : p.values[c]);
+      fields.add(reason);
+      writeReject(fields);
+      result.quarantined += p.events;
+   }//end quarantine
+
+   private void writeReject(List<String> fields) throws IOException {
+      if (this._rejects == null)
+         this._rejects = new PrintWriter(new OutputStreamWriter(
+            new FileOutputStream(this._quarantine, true), StandardCharsets.UTF_8));
+      StringBuilder sb = new StringBuilder();
+      for (String f : fields) {
+         if (sb.length() > 0)
+            sb.append(',');
+         if (f != null)
+            sb.append('"').append(f.replace("\"", "\"\"")).append('"');
+      }//end for
+      this._rejects.println(sb);
+   }//end writeReject
+
+   /**
+    * Usage: TrackingFeedLoader dbname port user feed [--quarantine file]
+    *        [--chunk n]
+    */
+   public static void main(String[] args) {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] " + TrackingFeedLoader.class.getName()
+            + " <dbname> <port> <user> <feed file or dir> [--quarantine <file>] [--chunk <rows>]");
+         return;
+      }//end if
+
+      File feed = new File(args[3]);
+      File quarantine = new File(feed.getPath() + ".rejected.csv");
+      int chunk = DEFAULT_CHUNK_SIZE;
+      for (int i = 4; i + 1 < args.length; i += 2) {
+         String v = args[i + 1];
+         switch (args[i]) {
+            case "--quarantine": quarantine = new File(v); break;
+            case "--chunk": chunk = Integer.parseInt(v); break;
+            default: System.err.println("Unknown option " + args[i]); return;
+         }//end switch
+      }//end for
+
+      GameRental esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         TrackingFeedLoader loader = new TrackingFeedLoader(esql, quarantine);
+         loader.setChunkSize(chunk);
+         Result r = loader.load(feed);
+         System.out.println(r);
+         if (r.quarantined > 0)
+            System.out.println("quarantined events written to " + quarantine);
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end TrackingFeedLoader
@@ -3,3 +3,45 @@ DROP INDEX IF EXISTS catalog_price;
 CREATE INDEX catalog_price
 ON Catalog
 (price);
+
+DROP INDEX IF EXISTS rentalorder_login_timestamp;
+
+/* keyset pagination of a user's rental history, newest first */
+CREATE INDEX rentalorder_login_timestamp
+ON RentalOrder
+(login, orderTimestamp DESC, rentalOrderID DESC);
+
+DROP INDEX IF EXISTS rentalorder_duedate;
+
+/* orders whose due date passed since the last OverdueTracker run */
+CREATE INDEX rentalorder_duedate
+ON RentalOrder
+(dueDate);
+
+DROP INDEX IF EXISTS favoritegames_gameid;
+
+/* fans of a game; the primary key covers a user's favorites */
+CREATE INDEX favoritegames_gameid
+ON FavoriteGames
+(gameID);
+
+DROP INDEX IF EXISTS catalog_genre;
+
+/* browsing the catalog by genre */
+CREATE INDEX catalog_genre
+ON Catalog
+(genre);
+
+DROP INDEX IF EXISTS rentalorder_ordertimestamp;
+
+/* orders placed since a point in time, for Analytics.merge() */
+CREATE INDEX rentalorder_ordertimestamp
+ON RentalOrder
+(orderTimestamp);
+
+DROP INDEX IF EXISTS trackinginfo_rentalorderid;
+
+/* the tracking row of an order, and the cascade when an order is deleted */
+CREATE INDEX trackinginfo_rentalorderid
+ON TrackingInfo
+(rentalOrderID);
@@ -3,6 +3,14 @@ DROP TABLE IF EXISTS Catalog CASCADE;
 DROP TABLE IF EXISTS RentalOrder CASCADE;
 DROP TABLE IF EXISTS TrackingInfo CASCADE;
 DROP TABLE IF EXISTS GamesInOrder CASCADE;
+DROP TABLE IF EXISTS FavoriteGames CASCADE;
+DROP TABLE IF EXISTS Inventory CASCADE;
+DROP TABLE IF EXISTS ReturnedOrders CASCADE;
+DROP TABLE IF EXISTS ArchivedMonths CASCADE;
+DROP TABLE IF EXISTS ArchivedRentals CASCADE;
+DROP TABLE IF EXISTS OverdueWatermark CASCADE;
+DROP SEQUENCE IF EXISTS rentalorder_id_seq;
+DROP SEQUENCE IF EXISTS trackingid_seq;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -53,3 +61,59 @@ CREATE TABLE GamesInOrder ( rentalOrderID varchar(50) NOT NULL,
                            FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
                            ON DELETE CASCADE
 );
+
+/* favorites; replaces the free-text Users.favGames, see Favorites.migrate() */
+CREATE TABLE FavoriteGames ( login varchar(50) NOT NULL,
+                            gameID varchar(50) NOT NULL,
+                            PRIMARY KEY(login, gameID),
+                            FOREIGN KEY(login) REFERENCES Users(login)
+                            ON DELETE CASCADE ON UPDATE CASCADE,
+                            FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
+                            ON DELETE CASCADE
+);
+
+/* copies of each game; orders take them with a conditional decrement, see Inventory */
+CREATE TABLE Inventory ( gameID varchar(50) NOT NULL,
+                        unitsOwned integer NOT NULL,
+                        unitsAvailable integer NOT NULL,
+                        PRIMARY KEY(gameID),
+                        FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
+                        ON DELETE CASCADE,
+                        CHECK (unitsAvailable >= 0 AND unitsAvailable <= unitsOwned)
+);
+
+/* rental orders whose games came back and were put back in Inventory */
+CREATE TABLE ReturnedOrders ( rentalOrderID varchar(50) NOT NULL,
+                             returnedDate timestamp NOT NULL,
+                             PRIMARY KEY(rentalOrderID),
+                             FOREIGN KEY(rentalOrderID) REFERENCES RentalOrder(rentalOrderID)
+                             ON DELETE CASCADE
+);
+
+/* months of orders moved to the archive files, see OrderArchive */
+CREATE TABLE ArchivedMonths ( month date NOT NULL,
+                             generation integer NOT NULL,
+                             orders integer NOT NULL,
+                             archivedAt timestamp NOT NULL,
+                             PRIMARY KEY(month)
+);
+
+/* games in each user's archived orders that were never returned, all of them overdue */
+CREATE TABLE ArchivedRentals ( login varchar(50) NOT NULL,
+                              noOfGames integer NOT NULL,
+                              PRIMARY KEY(login),
+                              FOREIGN KEY(login) REFERENCES Users(login)
+                              ON DELETE CASCADE
+);
+
+/* progress of the OverdueTracker, one row shared by every process */
+CREATE TABLE OverdueWatermark ( id integer NOT NULL CHECK (id = 1),
+                               watermark timestamp NOT NULL,
+                               lastFull timestamp NOT NULL,
+                               PRIMARY KEY(id)
+);
+
+/* ID blocks for gamerentalorderNNNN and trackingidNNNN.
+   INCREMENT BY must match IdAllocator.DEFAULT_BLOCK_SIZE */
+CREATE SEQUENCE rentalorder_id_seq INCREMENT BY 50;
+CREATE SEQUENCE trackingid_seq INCREMENT BY 50;
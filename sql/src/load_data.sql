@@ -18,3 +18,17 @@ WITH DELIMITER ',' CSV HEADER;
 COPY GamesInOrder
 FROM '/data/home/csmajs/vsing035/cs166_project_phase3/data/gamesinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+/* Every game starts with 5 copies, see Inventory.DEFAULT_UNITS */
+INSERT INTO Inventory (gameID, unitsOwned, unitsAvailable)
+SELECT gameID, 5, 5 FROM Catalog
+ON CONFLICT DO NOTHING;
+
+/* Start the ID sequences after the highest loaded IDs */
+SELECT setval('rentalorder_id_seq',
+              (SELECT COALESCE(MAX(CAST(substring(rentalOrderID FROM 16) AS integer)), 0) + 1 FROM RentalOrder),
+              false);
+
+SELECT setval('trackingid_seq',
+              (SELECT COALESCE(MAX(CAST(substring(trackingID FROM 11) AS integer)), 0) + 1 FROM TrackingInfo),
+              false);